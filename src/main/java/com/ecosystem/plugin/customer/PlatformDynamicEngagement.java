@@ -1,17 +1,21 @@
 package com.ecosystem.plugin.customer;
 
 import com.datastax.oss.driver.api.core.CqlSession;
+import com.ecosystem.plugin.lib.BetaSampler;
+import com.ecosystem.plugin.lib.GeoIndex;
+import com.ecosystem.plugin.lib.OpeningHours;
+import com.ecosystem.plugin.lib.OptionsIndex;
+import com.ecosystem.plugin.lib.TopKRanker;
+import com.ecosystem.runtime.rewards.ArmStatistics;
+import com.ecosystem.runtime.rewards.LinearBandit;
 import com.ecosystem.utils.DataTypeConversions;
-import com.ecosystem.utils.JSONArraySort;
 import com.ecosystem.utils.log.LogManager;
 import com.ecosystem.utils.log.Logger;
 import hex.genmodel.easy.EasyPredictModelWrapper;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
+import java.util.Map;
 
 /**
  * ECOSYSTEM.AI INTERNAL PLATFORM SCORING
@@ -92,17 +96,41 @@ public class PlatformDynamicEngagement extends PostScoreSuper {
 			}
 			/***************************************************************************************************/
 
-			JSONArray finalOffers = new JSONArray();
-			int offerIndex = 0;
+			TopKRanker<JSONObject> ranker = TopKRanker.of(params, settings.getPredictorOfferBudget() != null);
 			int explore = 0;
 			explore = params.getInt("explore");
-			int[] optionsSequence = generateOptionsSequence(options.length(), options.length());
 			String contextual_variable_one = String.valueOf(work.get("contextual_variable_one"));
 			String contextual_variable_two = String.valueOf(work.get("contextual_variable_two"));
-
-			for(int j : optionsSequence) {
-				if (j > params.getInt("resultcount")) break;
-
+			String campaign = String.valueOf(params.opt("name"));
+			ArmStatistics armStatistics = ArmStatistics.get();
+			JSONObject window = randomisation.optJSONObject("window");
+			/** Thompson draw per request instead of the stored arm_reward, e.g. realtime_thompson:true or {prune_above:1000, prune_z:3.72} */
+			JSONObject realtime = randomisation.optBoolean("realtime_thompson", false) ? new JSONObject() : randomisation.optJSONObject("realtime_thompson");
+			/** approach linUCB or linearThompson: offers scored from the customer features by the online linear models */
+			LinearBandit.Model linear = LinearBandit.isLinear(randomisation) ? LinearBandit.get().model(campaign, randomisation) : null;
+			double[] context = linear != null ? linear.context(featuresObj) : null;
+
+			/** Opening hours of the locations compiled per corpus, the request day and time read once, e.g. {day:'monday', time:'11:00 AM'} */
+			Object version = corpusVersion(optionParams);
+			OpeningHours openingHours = locations != null ? OpeningHours.of(campaign, version, locations) : null;
+			int minuteOfWeek = OpeningHours.minuteOfWeek(work.has("day") ? String.valueOf(work.get("day")) : null,
+					work.has("time") ? String.valueOf(work.get("time")) : null);
+
+			/** Options of the request context, highest arm_reward first */
+			OptionsIndex optionsIndex = OptionsIndex.of(campaign, version, options);
+			/** Without online statistics or draws the reward is the stored arm_reward, the first K eligible options are the top K */
+			boolean presorted = armStatistics == null && realtime == null && linear == null;
+
+			/** Nearest open locations to the request lat/lon as candidates, e.g. geo:{nearest:20, radius_km:25} in the dynamic parameters */
+			Map<String, Double> nearby = nearby(campaign, version, optionParams.optJSONObject("geo"), locations, work, openingHours, minuteOfWeek);
+			int[] candidates = nearby != null
+					? optionsIndex.lookup(contextual_variable_one, contextual_variable_two, nearby.keySet())
+					: optionsIndex.lookup(contextual_variable_one, contextual_variable_two);
+
+			boolean prune = realtime != null && candidates.length > realtime.optInt("prune_above", 1000);
+			double pruneZ = realtime != null ? realtime.optDouble("prune_z", 3.72) : 0.0;
+
+			for (int j : candidates) {
 				JSONObject option = options.getJSONObject(j);
 
 				/** Skip the item if offer matrix does not contain option */
@@ -118,173 +146,188 @@ public class PlatformDynamicEngagement extends PostScoreSuper {
 					LOGGER.warn("BEWARE, DEFAULT OFFER GENERATED. IN OPTIONS STORE AND NOT OFFER MATRIX: " + option.getString("optionKey"));
 				}
 
-				/** Test eligibility TODO: CREATE A SEPARATE SUPERCLASS WITH THIS IN IT! */
-				if (locations != null) {
-					try {
-						if (locations.getJSONObject(offer).has("open_times")) {
-							String day = params.getJSONObject("in_params").getString("day");
-							String time = params.getJSONObject("in_params").getString("time");
-
-							if (locations.getJSONObject(offer).getJSONObject("open_times").has(day)) {
-								if (locations.getJSONObject(offer).getJSONObject("open_times").getJSONObject(day).has("opening1") &&
-										locations.getJSONObject(offer).getJSONObject("open_times").getJSONObject(day).has("closing1")) {
-
-									LOGGER.info("It's Open!");
-									if (!locations.getJSONObject(offer).getJSONObject("open_times").getString("operatingStatus").equals("operating"))
-										continue;
-
-									SimpleDateFormat sdf = new SimpleDateFormat("hh:mm a");
-
-									Date opening = sdf.parse(locations.getJSONObject(offer).getJSONObject("open_times").getJSONObject(day).getString("opening1"));
-									Date closing = sdf.parse(locations.getJSONObject(offer).getJSONObject("open_times").getJSONObject(day).getString("closing1"));
-									if (closing.before(opening)) {
-										Calendar cal = Calendar.getInstance();
-										cal.setTime(closing);
-										cal.add(Calendar.DATE, 1);
-										closing = cal.getTime();
-									}
-									Date time_now = sdf.parse(time);
-									if (time_now.after(opening) && time_now.before(closing)) {
-										LOGGER.info("It's Open!");
-									} else {
-										continue;
-									}
-
-								}
-							}
+				/** Test eligibility: locations closed at the request day and time */
+				if (openingHours != null && !openingHours.isOpen(offer, minuteOfWeek))
+					continue;
+
+				/** Exploring, the option is sampled on a random key before its reward is worked out */
+				double rank = 0.0;
+				if (ranker.isExplore()) {
+					rank = ranker.key(0.0, option.has("weighting") ? (double) DataTypeConversions.getDoubleFromIntLong(option.get("weighting")) : 1.0);
+					if (!ranker.accepts(rank))
+						continue;
+				}
+
+				double alpha = (double) DataTypeConversions.getDoubleFromIntLong(option.get("alpha"));
+				double beta = (double) DataTypeConversions.getDoubleFromIntLong(option.get("beta"));
+				double accuracy = 0.001;
+				if (option.has("accuracy"))
+					accuracy = (double) DataTypeConversions.getDoubleFromIntLong(option.get("accuracy"));
+
+				/***************************************************************************************************/
+				/* r IS THE RANDOMIZED SCORE VALUE */
+				double p = 0.0;
+				double arm_reward = 0.001;
+				double learning_reward = 1.0;
+
+				if (option.has("arm_reward")) {
+					p = (double) option.get("arm_reward");
+				} else {
+					p = arm_reward;
+				}
+
+				/** Online counts not yet in the options store, or the recent counts of the window, replace the stored reward
+				 * (a draw from the stored counts) by a draw from Beta(live alpha, live beta) */
+				if (armStatistics != null) {
+					String optionOne = option.has("contextual_variable_one") ? String.valueOf(option.get("contextual_variable_one")) : "";
+					String optionTwo = option.has("contextual_variable_two") ? String.valueOf(option.get("contextual_variable_two")) : "";
+					double liveAlpha = alpha;
+					double liveBeta = beta;
+					double[] recent = window != null ? armStatistics.windowed(campaign, offer, optionOne, optionTwo) : null;
+					if (recent != null) {
+						liveAlpha = window.optDouble("prior_alpha", 1.0) + recent[0];
+						liveBeta = window.optDouble("prior_beta", 1.0) + recent[1];
+					} else {
+						double[] pending = armStatistics.pending(campaign, offer, optionOne, optionTwo);
+						liveAlpha += pending[0];
+						liveBeta += pending[1];
+					}
+					if ((liveAlpha != alpha || liveBeta != beta) && liveAlpha > 0 && liveBeta > 0) {
+						alpha = liveAlpha;
+						beta = liveBeta;
+						/** Linear and real-time Thompson set the reward below */
+						if (linear == null && realtime == null) {
+							double draw = BetaSampler.sample(alpha, beta);
+							if (draw == draw) p = draw;
 						}
-					} catch (Exception e) {
-						LOGGER.info("\n\n" + offer + " -> Oh no, there's something wrong with the time range check, and will be ignored! use api params: {day:'monday', 'time': '11.00 AM'} " + e.getMessage() + "\n\n");
 					}
 				}
 
+				/** Linear bandit: the reward is the score of the offer for the customer features.
+				 * Real-time Thompson: draw the reward from Beta(alpha, beta), arms that cannot reach the top K are not drawn.
+				 * Pruning is lossy: a skipped arm would have drawn above its bound with about 1.2e-4 chance at prune_z 3.72 */
+				if (linear != null) {
+					p = linear.score(offer, context);
+				} else if (realtime != null) {
+					if (!ranker.isExplore() && prune && !ranker.accepts(BetaSampler.upper(alpha, beta, pruneZ)))
+						continue;
+					double draw = BetaSampler.sample(alpha, beta);
+					if (draw == draw) p = draw;
+				}
+				arm_reward = p;
 
-				String contextual_variable_one_Option = "";
-				if (option.has("contextual_variable_one") && !contextual_variable_one.equals(""))
-					contextual_variable_one_Option = String.valueOf(option.get("contextual_variable_one"));
-				String contextual_variable_two_Option = "";
-				if (option.has("contextual_variable_two") && !contextual_variable_two.equals(""))
-					contextual_variable_two_Option = String.valueOf(option.get("contextual_variable_two"));
+				if (option.has("learning_reward")) {
+					learning_reward = (double) option.get("learning_reward");
+				}
 
-				if (contextual_variable_one_Option.equals(contextual_variable_one) && contextual_variable_two_Option.equals(contextual_variable_two)) {
+				/** Check if values are correct */
+				if (p != p) p = 0.0;
+				if (alpha != alpha) alpha = 0.0;
+				if (beta != beta) beta = 0.0;
+				if (arm_reward != arm_reward) arm_reward = 0.0;
+				/***************************************************************************************************/
+
+				/** Options that cannot make the top results are not built */
+				if (!ranker.isExplore()) {
+					rank = arm_reward;
+					if (!ranker.accepts(rank)) {
+						if (presorted) break;
+						continue;
+					}
+				}
 
-					double alpha = (double) DataTypeConversions.getDoubleFromIntLong(option.get("alpha"));
-					double beta = (double) DataTypeConversions.getDoubleFromIntLong(option.get("beta"));
-					double accuracy = 0.001;
-					if (option.has("accuracy"))
-						accuracy = (double) DataTypeConversions.getDoubleFromIntLong(option.get("accuracy"));
+				JSONObject singleOffer = new JSONObject();
+				double offer_value = 1.0;
+				double offer_cost = 1.0;
+				double modified_offer_score = p;
+				if (om) {
+					if (offerMatrixWithKey.has(offer)) {
 
-					/***************************************************************************************************/
-					/* r IS THE RANDOMIZED SCORE VALUE */
-					double p = 0.0;
-					double arm_reward = 0.001;
-					double learning_reward = 1.0;
+						singleOffer = offerMatrixWithKey.getJSONObject(offer);
 
-					if (option.has("arm_reward")) {
-						p = (double) option.get("arm_reward");
-					} else {
-						p = arm_reward;
-					}
-					arm_reward = p;
+						if (singleOffer.has("offer_price"))
+							offer_value = DataTypeConversions.getDouble(singleOffer, "offer_price");
+						if (singleOffer.has("price"))
+							offer_value = DataTypeConversions.getDouble(singleOffer, "price");
 
-					if (option.has("learning_reward")) {
-						learning_reward = (double) option.get("learning_reward");
-					}
+						if (singleOffer.has("offer_cost"))
+							offer_cost = singleOffer.getDouble("offer_cost");
+						if (singleOffer.has("cost"))
+							offer_cost = singleOffer.getDouble("cost");
 
-					/** Check if values are correct */
-					if (p != p) p = 0.0;
-					if (alpha != alpha) alpha = 0.0;
-					if (beta != beta) beta = 0.0;
-					if (arm_reward != arm_reward) arm_reward = 0.0;
-					/***************************************************************************************************/
-
-					JSONObject singleOffer = new JSONObject();
-					double offer_value = 1.0;
-					double offer_cost = 1.0;
-					double modified_offer_score = p;
-					if (om) {
-						if (offerMatrixWithKey.has(offer)) {
-
-							singleOffer = offerMatrixWithKey.getJSONObject(offer);
-
-							if (singleOffer.has("offer_price"))
-								offer_value = DataTypeConversions.getDouble(singleOffer, "offer_price");
-							if (singleOffer.has("price"))
-								offer_value = DataTypeConversions.getDouble(singleOffer, "price");
-
-							if (singleOffer.has("offer_cost"))
-								offer_cost = singleOffer.getDouble("offer_cost");
-							if (singleOffer.has("cost"))
-								offer_cost = singleOffer.getDouble("cost");
-
-							modified_offer_score = p * ((double) offer_value - offer_cost);
-						}
+						modified_offer_score = p * ((double) offer_value - offer_cost);
 					}
-
-					JSONObject finalOffersObject = new JSONObject();
-
-					finalOffersObject.put("offer", offer);
-					finalOffersObject.put("offer_name", offer);
-					if (!option.has("option"))
-						finalOffersObject.put("offer_name_desc", offer);
-					else
-						finalOffersObject.put("offer_name_desc", option.getString("option"));
-					/* process final */
-					finalOffersObject.put("score", p);
-					finalOffersObject.put("final_score", p);
-					finalOffersObject.put("modified_offer_score", modified_offer_score);
-					finalOffersObject.put("offer_value", offer_value);
-					finalOffersObject.put("price", offer_value);
-					finalOffersObject.put("cost", offer_cost);
-
-					finalOffersObject.put("p", p);
-					if (option.has("contextual_variable_one"))
-						finalOffersObject.put("contextual_variable_one", option.getString("contextual_variable_one"));
-					else
-						finalOffersObject.put("contextual_variable_one", "");
-
-					if (option.has("contextual_variable_two"))
-						finalOffersObject.put("contextual_variable_two", option.getString("contextual_variable_two"));
-					else
-						finalOffersObject.put("contextual_variable_two", "");
-
-					finalOffersObject.put("alpha", alpha);
-					finalOffersObject.put("beta", beta);
-					if (!option.has("weighting"))
-						finalOffersObject.put("weighting", -1.0);
-					else
-						finalOffersObject.put("weighting", (double) DataTypeConversions.getDoubleFromIntLong(option.get("weighting")));
-					finalOffersObject.put("explore", explore);
-					finalOffersObject.put("uuid", params.get("uuid"));
-					finalOffersObject.put("arm_reward", arm_reward);
-					finalOffersObject.put("learning_reward", learning_reward);
-
-					/* Debugging variables */
-					if (!option.has("expected_takeup"))
-						finalOffersObject.put("expected_takeup", -1.0);
-					else
-						finalOffersObject.put("expected_takeup", (double) DataTypeConversions.getDoubleFromIntLong(option.get("expected_takeup")));
-
-					if (!option.has("propensity"))
-						finalOffersObject.put("propensity", -1.0);
-					else
-						finalOffersObject.put("propensity", (double) DataTypeConversions.getDoubleFromIntLong(option.get("propensity")));
-
-					if (!option.has("epsilon_nominated"))
-						finalOffersObject.put("epsilon_nominated", -1.0);
-					else
-						finalOffersObject.put("epsilon_nominated", (double) DataTypeConversions.getDoubleFromIntLong(option.get("epsilon_nominated")));
-
-					finalOffers.put(offerIndex, finalOffersObject);
-					offerIndex = offerIndex + 1;
 				}
+
+				JSONObject finalOffersObject = new JSONObject();
+
+				finalOffersObject.put("offer", offer);
+				finalOffersObject.put("offer_name", offer);
+				if (!option.has("option"))
+					finalOffersObject.put("offer_name_desc", offer);
+				else
+					finalOffersObject.put("offer_name_desc", option.getString("option"));
+				/* process final */
+				finalOffersObject.put("score", p);
+				finalOffersObject.put("final_score", p);
+				finalOffersObject.put("modified_offer_score", modified_offer_score);
+				finalOffersObject.put("offer_value", offer_value);
+				finalOffersObject.put("price", offer_value);
+				finalOffersObject.put("cost", offer_cost);
+
+				finalOffersObject.put("p", p);
+				if (option.has("contextual_variable_one"))
+					finalOffersObject.put("contextual_variable_one", option.getString("contextual_variable_one"));
+				else
+					finalOffersObject.put("contextual_variable_one", "");
+
+				if (option.has("contextual_variable_two"))
+					finalOffersObject.put("contextual_variable_two", option.getString("contextual_variable_two"));
+				else
+					finalOffersObject.put("contextual_variable_two", "");
+
+				finalOffersObject.put("alpha", alpha);
+				finalOffersObject.put("beta", beta);
+				if (!option.has("weighting"))
+					finalOffersObject.put("weighting", -1.0);
+				else
+					finalOffersObject.put("weighting", (double) DataTypeConversions.getDoubleFromIntLong(option.get("weighting")));
+				finalOffersObject.put("explore", explore);
+				finalOffersObject.put("uuid", params.get("uuid"));
+				finalOffersObject.put("arm_reward", arm_reward);
+				finalOffersObject.put("learning_reward", learning_reward);
+				if (nearby != null)
+					finalOffersObject.put("distance_km", nearby.get(offer));
+
+				/* Debugging variables */
+				if (!option.has("expected_takeup"))
+					finalOffersObject.put("expected_takeup", -1.0);
+				else
+					finalOffersObject.put("expected_takeup", (double) DataTypeConversions.getDoubleFromIntLong(option.get("expected_takeup")));
+
+				if (!option.has("propensity"))
+					finalOffersObject.put("propensity", -1.0);
+				else
+					finalOffersObject.put("propensity", (double) DataTypeConversions.getDoubleFromIntLong(option.get("propensity")));
+
+				if (!option.has("epsilon_nominated"))
+					finalOffersObject.put("epsilon_nominated", -1.0);
+				else
+					finalOffersObject.put("epsilon_nominated", (double) DataTypeConversions.getDoubleFromIntLong(option.get("epsilon_nominated")));
+
+				ranker.add(rank, finalOffersObject);
 			}
 
-			JSONArray sortJsonArray = JSONArraySort.sortArray(finalOffers, "arm_reward", "double", "d");
-			predictModelMojoResult.put("final_result", sortJsonArray);
+			predictModelMojoResult.put("final_result", ranker.toJSONArray());
 
 			predictModelMojoResult = getTopScores(params, predictModelMojoResult);
 
+			/** Every offer returned is an impression for the online statistics, UPDATE only marks a settings reload */
+			if (armStatistics != null)
+				armStatistics.impressions(campaign, String.valueOf(params.opt("uuid")), predictModelMojoResult.optJSONArray("final_result"), window);
+			if (linear != null)
+				LinearBandit.get().impressions(linear, String.valueOf(params.opt("uuid")), predictModelMojoResult.optJSONArray("final_result"), context);
+
 			double endTimePost = System.nanoTime();
 			LOGGER.info("PlatformDynamicEngagement:I001: time in ms: ".concat( String.valueOf((endTimePost - startTimePost) / 1000000) ));
 
@@ -297,4 +340,34 @@ public class PlatformDynamicEngagement extends PostScoreSuper {
 
 	}
 
+	/**
+	 * Version of the corpus for the compiled indexes, "updated" or "version" of the dynamic parameters as set by the corpus
+	 * loader, null when the corpus carries neither. A reload is a new options or locations object and is indexed again
+	 * on its identity, a loader that changes the corpus in place must change its version.
+	 */
+	private static Object corpusVersion(JSONObject optionParams) {
+		if (optionParams.has("updated"))
+			return String.valueOf(optionParams.get("updated"));
+		if (optionParams.has("version"))
+			return String.valueOf(optionParams.get("version"));
+		return null;
+	}
+
+	/**
+	 * Nearest locations to the request, open at the request day and time, with their distance in km.
+	 * Example request in_params: {"lat": -33.92, "lon": 18.42}
+	 * @param geo Dynamic parameters, {"nearest": 20, "radius_km": 25}, radius_km 0 or absent for none
+	 * @return null if geo is not configured or the request has no coordinates
+	 */
+	private static Map<String, Double> nearby(String campaign, Object version, JSONObject geo, JSONObject locations, JSONObject work, OpeningHours openingHours, int minuteOfWeek) {
+		if (geo == null || locations == null)
+			return null;
+		double[] point = GeoIndex.coordinates(work);
+		if (point == null)
+			return null;
+		GeoIndex geoIndex = GeoIndex.of(campaign, version, locations);
+		return GeoIndex.distances(geoIndex.nearest(point[0], point[1], geo.optInt("nearest", 20), geo.optDouble("radius_km", 0.0),
+				location -> openingHours == null || openingHours.isOpen(location, minuteOfWeek)));
+	}
+
 }
@@ -1,8 +1,10 @@
 package com.ecosystem.plugin.customer;
 
 import com.datastax.oss.driver.api.core.CqlSession;
+import com.ecosystem.plugin.lib.TopKRanker;
+import com.ecosystem.runtime.store.ScoreStore;
+import com.ecosystem.runtime.store.ScoreTable;
 import com.ecosystem.utils.DataTypeConversions;
-import com.ecosystem.utils.JSONArraySort;
 import com.ecosystem.utils.log.LogManager;
 import com.ecosystem.utils.log.Logger;
 import hex.genmodel.easy.EasyPredictModelWrapper;
@@ -66,15 +68,18 @@ public class PostScoreBasic extends PostScoreSuper {
 				}
 			}
 
-			JSONArray finalOffers = new JSONArray();
-			int resultcount = (int) params.get("resultcount");
+			/** Only the offers getTopScores can return are kept, best first or a random sample when exploring */
+			TopKRanker<JSONObject> ranker = TopKRanker.of(params, settings.getPredictorOfferBudget() != null);
+
+			/** Precomputed scores from the score table replace the feature store values of "empty score" lookups */
+			boolean precomputed = precomputedOffers(predictModelMojoResult, params, featuresObj, offerWhiteList, ranker);
+			int resultcount = precomputed ? 0 : (int) params.get("resultcount");
 			/* For each offer in offer matrix determine eligibility */
 			/* get selector field from properties: predictor.selector.setup */
 			// String s = new JSONObject(settings.getSelectorSetup()).getJSONObject("lookup").getString("fields");
 
 			/** This loop can be used to add number of offers/options to return result */
 			JSONObject finalOffersObject = new JSONObject();
-			int offerIndex = 0;
 			for (int i = 0; i < resultcount; i++) {
 
 				/** Model type based approaches */
@@ -210,14 +215,11 @@ public class PostScoreBasic extends PostScoreSuper {
 					finalOffersObject.put("spend_limit", budgetSpendLimit);
 				}
 
-				/** Prepare offer array before final sorting */
-				finalOffers.put(offerIndex, finalOffersObject);
-				offerIndex = offerIndex + 1;
+				/** Rank on score */
+				ranker.add(ranker.key(DataTypeConversions.getDouble(finalOffersObject, "score")), finalOffersObject.optDouble("spend_limit", -1), finalOffersObject);
 			}
 
-			/** Sort final offer list based on score */
-			JSONArray sortJsonArray = JSONArraySort.sortArray(finalOffers, "score", "double", "d");
-			predictModelMojoResult.put("final_result", sortJsonArray);
+			predictModelMojoResult.put("final_result", ranker.toJSONArray());
 
 		} catch (Exception e) {
 			LOGGER.error(e);
@@ -231,6 +233,70 @@ public class PostScoreBasic extends PostScoreSuper {
 		return predictModelMojoResult;
 	}
 
+	/**
+	 * Offers for the customer from the precomputed score table (SCORE_TABLE, written by the batch command with --table).
+	 * Only eligibility and budget are applied here, explore/exploit is done by getTopScores. The offer JSON is only built
+	 * for scores that can still make the ranker.
+	 *
+	 * @return false if the model is not an "empty score" lookup, there is no score table or the customer is not in it
+	 */
+	private static boolean precomputedOffers(JSONObject predictModelMojoResult, JSONObject params, JSONObject featuresObj, ArrayList<String> offerWhiteList,
+											 TopKRanker<JSONObject> ranker) {
+		if (!String.valueOf(predictModelMojoResult.opt("type")).toLowerCase().contains("empty score"))
+			return false;
+		ScoreStore store = ScoreStore.get();
+		if (store == null)
+			return false;
+
+		String customer = params.has("customer") ? String.valueOf(params.get("customer")) : String.valueOf(params.getJSONObject("lookup").get("value"));
+		ScoreTable.Scores scores = store.lookup(customer);
+		if (scores == null)
+			return false;
+
+		JSONObject offerMatrixWithKey = params.optJSONObject("offerMatrixWithKey");
+		for (int i = 0; i < scores.size(); i++) {
+			double score = scores.score(i);
+			if (!ranker.isExplore() && !ranker.accepts(score))
+				continue;
+			String offer = scores.offer(i);
+
+			/* If whitelist settings then only allow offers on list */
+			if (!offerWhiteList.isEmpty() && offerWhiteList.stream().noneMatch(offer::equalsIgnoreCase))
+				continue;
+
+			JSONObject offerMatrix = featuresObj;
+			if (offerMatrixWithKey != null && offerMatrixWithKey.has(offer))
+				offerMatrix = offerMatrixWithKey.getJSONObject(offer);
+
+			double rank = ranker.key(score, offerMatrix.optDouble("weighting", 1.0));
+			if (!ranker.accepts(rank))
+				continue;
+
+			JSONObject finalOffersObject = new JSONObject();
+			finalOffersObject.put("offer", offer);
+			finalOffersObject.put("offer_id", offer);
+			finalOffersObject.put("offer_name", offerMatrix.has("offer_name") ? offerMatrix.get("offer_name") : offer);
+			finalOffersObject.put("score", score);
+			finalOffersObject.put("modified_offer_score", score);
+			finalOffersObject.put("price", offerMatrix.has("price") ? offerMatrix.get("price") : 1.0);
+			finalOffersObject.put("cost", offerMatrix.has("cost") ? offerMatrix.get("cost") : 0.0);
+			finalOffersObject.put("offer_details", new JSONObject().put("score_table_age", store.getAgeSeconds()));
+			finalOffersObject.put("offer_value", 1.0);
+			finalOffersObject.put("uuid", params.get("uuid"));
+			finalOffersObject.put("offer_matrix", offerMatrix);
+
+			/** Budget processing option, if it's set in the properties */
+			double spendLimit = -1;
+			if (settings.getPredictorOfferBudget() != null) {
+				JSONObject budgetItem = obtainBudget(offerMatrix, params.getJSONObject("featuresObj"), 1.0);
+				spendLimit = budgetItem.getDouble("spend_limit");
+				finalOffersObject.put("spend_limit", spendLimit);
+			}
+			ranker.add(rank, spendLimit, finalOffersObject);
+		}
+		return true;
+	}
+
 }
 
 /**
@@ -1,8 +1,8 @@
 package com.ecosystem.plugin.customer;
 
 import com.datastax.oss.driver.api.core.CqlSession;
+import com.ecosystem.plugin.lib.TopKRanker;
 import com.ecosystem.utils.GlobalSettings;
-import com.ecosystem.utils.JSONArraySort;
 import com.ecosystem.utils.MathRandomizer;
 import com.ecosystem.utils.log.LogManager;
 import com.ecosystem.utils.log.Logger;
@@ -79,9 +79,8 @@ public class PostScoreRecommender {
 
 			JSONArray domains = predictModelMojoResult.getJSONArray("domains");
 
-			JSONArray finalOffers = new JSONArray();
+			TopKRanker<JSONObject> ranker = TopKRanker.of(params, settings.getPredictorOfferBudget() != null);
 			int resultcount = (int) params.get("resultcount");
-			int offerIndex = 0;
 
 			/** Select top items based on number of offers to present */
 			for (int i = 0; i < resultcount; i++) {
@@ -105,13 +104,11 @@ public class PostScoreRecommender {
 				finalOffersObject.put("p", p);
 				finalOffersObject.put("explore", explore);
 
-				/** Prepare array before final sort */
-				finalOffers.put(offerIndex, finalOffersObject);
-				offerIndex = offerIndex + 1;
+				/** Rank on score */
+				ranker.add(ranker.key(p), finalOffersObject);
 			}
 
-			JSONArray sortJsonArray = JSONArraySort.sortArray(finalOffers, "score", "double", "d");
-			predictModelMojoResult.put("final_result", sortJsonArray);
+			predictModelMojoResult.put("final_result", ranker.toJSONArray());
 
 		} catch (Exception e) {
 			e.printStackTrace();
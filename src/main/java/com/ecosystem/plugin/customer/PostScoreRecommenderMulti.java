@@ -1,10 +1,11 @@
 package com.ecosystem.plugin.customer;
 
 import com.datastax.oss.driver.api.core.CqlSession;
+import com.ecosystem.plugin.lib.MultiModelScorer;
 import com.ecosystem.plugin.lib.ScoreAsyncItems;
+import com.ecosystem.plugin.lib.TopKRanker;
 import com.ecosystem.utils.DataTypeConversions;
 import com.ecosystem.utils.GlobalSettings;
-import com.ecosystem.utils.JSONArraySort;
 import com.ecosystem.utils.MathRandomizer;
 import com.ecosystem.utils.log.LogManager;
 import com.ecosystem.utils.log.Logger;
@@ -70,7 +71,7 @@ public class PostScoreRecommenderMulti {
         else
             LOGGER.info("getPostPredict:I001aa: No in_balance specified, default used. (1000.00)");
 
-        JSONArray finalOffers = new JSONArray();
+        TopKRanker<JSONObject> ranker = TopKRanker.of(params, settings.getPredictorOfferBudget() != null);
 
         /* Setup JSON objects for specific prediction case */
         JSONObject featuresObj = predictModelMojoResult.getJSONObject("featuresObj");
@@ -88,31 +89,52 @@ public class PostScoreRecommenderMulti {
         // JSONArray domains = predictModelMojoResult.getJSONArray("domains");
 
         int resultcount = (int) params.get("resultcount");
-        int offerIndex = 0;
 
         /** Async processing scoring across all models loaded per offer */
         JSONObject domainsProbabilityObj = new JSONObject();
         if (predictModelMojoResult.has("domainsProbabilityObj"))
             domainsProbabilityObj = predictModelMojoResult.getJSONObject("domainsProbabilityObj");
 
+        /** Explore requests draw a weighted random order of the offers that have a model, only the first resultcount are
+         * built and only scored when detail asks for scores. Without model_names a model is only known from scoring. */
+        boolean scored = true;
         JSONObject resultScore = new JSONObject();
-        try {
-            double startTimePost1 = System.nanoTime();
-
-            RowData row = modelPredictWorkerH2O.toRowData((JSONObject) predictModelMojoResult.get("features"));
-            resultScore = scoreAsyncItems.allOfAsyncScoring(offerMatrix, params, models, row, domainsProbabilityObj);
-
-            double endTimePost1 = System.nanoTime();
-            LOGGER.info("scoreAsyncItems.allOfAsyncScoring:I0001a: Async process time in ms: ".concat( String.valueOf((double) ((endTimePost1 - startTimePost1) / 1000000)) ));
-        } catch (ExecutionException e) {
-            e.printStackTrace();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        if (ranker.isExplore()) {
+            JSONObject modelNames = params.optJSONObject("model_names");
+            JSONArray order = exploreOrder(offerMatrix, modelNames, models);
+            scored = work.optString("detail", "").contains("score") || modelNames == null;
+            if (!scored) {
+                offerMatrix = new JSONArray();
+                for (int i = 0; i < order.length() && i < resultcount; i++) {
+                    JSONObject singleOffer = order.getJSONObject(i);
+                    offerMatrix.put(singleOffer);
+                    resultScore.put(DataTypeConversions.getString(singleOffer.getString("offer_id")) + "_model_index",
+                            modelNames.getInt(singleOffer.get("offer_id") + ".zip"));
+                }
+            } else {
+                /** Offers the scoring drops are replaced by the next ones in the order until resultcount are scored */
+                JSONArray newOfferMatrix = new JSONArray();
+                for (int from = 0; from < order.length() && newOfferMatrix.length() < resultcount; ) {
+                    JSONArray next = new JSONArray();
+                    for (; from < order.length() && next.length() < resultcount - newOfferMatrix.length(); from++)
+                        next.put(order.get(from));
+                    JSONObject nextScore = score(next, params, models, predictModelMojoResult, domainsProbabilityObj);
+                    for (String key : nextScore.keySet()) {
+                        if (!key.equals("newOfferMatrix"))
+                            resultScore.put(key, nextScore.get(key));
+                    }
+                    for (Object singleOffer : nextScore.getJSONArray("newOfferMatrix"))
+                        newOfferMatrix.put(singleOffer);
+                }
+                resultScore.put("newOfferMatrix", newOfferMatrix);
+                offerMatrix = newOfferMatrix;
+            }
+        } else {
+            resultScore = score(offerMatrix, params, models, predictModelMojoResult, domainsProbabilityObj);
+            /** All items are excluded that are not active and no scores */
+            offerMatrix = resultScore.getJSONArray("newOfferMatrix");
         }
 
-        /** All items are excluded that are not active and no scores */
-        offerMatrix = resultScore.getJSONArray("newOfferMatrix");
-
         /** Select top items based on number of offers to present */
         for (int i = 0; i < offerMatrix.length(); i++) {
             JSONObject singleOffer = offerMatrix.getJSONObject(i);
@@ -143,10 +165,16 @@ public class PostScoreRecommenderMulti {
 
             /*******************************************************************************/
 
-            double p = resultScore.getDouble(offer_id);
+            /** Unscored explore offers are -1 */
+            double p = scored ? resultScore.getDouble(offer_id) : -1.0;
 
             /*******************************************************************************/
 
+            /** Offers that cannot make the top results are not built */
+            double rank = ranker.key(p, singleOffer.optDouble("weighting", 1.0));
+            if (!ranker.accepts(rank))
+                continue;
+
             /** Multi-model needs to store the model for logging - DO NOT REMOVE THIS!*/
             finalOffersObject.put("model_name", offer_id + ".zip");
             finalOffersObject.put("model_index", resultScore.get(offer_id + "_model_index"));
@@ -168,12 +196,11 @@ public class PostScoreRecommenderMulti {
             finalOffersObject.put("p", p);
             finalOffersObject.put("explore", explore);
 
-            /** Prepare array before final sort */
-            finalOffers.put(offerIndex, finalOffersObject);
-            offerIndex = offerIndex + 1;
+            /** Rank on score */
+            ranker.add(rank, finalOffersObject);
         }
 
-        JSONArray sortJsonArray = JSONArraySort.sortArray(finalOffers, "score", "double", "d");
+        JSONArray sortJsonArray = ranker.toJSONArray();
         predictModelMojoResult.put("final_result", sortJsonArray);
 
         predictModelMojoResult = getTopScores(params, predictModelMojoResult);
@@ -195,6 +222,91 @@ public class PostScoreRecommenderMulti {
 
     }
 
+    /**
+     * Score the offers with the batched multi-model scorer when it is enabled, with the async item scoring otherwise.
+     * @return scores by offer_id, offer_id_model_index and newOfferMatrix, empty scores if scoring was interrupted
+     */
+    private JSONObject score(JSONArray offerMatrix, JSONObject params, EasyPredictModelWrapper[] models,
+                             JSONObject predictModelMojoResult, JSONObject domainsProbabilityObj) {
+        JSONObject resultScore = new JSONObject().put("newOfferMatrix", new JSONArray());
+        try {
+            double startTimePost1 = System.nanoTime();
+
+            RowData row = modelPredictWorkerH2O.toRowData((JSONObject) predictModelMojoResult.get("features"));
+            MultiModelScorer multiModelScorer = MultiModelScorer.get();
+            if (multiModelScorer != null && params.has("model_names"))
+                resultScore = batchScoring(multiModelScorer, offerMatrix, params, models, predictModelMojoResult.getJSONObject("features"), row);
+            else
+                resultScore = scoreAsyncItems.allOfAsyncScoring(offerMatrix, params, models, row, domainsProbabilityObj);
+
+            double endTimePost1 = System.nanoTime();
+            LOGGER.info("scoreAsyncItems.allOfAsyncScoring:I0001a: Async process time in ms: ".concat( String.valueOf((double) ((endTimePost1 - startTimePost1) / 1000000)) ));
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        return resultScore;
+    }
+
+    /**
+     * Score the model of every offer, offer_id + ".zip" in model_names, with the batched multi-model scorer.
+     * @return scores in the form of ScoreAsyncItems.allOfAsyncScoring: offer_id, offer_id_model_index and newOfferMatrix
+     * with the offers that have a model and a score
+     */
+    private static JSONObject batchScoring(MultiModelScorer multiModelScorer, JSONArray offerMatrix, JSONObject params,
+                                           EasyPredictModelWrapper[] models, JSONObject features, RowData row) {
+        JSONObject modelNames = params.getJSONObject("model_names");
+        int size = offerMatrix.length();
+        EasyPredictModelWrapper[] offerModels = new EasyPredictModelWrapper[size];
+        String[] names = new String[size];
+        int[] indexes = new int[size];
+        for (int i = 0; i < size; i++) {
+            JSONObject singleOffer = offerMatrix.optJSONObject(i);
+            if (singleOffer == null || !singleOffer.has("offer_id")) continue;
+            names[i] = singleOffer.get("offer_id") + ".zip";
+            indexes[i] = modelNames.optInt(names[i], -1);
+            if (indexes[i] >= 0 && indexes[i] < models.length)
+                offerModels[i] = models[indexes[i]];
+        }
+
+        MultiModelScorer.Result scores = multiModelScorer.score(offerModels, names, features, row);
+        if (scores.getDropped() > 0)
+            LOGGER.warn("PostScoreRecommenderMulti:W001: " + scores.getDropped() + " models dropped, slow or failed");
+
+        JSONObject resultScore = new JSONObject();
+        JSONArray newOfferMatrix = new JSONArray();
+        for (int i = 0; i < size; i++) {
+            double p = scores.score(i);
+            if (offerModels[i] == null || p != p) continue;
+            String offer_id = DataTypeConversions.getString(offerMatrix.getJSONObject(i).getString("offer_id"));
+            resultScore.put(offer_id, p);
+            resultScore.put(offer_id + "_model_index", indexes[i]);
+            newOfferMatrix.put(offerMatrix.getJSONObject(i));
+        }
+        resultScore.put("newOfferMatrix", newOfferMatrix);
+        return resultScore;
+    }
+
+    /**
+     * Weighted random order of the offer matrix for explore requests: offers need an offer_id and, when model_names is
+     * set, a model in it, and are weighted by "weighting" when set.
+     * @return the offers in sampled order, a weighted sample without replacement of any length is a prefix of it
+     */
+    static JSONArray exploreOrder(JSONArray offerMatrix, JSONObject modelNames, EasyPredictModelWrapper[] models) {
+        TopKRanker<JSONObject> sample = new TopKRanker<>(offerMatrix.length(), false, true);
+        for (int i = 0; i < offerMatrix.length(); i++) {
+            JSONObject singleOffer = offerMatrix.optJSONObject(i);
+            if (singleOffer == null || !singleOffer.has("offer_id")) continue;
+            if (modelNames != null) {
+                int index = modelNames.optInt(singleOffer.get("offer_id") + ".zip", -1);
+                if (index < 0 || models == null || index >= models.length || models[index] == null) continue;
+            }
+            sample.add(sample.key(0.0, singleOffer.optDouble("weighting", 1.0)), singleOffer);
+        }
+        return sample.toJSONArray();
+    }
+
     private static JSONObject getExplore(JSONObject params, double epsilonIn, String name) {
         double rand = MathRandomizer.getRandomDoubleBetweenRange(0, 1);
         double epsilon = epsilonIn;
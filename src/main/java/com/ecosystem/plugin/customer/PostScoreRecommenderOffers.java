@@ -1,8 +1,8 @@
 package com.ecosystem.plugin.customer;
 
 import com.datastax.oss.driver.api.core.CqlSession;
+import com.ecosystem.plugin.lib.TopKRanker;
 import com.ecosystem.utils.DataTypeConversions;
-import com.ecosystem.utils.JSONArraySort;
 import com.ecosystem.utils.log.LogManager;
 import com.ecosystem.utils.log.Logger;
 import hex.genmodel.easy.EasyPredictModelWrapper;
@@ -44,8 +44,7 @@ public class PostScoreRecommenderOffers extends PostScoreSuper {
             else
                 LOGGER.info("getPostPredict:I001aa: No in_balance specified, default used. (1000.00)");
 
-            JSONArray sortJsonArray = new JSONArray();
-            JSONArray finalOffers = new JSONArray();
+            TopKRanker<JSONObject> ranker = TopKRanker.of(params, settings.getPredictorOfferBudget() != null);
 
             /* Setup JSON objects for specific prediction case */
             JSONObject featuresObj = predictModelMojoResult.getJSONObject("featuresObj");
@@ -66,7 +65,6 @@ public class PostScoreRecommenderOffers extends PostScoreSuper {
                 LOGGER.error("getPostPredict:E001b:Model could not be loaded, check deployment path: " + e);
             }
 
-            int offerIndex = 0;
             int explore = (int) params.get("explore");
 
             /** Select top items based on number of offers to present */
@@ -109,6 +107,11 @@ public class PostScoreRecommenderOffers extends PostScoreSuper {
                 double modified_offer_score = 1.0;
                 modified_offer_score = p * ((double) offer_value - offer_cost);
 
+                /** Offers that cannot make the top results, or the explore sample, are not built */
+                double rank = ranker.key(modified_offer_score, singleOffer.optDouble("weighting", 1.0));
+                if (!ranker.accepts(rank))
+                    continue;
+
                 finalOffersObject.put("offer", offer_id);
                 finalOffersObject.put("offer_name", offer_name);
                 finalOffersObject.put("offer_name_desc", offer_name + " - " + i);
@@ -126,13 +129,11 @@ public class PostScoreRecommenderOffers extends PostScoreSuper {
                 finalOffersObject.put("p", p);
                 finalOffersObject.put("explore", explore);
 
-                /** Prepare array before final sort */
-                finalOffers.put(offerIndex, finalOffersObject);
-                offerIndex = offerIndex + 1;
+                /** Rank on modified_offer_score */
+                ranker.add(rank, finalOffersObject);
             }
 
-            sortJsonArray = JSONArraySort.sortArray(finalOffers, "modified_offer_score", "double", "d");
-            predictModelMojoResult.put("final_result", sortJsonArray);
+            predictModelMojoResult.put("final_result", ranker.toJSONArray());
 
             /** Select the correct number of offers */
             predictModelMojoResult = getTopScores(params, predictModelMojoResult);
@@ -1,17 +1,29 @@
 package com.ecosystem.plugin.customer;
 
 import com.datastax.oss.driver.api.core.CqlSession;
+import com.ecosystem.runtime.data.LogPartitions;
+import com.ecosystem.runtime.rewards.LoggingSchema;
 import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import org.bson.Document;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * Perform a mongo lookup and store the results in params for subsequent usage
+ *
+ * The logging details lookup reads the base logging collections. With logging.partition set the results are topped up
+ * from the partitions of the response window before the hot window, newest first, see LogPartitions.
  */
 public class PreScoreLookup extends PreScoreSuper {
 
+    private static final int LIMIT = 100;
+
     public PreScoreLookup() throws Exception {
 
     }
@@ -32,8 +44,13 @@ public class PreScoreLookup extends PreScoreSuper {
     public static JSONObject getPrePredict(MongoClient mongoClient, JSONObject params, CqlSession session) throws IOException {
         try {
             /* Get the data from the logs */
-            JSONArray resultArrayContacts = getContactsLoggingDetails(mongoClient, params, true, true, false, "100", "", "");
-            JSONArray resultArrayResponses = getResponseLoggingDetails(mongoClient, params, true, true, true, "100", "", "");
+            JSONArray resultArrayContacts = getContactsLoggingDetails(mongoClient, params, true, true, false, String.valueOf(LIMIT), "", "");
+            JSONArray resultArrayResponses = getResponseLoggingDetails(mongoClient, params, true, true, true, String.valueOf(LIMIT), "", "");
+
+            /* Older logs are in the partitions */
+            LoggingSchema schema = LoggingSchema.of(new JSONObject());
+            fromPartitions(mongoClient, schema, schema.getContacts(), params, resultArrayContacts);
+            fromPartitions(mongoClient, schema, schema.getResponses(), params, resultArrayResponses);
 
             /* Write the results to params to be passed through the runtime */
             JSONObject loggingDetails = new JSONObject();
@@ -46,4 +63,27 @@ public class PreScoreLookup extends PreScoreSuper {
         return params;
     }
 
+    /**
+     * Add the customer's documents from the partitions of the base collection, newest first, up to LIMIT results.
+     * Only partitions within the response window before the hot window are read, the lookup key is indexed in them.
+     */
+    static void fromPartitions(MongoClient mongoClient, LoggingSchema schema, String base, JSONObject params, JSONArray results) {
+        LogPartitions partitions = schema.getPartitions();
+        JSONObject lookup = params.optJSONObject("lookup");
+        if (!partitions.isEnabled() || lookup == null || !lookup.has("value") || results.length() >= LIMIT) return;
+
+        Object value = lookup.get("value");
+        MongoDatabase database = mongoClient.getDatabase(schema.getDatabase());
+        long hot = System.currentTimeMillis() - partitions.getHotMillis();
+        List<String> names = partitions.collections(database, base, hot - partitions.getResponseMillis(), hot);
+        /** Base collection last, already read by the library */
+        for (int i = names.size() - 2; i >= 0 && results.length() < LIMIT; i--) {
+            for (Document document : database.getCollection(names.get(i))
+                    .find(Filters.in(partitions.getLookupKey(), value, String.valueOf(value)))
+                    .sort(Sorts.descending("_id"))
+                    .limit(LIMIT - results.length()))
+                results.put(new JSONObject(document.toJson()));
+        }
+    }
+
 }
@@ -0,0 +1,88 @@
+package com.ecosystem.plugin.lib;
+
+import java.util.SplittableRandom;
+
+/**
+ * Beta(alpha, beta) draws for Thompson sampling at request time, as X / (X + Y) of two gamma draws with the
+ * Marsaglia-Tsang method. Each thread has its own SplittableRandom, so concurrent requests do not contend on a seed.
+ *
+ * A draw costs about two normal and two uniform draws, tens of nanoseconds. For large arm sets upper() bounds what an
+ * arm can draw, arms whose bound cannot reach the current top K need not be sampled:
+ *
+ *    if (!ranker.accepts(BetaSampler.upper(alpha, beta, 3.72))) continue;
+ *    double p = BetaSampler.sample(alpha, beta);
+ */
+public final class BetaSampler {
+
+    private static final ThreadLocal<SplittableRandom> RANDOM = ThreadLocal.withInitial(SplittableRandom::new);
+
+    private BetaSampler() {
+    }
+
+    /**
+     * @return a draw from Beta(alpha, beta), NaN if alpha or beta is not positive
+     */
+    public static double sample(double alpha, double beta) {
+        if (!(alpha > 0) || !(beta > 0) || Double.isInfinite(alpha) || Double.isInfinite(beta))
+            return Double.NaN;
+        SplittableRandom random = RANDOM.get();
+        double x = gamma(random, alpha);
+        double y = gamma(random, beta);
+        double sum = x + y;
+        /** Both shapes tiny, the gammas can underflow to zero: the draw is 0 or 1 in proportion to the shapes */
+        if (sum == 0.0)
+            return random.nextDouble() * (alpha + beta) < alpha ? 1.0 : 0.0;
+        return x / sum;
+    }
+
+    /**
+     * Draws for the first n arms of the alpha and beta arrays into draws.
+     */
+    public static void sample(double[] alpha, double[] beta, double[] draws, int n) {
+        for (int i = 0; i < n; i++)
+            draws[i] = sample(alpha[i], beta[i]);
+    }
+
+    /**
+     * Upper quantile of Beta(alpha, beta), mean plus z standard deviations with a Cornish-Fisher correction for the
+     * skew of arms with few acceptances, e.g. z 3.72 for about 1 in 10000 draws above it. The correction is first order:
+     * for shapes like (0.5, 1000) and (1, 5000) about 1.2 in 10000 draws are above the bound at z 3.72, so pruning on
+     * it is lossy: a skipped arm could still have made the top K with at most about that chance.
+     * @return bound in [0, 1], 1.0 if alpha or beta is not positive
+     */
+    public static double upper(double alpha, double beta, double z) {
+        if (!(alpha > 0) || !(beta > 0))
+            return 1.0;
+        double n = alpha + beta;
+        double mean = alpha / n;
+        double sd = Math.sqrt(alpha * beta / (n * n * (n + 1)));
+        double skew = 2 * (beta - alpha) * Math.sqrt(n + 1) / ((n + 2) * Math.sqrt(alpha * beta));
+        double quantile = mean + sd * (z + (z * z - 1) * Math.max(0.0, skew) / 6);
+        return Math.min(1.0, quantile);
+    }
+
+    /**
+     * Gamma(shape, 1), Marsaglia and Tsang (2000). Shapes below one are drawn at shape + 1 and scaled by u^(1/shape).
+     */
+    private static double gamma(SplittableRandom random, double shape) {
+        if (shape < 1.0) {
+            double u = random.nextDouble();
+            return gamma(random, shape + 1.0) * Math.pow(u, 1.0 / shape);
+        }
+        double d = shape - 1.0 / 3.0;
+        double c = 1.0 / Math.sqrt(9.0 * d);
+        while (true) {
+            double x = random.nextGaussian();
+            double v = 1.0 + c * x;
+            if (v <= 0.0) continue;
+            v = v * v * v;
+            double u = random.nextDouble();
+            double xx = x * x;
+            if (u < 1.0 - 0.0331 * xx * xx)
+                return d * v;
+            if (Math.log(u) < 0.5 * xx + d * (1.0 - v + Math.log(v)))
+                return d * v;
+        }
+    }
+
+}
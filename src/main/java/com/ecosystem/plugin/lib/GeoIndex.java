@@ -0,0 +1,301 @@
+package com.ecosystem.plugin.lib;
+
+import com.ecosystem.utils.log.LogManager;
+import com.ecosystem.utils.log.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * In-memory grid index of the coordinates in a locations corpus, for nearest and radius queries from a request
+ * latitude/longitude. Locations are bucketed in cells of cellDegrees by cellDegrees, a query visits rings of cells
+ * around the request until no unvisited cell can hold a closer location. Distances are great circle kilometres.
+ *
+ * Coordinates are read from "lat"/"latitude" and "lon"/"lng"/"longitude", or a GeoJSON "coordinates" [lon, lat] array,
+ * at the top of the location or in its "location" object. Locations without coordinates are not indexed.
+ *
+ * A refreshed corpus, a new locations object or a new corpus version, is indexed incrementally from the previous index of
+ * the campaign: only cells with added, moved or removed locations are copied, unchanged cells are shared.
+ */
+public class GeoIndex {
+    private static final Logger LOGGER = LogManager.getLogger(GeoIndex.class.getName());
+
+    private static final double EARTH_KM = 6371.0088;
+    private static final double KM_PER_DEGREE = Math.PI * EARTH_KM / 180.0;
+    private static final double DEFAULT_CELL_DEGREES = 0.1;
+
+    private static final Map<String, GeoIndex> INDEXES = new ConcurrentHashMap<>();
+
+    /**
+     * A location and its distance from the query.
+     */
+    public static final class Hit {
+        private final String location;
+        private final double km;
+
+        Hit(String location, double km) {
+            this.location = location;
+            this.km = km;
+        }
+
+        public String getLocation() {
+            return location;
+        }
+
+        public double getKm() {
+            return km;
+        }
+    }
+
+    private final WeakReference<JSONObject> source;
+    private Object version;
+    private final double cellDegrees;
+    private final int rows;
+    private final int cols;
+    private final Map<String, double[]> points;
+    private final Map<Long, String[]> cells;
+
+    private GeoIndex(JSONObject source, double cellDegrees, Map<String, double[]> points, Map<Long, String[]> cells) {
+        this.source = new WeakReference<>(source);
+        this.cellDegrees = cellDegrees;
+        this.rows = (int) Math.ceil(180.0 / cellDegrees);
+        this.cols = (int) Math.ceil(360.0 / cellDegrees);
+        this.points = points;
+        this.cells = cells;
+    }
+
+    /**
+     * Index of the locations corpus of a campaign, updated from the previous index when the locations object or the
+     * corpus version is new.
+     */
+    public static GeoIndex of(String campaign, Object version, JSONObject locations) {
+        GeoIndex index = INDEXES.get(campaign);
+        if (index != null && index.source.get() == locations && Objects.equals(index.version, version))
+            return index;
+        index = index == null ? build(locations, DEFAULT_CELL_DEGREES) : index.update(locations);
+        index.version = version;
+        INDEXES.put(campaign, index);
+        return index;
+    }
+
+    public static GeoIndex build(JSONObject locations, double cellDegrees) {
+        GeoIndex empty = new GeoIndex(null, cellDegrees, new HashMap<>(), new HashMap<>());
+        return empty.update(locations);
+    }
+
+    /**
+     * @return new index of the locations, sharing the cells that did not change
+     */
+    public GeoIndex update(JSONObject locations) {
+        Map<String, double[]> next = new HashMap<>(Math.max(16, locations.length() * 2));
+        for (String location : locations.keySet()) {
+            double[] point = coordinates(locations.optJSONObject(location));
+            if (point != null) next.put(location, point);
+        }
+
+        /** Changes per cell: locations leaving and entering it */
+        Map<Long, List<String>> removed = new HashMap<>();
+        Map<Long, List<String>> added = new HashMap<>();
+        for (Map.Entry<String, double[]> entry : points.entrySet()) {
+            double[] point = next.get(entry.getKey());
+            if (point == null || !Arrays.equals(point, entry.getValue()))
+                removed.computeIfAbsent(cell(entry.getValue()), c -> new ArrayList<>()).add(entry.getKey());
+        }
+        for (Map.Entry<String, double[]> entry : next.entrySet()) {
+            double[] point = points.get(entry.getKey());
+            if (point == null || !Arrays.equals(point, entry.getValue()))
+                added.computeIfAbsent(cell(entry.getValue()), c -> new ArrayList<>()).add(entry.getKey());
+        }
+
+        Map<Long, String[]> nextCells = new HashMap<>(cells);
+        for (Map.Entry<Long, List<String>> entry : removed.entrySet()) {
+            List<String> members = new ArrayList<>(Arrays.asList(nextCells.get(entry.getKey())));
+            members.removeAll(entry.getValue());
+            if (members.isEmpty()) nextCells.remove(entry.getKey());
+            else nextCells.put(entry.getKey(), members.toArray(new String[0]));
+        }
+        for (Map.Entry<Long, List<String>> entry : added.entrySet()) {
+            String[] current = nextCells.get(entry.getKey());
+            List<String> members = current == null ? new ArrayList<>() : new ArrayList<>(Arrays.asList(current));
+            members.addAll(entry.getValue());
+            nextCells.put(entry.getKey(), members.toArray(new String[0]));
+        }
+
+        LOGGER.info("GeoIndex:I001: Indexed " + next.size() + " locations, " + (removed.size() + added.size()) + " cells changed");
+        return new GeoIndex(locations, cellDegrees, next, nextCells);
+    }
+
+    public int size() {
+        return points.size();
+    }
+
+    /**
+     * @param k        Maximum locations returned
+     * @param radiusKm Maximum distance, 0 or less for none
+     * @param filter   Locations to consider, e.g. open at the request time, null for all
+     * @return nearest locations, closest first
+     */
+    public List<Hit> nearest(double lat, double lon, int k, double radiusKm, Predicate<String> filter) {
+        double limit = radiusKm > 0 ? radiusKm : Double.MAX_VALUE;
+        /** Farthest of the best k on top */
+        PriorityQueue<Hit> best = new PriorityQueue<>((a, b) -> Double.compare(b.km, a.km));
+        int row = row(lat);
+        int col = col(lon);
+        int visited = 0;
+        /** The farthest column is cols / 2 away, across the pole for locations near it */
+        for (int ring = 0; ring <= cols / 2 && visited < points.size(); ring++) {
+            /** Closest any location outside the rings searched so far can be */
+            double outside = ringKm(lat, ring);
+            if (outside > limit || (best.size() >= k && best.peek().km <= outside))
+                break;
+            if (8L * ring > points.size()) {
+                /** Sparse index, a ring has more cells than there are locations: scan them all instead */
+                best.clear();
+                for (String location : points.keySet())
+                    offer(best, k, limit, filter, lat, lon, location);
+                break;
+            }
+            for (long cell : ring(row, col, ring)) {
+                String[] members = cells.get(cell);
+                if (members == null) continue;
+                visited += members.length;
+                for (String location : members)
+                    offer(best, k, limit, filter, lat, lon, location);
+            }
+        }
+        List<Hit> hits = new ArrayList<>(best);
+        hits.sort((a, b) -> Double.compare(a.km, b.km));
+        return hits;
+    }
+
+    private void offer(PriorityQueue<Hit> best, int k, double limit, Predicate<String> filter, double lat, double lon, String location) {
+        double[] point = points.get(location);
+        double km = distanceKm(lat, lon, point[0], point[1]);
+        if (km > limit || (filter != null && !filter.test(location))) return;
+        if (best.size() < k) {
+            best.add(new Hit(location, km));
+        } else if (km < best.peek().km) {
+            best.poll();
+            best.add(new Hit(location, km));
+        }
+    }
+
+    /**
+     * @return locations within the radius, closest first
+     */
+    public List<Hit> within(double lat, double lon, double radiusKm, Predicate<String> filter) {
+        return nearest(lat, lon, Integer.MAX_VALUE, radiusKm, filter);
+    }
+
+    /**
+     * @return distance by location, closest first
+     */
+    public static Map<String, Double> distances(List<Hit> hits) {
+        Map<String, Double> distances = new LinkedHashMap<>();
+        for (Hit hit : hits)
+            distances.put(hit.location, hit.km);
+        return distances;
+    }
+
+    public static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_KM * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+
+    /**
+     * Lower bound of the distance to any location not in rings 0 to ring - 1: it is at least ring - 1 cells away in
+     * latitude or in longitude, and a longitude difference is shortest at the latitude farthest from the equator.
+     */
+    private double ringKm(double lat, int ring) {
+        if (ring <= 1) return 0.0;
+        double degrees = (ring - 1) * cellDegrees;
+        if (degrees >= 180.0) return Double.MAX_VALUE;
+        double farLat = Math.min(90.0, Math.abs(lat) + (ring + 1) * cellDegrees);
+        double latKm = degrees * KM_PER_DEGREE;
+        double lonKm = 2 * EARTH_KM * Math.asin(Math.cos(Math.toRadians(farLat)) * Math.sin(Math.toRadians(degrees) / 2));
+        return Math.min(latKm, lonKm);
+    }
+
+    private long[] ring(int row, int col, int ring) {
+        if (ring == 0) return new long[]{key(row, col)};
+        List<Long> keys = new ArrayList<>(8 * ring);
+        /** With an even number of columns the last ring's left and right column are the same one */
+        int right = 2 * ring >= cols ? col + ring - 1 : col + ring;
+        for (int r = row - ring; r <= row + ring; r++) {
+            if (r < 0 || r >= rows) continue;
+            boolean edge = r == row - ring || r == row + ring;
+            for (int c = col - ring; c <= right; c += edge ? 1 : 2 * ring) {
+                keys.add(key(r, Math.floorMod(c, cols)));
+            }
+        }
+        long[] result = new long[keys.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = keys.get(i);
+        return result;
+    }
+
+    /**
+     * @return locations in the cell of the coordinates, null if it is empty
+     */
+    String[] members(double lat, double lon) {
+        return cells.get(cell(new double[]{lat, lon}));
+    }
+
+    private long cell(double[] point) {
+        return key(row(point[0]), col(point[1]));
+    }
+
+    private int row(double lat) {
+        return Math.min(rows - 1, Math.max(0, (int) Math.floor((lat + 90.0) / cellDegrees)));
+    }
+
+    private int col(double lon) {
+        return Math.floorMod((int) Math.floor((lon + 180.0) / cellDegrees), cols);
+    }
+
+    private static long key(int row, int col) {
+        return ((long) row << 32) | (col & 0xffffffffL);
+    }
+
+    /**
+     * @return {lat, lon}, null if the location, or request, has no valid coordinates
+     */
+    public static double[] coordinates(JSONObject location) {
+        if (location == null) return null;
+        double[] point = point(location);
+        if (point == null && location.optJSONObject("location") != null)
+            point = point(location.getJSONObject("location"));
+        if (point == null || !(Math.abs(point[0]) <= 90.0) || !(Math.abs(point[1]) <= 180.0))
+            return null;
+        return point;
+    }
+
+    private static double[] point(JSONObject item) {
+        JSONArray coordinates = item.optJSONArray("coordinates");
+        if (coordinates != null && coordinates.length() >= 2)
+            return new double[]{coordinates.optDouble(1), coordinates.optDouble(0)};
+        Object lat = item.has("lat") ? item.opt("lat") : item.opt("latitude");
+        Object lon = item.has("lon") ? item.opt("lon") : item.has("lng") ? item.opt("lng") : item.opt("longitude");
+        if (lat == null || lon == null) return null;
+        try {
+            return new double[]{Double.parseDouble(Objects.toString(lat).trim()), Double.parseDouble(Objects.toString(lon).trim())};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+}
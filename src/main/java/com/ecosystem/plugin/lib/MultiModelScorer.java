@@ -0,0 +1,362 @@
+package com.ecosystem.plugin.lib;
+
+import com.ecosystem.utils.EnvironmentalVariables;
+import com.ecosystem.utils.log.LogManager;
+import com.ecosystem.utils.log.Logger;
+import hex.ModelCategory;
+import hex.genmodel.CategoricalEncoding;
+import hex.genmodel.GenModel;
+import hex.genmodel.easy.EasyPredictModelWrapper;
+import hex.genmodel.easy.RowData;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Scores one request against many binomial models, e.g. a model per offer in PostScoreRecommenderMulti, without a
+ * future and a RowData conversion per model.
+ *
+ * Models with the default categorical encoding, no offset and a binomial category are scored on GenModel.score0: the
+ * features are converted once into the column ordered double[] of each distinct column layout (models trained on the
+ * same frame share one), other models fall back to EasyPredictModelWrapper.predictBinomial on the request RowData.
+ * Models are scored in chunks of MULTI_MODEL_CHUNK (default 16) on a dedicated pool of MULTI_MODEL_THREADS threads
+ * (default the number of cores), the request thread scores the last chunk itself. Prediction buffers are per thread.
+ *
+ * A model that takes longer than MULTI_MODEL_MODEL_TIMEOUT_MS (default 50) is dropped from the result, and models not
+ * scored MULTI_MODEL_TIMEOUT_MS (default 200) after the request started are dropped and not started. Neither timeout
+ * interrupts a model, score0 cannot be stopped: a slow model's score is discarded when it returns, and the deadline is
+ * checked before each model of a chunk. The request waits for the pool chunks up to the deadline, the chunk it scores
+ * itself can overrun the deadline by one model. Latency is reported per model in ecosystem.multimodel.score{model},
+ * dropped models in ecosystem.multimodel.dropped{reason}.
+ *
+ * Enable with MULTI_MODEL_SCORING=true.
+ */
+public class MultiModelScorer {
+    private static final Logger LOGGER = LogManager.getLogger(MultiModelScorer.class.getName());
+
+    private static volatile MultiModelScorer instance;
+    private static volatile boolean configured = false;
+
+    private static final long UNSCORED = Double.doubleToRawLongBits(Double.NaN);
+    private static final ThreadLocal<double[]> PREDS = ThreadLocal.withInitial(() -> new double[3]);
+
+    /**
+     * Input columns and categorical levels of a model, shared by models with the same ones.
+     */
+    private static final class Layout {
+        final String[] names;
+        /** Level index by value of each column, null for numeric columns */
+        final List<Map<String, Integer>> levels;
+
+        Layout(GenModel model) {
+            this.names = Arrays.copyOf(model.getNames(), model.getNumCols());
+            this.levels = new ArrayList<>(names.length);
+            for (int i = 0; i < names.length; i++) {
+                String[] domain = model.getDomainValues(i);
+                Map<String, Integer> column = null;
+                if (domain != null) {
+                    column = new HashMap<>(domain.length * 2);
+                    for (int level = 0; level < domain.length; level++)
+                        column.put(domain[level], level);
+                }
+                levels.add(column);
+            }
+        }
+
+        String signature() {
+            StringBuilder signature = new StringBuilder();
+            for (int i = 0; i < names.length; i++) {
+                signature.append(names[i]).append('\u0000');
+                if (levels.get(i) != null) signature.append(levels.get(i));
+                signature.append('\u0001');
+            }
+            return signature.toString();
+        }
+
+        /**
+         * @return features in column order, categorical levels as their index, NaN when missing or unknown
+         */
+        double[] row(JSONObject features) {
+            double[] row = new double[names.length];
+            for (int i = 0; i < names.length; i++) {
+                Object value = features.opt(names[i]);
+                Map<String, Integer> column = levels.get(i);
+                row[i] = column != null ? level(column, value) : number(value);
+            }
+            return row;
+        }
+
+        private static double level(Map<String, Integer> levels, Object value) {
+            if (value == null || value == JSONObject.NULL) return Double.NaN;
+            Integer level = levels.get(String.valueOf(value));
+            if (level == null && value instanceof Number) {
+                double number = ((Number) value).doubleValue();
+                if (number == Math.rint(number)) level = levels.get(String.valueOf((long) number));
+            }
+            return level != null ? level : Double.NaN;
+        }
+
+        private static double number(Object value) {
+            if (value instanceof Number) return ((Number) value).doubleValue();
+            if (value instanceof Boolean) return (Boolean) value ? 1.0 : 0.0;
+            if (value == null || value == JSONObject.NULL) return Double.NaN;
+            try {
+                return Double.parseDouble(String.valueOf(value).trim());
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+    }
+
+    /**
+     * Scores of a request, in the order of the models asked for.
+     */
+    public static final class Result {
+        private final double[] scores;
+        private final int dropped;
+
+        Result(double[] scores, int dropped) {
+            this.scores = scores;
+            this.dropped = dropped;
+        }
+
+        /**
+         * @return probability of the positive class, NaN if there was no model or it was dropped or failed
+         */
+        public double score(int i) {
+            return scores[i];
+        }
+
+        /**
+         * @return models that were asked for but not scored: slow, failed or past the request timeout
+         */
+        public int getDropped() {
+            return dropped;
+        }
+    }
+
+    private final ThreadPoolExecutor pool;
+    private final int threads;
+    private final int chunk;
+    private final long modelTimeoutNanos;
+    private final long timeoutNanos;
+    private final MeterRegistry registry;
+
+    /** Layout of a model, null when it is scored through the wrapper */
+    private final Map<GenModel, Layout> layouts = Collections.synchronizedMap(new WeakHashMap<>());
+    private final Map<String, Layout> shared = new ConcurrentHashMap<>();
+    private final Map<String, Timer> latency = new ConcurrentHashMap<>();
+    private final Counter slow;
+    private final Counter expired;
+    private final Counter failed;
+
+    /**
+     * @param threads            Scoring threads
+     * @param chunk              Models scored per task
+     * @param modelTimeoutMillis Maximum time of one model before its score is dropped
+     * @param timeoutMillis      Maximum time of a request before unscored models are dropped
+     */
+    public MultiModelScorer(int threads, int chunk, long modelTimeoutMillis, long timeoutMillis, MeterRegistry registry) {
+        AtomicInteger number = new AtomicInteger();
+        this.threads = Math.max(1, threads);
+        this.pool = new ThreadPoolExecutor(this.threads, this.threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(this.threads * 64), r -> {
+            Thread thread = new Thread(r, "ecosystem-multimodel-" + number.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+        this.chunk = Math.max(1, chunk);
+        this.modelTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(modelTimeoutMillis);
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.registry = registry;
+        this.slow = Counter.builder("ecosystem.multimodel.dropped").tag("reason", "slow").register(registry);
+        this.expired = Counter.builder("ecosystem.multimodel.dropped").tag("reason", "timeout").register(registry);
+        this.failed = Counter.builder("ecosystem.multimodel.dropped").tag("reason", "error").register(registry);
+    }
+
+    /**
+     * @return scorer configured from MULTI_MODEL_SCORING, null if it is not enabled
+     */
+    public static MultiModelScorer get() {
+        if (!configured) {
+            synchronized (MultiModelScorer.class) {
+                if (!configured) {
+                    if ("true".equalsIgnoreCase(EnvironmentalVariables.getEnvKey("MULTI_MODEL_SCORING"))) {
+                        String threads = EnvironmentalVariables.getEnvKey("MULTI_MODEL_THREADS");
+                        String chunk = EnvironmentalVariables.getEnvKey("MULTI_MODEL_CHUNK");
+                        String modelTimeout = EnvironmentalVariables.getEnvKey("MULTI_MODEL_MODEL_TIMEOUT_MS");
+                        String timeout = EnvironmentalVariables.getEnvKey("MULTI_MODEL_TIMEOUT_MS");
+                        instance = new MultiModelScorer(
+                                threads != null ? Integer.parseInt(threads.trim()) : Runtime.getRuntime().availableProcessors(),
+                                chunk != null ? Integer.parseInt(chunk.trim()) : 16,
+                                modelTimeout != null ? Long.parseLong(modelTimeout.trim()) : 50,
+                                timeout != null ? Long.parseLong(timeout.trim()) : 200, Metrics.globalRegistry);
+                        LOGGER.info("MultiModelScorer:I001: Batched multi-model scoring on " + instance.threads + " threads");
+                    }
+                    configured = true;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * @param models   Models to score, names[i] is the name of models[i] for latency reporting
+     * @param features Features of the request
+     * @param row      Features of the request for models scored through the wrapper
+     */
+    public Result score(EasyPredictModelWrapper[] models, String[] names, JSONObject features, RowData row) {
+        long start = System.nanoTime();
+        long deadline = start + timeoutNanos;
+        int size = models.length;
+
+        /** Convert the features once per distinct column layout */
+        double[][] rows = new double[size][];
+        Map<Layout, double[]> converted = new IdentityHashMap<>();
+        for (int i = 0; i < size; i++) {
+            Layout layout = models[i] != null ? layout(models[i].getModel()) : null;
+            if (layout != null)
+                rows[i] = converted.computeIfAbsent(layout, l -> l.row(features));
+        }
+
+        AtomicLongArray scores = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+            scores.set(i, UNSCORED);
+        AtomicBoolean cancelled = new AtomicBoolean(false);
+
+        /** Spread the chunks over the pool, at least one chunk per thread when there are fewer models */
+        int perTask = Math.max(1, Math.min(chunk, (size + threads - 1) / threads));
+        List<Future<?>> futures = new ArrayList<>();
+        int from = 0;
+        for (; from + perTask < size; from += perTask) {
+            int begin = from;
+            int end = from + perTask;
+            futures.add(pool.submit(() -> scoreChunk(models, names, rows, row, begin, end, scores, cancelled, deadline)));
+        }
+        scoreChunk(models, names, rows, row, from, size, scores, cancelled, deadline);
+
+        for (Future<?> future : futures) {
+            try {
+                future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                cancelled.set(true);
+            } catch (InterruptedException e) {
+                cancelled.set(true);
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                LOGGER.error("MultiModelScorer:E001: Scoring chunk failed: " + e.getCause());
+            }
+        }
+        cancelled.set(true);
+
+        double[] result = new double[size];
+        int dropped = 0;
+        for (int i = 0; i < size; i++) {
+            result[i] = Double.longBitsToDouble(scores.get(i));
+            /** Offers without a model are not dropped */
+            if (models[i] != null && result[i] != result[i]) dropped++;
+        }
+        return new Result(result, dropped);
+    }
+
+    private void scoreChunk(EasyPredictModelWrapper[] models, String[] names, double[][] rows, RowData row, int begin, int end,
+                            AtomicLongArray scores, AtomicBoolean cancelled, long deadline) {
+        double[] preds = PREDS.get();
+        for (int i = begin; i < end; i++) {
+            if (models[i] == null) continue;
+            long start = System.nanoTime();
+            if (cancelled.get() || start - deadline > 0) {
+                expired.increment(unscored(models, i, end));
+                return;
+            }
+            try {
+                double p;
+                if (rows[i] != null) {
+                    GenModel model = models[i].getModel();
+                    if (preds.length < model.getPredsSize()) {
+                        preds = new double[model.getPredsSize()];
+                        PREDS.set(preds);
+                    }
+                    p = model.score0(rows[i], preds)[2];
+                } else {
+                    p = models[i].predictBinomial(row).classProbabilities[1];
+                }
+                long elapsed = System.nanoTime() - start;
+                timer(names[i]).record(elapsed, TimeUnit.NANOSECONDS);
+                if (elapsed > modelTimeoutNanos) {
+                    slow.increment();
+                    continue;
+                }
+                scores.set(i, Double.doubleToRawLongBits(p));
+            } catch (Exception e) {
+                failed.increment();
+                LOGGER.error("MultiModelScorer:E002: Model " + names[i] + " not scored: " + e);
+            }
+        }
+    }
+
+    private static int unscored(EasyPredictModelWrapper[] models, int begin, int end) {
+        int count = 0;
+        for (int i = begin; i < end; i++) {
+            if (models[i] != null) count++;
+        }
+        return count;
+    }
+
+    /**
+     * The models were replaced (MODELS settings changed). Layouts are only kept for models still referenced and the
+     * latency timers are removed from the registry, the timers of models still scored are registered on their next score.
+     */
+    public void modelsChanged() {
+        shared.clear();
+        synchronized (layouts) {
+            for (Layout layout : layouts.values()) {
+                if (layout != null) shared.putIfAbsent(layout.signature(), layout);
+            }
+        }
+        for (Timer timer : latency.values())
+            registry.remove(timer);
+        latency.clear();
+    }
+
+    /**
+     * @return layout for score0, null if the model is scored through the wrapper
+     */
+    private Layout layout(GenModel model) {
+        if (layouts.containsKey(model))
+            return layouts.get(model);
+        Layout layout = null;
+        if (model.getModelCategory() == ModelCategory.Binomial && !model.requiresOffset()
+                && model.getCategoricalEncoding() == CategoricalEncoding.AUTO) {
+            Layout built = new Layout(model);
+            layout = shared.computeIfAbsent(built.signature(), s -> built);
+        }
+        layouts.put(model, layout);
+        return layout;
+    }
+
+    private Timer timer(String name) {
+        return latency.computeIfAbsent(name, n -> Timer.builder("ecosystem.multimodel.score").tag("model", n).register(registry));
+    }
+
+}
@@ -0,0 +1,181 @@
+package com.ecosystem.plugin.lib;
+
+import com.ecosystem.utils.log.LogManager;
+import com.ecosystem.utils.log.Logger;
+import org.json.JSONObject;
+
+import java.lang.ref.WeakReference;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Opening hours of a locations corpus compiled into one bitset per location with a bit per minute of the week, so a
+ * request normalizes its day and time once and checks each location with a single bit lookup. Example location:
+ *    {"open_times": {"operatingStatus": "operating",
+ *                    "monday": {"opening1": "08:00 AM", "closing1": "05:00 PM"},
+ *                    "friday": {"opening1": "10:00 PM", "closing1": "02:00 AM"}}}
+ *
+ * Hours that close before they open run over midnight into the next day, Sunday wraps to Monday. Further intervals can
+ * be given as opening2/closing2 and so on. A location is open from its opening minute up to, not including, its
+ * closing minute. Days without hours are not restricted, a location that is not "operating" is closed on the days with
+ * hours. Locations without open_times, or with hours that cannot be read, are not restricted; invalid hours are
+ * reported once when the corpus is compiled. Keys that are not days, e.g. "public_holiday", are skipped and reported in
+ * a single warning per compile.
+ *
+ * Compiled once per locations object and corpus version, see OptionsIndex.of().
+ */
+public class OpeningHours {
+    private static final Logger LOGGER = LogManager.getLogger(OpeningHours.class.getName());
+
+    private static final int MINUTES_PER_DAY = 1440;
+    private static final int MINUTES_PER_WEEK = 7 * MINUTES_PER_DAY;
+    private static final String[] DAYS = {"monday", "tuesday", "wednesday", "thursday", "friday", "saturday", "sunday"};
+    private static final Pattern TIME = Pattern.compile("\\s*(\\d{1,2})[:.](\\d{2})\\s*([AaPp][Mm])?\\s*");
+
+    private static final Map<String, OpeningHours> COMPILED = new ConcurrentHashMap<>();
+
+    private final WeakReference<JSONObject> source;
+    private final Object version;
+    private final Map<String, BitSet> open = new HashMap<>();
+
+    private OpeningHours(JSONObject locations, Object version) {
+        this.source = new WeakReference<>(locations);
+        this.version = version;
+        int invalid = 0;
+        Set<String> unknown = new TreeSet<>();
+        for (String location : locations.keySet()) {
+            JSONObject item = locations.optJSONObject(location);
+            JSONObject openTimes = item != null ? item.optJSONObject("open_times") : null;
+            if (openTimes == null) continue;
+            try {
+                open.put(location, compile(openTimes, unknown));
+            } catch (IllegalArgumentException e) {
+                invalid++;
+                LOGGER.warn("OpeningHours:W001: Opening hours of " + location + " ignored, use {day: {opening1: '08:00 AM', closing1: '05:00 PM'}}: " + e.getMessage());
+            }
+        }
+        if (!unknown.isEmpty())
+            LOGGER.warn("OpeningHours:W002: Opening hours for " + unknown + " skipped, not days of the week");
+        LOGGER.info("OpeningHours:I001: Compiled opening hours of " + open.size() + " locations, " + invalid + " invalid");
+    }
+
+    /**
+     * Opening hours of the locations corpus of a campaign, compiled when the locations object or the corpus version is new.
+     */
+    public static OpeningHours of(String campaign, Object version, JSONObject locations) {
+        OpeningHours hours = COMPILED.get(campaign);
+        if (hours != null && hours.source.get() == locations && Objects.equals(hours.version, version))
+            return hours;
+        hours = new OpeningHours(locations, version);
+        COMPILED.put(campaign, hours);
+        return hours;
+    }
+
+    /**
+     * @param minuteOfWeek Request time from minuteOfWeek(), -1 when the request has no valid time
+     * @return false if the location is closed at that time
+     */
+    public boolean isOpen(String location, int minuteOfWeek) {
+        if (minuteOfWeek < 0) return true;
+        BitSet minutes = open.get(location);
+        return minutes == null || minutes.get(minuteOfWeek);
+    }
+
+    /**
+     * Request day and time, e.g. "monday" and "11:00 AM", as minute of the week from Monday 00:00.
+     * @return -1 if either is missing or cannot be read
+     */
+    public static int minuteOfWeek(String day, String time) {
+        if (day == null || time == null) return -1;
+        int index = day(day);
+        if (index < 0) return -1;
+        try {
+            return index * MINUTES_PER_DAY + minute(time);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param unknown Keys with hours that are not days, collected for the warning
+     */
+    private static BitSet compile(JSONObject openTimes, Set<String> unknown) {
+        boolean operating = "operating".equals(openTimes.optString("operatingStatus", "operating"));
+        BitSet minutes = new BitSet(MINUTES_PER_WEEK);
+        boolean[] restricted = new boolean[DAYS.length];
+        Map<Integer, JSONObject> hours = new HashMap<>();
+        for (String key : openTimes.keySet()) {
+            JSONObject dayHours = openTimes.optJSONObject(key);
+            if (dayHours == null || !dayHours.has("opening1") || !dayHours.has("closing1")) continue;
+            int index = day(key);
+            if (index < 0) {
+                unknown.add(key);
+                continue;
+            }
+            restricted[index] = true;
+            hours.put(index, dayHours);
+        }
+
+        for (int index = 0; index < DAYS.length; index++) {
+            if (!restricted[index])
+                minutes.set(index * MINUTES_PER_DAY, (index + 1) * MINUTES_PER_DAY);
+        }
+        if (!operating) return minutes;
+
+        for (Map.Entry<Integer, JSONObject> entry : hours.entrySet()) {
+            JSONObject dayHours = entry.getValue();
+            int start = entry.getKey() * MINUTES_PER_DAY;
+            for (int n = 1; dayHours.has("opening" + n) && dayHours.has("closing" + n); n++) {
+                int opening = start + minute(dayHours.getString("opening" + n));
+                int closing = start + minute(dayHours.getString("closing" + n));
+                if (closing <= opening)
+                    closing += MINUTES_PER_DAY;
+                if (closing <= MINUTES_PER_WEEK) {
+                    minutes.set(opening, closing);
+                } else {
+                    /** Sunday night into Monday morning */
+                    minutes.set(opening, MINUTES_PER_WEEK);
+                    minutes.set(0, closing - MINUTES_PER_WEEK);
+                }
+            }
+        }
+        return minutes;
+    }
+
+    private static int day(String day) {
+        String name = day.trim().toLowerCase();
+        if (name.length() < 3) return -1;
+        for (int i = 0; i < DAYS.length; i++) {
+            if (DAYS[i].startsWith(name)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * "08:00 AM", "8.00 pm" or "20:00" as minute of the day.
+     */
+    private static int minute(String time) {
+        Matcher matcher = TIME.matcher(time);
+        if (!matcher.matches())
+            throw new IllegalArgumentException("unreadable time " + time);
+        int hour = Integer.parseInt(matcher.group(1));
+        int minute = Integer.parseInt(matcher.group(2));
+        String half = matcher.group(3);
+        if (half != null) {
+            if (hour < 1 || hour > 12)
+                throw new IllegalArgumentException("unreadable time " + time);
+            hour = hour % 12 + (half.equalsIgnoreCase("pm") ? 12 : 0);
+        }
+        if (hour > 23 || minute > 59)
+            throw new IllegalArgumentException("unreadable time " + time);
+        return hour * 60 + minute;
+    }
+
+}
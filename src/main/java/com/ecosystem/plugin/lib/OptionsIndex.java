@@ -0,0 +1,137 @@
+package com.ecosystem.plugin.lib;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Options of a dynamic engagement corpus indexed by (contextual_variable_one, contextual_variable_two), each context
+ * holding the positions of its options sorted on arm_reward, best first. The arm_reward is precomputed by the dynamic
+ * engine, so the order is the same for every customer in a context and a request takes a prefix of one list instead of
+ * matching and sorting every option.
+ *
+ * A request with an empty contextual variable matches options with any value of it, those contexts are indexed under
+ * a wildcard as well. Candidates found elsewhere, e.g. the nearest locations of a GeoIndex, are looked up by optionKey.
+ *
+ * The index is built once per options array and corpus version: a new array, or a new version of the corpus for an array
+ * that was changed in place, is indexed on its first request.
+ */
+public class OptionsIndex {
+
+    private static final String ANY = "\u0000*";
+    private static final int[] NONE = new int[0];
+
+    private static final Map<String, OptionsIndex> INDEXES = new ConcurrentHashMap<>();
+
+    private final WeakReference<JSONArray> source;
+    private final Object version;
+    private final double[] rewards;
+    private final String[] ones;
+    private final String[] twos;
+    private final Map<String, int[]> contexts;
+    private final Map<String, int[]> keys = new HashMap<>();
+
+    private OptionsIndex(JSONArray options, Object version) {
+        this.source = new WeakReference<>(options);
+        this.version = version;
+        int size = options.length();
+        this.rewards = new double[size];
+        this.ones = new String[size];
+        this.twos = new String[size];
+        this.contexts = build(options);
+    }
+
+    /**
+     * Index of the options of a campaign, built when the options array or the corpus version is new.
+     * @param version Version of the corpus, e.g. its updated timestamp, compared with equals()
+     */
+    public static OptionsIndex of(String campaign, Object version, JSONArray options) {
+        OptionsIndex index = INDEXES.get(campaign);
+        if (index != null && index.source.get() == options && Objects.equals(index.version, version))
+            return index;
+        index = new OptionsIndex(options, version);
+        INDEXES.put(campaign, index);
+        return index;
+    }
+
+    /**
+     * @param one Request contextual_variable_one, "" matches any
+     * @param two Request contextual_variable_two, "" matches any
+     * @return positions in the options array of the matching options, highest arm_reward first
+     */
+    public int[] lookup(String one, String two) {
+        int[] positions = contexts.get(key(one.isEmpty() ? ANY : one, two.isEmpty() ? ANY : two));
+        return positions != null ? positions : NONE;
+    }
+
+    /**
+     * @param optionKeys Options to look up, e.g. nearby locations
+     * @return positions in the options array of those options that match the request context, highest arm_reward first
+     */
+    public int[] lookup(String one, String two, Collection<String> optionKeys) {
+        List<Integer> matching = new ArrayList<>();
+        for (String optionKey : optionKeys) {
+            int[] positions = keys.get(optionKey);
+            if (positions == null) continue;
+            for (int position : positions) {
+                if ((one.isEmpty() || one.equals(ones[position])) && (two.isEmpty() || two.equals(twos[position])))
+                    matching.add(position);
+            }
+        }
+        /** Options store order first, so equal rewards keep it as in the context lists */
+        matching.sort(null);
+        return sorted(matching);
+    }
+
+    private Map<String, int[]> build(JSONArray options) {
+        Map<String, List<Integer>> lists = new HashMap<>();
+        Map<String, List<Integer>> keyLists = new HashMap<>();
+        for (int i = 0; i < rewards.length; i++) {
+            JSONObject option = options.optJSONObject(i);
+            if (option == null) continue;
+            double reward = option.optDouble("arm_reward", 0.001);
+            rewards[i] = reward != reward ? 0.0 : reward;
+
+            String one = option.has("contextual_variable_one") ? String.valueOf(option.get("contextual_variable_one")) : "";
+            String two = option.has("contextual_variable_two") ? String.valueOf(option.get("contextual_variable_two")) : "";
+            ones[i] = one;
+            twos[i] = two;
+            for (String key : new String[]{key(one, two), key(one, ANY), key(ANY, two), key(ANY, ANY)})
+                lists.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+            if (option.has("optionKey"))
+                keyLists.computeIfAbsent(String.valueOf(option.get("optionKey")), k -> new ArrayList<>()).add(i);
+        }
+
+        for (Map.Entry<String, List<Integer>> entry : keyLists.entrySet())
+            keys.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+
+        Map<String, int[]> contexts = new HashMap<>(lists.size() * 2);
+        for (Map.Entry<String, List<Integer>> entry : lists.entrySet())
+            contexts.put(entry.getKey(), sorted(entry.getValue()));
+        return contexts;
+    }
+
+    private int[] sorted(List<Integer> list) {
+        Integer[] positions = list.toArray(new Integer[0]);
+        /** Stable, options with the same reward keep the options store order */
+        Arrays.sort(positions, (a, b) -> Double.compare(rewards[b], rewards[a]));
+        int[] sorted = new int[positions.length];
+        for (int i = 0; i < positions.length; i++)
+            sorted[i] = positions[i];
+        return sorted;
+    }
+
+    private static String key(String one, String two) {
+        return one + "\u0000" + two;
+    }
+
+}
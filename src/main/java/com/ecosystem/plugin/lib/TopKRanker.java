@@ -0,0 +1,241 @@
+package com.ecosystem.plugin.lib;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+/**
+ * Top K selection for the post-score plugins, replaces building every candidate and sorting the full array with
+ * JSONArraySort when only resultcount offers are kept. Scores are held in primitive arrays next to a reference to the
+ * candidate, the K best are kept in a bounded min-heap and candidates without budget are rejected as they are added.
+ *
+ * Building the JSON of a candidate is usually the expensive part, check accepts() first and only build it for
+ * candidates that can still make the top K:
+ *
+ *    TopKRanker<JSONObject> ranker = TopKRanker.of(params, budget);
+ *    for (...) {
+ *        double rank = ranker.key(score, weight);
+ *        if (!ranker.accepts(rank)) continue;
+ *        ranker.add(rank, spendLimit, finalOffersObject(...));
+ *    }
+ *    predictModelMojoResult.put("final_result", ranker.toJSONArray());
+ *
+ * On explore requests key() replaces the score with a random key, u^(1/weight) as log(u)/weight, so the same ranker
+ * keeps a weighted sample of K eligible candidates without replacement (Efraimidis-Spirakis) instead of the K best, and
+ * the score is not needed to choose them.
+ *
+ * Ties keep the candidate added first. Not thread safe, use one ranker per request.
+ */
+public class TopKRanker<T> {
+
+    private final int k;
+    private final boolean budget;
+    private final boolean explore;
+
+    /** Heap ordered worst first: lowest score, then latest added */
+    private double[] scores;
+    private int[] order;
+    private Object[] candidates;
+    private int size = 0;
+    private int added = 0;
+
+    /**
+     * @param k      Number of candidates kept
+     * @param budget Budget is enabled (predictor.offer.budget), candidates need spend_limit > 0 or -1
+     */
+    public TopKRanker(int k, boolean budget) {
+        this(k, budget, false);
+    }
+
+    /**
+     * @param explore Keep a random sample instead of the best candidates, see key()
+     */
+    public TopKRanker(int k, boolean budget, boolean explore) {
+        this.k = Math.max(1, k);
+        this.budget = budget;
+        this.explore = explore;
+        int capacity = Math.min(this.k, 16);
+        this.scores = new double[capacity];
+        this.order = new int[capacity];
+        this.candidates = new Object[capacity];
+    }
+
+    /**
+     * Ranker for a request: resultcount candidates, a random sample when the request explores.
+     */
+    public static <T> TopKRanker<T> of(JSONObject params, boolean budget) {
+        return new TopKRanker<>(params.optInt("resultcount", 1), budget, isExplore(params));
+    }
+
+    public static boolean isExplore(JSONObject params) {
+        return params.optInt("explore", 0) == 1;
+    }
+
+    public boolean isExplore() {
+        return explore;
+    }
+
+    /**
+     * @return rank of a candidate: the score, or a random key when exploring
+     */
+    public double key(double score) {
+        return key(score, 1.0);
+    }
+
+    /**
+     * @param weight Relative chance of the candidate when exploring, 1.0 for a uniform sample
+     * @return rank of a candidate: the score, or a random key when exploring
+     */
+    public double key(double score, double weight) {
+        if (!explore)
+            return score;
+        if (!(weight > 0))
+            weight = 1.0;
+        return Math.log(ThreadLocalRandom.current().nextDouble()) / weight;
+    }
+
+    /**
+     * @return true if a candidate with this score would be kept, before budget
+     */
+    public boolean accepts(double score) {
+        return size < k || rank(score) > scores[0];
+    }
+
+    /**
+     * @return true if a candidate with this score and spend limit would be kept
+     */
+    public boolean accepts(double score, double spendLimit) {
+        return hasBudget(spendLimit) && accepts(score);
+    }
+
+    /**
+     * Add a candidate without a spend limit, only when budget is disabled.
+     * @return true if the candidate is in the current top K
+     */
+    public boolean add(double score, T candidate) {
+        return add(score, -1, candidate);
+    }
+
+    /**
+     * @param spendLimit spend_limit of the offer, -1 for no limit
+     * @return true if the candidate is in the current top K
+     */
+    public boolean add(double score, double spendLimit, T candidate) {
+        int sequence = added++;
+        if (!hasBudget(spendLimit))
+            return false;
+        double ranked = rank(score);
+        if (size < k) {
+            if (size == scores.length)
+                grow();
+            scores[size] = ranked;
+            order[size] = sequence;
+            candidates[size] = candidate;
+            up(size++);
+            return true;
+        }
+        if (ranked <= scores[0])
+            return false;
+        scores[0] = ranked;
+        order[0] = sequence;
+        candidates[0] = candidate;
+        down(0);
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return kept candidates, best first
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> ranked() {
+        Integer[] indexes = new Integer[size];
+        for (int i = 0; i < size; i++)
+            indexes[i] = i;
+        Arrays.sort(indexes, (a, b) -> worse(a, b) ? 1 : worse(b, a) ? -1 : 0);
+        List<T> ranked = new ArrayList<>(size);
+        for (Integer index : indexes)
+            ranked.add((T) candidates[index]);
+        return ranked;
+    }
+
+    /**
+     * @return kept candidates best first, built into JSON by the function
+     */
+    public JSONArray toJSONArray(Function<T, JSONObject> json) {
+        JSONArray result = new JSONArray();
+        for (T candidate : ranked())
+            result.put(json.apply(candidate));
+        return result;
+    }
+
+    /**
+     * @return kept candidates best first, for rankers of JSONObject candidates
+     */
+    public JSONArray toJSONArray() {
+        return toJSONArray(candidate -> (JSONObject) candidate);
+    }
+
+    private boolean hasBudget(double spendLimit) {
+        return !budget || spendLimit > 0.0 || spendLimit == -1;
+    }
+
+    /**
+     * NaN scores rank last.
+     */
+    private static double rank(double score) {
+        return score != score ? Double.NEGATIVE_INFINITY : score;
+    }
+
+    private boolean worse(int a, int b) {
+        return scores[a] < scores[b] || (scores[a] == scores[b] && order[a] > order[b]);
+    }
+
+    private void up(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!worse(i, parent)) break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void down(int i) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) break;
+            int child = left + 1 < size && worse(left + 1, left) ? left + 1 : left;
+            if (!worse(child, i)) break;
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int a, int b) {
+        double score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+        int sequence = order[a];
+        order[a] = order[b];
+        order[b] = sequence;
+        Object candidate = candidates[a];
+        candidates[a] = candidates[b];
+        candidates[b] = candidate;
+    }
+
+    private void grow() {
+        int capacity = (int) Math.min((long) k, Math.max(16L, scores.length * 2L));
+        scores = Arrays.copyOf(scores, capacity);
+        order = Arrays.copyOf(order, capacity);
+        candidates = Arrays.copyOf(candidates, capacity);
+    }
+
+}
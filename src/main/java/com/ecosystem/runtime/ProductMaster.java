@@ -1,9 +1,9 @@
 package com.ecosystem.runtime;
 
 import com.ecosystem.plugin.business.BusinessLogic;
+import com.ecosystem.runtime.rewards.ResponseRollups;
 import com.ecosystem.utils.JSONDecode;
 
-import com.ecosystem.utils.JSONFlattener;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.enums.SecuritySchemeType;
 import io.swagger.v3.oas.annotations.media.Content;
@@ -23,6 +23,7 @@ import jakarta.annotation.security.RolesAllowed;
 import java.io.IOException;
 import java.net.URLDecoder;
 import java.text.ParseException;
+import java.util.Date;
 import java.util.Map;
 import java.util.UUID;
 
@@ -84,115 +85,21 @@ public class ProductMaster extends ProductMasterSuper {
             JSONObject inpObj = new JSONObject(request);
 
             /************ Validate and use defaults ***********/
-            String campaign = settings.getProjectDeploymentID();
-            if (inpObj.has("campaign"))
-                campaign = String.valueOf(inpObj.get("campaign"));
-
-            String subcampaign = campaign;
-            if (inpObj.has("subcampaign"))
-                subcampaign = String.valueOf(inpObj.get("subcampaign"));
-
-            String channel = "api";
-            if (inpObj.has("channel"))
-                channel = String.valueOf(inpObj.get("channel"));
-
-            int numberoffers = 1;
-            if (inpObj.has("numberoffers"))
-                numberoffers = Integer.parseInt(String.valueOf(inpObj.get("numberoffers")));
-
-            String userid = "api";
-            if (inpObj.has("userid"))
-                userid = String.valueOf(inpObj.get("userid"));
-
-            String params = "{}";
-            if (inpObj.has("params"))
-                params = (String) inpObj.get("params");
-
-            String customer = "none";
-            if (inpObj.has("customer"))
-                customer = String.valueOf(inpObj.get("customer"));
-
-            JSONObject paramsParams = new JSONObject();
+            ScoringRequest scoringRequest;
             try {
-                String in_params = URLDecoder.decode(params);
-                if (in_params.startsWith("\"")) in_params = in_params.substring(1, in_params.length() - 1).replaceAll("\\\\", "");
-                paramsParams = new JSONObject(in_params);
+                scoringRequest = ScoringRequest.fromInvocation(inpObj, settings.getProjectDeploymentID());
             } catch (org.json.JSONException e) {
-                LOGGER.info("/offerRecommendations malformed params JSON input: " + params);
-                return paramsParams.put("ErrorMessage", e).toString().intern();
-            }
-
-            /************ Setup values from input params that will be placed in **********/
-            JSONObject param = new JSONObject();
-            String uuid = generateUUID();
-            /** param.put("headers", headers); */
-            param.put("uuid", uuid);
-            param.put("UPDATE", this.UPDATE);
-            LOGGER.info("/invocations:UUID: " + uuid + " predictor: " + campaign);
-
-            param.put("name", campaign);
-            param.put("customer", customer);
-            param.put("campaign", campaign);
-            param.put("subcampaign", subcampaign);
-            param.put("channel", channel);
-            param.put("subname", subcampaign);
-            param.put("resultcount", numberoffers);
-            param.put("userid", userid);
-            param.put("mojo", "1");
-
-            /* this is needed to not cause a stack overflow as adding current value of json object */
-            JSONObject inParam = new JSONObject(param.toString());
-            param.put("api_params", inParam);
-
-            /************ Set defaults for model and paramneters from database ***********/
-            param.put("in_params", paramsParams);
-            if (paramsParams.has("input")) {
-                param.put("input", paramsParams.getJSONArray("input"));
-                param.put("value", paramsParams.getJSONArray("value"));
-                param.put("lookup", new JSONObject().put("value", customer).put("key", "customer"));
-                param.put("dbparam", false);
-            } else {
-                param.put("dbparam", true);
-                param = ValidateParams.getLookupFromParams(settings, param, customer);
+                LOGGER.info("/offerRecommendations malformed params JSON input: " + inpObj.opt("params"));
+                return new JSONObject().put("ErrorMessage", e).toString().intern();
             }
 
-            /************ Obtain default epsilon from properties or obtain from input params ***********/
-            if (!paramsParams.has("mab")) {
-                JSONObject mabParam = new JSONObject();
-                mabParam.put("class", "mabone");
-                mabParam.put("epsilon", settings.getEpsilon());
-                param.put("mab", mabParam);
-            } else {
-                param.put("mab", paramsParams.getJSONObject("mab"));
-            }
+            /************ Setup values from input params, defaults and epsilon ***********/
+            JSONObject param = ScoringEngine.predictionParams(settings, this.UPDATE, scoringRequest);
+            LOGGER.info("/invocations:UUID: " + param.get("uuid") + " predictor: " + scoringRequest.getCampaign());
 
             /**************** Primary prediction from EcosystemMaster.getPredictionResult **************/
             predictResult = ecosystemMaster.getPredictionResult(mongoClient, param);
-            if (param.has("in_params")) predictResult.put("in_params", param.getJSONObject("in_params"));
-            if (predictResult.has("ErrorMessage")) {
-                predictResult.put("error", 1);
-            }
-            predictResult.remove("predict_result");
-
-            String detail = "full";
-            if (paramsParams.has("detail"))
-                detail = paramsParams.getString("detail");
-
-            /**************** Special prediction approaches: Spam **************/
-            if (detail.contains("spam") || subcampaign.contains("spam")) {
-                JSONObject newResult = new JSONObject();
-                newResult.put("uuid", predictResult.getJSONArray("final_result").getJSONObject(0).getJSONObject("result_full").get("uuid"));
-                newResult.put("offer", predictResult.getJSONArray("final_result").getJSONObject(0).getJSONObject("result_full").get("offer"));
-                newResult.put("ham_confidence", predictResult.getJSONArray("final_result").getJSONObject(0).getJSONObject("result_full").get("ham_confidence"));
-                newResult.put("spam_confidence", predictResult.getJSONArray("final_result").getJSONObject(0).getJSONObject("result_full").get("spam_confidence"));
-                newResult.put("spam", predictResult.getJSONArray("final_result").getJSONObject(0).getJSONObject("result_full").get("spam"));
-                predictResult = newResult;
-            }
-
-            /**************** Final step to decide if json needs to be flattened **************/
-            if (paramsParams.has("flatten_json") && Boolean.valueOf(String.valueOf(paramsParams.opt("flatten_json")))) {
-                predictResult = JSONFlattener.flatten(predictResult);
-            }
+            predictResult = ScoringEngine.finalizeResult(predictResult, param, scoringRequest);
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -220,7 +127,9 @@ public class ProductMaster extends ProductMasterSuper {
         String response = "Success";
 
         try {
-            ecosystemResponse.putResponseReturnDetailAsync(JSONDecode.decode(documentJSON));
+            String document = JSONDecode.decode(documentJSON);
+            ecosystemResponse.putResponseReturnDetailAsync(document);
+            ScoringEngine.responseLogged(new JSONObject(document));
         } catch (Exception e) {
             e.printStackTrace();
             JSONObject error = new JSONObject().put("ErrorMessage", e.getMessage());
@@ -277,7 +186,9 @@ public class ProductMaster extends ProductMasterSuper {
         String response = "Error";
 
         try {
-            JSONObject responseObj = ecosystemResponse.putResponseReturnDetail(JSONDecode.decode(documentJSON));
+            String document = JSONDecode.decode(documentJSON);
+            JSONObject responseObj = ecosystemResponse.putResponseReturnDetail(document);
+            ScoringEngine.responseLogged(new JSONObject(document));
             if (responseObj.has("uuid"))
                 response = responseObj.getString("uuid");
             else
@@ -291,6 +202,37 @@ public class ProductMaster extends ProductMasterSuper {
         return "{\"message\": \"" + response + "\"}";
     }
 
+    /**
+     * Impressions and acceptances per offer and context from the response rollups.
+     *
+     * @param campaign Campaign
+     * @param hours    Hours back from now
+     * @return Result
+     */
+    @Operation(description = "Impressions, acceptances and take up per offer and context of a campaign over the last hours, " +
+            "from the rollups kept when ROLLUPS=true.",
+            summary = "Response statistics")
+    @RequestMapping(value = "/rollups", method = RequestMethod.GET)
+    public String getRollups(@RequestHeader Map<String, String> headers,
+                             @RequestParam(name = "campaign", defaultValue = "") String campaign,
+                             @RequestParam(name = "hours", defaultValue = "24", required = false) int hours) {
+        LOGGER.info("/rollups GET API");
+        ResponseRollups rollups = ResponseRollups.get();
+        if (rollups == null)
+            return new JSONObject().put("ErrorMessage", "Rollups are not enabled, set ROLLUPS=true").toString();
+        try {
+            long now = System.currentTimeMillis();
+            return new JSONObject()
+                    .put("campaign", campaign)
+                    .put("hours", hours)
+                    .put("stats", rollups.stats(campaign, new Date(now - hours * 3600000L), new Date(now + 3600000L)))
+                    .toString();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return new JSONObject().put("ErrorMessage", e.getMessage()).toString();
+        }
+    }
+
     /**************************************************************************************************************/
 
     /**
@@ -385,6 +327,7 @@ public class ProductMaster extends ProductMasterSuper {
         }
 
         predictResult.remove("predict_result");
+        ScoringEngine.predictionLogged(predictResult, campaign);
 
         this.UPDATE = setFinal(false, predictResult);
 
@@ -409,7 +352,9 @@ public class ProductMaster extends ProductMasterSuper {
 
         String response = "Success";
         try {
-            ecosystemResponse.putResponseReturnDetailAsync(JSONDecode.decode(documentJSON));
+            String document = JSONDecode.decode(documentJSON);
+            ecosystemResponse.putResponseReturnDetailAsync(document);
+            ScoringEngine.responseLogged(new JSONObject(document));
         } catch (Exception e) {
             e.printStackTrace();
             JSONObject error = new JSONObject().put("ErrorMessage", "Validate that uuid is available in log. " + e.getMessage());
@@ -437,7 +382,9 @@ public class ProductMaster extends ProductMasterSuper {
 
         String response;
         try {
-            JSONObject responseObj = ecosystemResponse.putResponseReturnDetail(JSONDecode.decode(documentJSON));
+            String document = JSONDecode.decode(documentJSON);
+            JSONObject responseObj = ecosystemResponse.putResponseReturnDetail(document);
+            ScoringEngine.responseLogged(new JSONObject(document));
             if (responseObj != null)
                 response = responseObj.getString("uuid");
             else
@@ -2,11 +2,32 @@ package com.ecosystem.runtime;
 
 import com.ecosystem.data.mongodb.ConnectionFactory;
 import com.ecosystem.plugin.PluginLoader;
+import com.ecosystem.plugin.lib.MultiModelScorer;
+import com.ecosystem.runtime.batch.BatchScoring;
 import com.ecosystem.runtime.continuous.*;
+import com.ecosystem.runtime.data.LogPartitionMaintenance;
+import com.ecosystem.runtime.data.LogPartitions;
+import com.ecosystem.runtime.data.ManagedMongoClient;
+import com.ecosystem.runtime.rewards.ArmStatistics;
+import com.ecosystem.runtime.rewards.IncrementalRewards;
+import com.ecosystem.runtime.rewards.LearnerCheckpoint;
+import com.ecosystem.runtime.rewards.LinearBandit;
+import com.ecosystem.runtime.rewards.LoggingSchema;
+import com.ecosystem.runtime.scheduler.EngineScheduler;
+import com.ecosystem.runtime.scheduler.LeaseElection;
+import com.ecosystem.runtime.scheduler.MongoLeaseStore;
+import com.ecosystem.runtime.security.ApiKeyAuthenticationFilter;
+import com.ecosystem.runtime.security.CachingAuthenticationManager;
+import com.ecosystem.runtime.security.CredentialCache;
+import com.ecosystem.runtime.security.IpAllowList;
+import com.ecosystem.runtime.security.IpAllowListFilter;
+import com.ecosystem.runtime.settings.CorporaVersion;
+import com.ecosystem.runtime.settings.SettingsWatcher;
 import com.ecosystem.utils.EnvironmentalVariables;
 import com.ecosystem.utils.GlobalSettings;
 import com.ecosystem.worker.license.ValidationService;
 import com.mongodb.client.MongoClient;
+import io.micrometer.core.instrument.Metrics;
 import io.swagger.v3.oas.annotations.OpenAPIDefinition;
 import io.swagger.v3.oas.annotations.servers.Server;
 import io.swagger.v3.oas.models.Components;
@@ -22,6 +43,7 @@ import org.json.JSONArray;
 import org.json.JSONObject;
 import org.springdoc.core.models.GroupedOpenApi;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.data.cassandra.CassandraDataAutoConfiguration;
@@ -41,13 +63,18 @@ import org.springframework.scheduling.annotation.Async;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.config.Customizer;
+import org.springframework.security.config.annotation.authentication.configuration.AuthenticationConfiguration;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.authentication.www.BasicAuthenticationFilter;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static com.ecosystem.worker.license.ValidationService.getEnvKey;
 import static com.ecosystem.worker.license.ValidationService.setEnvKey;
@@ -94,6 +121,10 @@ public class RuntimeApplication {
 	 * @throws IOException
 	 */
 	public static void main(String[] args) throws Exception {
+		/** Offline batch scoring of file extracts: java -jar <runtime>.jar batch --input ... --output ... */
+		if (args.length > 0 && args[0].equals("batch"))
+			System.exit(BatchScoring.run(Arrays.copyOfRange(args, 1, args.length)));
+
 		try {
 			settings = new GlobalSettings();
 		} catch (Exception e) {
@@ -165,7 +196,16 @@ public class RuntimeApplication {
 
 	/* This is to turn security off. Username and password is in the application.properties file */
 	@Bean
-	public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
+	public SecurityFilterChain filterChain(HttpSecurity http,
+										   AuthenticationConfiguration authenticationConfiguration,
+										   @Value("${security.credential.cache.size:1024}") int credentialCacheSize,
+										   @Value("${security.credential.cache.ttl:60}") long credentialCacheTtl,
+										   @Value("${security.api.key.secret:}") String apiKeySecret,
+										   @Value("${security.api.key.revoked:}") String apiKeyRevoked,
+										   @Value("${security.ip.allowlist:}") String ipAllowList) throws Exception {
+		if (securityFlag)
+			secureFastPath(http, authenticationConfiguration, credentialCacheSize, credentialCacheTtl, apiKeySecret, apiKeyRevoked, ipAllowList);
+
 		if (!securityFlag) {
 			// System.out.println("Loading...");
 			http.csrf(csrf -> csrf.disable())
@@ -198,6 +238,33 @@ public class RuntimeApplication {
 		return http.build();
 	}
 
+	/**
+	 * Authentication fast path: IP allowlist before anything else, HMAC signed X-API-KEY checked in constant time and
+	 * a short lived cache of verified basic auth credentials so that password hashing is not repeated per request.
+	 * Addresses are only restricted when security.ip.allowlist is set: the listed ranges, whitelist and ip are then
+	 * allowed and every other address gets 403. Setting ip alone does not restrict addresses.
+	 */
+	private void secureFastPath(HttpSecurity http, AuthenticationConfiguration authenticationConfiguration,
+								int credentialCacheSize, long credentialCacheTtl, String apiKeySecret, String apiKeyRevoked,
+								String ipAllowList) throws Exception {
+		if (ipAllowList != null && !ipAllowList.isBlank()) {
+			IpAllowList allowList = IpAllowList.fromString(ipAllowList);
+			for (String address : whitelist)
+				allowList.add(address);
+			if (ip != null)
+				allowList.add(ip);
+			http.addFilterBefore(new IpAllowListFilter(allowList), BasicAuthenticationFilter.class);
+		}
+
+		if (apiKeySecret != null && !apiKeySecret.isEmpty())
+			http.addFilterBefore(new ApiKeyAuthenticationFilter(apiKeySecret, role, apiKeyRevoked), BasicAuthenticationFilter.class);
+
+		AuthenticationManager authenticationManager = authenticationConfiguration.getAuthenticationManager();
+		if (authenticationManager != null)
+			http.authenticationManager(new CachingAuthenticationManager(authenticationManager,
+					new CredentialCache(credentialCacheSize, credentialCacheTtl)));
+	}
+
 	/*****************************************************************************************************************
 	 * Scheduling engine for model creating and scoring updates.
 	 *****************************************************************************************************************/
@@ -206,13 +273,56 @@ public class RuntimeApplication {
 	class ScheduledActivity {
 		private long count = 0;
 
-		MongoClient mongoClient = new ConnectionFactory().getMongoClient();
+		/** Replaced clients are closed once their leases are released, leases held past the grace are reported, see mongoSwapGrace() */
+		ManagedMongoClient managedMongoClient = new ManagedMongoClient(() -> new ConnectionFactory().getMongoClient(),
+				mongoSwapGrace() * 1000L, Metrics.globalRegistry);
+		MongoClient mongoClient = managedMongoClient.getClient();
 
 		RollingEcosystemRewards rollingEcosystemRewards = null;
 		RollingNaiveBayes rollingNaiveBayes = new RollingNaiveBayes(mongoClient);
 		RollingBehavior rollingBehavior = new RollingBehavior(mongoClient);
 		RollingNetwork rollingNetwork = new RollingNetwork(mongoClient);
 		RollingQLearning rollingQLearning = new RollingQLearning(mongoClient);
+		IncrementalRewards incrementalRewards = incrementalRewards(mongoClient);
+
+		/** Engines run in parallel, ENGINE_THREADS at a time (default 4) and at most ENGINE_TIMEOUT seconds (default 1800) */
+		EngineScheduler engineScheduler = engineScheduler();
+		/** Engine keys (corpus and algorithm) that failed since the last tick, only their engine instances are rebuilt */
+		Set<String> failedEngines = ConcurrentHashMap.newKeySet();
+		/** Runs of an engine instance for different corpora take turns on its lock, rebuilt instances get a new lock */
+		Map<String, ReentrantLock> engineLocks = new ConcurrentHashMap<>();
+
+		/** With SCHEDULER_ELECTION=true only the replica holding the lease runs the engines, followers use its results */
+		LeaseElection leaseElection = leaseElection(managedMongoClient);
+		/** Leadership seen by the last tick, null before the first tick */
+		Boolean leading = null;
+
+		/** With logging.partition set, logs past the hot window are moved into time partitions and expired partitions dropped */
+		LogPartitionMaintenance logPartitionMaintenance = logPartitionMaintenance();
+
+		/** With ONLINE_REWARDS_CHECKPOINT set, the online learners are restored at startup and snapshot from the ticks */
+		LearnerCheckpoint learnerCheckpoint = LearnerCheckpoint.get();
+
+		/** Settings are only reloaded when the properties files change, sections changed since the last tick */
+		SettingsWatcher settingsWatcher = SettingsWatcher.get(settings);
+		Set<SettingsWatcher.Section> changedSections = changedSections(settingsWatcher);
+
+		ScheduledActivity() {
+			engineScheduler.setFailureListener((engine, e) -> failedEngines.add(engine));
+			/** A replica that lost the lease stops its engine runs, the watermarks fence the writes of runs that do not stop */
+			if (leaseElection != null)
+				leaseElection.setLeadershipListener(leader -> {
+					if (!leader) engineScheduler.cancelAll("no longer leader");
+				});
+			/** Corpora and randomisation edited in Mongo do not change the files, their documents are compared on every tick */
+			settingsWatcher.setCorporaVersion(corporaVersion(managedMongoClient, settingsWatcher));
+			/** Replaced models release the layouts and latency timers of the models they replace */
+			settingsWatcher.addListener(change -> {
+				MultiModelScorer multiModelScorer = MultiModelScorer.get();
+				if (change.changed(SettingsWatcher.Section.MODELS) && multiModelScorer != null)
+					multiModelScorer.modelsChanged();
+			});
+		}
 
 		/**
 		 * PROCESS DYNAMIC CONFIGURATION: Continuous scheduling engine.
@@ -224,20 +334,171 @@ public class RuntimeApplication {
 		// @Scheduled(fixedDelayString = "${monitoring.delay}000", initialDelay = 10000)
 		@Scheduled(fixedDelayString = "${monitoring.delay}000")
 		public void scheduleFixedRateTaskAsync() throws Exception {
+			/** The lease keeps the client of this run open while a swap drains it */
+			try (ManagedMongoClient.Lease lease = managedMongoClient.acquire()) {
+				mongoClient = lease.getClient();
+				processDynamicEngines();
+			}
+		}
 
-			settings = new GlobalSettings();
-			if (settings.getCorpora() != null && mongoClient != null) {
+		/**
+		 * Swap to a new, warmed up client and rebuild the engines on it. The previous client is closed once drained.
+		 */
+		private void reconnect() {
+			mongoClient = managedMongoClient.swap();
+			rollingEcosystemRewards = new RollingEcosystemRewards(mongoClient);
+			rollingNaiveBayes = new RollingNaiveBayes(mongoClient);
+			rollingBehavior = new RollingBehavior(mongoClient);
+			rollingNetwork = new RollingNetwork(mongoClient);
+			rollingQLearning = new RollingQLearning(mongoClient);
+			/** Runs in flight keep the previous instance, its pool stops once they finish */
+			if (incrementalRewards != null) incrementalRewards.close();
+			incrementalRewards = incrementalRewards(mongoClient);
+			engineLocks.clear();
+			failedEngines.clear();
+		}
+
+		/**
+		 * Rebuild the engine instances of the engines that failed since the last tick on the current client. The other
+		 * engines, and the runs in flight on the failed instances, carry on; a run still holding the lock of a replaced
+		 * instance does not hold up the replacement.
+		 */
+		private void rebuildFailedEngines() {
+			Set<String> algos = new HashSet<>();
+			for (Iterator<String> engines = failedEngines.iterator(); engines.hasNext(); ) {
+				String engine = engines.next();
+				engines.remove();
+				LOGGER.warn("RuntimeApplication:W001: Dynamic engine " + engine + " failed, rebuilding its engine");
+				managedMongoClient.recordFailure();
+				algos.add(engine.substring(engine.lastIndexOf(':') + 1));
+			}
+			for (String algo : algos) {
+				if (algo.equals("binaryThompson")) {
+					rollingEcosystemRewards = new RollingEcosystemRewards(mongoClient);
+					rollingEcosystemRewards.dynamicRecommender(mongoClient, settings);
+					if (incrementalRewards != null) {
+						incrementalRewards.close();
+						incrementalRewards = incrementalRewards(mongoClient);
+					}
+				} else if (algo.equals("naiveBayes"))
+					rollingNaiveBayes = new RollingNaiveBayes(mongoClient);
+				else if (algo.equals("behaviorAlgos"))
+					rollingBehavior = new RollingBehavior(mongoClient);
+				else if (algo.equals("Network"))
+					rollingNetwork = new RollingNetwork(mongoClient);
+				else if (algo.equals("QLearning"))
+					rollingQLearning = new RollingQLearning(mongoClient);
+				else
+					continue;
+				engineLocks.put(algo, new ReentrantLock());
+			}
+		}
+
+		/**
+		 * @return true if this replica runs the engines, a change to follower is logged once with the current leader
+		 */
+		private boolean leading() {
+			if (leaseElection == null)
+				return true;
+			boolean leader = leaseElection.isLeader();
+			if (leading == null || leading != leader) {
+				leading = leader;
+				if (!leader)
+					LOGGER.info("RuntimeApplication:I001: Follower, dynamic engines run on " + leaseElection.getLeader());
+			}
+			return leader;
+		}
+
+		/**
+		 * Run on the engine instance under its lock. The wait is interruptible, a run queued behind a stuck run of the same
+		 * instance ends with its own timeout or a cancel instead of holding its pool thread.
+		 */
+		private static void locked(ReentrantLock lock, IncrementalRewards.FullRecompute run) throws Exception {
+			lock.lockInterruptibly();
+			try {
+				run.run();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Run the engine on the engine pool, the run holds a lease on the client the engines were built with.
+		 * The overlap guard is per corpus and algorithm. Engine instances are shared between corpora, runs of the same
+		 * instance for different corpora take turns on it.
+		 */
+		private void dispatch(String algo, JSONObject paramDoc) {
+			RollingEcosystemRewards rewards = rollingEcosystemRewards;
+			RollingNaiveBayes naiveBayes = rollingNaiveBayes;
+			RollingBehavior behavior = rollingBehavior;
+			RollingNetwork network = rollingNetwork;
+			RollingQLearning qLearning = rollingQLearning;
+			IncrementalRewards incremental = incrementalRewards;
+			ReentrantLock lock = engineLocks.computeIfAbsent(algo, a -> new ReentrantLock());
+			JSONArray corpora = settings.getCorpora();
+			long fence = leaseElection != null ? leaseElection.getToken() : -1;
+			ManagedMongoClient.Lease lease = managedMongoClient.acquire();
+			boolean started = engineScheduler.submit(paramDoc.opt("name") + ":" + algo, () -> {
+				try {
+					if (algo.equals("binaryThompson") && incremental != null)
+						return incremental.process(paramDoc, corpora, () -> locked(lock, () -> rewards.process(paramDoc)), fence);
+					if (algo.equals("binaryThompson"))
+						locked(lock, () -> rewards.process(paramDoc));
+					else if (algo.equals("naiveBayes"))
+						locked(lock, () -> naiveBayes.process(paramDoc));
+					else if (algo.equals("behaviorAlgos"))
+						locked(lock, () -> behavior.process(paramDoc));
+					else if (algo.equals("Network"))
+						locked(lock, () -> network.process(paramDoc));
+					else if (algo.equals("QLearning"))
+						locked(lock, () -> qLearning.process(paramDoc));
+					else
+						/** linUCB and linearThompson learn online in LinearBandit, there is no engine run */
+						return 0L;
+					/** A full run reads the whole log of the corpus */
+					return LoggingSchema.of(paramDoc).countContacts(lease.getClient());
+				} finally {
+					lease.close();
+				}
+			});
+			if (!started)
+				lease.close();
+		}
+
+		/**
+		 * Move and expire the logging partitions on the engine pool, next to the engines and with the same client lease.
+		 */
+		private void maintainLogPartitions() {
+			LogPartitionMaintenance maintenance = logPartitionMaintenance;
+			ManagedMongoClient.Lease lease = managedMongoClient.acquire();
+			boolean started = engineScheduler.submit("logPartitions", () -> {
+				try {
+					Properties properties = SettingsWatcher.properties();
+					String contacts = properties.getProperty("logging.collection", "ecosystemruntime");
+					return maintenance.run(lease.getClient().getDatabase(properties.getProperty("logging.database", "logging")),
+							List.of(contacts, properties.getProperty("logging.collection.response", contacts + "_response")),
+							"uuid", LogPartitions.of(properties).getLookupKey());
+				} catch (Exception e) {
+					/** Not an engine failure, the documents stay where they are until the next tick */
+					LOGGER.error("RuntimeApplication:E002: Logging partitions not maintained: " + e);
+					return -1L;
+				} finally {
+					lease.close();
+				}
+			});
+			if (!started)
+				lease.close();
+		}
 
-				if (initialSettings == null)
-					initialSettings = new JSONArray();
+		private void processDynamicEngines() throws Exception {
+			settingsWatcher.check();
+			settings = settingsWatcher.getSettings();
+			if (settings.getCorpora() != null && mongoClient != null) {
 
-				/** Changes in settings */
-				if (!initialSettings.toString().equals(settings.getCorpora().toString())) {
+				/** Changes in settings rebuild every engine on a new client */
+				if (changedSections.remove(SettingsWatcher.Section.CORPORA)) {
 					System.out.println("Settings changed, restarting...");
-					if (mongoClient != null)
-						mongoClient.close();
-					mongoClient = new ConnectionFactory().getMongoClient();
-					rollingEcosystemRewards = new RollingEcosystemRewards(mongoClient);
+					reconnect();
 					rollingEcosystemRewards.dynamicRecommender(mongoClient, settings);
 					initialSettings = settings.getCorpora();
 					return;
@@ -245,13 +506,32 @@ public class RuntimeApplication {
 					rollingEcosystemRewards = new RollingEcosystemRewards(mongoClient);
 					rollingEcosystemRewards.dynamicRecommender(mongoClient, settings);
 				}
+				/** Engines that failed since the last run are rebuilt, each on its own */
+				rebuildFailedEngines();
 
 				System.out.println("Scheduler: " + count + " - " + RollingEcosystemRewards.nowDate());
 
+				/** Online counts from scoring and /response into the options stores */
+				ArmStatistics armStatistics = ArmStatistics.get();
+				int flushed = armStatistics != null ? armStatistics.flush(mongoClient, settings.getCorpora()) : 0;
+				LinearBandit linearBandit = LinearBandit.active();
+				if (linearBandit != null)
+					linearBandit.expire(System.currentTimeMillis());
+				if (learnerCheckpoint != null)
+					learnerCheckpoint.checkpoint(armStatistics, linearBandit, flushed > 0);
+
+				boolean leader = leading();
+				if (logPartitionMaintenance != null && leader)
+					maintainLogPartitions();
+
 				if (rollingEcosystemRewards != null) {
 
-					JSONObject paramDoc = rollingEcosystemRewards.checkCorpora(settings);
-					if (!paramDoc.isEmpty()) {
+					/** checkCorpora returns one due corpus per call, every corpus due in this tick is dispatched */
+					Set<String> due = new HashSet<>();
+					for (int i = 0; i < settings.getCorpora().length(); i++) {
+						JSONObject paramDoc = rollingEcosystemRewards.checkCorpora(settings);
+						if (paramDoc.isEmpty() || !due.add(String.valueOf(paramDoc.opt("name"))))
+							break;
 
 						try {
 							String algo = paramDoc.getJSONObject("randomisation").getString("approach");
@@ -261,19 +541,11 @@ public class RuntimeApplication {
 							System.out.println("A=====================================================================================================================");
 
 							/** PROCESS INDEXES ONCE PER STARTUP */
-							if (count == 0)
+							if (count == 0 && due.size() == 1)
 								rollingEcosystemRewards.indexes(mongoClient);
 
-							if (algo.equals("binaryThompson"))
-								rollingEcosystemRewards.process(paramDoc);
-							if (algo.equals("naiveBayes"))
-								rollingNaiveBayes.process(paramDoc);
-							if (algo.equals("behaviorAlgos"))
-								rollingBehavior.process(paramDoc);
-							if (algo.equals("Network"))
-								rollingNetwork.process(paramDoc);
-							if (algo.equals("QLearning"))
-								rollingQLearning.process(paramDoc);
+							if (leader)
+								dispatch(algo, paramDoc);
 
 						} catch (Exception e) {
 
@@ -282,12 +554,11 @@ public class RuntimeApplication {
 							System.out.println("B=====================================================================================================================");
 
 							System.out.println("Settings changed, restarting...");
-							if (mongoClient != null)
-								mongoClient.close();
-							mongoClient = new ConnectionFactory().getMongoClient();
-							rollingEcosystemRewards = new RollingEcosystemRewards(mongoClient);
+							managedMongoClient.recordFailure();
+							reconnect();
 							rollingEcosystemRewards.dynamicRecommender(mongoClient, settings);
 							initialSettings = settings.getCorpora();
+							break;
 
 						}
 					}
@@ -299,6 +570,130 @@ public class RuntimeApplication {
 	}
 
 
+	private static EngineScheduler engineScheduler() {
+		String threads = EnvironmentalVariables.getEnvKey("ENGINE_THREADS");
+		return new EngineScheduler(threads != null ? Integer.parseInt(threads.trim()) : 4, engineTimeout() * 1000L, Metrics.globalRegistry);
+	}
+
+	/**
+	 * ENGINE_TIMEOUT in seconds, default 1800.
+	 */
+	private static long engineTimeout() {
+		return envSeconds("ENGINE_TIMEOUT", 1800, 1);
+	}
+
+	/**
+	 * Watermark based binaryThompson updates when INCREMENTAL_REWARDS=true, with a full recompute every
+	 * INCREMENTAL_FULL_EVERY runs (default 24) and at most INCREMENTAL_MAX_DOCUMENTS (default 1000000) read per run.
+	 * Logs are read in INCREMENTAL_PARTITIONS parallel partitions (default 4) with at most INCREMENTAL_MAX_BUFFERED log
+	 * documents (default 10000, a count not a byte size) held at a time, up to INCREMENTAL_SETTLE seconds (default 60)
+	 * before now. With INCREMENTAL_ROLLUPS=true the increments are read from the hourly rollups (ROLLUPS=true on every
+	 * replica) instead of the logs.
+	 */
+	private static IncrementalRewards incrementalRewards(MongoClient mongoClient) {
+		if (!"true".equalsIgnoreCase(EnvironmentalVariables.getEnvKey("INCREMENTAL_REWARDS")))
+			return null;
+		String fullEvery = EnvironmentalVariables.getEnvKey("INCREMENTAL_FULL_EVERY");
+		String maxDocuments = EnvironmentalVariables.getEnvKey("INCREMENTAL_MAX_DOCUMENTS");
+		String partitions = EnvironmentalVariables.getEnvKey("INCREMENTAL_PARTITIONS");
+		String maxBuffered = EnvironmentalVariables.getEnvKey("INCREMENTAL_MAX_BUFFERED");
+		String settle = EnvironmentalVariables.getEnvKey("INCREMENTAL_SETTLE");
+		IncrementalRewards incremental = new IncrementalRewards(mongoClient, fullEvery != null ? Integer.parseInt(fullEvery.trim()) : 24,
+				maxDocuments != null ? Integer.parseInt(maxDocuments.trim()) : 1000000,
+				partitions != null ? Integer.parseInt(partitions.trim()) : 4,
+				maxBuffered != null ? Integer.parseInt(maxBuffered.trim()) : 10000,
+				settle != null ? Long.parseLong(settle.trim()) : 60);
+		incremental.setRollups("true".equalsIgnoreCase(EnvironmentalVariables.getEnvKey("INCREMENTAL_ROLLUPS")));
+		return incremental;
+	}
+
+	/**
+	 * Leader election for the dynamic engines when SCHEDULER_ELECTION=true, the lease is held for SCHEDULER_LEASE seconds
+	 * (default 60) in the ecosystem_leases collection of the logging database.
+	 */
+	private static LeaseElection leaseElection(ManagedMongoClient managedMongoClient) {
+		if (!"true".equalsIgnoreCase(EnvironmentalVariables.getEnvKey("SCHEDULER_ELECTION")))
+			return null;
+		String database = "logging";
+		try {
+			database = SettingsWatcher.properties().getProperty("logging.database", database);
+		} catch (IOException e) {
+			LOGGER.error("RuntimeApplication:E001: Properties not readable, lease kept in " + database + ": " + e);
+		}
+		String lease = EnvironmentalVariables.getEnvKey("SCHEDULER_LEASE");
+		LeaseElection election = new LeaseElection(new MongoLeaseStore(managedMongoClient::getClient, database, "ecosystem_leases"),
+				"dynamic_engines", (lease != null ? Long.parseLong(lease.trim()) : 60) * 1000L, Metrics.globalRegistry);
+		election.start();
+		return election;
+	}
+
+	/**
+	 * Maintenance of the time partitioned logging collections when logging.partition is hourly or daily, at most
+	 * LOG_PARTITION_MAX_DOCUMENTS (default 100000) documents are moved per collection and tick.
+	 */
+	private static LogPartitionMaintenance logPartitionMaintenance() {
+		LogPartitions partitions;
+		try {
+			partitions = LogPartitions.of(SettingsWatcher.properties());
+		} catch (IOException | IllegalArgumentException e) {
+			LOGGER.error("RuntimeApplication:E003: Logging partitions not configured: " + e);
+			return null;
+		}
+		if (!partitions.isEnabled())
+			return null;
+		String maxDocuments = EnvironmentalVariables.getEnvKey("LOG_PARTITION_MAX_DOCUMENTS");
+		return new LogPartitionMaintenance(partitions, maxDocuments != null ? Integer.parseInt(maxDocuments.trim()) : 100000,
+				Metrics.globalRegistry);
+	}
+
+	/**
+	 * Seconds after which leases still held on a swapped client are reported: MONGO_SWAP_GRACE, but at least ENGINE_TIMEOUT
+	 * plus a minute as engine runs hold their lease up to ENGINE_TIMEOUT. 1860 by default.
+	 */
+	private static long mongoSwapGrace() {
+		return Math.max(envSeconds("MONGO_SWAP_GRACE", 0, 0), engineTimeout() + 60);
+	}
+
+	/**
+	 * Seconds from the environment, the default when unset, not a number or below the minimum.
+	 */
+	private static long envSeconds(String key, long defaultValue, long minimum) {
+		String value = EnvironmentalVariables.getEnvKey(key);
+		if (value == null)
+			return defaultValue;
+		try {
+			long seconds = Long.parseLong(value.trim());
+			if (seconds >= minimum)
+				return seconds;
+		} catch (NumberFormatException e) {
+			/** Reported below */
+		}
+		LOGGER.warn("RuntimeApplication:W002: " + key + " is not a number of seconds >= " + minimum + ": " + value + ", using " + defaultValue);
+		return defaultValue;
+	}
+
+	/**
+	 * Version of the corpora configuration documents in CORPORA_COLLECTION (database.collection, default
+	 * ecosystem_meta.dynamic_engagement).
+	 */
+	private static CorporaVersion corporaVersion(ManagedMongoClient managedMongoClient, SettingsWatcher settingsWatcher) {
+		String namespace = EnvironmentalVariables.getEnvKey("CORPORA_COLLECTION");
+		String[] parts = (namespace != null && namespace.contains(".") ? namespace.trim() : "ecosystem_meta.dynamic_engagement").split("\\.", 2);
+		return new CorporaVersion(managedMongoClient::getClient, parts[0], parts[1], () -> {
+			GlobalSettings current = settingsWatcher.getSettings();
+			return current != null ? current.getCorpora() : null;
+		});
+	}
+
+	/**
+	 * Collect the sections changed between scheduler ticks.
+	 */
+	private static Set<SettingsWatcher.Section> changedSections(SettingsWatcher settingsWatcher) {
+		Set<SettingsWatcher.Section> changedSections = Collections.synchronizedSet(EnumSet.noneOf(SettingsWatcher.Section.class));
+		settingsWatcher.addListener(change -> changedSections.addAll(change.getSections()));
+		return changedSections;
+	}
+
 	public static ConfigurableApplicationContext getContext() {
 		return context;
 	}
@@ -0,0 +1,240 @@
+package com.ecosystem.runtime;
+
+import com.ecosystem.runtime.rewards.ArmStatistics;
+import com.ecosystem.runtime.rewards.LinearBandit;
+import com.ecosystem.runtime.rewards.ResponseRollups;
+import com.ecosystem.runtime.settings.SettingsWatcher;
+import com.ecosystem.utils.GlobalSettings;
+import com.ecosystem.utils.JSONFlattener;
+import com.ecosystem.utils.log.LogManager;
+import com.ecosystem.utils.log.Logger;
+import com.mongodb.client.MongoClient;
+import org.json.JSONObject;
+
+import static com.ecosystem.utils.GenerateUUID.generateUUID;
+
+/**
+ * In-process scoring API for batch jobs and consumers running in the same JVM as the runtime.
+ * Uses the same prediction flow as /invocations (pre-score, scoring, post-score and logging) without HTTP, the
+ * security filter or JSON encoding of the request.
+ *
+ * The settings and MongoClient given here are the ones params are resolved and predictions are read and logged with.
+ * EcosystemMaster and EcosystemResponse read the deployment properties themselves, as they do for /invocations.
+ * An engine is safe to share between threads.
+ *
+ * Example:
+ *    ScoringEngine engine = ScoringEngine.create(new GlobalSettings());
+ *    ScoringResult result = engine.score(new ScoringRequest("recommender", "1234").setNumberOffers(3));
+ *    engine.response(new JSONObject().put("uuid", result.getUuid()).put("offers_accepted", ...));
+ */
+public class ScoringEngine extends ProductMasterSuper {
+
+    private static final Logger LOGGER = LogManager.getLogger(ScoringEngine.class.getName());
+
+    /** Guards the inherited UPDATE flag and settings, read and set by concurrent score calls */
+    private final Object updateLock = new Object();
+
+    /**
+     * @param settings    Settings used to resolve campaign defaults, epsilon and feature store lookup, null for the
+     *                    runtime defaults.
+     * @param mongoClient Client predictions are read and logged with, null for the runtime default.
+     */
+    public ScoringEngine(GlobalSettings settings, MongoClient mongoClient) {
+        super();
+        if (settings != null) this.settings = settings;
+        if (mongoClient != null) this.mongoClient = mongoClient;
+    }
+
+    public static ScoringEngine create(GlobalSettings settings) {
+        return new ScoringEngine(settings, null);
+    }
+
+    public static ScoringEngine create(GlobalSettings settings, MongoClient mongoClient) {
+        return new ScoringEngine(settings, mongoClient);
+    }
+
+    public GlobalSettings getSettings() {
+        synchronized (updateLock) {
+            return settings;
+        }
+    }
+
+    /**
+     * Replace the settings of this engine with the ones the watcher publishes when the lookup or the other settings
+     * (epsilon, campaign defaults) change.
+     */
+    public ScoringEngine follow(SettingsWatcher watcher) {
+        watcher.addListener(change -> {
+            if (change.changed(SettingsWatcher.Section.LOOKUP) || change.changed(SettingsWatcher.Section.OTHER)) {
+                synchronized (updateLock) {
+                    settings = change.getSettings();
+                }
+            }
+        });
+        return this;
+    }
+
+    public MongoClient getMongoClient() {
+        return mongoClient;
+    }
+
+    /**
+     * Score a request, same semantics as /invocations.
+     * @param request Typed request
+     * @return Typed result, errors are reported via isError()
+     */
+    public ScoringResult score(ScoringRequest request) {
+        JSONObject predictResult = new JSONObject();
+        boolean update;
+        GlobalSettings current;
+        synchronized (updateLock) {
+            update = this.UPDATE;
+            current = settings;
+        }
+        try {
+            JSONObject param = predictionParams(current, update, request);
+            LOGGER.info("ScoringEngine:UUID: " + param.get("uuid") + " predictor: " + request.getCampaign());
+
+            predictResult = ecosystemMaster.getPredictionResult(mongoClient, param);
+            predictResult = finalizeResult(predictResult, param, request);
+        } catch (Exception e) {
+            LOGGER.error("ScoringEngine:E001: " + e.getMessage());
+            predictResult.put("ErrorMessage", e.getMessage());
+        }
+
+        synchronized (updateLock) {
+            this.UPDATE = setFinal(false, predictResult);
+        }
+
+        return new ScoringResult(predictResult);
+    }
+
+    /**
+     * Update response based on predictions accepted, same as /responseResult:
+     * {"uuid": "dcb54a23-0737-4768-845d-48162598c0f7", "offers_accepted": [{"offer_name": "OFFER_A"}], "channel_name": "app"}
+     * @return Logged response detail
+     */
+    public JSONObject response(JSONObject document) throws Exception {
+        JSONObject detail = ecosystemResponse.putResponseReturnDetail(document.toString());
+        responseLogged(document);
+        return detail;
+    }
+
+    /**
+     * Same as response but does not wait for the update to be logged.
+     */
+    public void responseAsync(JSONObject document) throws Exception {
+        ecosystemResponse.putResponseReturnDetailAsync(document.toString());
+        responseLogged(document);
+    }
+
+    /**
+     * Online arm statistics and rollups of a logged prediction, shared with /invocations and /offerRecommendations.
+     */
+    static void predictionLogged(JSONObject predictResult, String campaign) {
+        ResponseRollups rollups = ResponseRollups.get();
+        if (rollups != null && !predictResult.has("ErrorMessage"))
+            rollups.prediction(campaign, predictResult.optJSONArray("final_result"));
+    }
+
+    /**
+     * Online arm statistics and rollups of a logged response, shared with the response endpoints and ingestion.
+     */
+    public static void responseLogged(JSONObject document) {
+        ArmStatistics armStatistics = ArmStatistics.get();
+        if (armStatistics != null) armStatistics.response(document);
+        LinearBandit linearBandit = LinearBandit.active();
+        if (linearBandit != null) linearBandit.response(document);
+        ResponseRollups rollups = ResponseRollups.get();
+        if (rollups != null) rollups.response(document);
+    }
+
+    /**
+     * Build the param object passed to EcosystemMaster.getPredictionResult, shared with /invocations.
+     */
+    static JSONObject predictionParams(GlobalSettings settings, boolean update, ScoringRequest request) {
+        JSONObject paramsParams = request.getParams();
+
+        /************ Setup values from input params that will be placed in **********/
+        JSONObject param = new JSONObject();
+        String uuid = generateUUID();
+        param.put("uuid", uuid);
+        param.put("UPDATE", update);
+
+        param.put("name", request.getCampaign());
+        param.put("customer", request.getCustomer());
+        param.put("campaign", request.getCampaign());
+        param.put("subcampaign", request.getSubcampaign());
+        param.put("channel", request.getChannel());
+        param.put("subname", request.getSubcampaign());
+        param.put("resultcount", request.getNumberOffers());
+        param.put("userid", request.getUserId());
+        param.put("mojo", "1");
+
+        /* this is needed to not cause a stack overflow as adding current value of json object */
+        JSONObject inParam = new JSONObject(param.toString());
+        param.put("api_params", inParam);
+
+        /************ Set defaults for model and paramneters from database ***********/
+        param.put("in_params", paramsParams);
+        if (paramsParams.has("input")) {
+            param.put("input", paramsParams.getJSONArray("input"));
+            param.put("value", paramsParams.getJSONArray("value"));
+            param.put("lookup", new JSONObject().put("value", request.getCustomer()).put("key", "customer"));
+            param.put("dbparam", false);
+        } else {
+            param.put("dbparam", true);
+            param = ValidateParams.getLookupFromParams(settings, param, request.getCustomer());
+        }
+
+        /************ Obtain default epsilon from properties or obtain from input params ***********/
+        if (!paramsParams.has("mab")) {
+            JSONObject mabParam = new JSONObject();
+            mabParam.put("class", "mabone");
+            mabParam.put("epsilon", settings.getEpsilon());
+            param.put("mab", mabParam);
+        } else {
+            param.put("mab", paramsParams.getJSONObject("mab"));
+        }
+
+        return param;
+    }
+
+    /**
+     * Post processing of the prediction result, shared with /invocations: error flag, spam detail and flattening.
+     */
+    static JSONObject finalizeResult(JSONObject predictResult, JSONObject param, ScoringRequest request) {
+        JSONObject paramsParams = request.getParams();
+
+        if (param.has("in_params")) predictResult.put("in_params", param.getJSONObject("in_params"));
+        if (predictResult.has("ErrorMessage")) {
+            predictResult.put("error", 1);
+        }
+        predictResult.remove("predict_result");
+        predictionLogged(predictResult, request.getCampaign());
+
+        String detail = "full";
+        if (paramsParams.has("detail"))
+            detail = paramsParams.getString("detail");
+
+        /**************** Special prediction approaches: Spam **************/
+        if (detail.contains("spam") || request.getSubcampaign().contains("spam")) {
+            JSONObject resultFull = predictResult.getJSONArray("final_result").getJSONObject(0).getJSONObject("result_full");
+            JSONObject newResult = new JSONObject();
+            newResult.put("uuid", resultFull.get("uuid"));
+            newResult.put("offer", resultFull.get("offer"));
+            newResult.put("ham_confidence", resultFull.get("ham_confidence"));
+            newResult.put("spam_confidence", resultFull.get("spam_confidence"));
+            newResult.put("spam", resultFull.get("spam"));
+            predictResult = newResult;
+        }
+
+        /**************** Final step to decide if json needs to be flattened **************/
+        if (paramsParams.has("flatten_json") && Boolean.valueOf(String.valueOf(paramsParams.opt("flatten_json")))) {
+            predictResult = JSONFlattener.flatten(predictResult);
+        }
+
+        return predictResult;
+    }
+
+}
@@ -0,0 +1,142 @@
+package com.ecosystem.runtime;
+
+import org.json.JSONObject;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Typed scoring request for in-process scoring through ScoringEngine, equivalent to the /invocations payload:
+ * {"campaign":"name","subcampaign":"none","customer":"1111","channel":"app","numberoffers":1,"userid":"test","params":"{}"}
+ */
+public class ScoringRequest {
+
+    private String campaign;
+    private String subcampaign;
+    private String customer = "none";
+    private String channel = "api";
+    private int numberOffers = 1;
+    private String userId = "api";
+    private JSONObject params = new JSONObject();
+
+    public ScoringRequest() {
+    }
+
+    public ScoringRequest(String campaign, String customer) {
+        this.campaign = campaign;
+        this.customer = customer;
+    }
+
+    /**
+     * Read the /invocations payload, defaults are the same as the API.
+     * @param inpObj          Invocation payload
+     * @param defaultCampaign Campaign used when the payload has none, typically settings.getProjectDeploymentID()
+     * @return ScoringRequest
+     * @throws org.json.JSONException when params is not valid JSON
+     */
+    public static ScoringRequest fromInvocation(JSONObject inpObj, String defaultCampaign) {
+        ScoringRequest request = new ScoringRequest();
+
+        request.campaign = defaultCampaign;
+        if (inpObj.has("campaign"))
+            request.campaign = String.valueOf(inpObj.get("campaign"));
+
+        request.subcampaign = request.campaign;
+        if (inpObj.has("subcampaign"))
+            request.subcampaign = String.valueOf(inpObj.get("subcampaign"));
+
+        if (inpObj.has("channel"))
+            request.channel = String.valueOf(inpObj.get("channel"));
+
+        if (inpObj.has("numberoffers"))
+            request.numberOffers = Integer.parseInt(String.valueOf(inpObj.get("numberoffers")));
+
+        if (inpObj.has("userid"))
+            request.userId = String.valueOf(inpObj.get("userid"));
+
+        if (inpObj.has("customer"))
+            request.customer = String.valueOf(inpObj.get("customer"));
+
+        String params = "{}";
+        if (inpObj.has("params"))
+            params = (String) inpObj.get("params");
+        request.params = parseParams(params);
+
+        return request;
+    }
+
+    /**
+     * Params arrive url encoded and sometimes quoted from the API.
+     */
+    public static JSONObject parseParams(String params) {
+        String in_params = URLDecoder.decode(params, StandardCharsets.UTF_8);
+        if (in_params.startsWith("\"")) in_params = in_params.substring(1, in_params.length() - 1).replaceAll("\\\\", "");
+        return new JSONObject(in_params);
+    }
+
+    public String getCampaign() {
+        return campaign;
+    }
+
+    public ScoringRequest setCampaign(String campaign) {
+        this.campaign = campaign;
+        return this;
+    }
+
+    /** Defaults to the campaign if not set */
+    public String getSubcampaign() {
+        return subcampaign != null ? subcampaign : campaign;
+    }
+
+    public ScoringRequest setSubcampaign(String subcampaign) {
+        this.subcampaign = subcampaign;
+        return this;
+    }
+
+    public String getCustomer() {
+        return customer;
+    }
+
+    public ScoringRequest setCustomer(String customer) {
+        this.customer = customer;
+        return this;
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    public ScoringRequest setChannel(String channel) {
+        this.channel = channel;
+        return this;
+    }
+
+    public int getNumberOffers() {
+        return numberOffers;
+    }
+
+    public ScoringRequest setNumberOffers(int numberOffers) {
+        this.numberOffers = numberOffers;
+        return this;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public ScoringRequest setUserId(String userId) {
+        this.userId = userId;
+        return this;
+    }
+
+    /** Same as the params of /invocations, eg. {"input":["x"],"value":[1]}, mab, detail, contextual variables */
+    public JSONObject getParams() {
+        return params;
+    }
+
+    public ScoringRequest setParams(JSONObject params) {
+        this.params = params != null ? params : new JSONObject();
+        return this;
+    }
+
+}
@@ -0,0 +1,117 @@
+package com.ecosystem.runtime;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Typed view over the prediction result returned by ScoringEngine. The full result, as returned by /invocations,
+ * is available through toJSON().
+ */
+public class ScoringResult {
+
+    private final JSONObject result;
+    private List<ScoredOffer> offers;
+
+    public ScoringResult(JSONObject result) {
+        this.result = result;
+    }
+
+    public String getUuid() {
+        return result.optString("uuid", null);
+    }
+
+    public boolean isError() {
+        return result.has("ErrorMessage");
+    }
+
+    public String getErrorMessage() {
+        return result.has("ErrorMessage") ? String.valueOf(result.get("ErrorMessage")) : null;
+    }
+
+    public boolean isExplore() {
+        return result.optInt("explore", 0) == 1;
+    }
+
+    /**
+     * Ranked offers from final_result.
+     */
+    public List<ScoredOffer> getOffers() {
+        if (offers == null) {
+            JSONArray finalResult = result.optJSONArray("final_result");
+            if (finalResult == null) {
+                offers = Collections.emptyList();
+            } else {
+                List<ScoredOffer> list = new ArrayList<>(finalResult.length());
+                for (int i = 0; i < finalResult.length(); i++)
+                    list.add(new ScoredOffer(finalResult.getJSONObject(i)));
+                offers = Collections.unmodifiableList(list);
+            }
+        }
+        return offers;
+    }
+
+    public JSONObject toJSON() {
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return result.toString();
+    }
+
+    /**
+     * Single ranked offer: {"rank":1,"result":{...},"result_full":{...}}
+     */
+    public static class ScoredOffer {
+        private final JSONObject item;
+        private final JSONObject values;
+
+        ScoredOffer(JSONObject item) {
+            this.item = item;
+            JSONObject work = item.optJSONObject("result");
+            this.values = work != null ? work : item;
+        }
+
+        public int getRank() {
+            return item.optInt("rank", 0);
+        }
+
+        public String getOffer() {
+            return values.has("offer") ? String.valueOf(values.get("offer")) : null;
+        }
+
+        public String getOfferName() {
+            return values.has("offer_name") ? String.valueOf(values.get("offer_name")) : null;
+        }
+
+        public double getScore() {
+            return values.optDouble("score", Double.NaN);
+        }
+
+        public double getModifiedOfferScore() {
+            return values.optDouble("modified_offer_score", Double.NaN);
+        }
+
+        public double getOfferValue() {
+            return values.optDouble("offer_value", Double.NaN);
+        }
+
+        public double getPrice() {
+            return values.optDouble("price", Double.NaN);
+        }
+
+        public double getCost() {
+            return values.optDouble("cost", Double.NaN);
+        }
+
+        /** All fields produced by the post-score plugin */
+        public JSONObject getResultFull() {
+            return item.optJSONObject("result_full");
+        }
+    }
+
+}
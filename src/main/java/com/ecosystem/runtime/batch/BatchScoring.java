@@ -0,0 +1,308 @@
+package com.ecosystem.runtime.batch;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.ecosystem.utils.log.LogManager;
+import com.ecosystem.utils.log.Logger;
+import hex.genmodel.easy.EasyPredictModelWrapper;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Offline batch scoring of file extracts, without Mongo or the HTTP layer.
+ * Rows are read in chunks, each chunk is scored on a work-stealing pool (MOJOs from mojo.key and the plugin.postscore
+ * class) and the ranked offers are written in input order.
+ *
+ * Usage:
+ *    java -jar ecosystem-runtime-localbuild.jar batch --input customers.csv --output offers.ndjson [--format csv|tsv|ndjson|parquet]
+ *         [--properties ecosystem.properties] [--offers 3] [--key customer] [--mojo 1] [--chunk 10000] [--threads n]
+ *         [--epsilon 0.0] [--offer-matrix offers.json] [--offer-key offer_id] [--table]
+ *
+ * With --table the output is a memory mapped score table of every ranked offer per customer, served in real-time for
+ * "empty score" lookups (SCORE_TABLE, see ScoreStore). Set --offers to the number of offers to keep all scores.
+ */
+public class BatchScoring {
+    private static final Logger LOGGER = LogManager.getLogger(BatchScoring.class.getName());
+
+    /** Rows below this size are scored by one thread, larger ranges are split for stealing */
+    private static final int SPLIT_THRESHOLD = 64;
+
+    private final Map<String, String> options;
+    private final Properties properties;
+    private final MojoScorer scorer;
+    private final Object plugin;
+    private final Method postPredict;
+    private final String predictorName;
+    private final String key;
+    private final int offers;
+    private final int mojoIndex;
+    private final double epsilon;
+    private final JSONArray offerMatrix;
+    private final JSONObject offerMatrixWithKey;
+
+    private final AtomicLong failures = new AtomicLong();
+    private long written = 0;
+
+    public BatchScoring(Map<String, String> options) throws Exception {
+        this.options = options;
+        /** Plugins load GlobalSettings from the properties setting when their class is initialised below */
+        if (options.containsKey("properties"))
+            System.setProperty("properties", options.get("properties"));
+        this.properties = loadProperties(options.getOrDefault("properties", defaultPropertiesFile()));
+        this.scorer = new MojoScorer(properties.getProperty("user.generated.models"), options.getOrDefault("mojo-key", properties.getProperty("mojo.key")));
+        this.predictorName = properties.getProperty("predictor.name", "batch");
+        this.key = options.getOrDefault("key", "customer");
+        this.offers = Integer.parseInt(options.getOrDefault("offers", "1"));
+        this.mojoIndex = Integer.parseInt(options.getOrDefault("mojo", "1")) - 1;
+        this.epsilon = Double.parseDouble(options.getOrDefault("epsilon", "0.0"));
+
+        String pluginName = options.getOrDefault("plugin", properties.getProperty("plugin.postscore", "com.ecosystem.plugin.customer.PostScoreBasic"));
+        Class<?> pluginClass = Class.forName(pluginName.trim());
+        this.postPredict = pluginClass.getMethod("getPostPredict", JSONObject.class, JSONObject.class, CqlSession.class, EasyPredictModelWrapper[].class);
+        this.plugin = Modifier.isStatic(postPredict.getModifiers()) ? null : pluginClass.getDeclaredConstructor().newInstance();
+
+        this.offerMatrix = options.containsKey("offer-matrix") ? loadOfferMatrix(options.get("offer-matrix")) : new JSONArray();
+        this.offerMatrixWithKey = new JSONObject();
+        String offerKey = options.getOrDefault("offer-key", "offer_id");
+        for (int i = 0; i < offerMatrix.length(); i++) {
+            JSONObject offer = offerMatrix.getJSONObject(i);
+            if (offer.has(offerKey))
+                offerMatrixWithKey.put(String.valueOf(offer.get(offerKey)), offer);
+        }
+    }
+
+    /**
+     * Command line entry point, called from RuntimeApplication.main with "batch" as first argument.
+     * @return process exit code
+     */
+    public static int run(String[] args) {
+        Map<String, String> options = parseArgs(args);
+        if (!options.containsKey("input") || !options.containsKey("output")) {
+            System.out.println("Usage: batch --input <csv|tsv|ndjson|parquet file> --output <ndjson|csv file> [--format csv|tsv|ndjson|parquet] "
+                    + "[--properties ecosystem.properties] [--offers 1] [--key customer] [--mojo 1] [--chunk 10000] [--threads n] "
+                    + "[--epsilon 0.0] [--offer-matrix offers.json] [--offer-key offer_id] [--plugin class] [--table]");
+            return 2;
+        }
+        try (FeatureReader reader = FeatureReader.open(options.get("input"), options.get("format"));
+             BatchSink sink = options.containsKey("table") ? new ScoreTableSink(options.get("output")) : new RankedOfferSink(options.get("output"))) {
+            BatchScoring batch = new BatchScoring(options);
+            long rows = batch.process(reader, sink);
+            if (rows > 0 && batch.failures.get() == rows)
+                return 1;
+            sink.commit();
+            return 0;
+        } catch (Exception e) {
+            LOGGER.error("BatchScoring:E001: Batch scoring failed: " + e);
+            e.printStackTrace();
+            return 1;
+        }
+    }
+
+    /**
+     * Read, score and write all rows.
+     * @return number of rows read
+     */
+    public long process(FeatureReader reader, BatchSink sink) throws Exception {
+        int threads = Integer.parseInt(options.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        int chunkSize = Integer.parseInt(options.getOrDefault("chunk", "10000"));
+        int maxInFlight = Math.max(2, threads * 2);
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        ArrayDeque<ChunkJob> inFlight = new ArrayDeque<>();
+        long start = System.nanoTime();
+        long rows = 0;
+        int chunkNumber = 0;
+        try {
+            List<JSONObject> chunk;
+            while (!(chunk = reader.readChunk(chunkSize)).isEmpty()) {
+                ChunkJob job = new ChunkJob(chunkNumber++, chunk);
+                job.task = pool.submit(job);
+                inFlight.add(job);
+                rows = rows + chunk.size();
+                while (inFlight.size() >= maxInFlight)
+                    complete(inFlight.poll(), sink, start);
+            }
+            while (!inFlight.isEmpty())
+                complete(inFlight.poll(), sink, start);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        LOGGER.info("BatchScoring:I002: Completed " + rows + " rows in " + String.format("%.1f", seconds) + "s ("
+                + String.format("%.0f", rows / Math.max(seconds, 1e-9)) + " rows/s), failed rows: " + failures.get());
+        return rows;
+    }
+
+    private void complete(ChunkJob job, BatchSink sink, long start) throws Exception {
+        job.task.get();
+        for (int i = 0; i < job.rows.size(); i++) {
+            if (job.results[i] != null)
+                sink.write(job.customers[i], job.results[i]);
+        }
+        written = written + job.rows.size();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        LOGGER.info("BatchScoring:I001: chunk " + job.number + ": " + job.rows.size() + " rows scored in "
+                + String.format("%.1f", (job.end - job.begin) / 1e6) + " ms, total " + written + " rows, "
+                + String.format("%.0f", written / Math.max(elapsed, 1e-9)) + " rows/s");
+    }
+
+    /**
+     * Score a single feature row through the MOJO and post-score plugin.
+     * @return ranked final_result
+     */
+    JSONArray scoreRow(JSONObject features, SplittableRandom random) throws Exception {
+        String customer = String.valueOf(features.opt(key));
+
+        JSONObject params = new JSONObject();
+        params.put("uuid", UUID.randomUUID().toString());
+        params.put("name", predictorName);
+        params.put("campaign", predictorName);
+        params.put("subcampaign", predictorName);
+        params.put("channel", "batch");
+        params.put("userid", "batch");
+        params.put("customer", customer);
+        params.put("lookup", new JSONObject().put("key", key).put("value", customer));
+        params.put("resultcount", offers);
+        params.put("mojo", String.valueOf(mojoIndex + 1));
+        params.put("dbparam", false);
+        params.put("in_params", new JSONObject());
+        params.put("featuresObj", features);
+        params.put("mab", new JSONObject().put("class", "mabone").put("epsilon", epsilon));
+        params.put("explore", epsilon > 0.0 && random.nextDouble() <= epsilon ? 1 : 0);
+        params.put("whitelist", new JSONObject());
+        params.put("offerMatrix", offerMatrix);
+        params.put("offerMatrixWithKey", offerMatrixWithKey);
+        params.put("preloadCorpora", new JSONObject());
+
+        JSONObject predictModelMojoResult = scorer.score(features, mojoIndex);
+        JSONObject result = (JSONObject) postPredict.invoke(plugin, predictModelMojoResult, params, null, scorer.getModels());
+        if (result == null || !result.has("final_result"))
+            throw new IllegalStateException("No final_result from post-score plugin for customer: " + customer);
+        return result.getJSONArray("final_result");
+    }
+
+    /**
+     * Chunk of rows, the root task of a fork/join tree over the rows.
+     */
+    private final class ChunkJob extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        final int number;
+        final List<JSONObject> rows;
+        final String[] customers;
+        final JSONArray[] results;
+        volatile long begin;
+        volatile long end;
+        ForkJoinTask<?> task;
+
+        ChunkJob(int number, List<JSONObject> rows) {
+            this.number = number;
+            this.rows = rows;
+            this.customers = new String[rows.size()];
+            this.results = new JSONArray[rows.size()];
+        }
+
+        @Override
+        protected void compute() {
+            begin = System.nanoTime();
+            new ScoreRange(this, 0, rows.size()).compute();
+            end = System.nanoTime();
+        }
+    }
+
+    private final class ScoreRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        final ChunkJob job;
+        final int from;
+        final int to;
+
+        ScoreRange(ChunkJob job, int from, int to) {
+            this.job = job;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > SPLIT_THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ScoreRange(job, from, mid), new ScoreRange(job, mid, to));
+                return;
+            }
+            SplittableRandom random = new SplittableRandom();
+            for (int i = from; i < to; i++) {
+                JSONObject features = job.rows.get(i);
+                job.customers[i] = String.valueOf(features.opt(key));
+                try {
+                    job.results[i] = scoreRow(features, random);
+                } catch (Exception e) {
+                    if (failures.incrementAndGet() <= 10)
+                        LOGGER.error("BatchScoring:E002: Scoring failed for " + key + " " + job.customers[i] + ": " + e);
+                }
+            }
+        }
+    }
+
+    static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].startsWith("--")) {
+                String name = args[i].substring(2);
+                if (i + 1 < args.length && !args[i + 1].startsWith("--"))
+                    options.put(name, args[++i]);
+                else
+                    options.put(name, "true");
+            }
+        }
+        return options;
+    }
+
+    static String defaultPropertiesFile() {
+        String file = System.getProperty("properties");
+        if (file == null) file = System.getenv("properties");
+        return file != null ? file : "ecosystem.properties";
+    }
+
+    static Properties loadProperties(String file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStreamReader in = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            properties.load(in);
+        }
+        return properties;
+    }
+
+    /**
+     * Offer matrix from a JSON array file or ndjson, replaces the Mongo predictor.offer.matrix lookup.
+     */
+    static JSONArray loadOfferMatrix(String file) throws IOException {
+        String content = new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8).trim();
+        if (content.startsWith("["))
+            return new JSONArray(content);
+        JSONArray offers = new JSONArray();
+        for (String line : content.split("\n")) {
+            if (!line.isBlank())
+                offers.put(new JSONObject(line));
+        }
+        return offers;
+    }
+
+}
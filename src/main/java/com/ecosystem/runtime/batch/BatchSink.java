@@ -0,0 +1,25 @@
+package com.ecosystem.runtime.batch;
+
+import org.json.JSONArray;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destination of batch scoring results. Called from a single writer thread in chunk order.
+ */
+public interface BatchSink extends Closeable {
+
+    /**
+     * @param customer    Customer key
+     * @param finalResult Ranked final_result from the post-score plugin: [{"rank":1,"result":{...},"result_full":{...}}]
+     */
+    void write(String customer, JSONArray finalResult) throws IOException;
+
+    /**
+     * Called once all rows were written successfully, before close.
+     */
+    default void commit() throws IOException {
+    }
+
+}
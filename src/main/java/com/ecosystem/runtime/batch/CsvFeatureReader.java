@@ -0,0 +1,92 @@
+package com.ecosystem.runtime.batch;
+
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CSV feature reader, first line is the header. Quoted fields may contain delimiters, quotes ("") and new lines.
+ */
+public class CsvFeatureReader implements FeatureReader {
+
+    private final BufferedReader reader;
+    private final char delimiter;
+    private final String[] header;
+
+    public CsvFeatureReader(String path, char delimiter) throws IOException {
+        this.reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8);
+        this.delimiter = delimiter;
+        List<String> names = readRecord();
+        if (names == null)
+            throw new IOException("Empty CSV file, header expected: " + path);
+        if (!names.isEmpty() && names.get(0).startsWith("\uFEFF"))
+            names.set(0, names.get(0).substring(1));
+        this.header = names.toArray(new String[0]);
+    }
+
+    @Override
+    public List<JSONObject> readChunk(int max) throws IOException {
+        List<JSONObject> rows = new ArrayList<>(max);
+        List<String> record;
+        while (rows.size() < max && (record = readRecord()) != null) {
+            if (record.size() == 1 && record.get(0).isEmpty()) continue;
+            JSONObject row = new JSONObject();
+            for (int i = 0; i < header.length && i < record.size(); i++)
+                row.put(header[i], FeatureReader.typed(record.get(i)));
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private List<String> readRecord() throws IOException {
+        String line = reader.readLine();
+        if (line == null) return null;
+
+        List<String> fields = new ArrayList<>(header != null ? header.length : 16);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        while (true) {
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (quoted) {
+                    if (c == '"') {
+                        if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                            field.append('"');
+                            i++;
+                        } else {
+                            quoted = false;
+                        }
+                    } else {
+                        field.append(c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == delimiter) {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else if (c != '\r') {
+                    field.append(c);
+                }
+            }
+            if (!quoted) break;
+            /* quoted field continues on the next line */
+            line = reader.readLine();
+            if (line == null) break;
+            field.append('\n');
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+}
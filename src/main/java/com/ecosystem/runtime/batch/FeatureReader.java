@@ -0,0 +1,70 @@
+package com.ecosystem.runtime.batch;
+
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Sequential reader of customer feature rows from a local file extract.
+ */
+public interface FeatureReader extends Closeable {
+
+    /**
+     * Read up to max rows.
+     * @param max Maximum number of rows
+     * @return Rows read, empty when the file is exhausted
+     */
+    List<JSONObject> readChunk(int max) throws IOException;
+
+    /**
+     * Open a reader for the format, csv, tsv, ndjson or parquet. Format is derived from the file extension when null.
+     */
+    static FeatureReader open(String path, String format) throws IOException {
+        if (format == null) {
+            String lower = path.toLowerCase();
+            if (lower.endsWith(".ndjson") || lower.endsWith(".jsonl") || lower.endsWith(".json"))
+                format = "ndjson";
+            else if (lower.endsWith(".parquet"))
+                format = "parquet";
+            else
+                format = "csv";
+        }
+        switch (format.toLowerCase()) {
+            case "csv":
+                return new CsvFeatureReader(path, ',');
+            case "tsv":
+                return new CsvFeatureReader(path, '\t');
+            case "ndjson":
+            case "jsonl":
+                return new NdjsonFeatureReader(path);
+            case "parquet":
+                try {
+                    return new ParquetFeatureReader(path);
+                } catch (NoClassDefFoundError e) {
+                    throw new IOException("Parquet input needs parquet-avro and the Hadoop client on the classpath, or convert to csv or ndjson: " + path, e);
+                }
+            default:
+                throw new IOException("Unknown input format: " + format);
+        }
+    }
+
+    /**
+     * Numbers are typed so that post-score plugins reading featuresObj see the same types as from the feature store.
+     * MojoScorer passes them to the models as Double, which is what H2O RowData expects.
+     */
+    static Object typed(String value) {
+        if (value == null || value.isEmpty()) return value;
+        char c = value.charAt(0);
+        if (!(Character.isDigit(c) || c == '-' || c == '.')) return value;
+        try {
+            if (value.indexOf('.') < 0 && value.indexOf('e') < 0 && value.indexOf('E') < 0 && value.length() < 19)
+                return Long.parseLong(value);
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return value;
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+package com.ecosystem.runtime.batch;
+
+import hex.ModelCategory;
+import hex.genmodel.MojoModel;
+import hex.genmodel.easy.EasyPredictModelWrapper;
+import hex.genmodel.easy.RowData;
+import hex.genmodel.easy.prediction.AbstractPrediction;
+import hex.genmodel.easy.prediction.BinomialModelPrediction;
+import hex.genmodel.easy.prediction.ClusteringModelPrediction;
+import hex.genmodel.easy.prediction.MultinomialModelPrediction;
+import hex.genmodel.easy.prediction.RegressionModelPrediction;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Loads the MOJOs configured in mojo.key and scores feature rows into the predictModelMojoResult structure that the
+ * post-score plugins expect (type, label, probability, domains, domainsProbabilityObj, featuresObj etc.).
+ * EasyPredictModelWrapper is thread safe, models are shared by all scoring threads.
+ */
+public class MojoScorer {
+
+    private final EasyPredictModelWrapper[] models;
+    private final String[] modelNames;
+
+    /**
+     * @param modelPath Directory of the models, user.generated.models
+     * @param mojoKey   Comma separated list of MOJO zip files, mojo.key
+     */
+    public MojoScorer(String modelPath, String mojoKey) throws IOException {
+        if (mojoKey == null || mojoKey.isBlank()) {
+            models = new EasyPredictModelWrapper[0];
+            modelNames = new String[0];
+            return;
+        }
+        modelNames = mojoKey.split(",");
+        models = new EasyPredictModelWrapper[modelNames.length];
+        for (int i = 0; i < modelNames.length; i++) {
+            modelNames[i] = modelNames[i].trim();
+            String file = Paths.get(modelPath == null ? "" : modelPath, modelNames[i]).toString();
+            models[i] = new EasyPredictModelWrapper(new EasyPredictModelWrapper.Config()
+                    .setModel(MojoModel.load(file))
+                    .setConvertUnknownCategoricalLevelsToNa(true)
+                    .setConvertInvalidNumbersToNa(true));
+        }
+    }
+
+    public EasyPredictModelWrapper[] getModels() {
+        return models;
+    }
+
+    public String[] getModelNames() {
+        return modelNames;
+    }
+
+    /**
+     * Score row with model at index, mojo:'1' in the API is index 0.
+     * Without models the result carries only the features, as used by "empty score" lookups.
+     */
+    public JSONObject score(JSONObject features, int modelIndex) throws Exception {
+        JSONObject result = new JSONObject();
+        result.put("features", features);
+        result.put("featuresObj", features);
+        if (models.length == 0) {
+            result.put("type", new JSONArray().put("empty score"));
+            result.put("domainsProbabilityObj", new JSONObject());
+            return result;
+        }
+
+        EasyPredictModelWrapper model = models[modelIndex];
+        AbstractPrediction prediction = model.predict(rowData(features));
+        ModelCategory category = model.getModelCategory();
+        result.put("type", new JSONArray().put(category.toString().toLowerCase()));
+        result.put("response", new JSONArray().put(model.m.getResponseName()));
+        result.put("names", new JSONArray().put(new JSONArray(model.m.getNames())));
+        result.put("modelName", modelNames[modelIndex]);
+
+        JSONObject domainsProbabilityObj = new JSONObject();
+        if (prediction instanceof BinomialModelPrediction) {
+            BinomialModelPrediction p = (BinomialModelPrediction) prediction;
+            putClassification(result, domainsProbabilityObj, model.getResponseDomainValues(), p.label, p.labelIndex, p.classProbabilities);
+        } else if (prediction instanceof MultinomialModelPrediction) {
+            MultinomialModelPrediction p = (MultinomialModelPrediction) prediction;
+            putClassification(result, domainsProbabilityObj, model.getResponseDomainValues(), p.label, p.labelIndex, p.classProbabilities);
+        } else if (prediction instanceof RegressionModelPrediction) {
+            result.put("value", new JSONArray().put(((RegressionModelPrediction) prediction).value));
+        } else if (prediction instanceof ClusteringModelPrediction) {
+            ClusteringModelPrediction p = (ClusteringModelPrediction) prediction;
+            result.put("cluster", new JSONArray().put(p.cluster));
+            if (p.distances != null && p.cluster >= 0 && p.cluster < p.distances.length)
+                domainsProbabilityObj.put("score", p.distances[p.cluster]);
+        }
+        result.put("domainsProbabilityObj", domainsProbabilityObj);
+        return result;
+    }
+
+    /**
+     * RowData only takes String or Double values: numbers are passed as Double, nulls are left out and everything else
+     * as its string value.
+     */
+    static RowData rowData(JSONObject features) {
+        RowData row = new RowData();
+        for (String key : features.keySet()) {
+            Object value = features.opt(key);
+            if (value == null || value == JSONObject.NULL)
+                continue;
+            if (value instanceof Number)
+                row.put(key, ((Number) value).doubleValue());
+            else
+                row.put(key, String.valueOf(value));
+        }
+        return row;
+    }
+
+    private static void putClassification(JSONObject result, JSONObject domainsProbabilityObj, String[] domains,
+                                          String label, int labelIndex, double[] probabilities) {
+        for (int i = 0; i < domains.length && i < probabilities.length; i++)
+            domainsProbabilityObj.put(domains[i], probabilities[i]);
+        result.put("label", new JSONArray().put(label));
+        result.put("label_index", new JSONArray().put(labelIndex));
+        result.put("probability", new JSONArray().put(labelIndex >= 0 ? probabilities[labelIndex] : 0.0));
+        result.put("probabilities", new JSONArray().put(new JSONArray(probabilities)));
+        result.put("domains", new JSONArray().put(new JSONArray(domains)));
+    }
+
+}
@@ -0,0 +1,40 @@
+package com.ecosystem.runtime.batch;
+
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Newline delimited JSON feature reader, one customer document per line.
+ */
+public class NdjsonFeatureReader implements FeatureReader {
+
+    private final BufferedReader reader;
+
+    public NdjsonFeatureReader(String path) throws IOException {
+        this.reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public List<JSONObject> readChunk(int max) throws IOException {
+        List<JSONObject> rows = new ArrayList<>(max);
+        String line;
+        while (rows.size() < max && (line = reader.readLine()) != null) {
+            if (line.isBlank()) continue;
+            rows.add(new JSONObject(line));
+        }
+        return rows;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.ecosystem.runtime.batch;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.avro.AvroParquetReader;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.util.HadoopInputFile;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parquet feature reader, one customer document per record. Numbers are typed as from the other readers (int and long
+ * as Long, float and double as Double), nested records, lists and maps become JSON objects and arrays, null fields are
+ * left out and other values are read as text.
+ *
+ * parquet-avro and the Hadoop client are provided dependencies, they are not part of the runtime jar and must be on the
+ * classpath of a runtime that scores Parquet extracts.
+ */
+public class ParquetFeatureReader implements FeatureReader {
+
+    private final ParquetReader<GenericRecord> reader;
+
+    public ParquetFeatureReader(String path) throws IOException {
+        this.reader = AvroParquetReader.<GenericRecord>builder(HadoopInputFile.fromPath(new Path(path), new Configuration())).build();
+    }
+
+    @Override
+    public List<JSONObject> readChunk(int max) throws IOException {
+        List<JSONObject> rows = new ArrayList<>(max);
+        GenericRecord record;
+        while (rows.size() < max && (record = reader.read()) != null)
+            rows.add(row(record));
+        return rows;
+    }
+
+    static JSONObject row(GenericRecord record) {
+        JSONObject row = new JSONObject();
+        for (Schema.Field field : record.getSchema().getFields()) {
+            Object value = value(record.get(field.pos()));
+            if (value != null)
+                row.put(field.name(), value);
+        }
+        return row;
+    }
+
+    static Object value(Object value) {
+        if (value == null || value instanceof Long || value instanceof Double || value instanceof Boolean)
+            return value;
+        if (value instanceof Integer)
+            return ((Integer) value).longValue();
+        if (value instanceof Float)
+            return ((Float) value).doubleValue();
+        if (value instanceof GenericRecord)
+            return row((GenericRecord) value);
+        if (value instanceof Collection) {
+            JSONArray array = new JSONArray();
+            for (Object item : (Collection<?>) value)
+                array.put(item == null ? JSONObject.NULL : value(item));
+            return array;
+        }
+        if (value instanceof Map) {
+            JSONObject map = new JSONObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                Object item = value(entry.getValue());
+                if (item != null)
+                    map.put(String.valueOf(entry.getKey()), item);
+            }
+            return map;
+        }
+        return value.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+}
@@ -0,0 +1,62 @@
+package com.ecosystem.runtime.batch;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Writes one line per ranked offer, as ndjson or csv (customer,rank,offer,offer_name,score,modified_offer_score).
+ */
+public class RankedOfferSink implements BatchSink {
+
+    private final BufferedWriter writer;
+    private final boolean csv;
+
+    public RankedOfferSink(String path) throws IOException {
+        this.writer = Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8);
+        this.csv = path.toLowerCase().endsWith(".csv");
+        if (csv)
+            writer.write("customer,rank,offer,offer_name,score,modified_offer_score\n");
+    }
+
+    @Override
+    public void write(String customer, JSONArray finalResult) throws IOException {
+        for (int i = 0; i < finalResult.length(); i++) {
+            JSONObject item = finalResult.getJSONObject(i);
+            JSONObject result = item.optJSONObject("result");
+            if (result == null) result = item;
+            int rank = item.optInt("rank", i + 1);
+            if (csv) {
+                writer.write(quote(customer) + "," + rank + "," + quote(String.valueOf(result.opt("offer"))) + ","
+                        + quote(String.valueOf(result.opt("offer_name"))) + "," + result.optDouble("score", 0.0) + ","
+                        + result.optDouble("modified_offer_score", 0.0) + "\n");
+            } else {
+                JSONObject line = new JSONObject();
+                line.put("customer", customer);
+                line.put("rank", rank);
+                line.put("offer", result.opt("offer"));
+                line.put("offer_name", result.opt("offer_name"));
+                line.put("score", result.opt("score"));
+                line.put("modified_offer_score", result.opt("modified_offer_score"));
+                writer.write(line.toString());
+                writer.write('\n');
+            }
+        }
+    }
+
+    private static String quote(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) return value;
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+}
@@ -0,0 +1,49 @@
+package com.ecosystem.runtime.batch;
+
+import com.ecosystem.runtime.store.ScoreTableWriter;
+import com.ecosystem.utils.log.LogManager;
+import com.ecosystem.utils.log.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+
+/**
+ * Writes the per-offer scores of each customer to a memory mapped score table for real-time serving, see ScoreStore.
+ */
+public class ScoreTableSink implements BatchSink {
+    private static final Logger LOGGER = LogManager.getLogger(ScoreTableSink.class.getName());
+
+    private final ScoreTableWriter writer;
+
+    public ScoreTableSink(String path) throws IOException {
+        this.writer = new ScoreTableWriter(path);
+    }
+
+    @Override
+    public void write(String customer, JSONArray finalResult) throws IOException {
+        String[] offers = new String[finalResult.length()];
+        float[] scores = new float[finalResult.length()];
+        for (int i = 0; i < finalResult.length(); i++) {
+            JSONObject item = finalResult.getJSONObject(i);
+            JSONObject result = item.optJSONObject("result");
+            if (result == null) result = item;
+            offers[i] = String.valueOf(result.opt("offer"));
+            scores[i] = (float) result.optDouble("score", 0.0);
+        }
+        writer.add(customer, offers, scores);
+    }
+
+    @Override
+    public void commit() throws IOException {
+        writer.commit();
+        if (writer.duplicates() > 0)
+            LOGGER.warn("ScoreTableSink:W001: " + writer.duplicates() + " customers appear more than once in the input, the last row is kept");
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+}
@@ -0,0 +1,146 @@
+package com.ecosystem.runtime.data;
+
+import com.ecosystem.utils.log.LogManager;
+import com.ecosystem.utils.log.Logger;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.Sorts;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the partitioned layout of LogPartitions: moves documents older than the hot window from a base collection into
+ * their partitions and drops partitions past retention. Dropping a partition is a metadata operation, unlike TTL or
+ * range deletes on one large collection.
+ *
+ * A move copies a batch into its partitions before deleting it from the base collection, so a document is always in at
+ * least one of them. An interrupted move is repeated by the next run, documents already copied are skipped.
+ */
+public class LogPartitionMaintenance {
+    private static final Logger LOGGER = LogManager.getLogger(LogPartitionMaintenance.class.getName());
+
+    private static final int BATCH = 1000;
+
+    private final LogPartitions partitions;
+    private final int maxDocuments;
+    private final Set<String> indexed = new HashSet<>();
+
+    private final Counter moved;
+    private final Counter dropped;
+
+    /**
+     * @param maxDocuments Maximum documents moved per collection and run, spreads the first move of a large collection
+     */
+    public LogPartitionMaintenance(LogPartitions partitions, int maxDocuments, MeterRegistry registry) {
+        this.partitions = partitions;
+        this.maxDocuments = maxDocuments;
+        this.moved = Counter.builder("ecosystem.logging.partitions.moved").register(registry);
+        this.dropped = Counter.builder("ecosystem.logging.partitions.dropped").register(registry);
+    }
+
+    /**
+     * Move and expire the partitions of the base collections.
+     * @param indexFields Fields to index in new partitions, e.g. the uuid used to match responses to predictions
+     * @return documents moved
+     */
+    public long run(MongoDatabase database, List<String> bases, String... indexFields) {
+        if (!partitions.isEnabled()) return 0;
+        long total = 0;
+        for (String base : bases) {
+            total += move(database, base, indexFields);
+            expire(database, base);
+        }
+        return total;
+    }
+
+    /**
+     * Move documents older than the hot window into their partitions.
+     * @return documents moved
+     */
+    public long move(MongoDatabase database, String base, String... indexFields) {
+        MongoCollection<Document> source = database.getCollection(base);
+        long cutoff = System.currentTimeMillis() - partitions.getHotMillis();
+        ObjectId before = PartitionedScan.floor(cutoff / 1000);
+
+        long count = 0;
+        while (count < maxDocuments) {
+            List<Document> batch = new ArrayList<>(BATCH);
+            try (MongoCursor<Document> cursor = source.find(Filters.lt("_id", before)).sort(Sorts.ascending("_id")).limit(BATCH).iterator()) {
+                while (cursor.hasNext())
+                    batch.add(cursor.next());
+            }
+            if (batch.isEmpty()) break;
+
+            Map<String, List<Document>> byPartition = new LinkedHashMap<>();
+            for (Document document : batch) {
+                long time = document.getObjectId("_id").getDate().getTime();
+                byPartition.computeIfAbsent(partitions.partition(base, time), p -> new ArrayList<>()).add(document);
+            }
+            for (Map.Entry<String, List<Document>> partition : byPartition.entrySet())
+                copy(database, partition.getKey(), partition.getValue(), indexFields);
+
+            List<ObjectId> ids = new ArrayList<>(batch.size());
+            for (Document document : batch)
+                ids.add(document.getObjectId("_id"));
+            source.deleteMany(Filters.in("_id", ids));
+            count += batch.size();
+            moved.increment(batch.size());
+        }
+        if (count > 0)
+            LOGGER.info("LogPartitionMaintenance:I001: Moved " + count + " documents of " + base + " into partitions");
+        return count;
+    }
+
+    private void copy(MongoDatabase database, String name, List<Document> documents, String... indexFields) {
+        MongoCollection<Document> partition = database.getCollection(name);
+        if (indexed.add(name)) {
+            for (String field : indexFields)
+                partition.createIndex(Indexes.ascending(field));
+        }
+        try {
+            partition.insertMany(documents, new InsertManyOptions().ordered(false));
+        } catch (MongoBulkWriteException e) {
+            /** Documents copied by an interrupted run are already in the partition */
+            for (BulkWriteError error : e.getWriteErrors()) {
+                if (ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY)
+                    throw e;
+            }
+        }
+    }
+
+    /**
+     * Drop partitions that ended before the retention period.
+     * @return partitions dropped
+     */
+    public int expire(MongoDatabase database, String base) {
+        if (partitions.getRetentionMillis() <= 0) return 0;
+        long cutoff = System.currentTimeMillis() - partitions.getRetentionMillis();
+        int count = 0;
+        for (Map.Entry<Long, String> partition : partitions.partitions(database, base).entrySet()) {
+            if (partitions.end(partition.getKey()) > cutoff) break;
+            database.getCollection(partition.getValue()).drop();
+            indexed.remove(partition.getValue());
+            dropped.increment();
+            count++;
+            LOGGER.info("LogPartitionMaintenance:I002: Dropped partition " + partition.getValue() + " past retention");
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,172 @@
+package com.ecosystem.runtime.data;
+
+import com.mongodb.client.MongoDatabase;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Time partitioned layout of the logging collections. Predictions and responses are logged to the base collection
+ * (logging.collection, logging.collection.response), documents older than the hot window are moved into one collection
+ * per hour or day of their ObjectId time, e.g. ecosystemruntime_20240131, and partitions past retention are dropped.
+ * Readers use collections() to query only the partitions that overlap their window.
+ *
+ *    logging.partition=daily            none (default), hourly or daily
+ *    logging.partition.hot.hours=168    documents kept in the base collection
+ *    logging.retention.days=90          partitions dropped after this many days, 0 keeps them
+ *    logging.partition.response.hours=168  latest a response arrives after its contact, bounds the partitions searched
+ *    logging.partition.lookup.key=customer  field of the customer history lookup of PreScoreLookup, indexed in partitions
+ *
+ * Partition names use UTC. The runtime's own readers (IncrementalRewards, PreScoreLookup) read the partitions, the full
+ * recompute of the library engines reads the base collection only: the hot window must cover the history they train on.
+ */
+public class LogPartitions {
+
+    public enum Period {
+        NONE(null, null),
+        HOURLY(ChronoUnit.HOURS, DateTimeFormatter.ofPattern("yyyyMMddHH").withZone(ZoneOffset.UTC)),
+        DAILY(ChronoUnit.DAYS, DateTimeFormatter.ofPattern("yyyyMMdd").withZone(ZoneOffset.UTC));
+
+        private final ChronoUnit unit;
+        private final DateTimeFormatter format;
+
+        Period(ChronoUnit unit, DateTimeFormatter format) {
+            this.unit = unit;
+            this.format = format;
+        }
+    }
+
+    private final Period period;
+    private final long hotMillis;
+    private final long retentionMillis;
+    private final long responseMillis;
+    private String lookupKey = "customer";
+
+    public LogPartitions(Period period, long hotHours, long retentionDays) {
+        this(period, hotHours, retentionDays, 168);
+    }
+
+    /**
+     * @param responseHours Latest a response is logged after its contact
+     */
+    public LogPartitions(Period period, long hotHours, long retentionDays, long responseHours) {
+        this.period = period;
+        this.hotMillis = hotHours * 3600000L;
+        this.retentionMillis = retentionDays * 86400000L;
+        this.responseMillis = responseHours * 3600000L;
+    }
+
+    /**
+     * Layout from the runtime properties, see the class comment.
+     */
+    public static LogPartitions of(Properties properties) {
+        String period = properties.getProperty("logging.partition", "none").trim().toUpperCase();
+        LogPartitions partitions = new LogPartitions(Period.valueOf(period),
+                Long.parseLong(properties.getProperty("logging.partition.hot.hours", "168").trim()),
+                Long.parseLong(properties.getProperty("logging.retention.days", "0").trim()),
+                Long.parseLong(properties.getProperty("logging.partition.response.hours", "168").trim()));
+        partitions.lookupKey = properties.getProperty("logging.partition.lookup.key", partitions.lookupKey).trim();
+        return partitions;
+    }
+
+    public boolean isEnabled() {
+        return period != Period.NONE;
+    }
+
+    public Period getPeriod() {
+        return period;
+    }
+
+    public long getHotMillis() {
+        return hotMillis;
+    }
+
+    public long getRetentionMillis() {
+        return retentionMillis;
+    }
+
+    public long getResponseMillis() {
+        return responseMillis;
+    }
+
+    public String getLookupKey() {
+        return lookupKey;
+    }
+
+    /**
+     * @return partition of the base collection for a time
+     */
+    public String partition(String base, long millis) {
+        return base + "_" + period.format.format(Instant.ofEpochMilli(millis));
+    }
+
+    /**
+     * @return start of the partition, -1 if the name is not a partition of the base collection
+     */
+    public long start(String base, String name) {
+        if (!isEnabled() || !name.startsWith(base + "_")) return -1;
+        String suffix = name.substring(base.length() + 1);
+        if (suffix.length() != (period == Period.HOURLY ? 10 : 8)) return -1;
+        for (int i = 0; i < suffix.length(); i++) {
+            if (!Character.isDigit(suffix.charAt(i))) return -1;
+        }
+        int year = Integer.parseInt(suffix.substring(0, 4));
+        int month = Integer.parseInt(suffix.substring(4, 6));
+        int day = Integer.parseInt(suffix.substring(6, 8));
+        int hour = period == Period.HOURLY ? Integer.parseInt(suffix.substring(8, 10)) : 0;
+        return LocalDateTime.of(year, month, day, hour, 0).toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    /**
+     * @return end (exclusive) of the partition starting at start
+     */
+    public long end(long start) {
+        return start + period.unit.getDuration().toMillis();
+    }
+
+    /**
+     * Existing partitions of the base collection, oldest first.
+     * @return start of each partition by name
+     */
+    public TreeMap<Long, String> partitions(MongoDatabase database, String base) {
+        TreeMap<Long, String> partitions = new TreeMap<>();
+        if (!isEnabled()) return partitions;
+        for (String name : database.listCollectionNames()) {
+            long start = start(base, name);
+            if (start >= 0) partitions.put(start, name);
+        }
+        return partitions;
+    }
+
+    /**
+     * Collections to read for documents logged in [from, to]: the partitions that overlap the window, oldest first, and
+     * the base collection last. Without partitioning only the base collection.
+     */
+    public List<String> collections(MongoDatabase database, String base, long from, long to) {
+        List<String> collections = overlapping(partitions(database, base), from, to);
+        collections.add(base);
+        return collections;
+    }
+
+    /**
+     * @param partitions Partitions as returned by partitions(), for readers that list them once and query many windows
+     * @return names of the partitions that overlap [from, to], oldest first
+     */
+    public List<String> overlapping(TreeMap<Long, String> partitions, long from, long to) {
+        List<String> overlapping = new ArrayList<>();
+        for (Map.Entry<Long, String> partition : partitions.headMap(to, true).entrySet()) {
+            if (end(partition.getKey()) > from)
+                overlapping.add(partition.getValue());
+        }
+        return overlapping;
+    }
+
+}
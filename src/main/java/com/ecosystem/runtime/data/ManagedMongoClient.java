@@ -0,0 +1,192 @@
+package com.ecosystem.runtime.data;
+
+import com.ecosystem.utils.log.LogManager;
+import com.ecosystem.utils.log.Logger;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoClient;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.Document;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Holder of a MongoClient that can be replaced without failing work in flight.
+ * swap() builds the replacement and warms its pool with a ping before callers are switched to it atomically. The old
+ * client is closed in the background once all of its leases are released, never under a lease: engine runs hold their
+ * lease for up to the engine timeout and closing the client under them would fail the run and trigger another swap.
+ * Leases still held after the grace period are logged as a warning.
+ *
+ * Work is done under a lease so that the holder knows when a client is no longer in use:
+ *    try (ManagedMongoClient.Lease lease = managed.acquire()) {
+ *        lease.getClient().getDatabase(...)...
+ *    }
+ */
+public class ManagedMongoClient {
+    private static final Logger LOGGER = LogManager.getLogger(ManagedMongoClient.class.getName());
+
+    private final Supplier<MongoClient> factory;
+    private final long graceMillis;
+    private final AtomicReference<Generation> current = new AtomicReference<>();
+    private final AtomicInteger draining = new AtomicInteger(0);
+    private final ExecutorService closer = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "ecosystem-mongo-drain");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Counter swaps;
+    private final Counter swapFailures;
+    private final Counter failedOperations;
+
+    /**
+     * A client and the number of leases on it.
+     */
+    private static final class Generation {
+        final MongoClient client;
+        final AtomicInteger leases = new AtomicInteger(0);
+
+        Generation(MongoClient client) {
+            this.client = client;
+        }
+    }
+
+    /**
+     * Use of the client, close to release.
+     */
+    public static final class Lease implements AutoCloseable {
+        private final Generation generation;
+        private volatile boolean closed = false;
+
+        private Lease(Generation generation) {
+            this.generation = generation;
+        }
+
+        public MongoClient getClient() {
+            return generation.client;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                generation.leases.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @param factory     Creates new clients, e.g. () -> new ConnectionFactory().getMongoClient()
+     * @param graceMillis Time after which leases still held on a replaced client are reported
+     */
+    public ManagedMongoClient(Supplier<MongoClient> factory, long graceMillis, MeterRegistry registry) {
+        this.factory = factory;
+        this.graceMillis = graceMillis;
+        this.current.set(new Generation(factory.get()));
+
+        this.swaps = Counter.builder("ecosystem.mongo.client.swaps").tag("result", "success").register(registry);
+        this.swapFailures = Counter.builder("ecosystem.mongo.client.swaps").tag("result", "failure").register(registry);
+        this.failedOperations = Counter.builder("ecosystem.mongo.operations.failed").register(registry);
+        Gauge.builder("ecosystem.mongo.client.leases", current, c -> c.get().leases.get()).register(registry);
+        Gauge.builder("ecosystem.mongo.client.draining", draining, AtomicInteger::get).register(registry);
+    }
+
+    /**
+     * Current client. Prefer acquire() for work that must not see the client closed underneath it.
+     */
+    public MongoClient getClient() {
+        return current.get().client;
+    }
+
+    public Lease acquire() {
+        while (true) {
+            Generation generation = current.get();
+            generation.leases.incrementAndGet();
+            /** A swap may have happened between get and increment, do not lease a client that is draining */
+            if (generation == current.get())
+                return new Lease(generation);
+            generation.leases.decrementAndGet();
+        }
+    }
+
+    /**
+     * Run an operation under a lease, Mongo failures are counted and rethrown.
+     */
+    public <T> T execute(Function<MongoClient, T> operation) {
+        try (Lease lease = acquire()) {
+            return operation.apply(lease.getClient());
+        } catch (MongoException e) {
+            failedOperations.increment();
+            throw e;
+        }
+    }
+
+    /**
+     * Count an operation that failed outside execute().
+     */
+    public void recordFailure() {
+        failedOperations.increment();
+    }
+
+    /**
+     * Replace the client with a new, warmed up client. On failure the current client stays in place.
+     * @return client in use after the swap
+     */
+    public synchronized MongoClient swap() {
+        MongoClient next;
+        try {
+            next = factory.get();
+            next.getDatabase("admin").runCommand(new Document("ping", 1));
+        } catch (Exception e) {
+            swapFailures.increment();
+            LOGGER.error("ManagedMongoClient:E001: Replacement client not available, keeping current client: " + e);
+            return getClient();
+        }
+
+        Generation previous = current.getAndSet(new Generation(next));
+        swaps.increment();
+        LOGGER.info("ManagedMongoClient:I001: Client swapped, draining previous client (" + previous.leases.get() + " leases)");
+        drain(previous);
+        return next;
+    }
+
+    private void drain(Generation generation) {
+        draining.incrementAndGet();
+        closer.execute(() -> {
+            long deadline = System.currentTimeMillis() + graceMillis;
+            boolean reported = false;
+            try {
+                while (generation.leases.get() > 0) {
+                    if (!reported && System.currentTimeMillis() >= deadline) {
+                        LOGGER.warn("ManagedMongoClient:W001: Grace period over, previous client still has " + generation.leases.get()
+                                + " leases, closed once they are released");
+                        reported = true;
+                    }
+                    Thread.sleep(50);
+                }
+            } catch (InterruptedException e) {
+                /** Shutting down, nothing runs on the client any more */
+                Thread.currentThread().interrupt();
+            }
+            try {
+                generation.client.close();
+            } catch (Exception e) {
+                LOGGER.error("ManagedMongoClient:E002: Previous client not closed cleanly: " + e);
+            } finally {
+                draining.decrementAndGet();
+            }
+        });
+    }
+
+    public void close() {
+        closer.shutdownNow();
+        current.get().client.close();
+    }
+
+}
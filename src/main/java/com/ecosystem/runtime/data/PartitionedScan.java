@@ -0,0 +1,128 @@
+package com.ecosystem.runtime.data;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Splits a scan of a collection into _id ranges that are read in parallel. ObjectIds start with their creation time, so
+ * a range between two ObjectIds is split into equal time slices, each read with its own cursor on the _id index and
+ * reduced to a partial result by the caller. The caller merges the partial results once all partitions are done.
+ *
+ *    ObjectId upper = PartitionedScan.upperBound(collection, filter, watermark, maxDocuments);
+ *    List<Counts> partials = scan.scan(watermark, upper, range -> count(collection.find(Filters.and(filter, range))));
+ */
+public class PartitionedScan {
+
+    /**
+     * Reads one partition.
+     */
+    @FunctionalInterface
+    public interface Partition<T> {
+        /**
+         * @param range Filter on _id for this partition
+         */
+        T read(Bson range) throws Exception;
+    }
+
+    private final ExecutorService pool;
+    private final int partitions;
+
+    /**
+     * @param pool       Runs the partitions, at most partitions of them at a time are submitted per scan
+     * @param partitions Number of time slices per scan
+     */
+    public PartitionedScan(ExecutorService pool, int partitions) {
+        this.pool = pool;
+        this.partitions = Math.max(1, partitions);
+    }
+
+    /**
+     * Upper _id of a bounded scan: the maxDocuments-th document after the lower bound, or the newest document if there are
+     * fewer. Fixing the upper bound first keeps the documents read per run bounded when partitions are read in parallel.
+     * @param after Exclusive lower bound, null for the start of the collection
+     * @return inclusive upper bound, null if there are no documents after the lower bound
+     */
+    public static ObjectId upperBound(MongoCollection<Document> collection, Bson filter, ObjectId after, int maxDocuments) {
+        Bson range = after == null ? filter : Filters.and(filter, Filters.gt("_id", after));
+        Document bound = collection.find(range).projection(Projections.include("_id")).sort(Sorts.ascending("_id"))
+                .skip(Math.max(0, maxDocuments - 1)).first();
+        if (bound == null)
+            bound = collection.find(range).projection(Projections.include("_id")).sort(Sorts.descending("_id")).first();
+        return bound == null ? null : bound.getObjectId("_id");
+    }
+
+    /**
+     * Read (after, upper] in parallel partitions.
+     * @param after Exclusive lower bound, null for the start of the collection
+     * @param upper Inclusive upper bound
+     * @return partial results in _id order of their partitions
+     */
+    public <T> List<T> scan(ObjectId after, ObjectId upper, Partition<T> partition) throws Exception {
+        List<Bson> ranges = ranges(after, upper);
+        if (ranges.size() == 1)
+            return List.of(partition.read(ranges.get(0)));
+
+        List<Future<T>> futures = new ArrayList<>(ranges.size());
+        for (Bson range : ranges)
+            futures.add(pool.submit(() -> partition.read(range)));
+
+        List<T> results = new ArrayList<>(ranges.size());
+        try {
+            for (Future<T> future : futures)
+                results.add(future.get());
+        } catch (ExecutionException e) {
+            for (Future<T> future : futures)
+                future.cancel(true);
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } catch (InterruptedException e) {
+            for (Future<T> future : futures)
+                future.cancel(true);
+            throw e;
+        }
+        return results;
+    }
+
+    /**
+     * Equal time slices of (after, upper], fewer when the range spans fewer seconds than partitions.
+     */
+    List<Bson> ranges(ObjectId after, ObjectId upper) {
+        long from = after == null ? 0 : after.getTimestamp();
+        long to = upper.getTimestamp();
+        int slices = (int) Math.min(partitions, Math.max(1, to - from));
+
+        List<Bson> ranges = new ArrayList<>(slices);
+        Bson lower = after == null ? null : Filters.gt("_id", after);
+        if (after == null && slices > 1) {
+            /** Without a lower bound the first slice is open ended, the others split the last day */
+            from = Math.max(0, to - 86400);
+        }
+        for (int i = 1; i < slices; i++) {
+            ObjectId bound = floor(from + (to - from) * i / slices);
+            Bson upperRange = Filters.lt("_id", bound);
+            ranges.add(lower == null ? upperRange : Filters.and(lower, upperRange));
+            lower = Filters.gte("_id", bound);
+        }
+        Bson last = Filters.lte("_id", upper);
+        ranges.add(lower == null ? last : Filters.and(lower, last));
+        return ranges;
+    }
+
+    /**
+     * Smallest ObjectId with the timestamp.
+     */
+    public static ObjectId floor(long seconds) {
+        return new ObjectId(String.format("%08x%016x", seconds, 0L));
+    }
+
+}
@@ -0,0 +1,433 @@
+package com.ecosystem.runtime.rewards;
+
+import com.ecosystem.utils.EnvironmentalVariables;
+import com.ecosystem.utils.log.LogManager;
+import com.ecosystem.utils.log.Logger;
+import com.mongodb.client.MongoClient;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Online Thompson sampling statistics. Offers returned by scoring count as impressions and offers accepted through
+ * /response as successes, both are added to lock-free counters per campaign, offer and context that scoring reads
+ * straight away instead of waiting for the next engine run:
+ *    impression: beta + 1
+ *    acceptance: alpha + 1, beta - 1 (the impression was counted as a failure)
+ * The counters are flushed to the options store of the campaign in one bulk update per corpus by the scheduler, after
+ * which the loaded options carry them. The engines recompute from the logs on their own cadence as before.
+ *
+ * With INCREMENTAL_REWARDS=true the incremental runs already add the same events to the options store from the logs,
+ * flushing them as well would count them twice. The counts are then kept in memory only, per flush, until the watermark
+ * of the corpus shows that a run has merged the logs of that time (see IncrementalRewards.covered), or for at most
+ * ONLINE_REWARDS_TTL seconds.
+ *
+ * Every offer returned by scoring is an impression, whether or not the request carried the UPDATE flag: that flag marks
+ * a settings reload, not whether the prediction is logged, and the engines count every logged offer as a contact.
+ *
+ * Responses are matched to the context of the impression through its uuid, kept for ONLINE_REWARDS_TTL seconds (default
+ * 86400) up to ONLINE_REWARDS_CONTEXTS uuids (default 1000000). Responses handled by another runtime instance than the
+ * one that scored are left to the engines.
+ *
+ * Corpora with a "window" in their randomisation parameters also keep recent counts per arm, see ArmWindow and
+ * windowed().
+ *
+ * With ONLINE_REWARDS_CHECKPOINT set to a local file the windows and the pending and held counts are snapshot and
+ * restored on startup, see LearnerCheckpoint.
+ *
+ * Enable with ONLINE_REWARDS=true.
+ */
+public class ArmStatistics {
+    private static final Logger LOGGER = LogManager.getLogger(ArmStatistics.class.getName());
+
+    private static volatile ArmStatistics instance;
+    private static volatile boolean configured = false;
+
+    /**
+     * Counts not yet flushed to the options store.
+     */
+    private static final class Arm {
+        final String campaign;
+        final String offer;
+        final String one;
+        final String two;
+        final LongAdder impressions = new LongAdder();
+        final LongAdder accepted = new LongAdder();
+        /** Counts held in memory when the store is not written, {flush time, impressions, accepted} oldest first */
+        final Deque<long[]> held = new ConcurrentLinkedDeque<>();
+        volatile ArmWindow window;
+
+        Arm(String campaign, String offer, String one, String two) {
+            this.campaign = campaign;
+            this.offer = offer;
+            this.one = one;
+            this.two = two;
+        }
+    }
+
+    /**
+     * Arms shown for a uuid.
+     */
+    private static final class Impression {
+        final long created = System.currentTimeMillis();
+        final Map<String, Arm> offers = new HashMap<>();
+    }
+
+    private final Map<String, Arm> arms = new ConcurrentHashMap<>();
+    private final Map<String, Impression> impressions = new ConcurrentHashMap<>();
+    private final long ttlMillis;
+    private final int maxContexts;
+    private final boolean persist;
+
+    private final Counter impressionCount;
+    private final Counter acceptedCount;
+    private final Counter unmatched;
+    private final Counter dropped;
+    private final Counter flushed;
+
+    /**
+     * @param ttlSeconds  How long a response can be matched to its impression
+     * @param maxContexts Maximum impressions kept for matching, impressions over the limit are not matched
+     */
+    public ArmStatistics(long ttlSeconds, int maxContexts, MeterRegistry registry) {
+        this(ttlSeconds, maxContexts, true, registry);
+    }
+
+    /**
+     * @param persist False to keep the counts in memory until the incremental runs have merged them from the logs
+     */
+    public ArmStatistics(long ttlSeconds, int maxContexts, boolean persist, MeterRegistry registry) {
+        this.ttlMillis = ttlSeconds * 1000L;
+        this.maxContexts = maxContexts;
+        this.persist = persist;
+        this.impressionCount = Counter.builder("ecosystem.online.rewards.events").tag("type", "impression").register(registry);
+        this.acceptedCount = Counter.builder("ecosystem.online.rewards.events").tag("type", "accepted").register(registry);
+        this.unmatched = Counter.builder("ecosystem.online.rewards.events").tag("type", "unmatched").register(registry);
+        this.dropped = Counter.builder("ecosystem.online.rewards.events").tag("type", "dropped").register(registry);
+        this.flushed = Counter.builder("ecosystem.online.rewards.flushed").register(registry);
+        Gauge.builder("ecosystem.online.rewards.arms", arms, Map::size).register(registry);
+        Gauge.builder("ecosystem.online.rewards.contexts", impressions, Map::size).register(registry);
+    }
+
+    /**
+     * @return statistics configured from ONLINE_REWARDS, null if online rewards are not enabled
+     */
+    public static ArmStatistics get() {
+        if (!configured) {
+            synchronized (ArmStatistics.class) {
+                if (!configured) {
+                    if ("true".equalsIgnoreCase(EnvironmentalVariables.getEnvKey("ONLINE_REWARDS"))) {
+                        String ttl = EnvironmentalVariables.getEnvKey("ONLINE_REWARDS_TTL");
+                        String contexts = EnvironmentalVariables.getEnvKey("ONLINE_REWARDS_CONTEXTS");
+                        instance = new ArmStatistics(ttl == null ? 86400 : Long.parseLong(ttl.trim()),
+                                contexts == null ? 1000000 : Integer.parseInt(contexts.trim()),
+                                !"true".equalsIgnoreCase(EnvironmentalVariables.getEnvKey("INCREMENTAL_REWARDS")), Metrics.globalRegistry);
+                    }
+                    configured = true;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Record the offers returned for a uuid.
+     * @param finalResult Offers with offer, contextual_variable_one and contextual_variable_two
+     */
+    public void impressions(String campaign, String uuid, JSONArray finalResult) {
+        impressions(campaign, uuid, finalResult, null);
+    }
+
+    /**
+     * Record the offers returned for a uuid, also in the recent counts of the window.
+     * @param window Window of the corpus (randomisation.window), null if the corpus has none
+     */
+    public void impressions(String campaign, String uuid, JSONArray finalResult, JSONObject window) {
+        if (finalResult == null || finalResult.isEmpty()) return;
+        long now = System.currentTimeMillis();
+        Impression impression = new Impression();
+        for (int i = 0; i < finalResult.length(); i++) {
+            JSONObject offer = finalResult.optJSONObject(i);
+            if (offer == null || !offer.has("offer")) continue;
+            Arm arm = arm(campaign, String.valueOf(offer.get("offer")), offer.optString("contextual_variable_one", ""),
+                    offer.optString("contextual_variable_two", ""));
+            arm.impressions.increment();
+            ArmWindow recent = window(arm, window);
+            if (recent != null) recent.add(now, 1, 0);
+            impression.offers.put(arm.offer, arm);
+            impressionCount.increment();
+        }
+        if (uuid == null || impression.offers.isEmpty()) return;
+        if (impressions.size() < maxContexts)
+            impressions.put(uuid, impression);
+        else
+            dropped.increment();
+    }
+
+    /**
+     * Record the offers accepted in a /response document, never fails the response.
+     *    {"uuid": "...", "offers_accepted": [{"offer_name": "OFFER_A"}]}
+     */
+    public void response(JSONObject document) {
+        try {
+            JSONArray accepted = document.optJSONArray("offers_accepted");
+            if (accepted == null) return;
+            Impression impression = impressions.get(document.optString("uuid"));
+            if (impression == null || System.currentTimeMillis() - impression.created > ttlMillis) {
+                unmatched.increment();
+                return;
+            }
+            for (int i = 0; i < accepted.length(); i++) {
+                Object item = accepted.get(i);
+                Object offer = item instanceof JSONObject ? ((JSONObject) item).opt("offer_name") : item;
+                Arm arm = offer == null ? null : impression.offers.get(String.valueOf(offer));
+                if (arm == null) {
+                    unmatched.increment();
+                    continue;
+                }
+                arm.accepted.increment();
+                ArmWindow recent = arm.window;
+                if (recent != null) recent.add(System.currentTimeMillis(), 0, 1);
+                acceptedCount.increment();
+            }
+        } catch (Exception e) {
+            LOGGER.error("ArmStatistics:E001: Response not recorded: " + e);
+        }
+    }
+
+    /**
+     * Alpha and beta not yet in the options store for an arm, {0, 0} if there are none.
+     */
+    public double[] pending(String campaign, String offer, String one, String two) {
+        Arm arm = arms.get(key(campaign, offer, one, two));
+        if (arm == null) return new double[2];
+        long shown = arm.impressions.sum();
+        long accepted = arm.accepted.sum();
+        for (long[] counts : arm.held) {
+            shown += counts[1];
+            accepted += counts[2];
+        }
+        return new double[]{accepted, shown - accepted};
+    }
+
+    /**
+     * Recent successes and failures of an arm in its window, null if the arm has no window or no impressions in it.
+     */
+    public double[] windowed(String campaign, String offer, String one, String two) {
+        Arm arm = arms.get(key(campaign, offer, one, two));
+        ArmWindow window = arm == null ? null : arm.window;
+        if (window == null) return null;
+        double[] counts = window.counts(System.currentTimeMillis());
+        if (counts[0] <= 0) return null;
+        /** Acceptances of impressions that have left the window can exceed the impressions in it */
+        return new double[]{counts[1], Math.max(0, counts[0] - counts[1])};
+    }
+
+    /**
+     * Write the pending counts to the options stores and expire old impressions. Counts that are not written are kept for
+     * the next flush. Without persist the counts are held in memory instead, see hold().
+     * @param corpora predictor.corpora, the options store of a campaign is its dynamic_engagement corpus
+     * @return arms updated
+     */
+    public int flush(MongoClient mongoClient, JSONArray corpora) {
+        long now = System.currentTimeMillis();
+        impressions.values().removeIf(impression -> now - impression.created > ttlMillis);
+        if (!persist) {
+            hold(mongoClient, now);
+            return 0;
+        }
+
+        /** Take the counts off the adders, updates that arrive meanwhile stay for the next flush */
+        Map<String, Map<String, double[]>> byCampaign = new HashMap<>();
+        Map<String, long[]> taken = new HashMap<>();
+        for (Iterator<Map.Entry<String, Arm>> it = arms.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Arm> entry = it.next();
+            Arm arm = entry.getValue();
+            long shown = arm.impressions.sum();
+            long accepted = arm.accepted.sum();
+            if (shown == 0 && accepted == 0) continue;
+            arm.impressions.add(-shown);
+            arm.accepted.add(-accepted);
+            taken.put(entry.getKey(), new long[]{shown, accepted});
+            byCampaign.computeIfAbsent(arm.campaign, c -> new HashMap<>())
+                    .put(IncrementalRewards.key(arm.offer, arm.one, arm.two), new double[]{accepted, shown - accepted});
+        }
+
+        int updated = 0;
+        for (Map.Entry<String, Map<String, double[]>> campaign : byCampaign.entrySet()) {
+            JSONObject corpus = IncrementalRewards.optionsStore(new JSONObject().put("name", campaign.getKey()), corpora);
+            try {
+                if (corpus == null)
+                    throw new IllegalStateException("no dynamic_engagement corpus");
+                updated += IncrementalRewards.merge(mongoClient.getDatabase(corpus.getString("db")).getCollection(corpus.getString("table")),
+                        campaign.getValue());
+                flushed.increment(campaign.getValue().size());
+            } catch (Exception e) {
+                LOGGER.error("ArmStatistics:E002: Counts for " + campaign.getKey() + " not flushed, kept for the next flush: " + e);
+                for (Map.Entry<String, long[]> entry : taken.entrySet()) {
+                    Arm arm = arms.get(entry.getKey());
+                    if (arm != null && arm.campaign.equals(campaign.getKey())) {
+                        arm.impressions.add(entry.getValue()[0]);
+                        arm.accepted.add(entry.getValue()[1]);
+                    }
+                }
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Move the pending counts to the held counts of their arm and drop the held counts that the incremental runs have
+     * merged into the store, or that are older than the ttl. Held counts of a campaign whose watermark cannot be read are
+     * kept.
+     */
+    void hold(MongoClient mongoClient, long now) {
+        Map<String, Long> covered = new HashMap<>();
+        for (Arm arm : arms.values()) {
+            long shown = arm.impressions.sum();
+            long accepted = arm.accepted.sum();
+            if (shown != 0 || accepted != 0) {
+                arm.impressions.add(-shown);
+                arm.accepted.add(-accepted);
+                arm.held.addLast(new long[]{now, shown, accepted});
+            }
+            if (arm.held.isEmpty()) continue;
+            long merged = covered.computeIfAbsent(arm.campaign, campaign -> {
+                try {
+                    return IncrementalRewards.covered(mongoClient, campaign);
+                } catch (Exception e) {
+                    LOGGER.error("ArmStatistics:E004: Watermark of " + campaign + " not read, held counts kept: " + e);
+                    return -1L;
+                }
+            });
+            long[] oldest;
+            while ((oldest = arm.held.peekFirst()) != null && (oldest[0] <= merged || now - oldest[0] > ttlMillis))
+                arm.held.pollFirst();
+        }
+    }
+
+    /**
+     * Window of the arm for the specification, replaced when the specification of the corpus changes.
+     */
+    private static ArmWindow window(Arm arm, JSONObject spec) {
+        ArmWindow window = arm.window;
+        if (spec == null) {
+            arm.window = null;
+            return null;
+        }
+        if (window == null || !window.matches(spec)) {
+            window = ArmWindow.of(spec);
+            arm.window = window;
+        }
+        return window;
+    }
+
+    /**
+     * Write the arms that have a window, see LearnerCheckpoint.
+     * @return arms written
+     */
+    int writeWindows(DataOutputStream out) throws IOException {
+        int written = 0;
+        for (Arm arm : arms.values()) {
+            ArmWindow window = arm.window;
+            if (window == null) continue;
+            writeArm(out, arm);
+            LearnerCheckpoint.writeString(out, window.getSpec());
+            window.write(out);
+            written++;
+        }
+        return written;
+    }
+
+    /**
+     * Restore arms written by writeWindows(), windows whose state no longer fits their specification are skipped.
+     * @return arms restored
+     */
+    int readWindows(ByteBuffer in, int entries) {
+        int restored = 0;
+        for (int i = 0; i < entries; i++) {
+            Arm arm = readArm(in);
+            ArmWindow window = ArmWindow.read(LearnerCheckpoint.readString(in), in);
+            if (window == null) continue;
+            arm.window = window;
+            restored++;
+        }
+        return restored;
+    }
+
+    /**
+     * Write the counts not yet in the options store, pending and held, see LearnerCheckpoint.
+     * @return arms written
+     */
+    int writeCounts(DataOutputStream out) throws IOException {
+        int written = 0;
+        for (Arm arm : arms.values()) {
+            long shown = arm.impressions.sum();
+            long accepted = arm.accepted.sum();
+            long[][] held = arm.held.toArray(new long[0][]);
+            if (shown == 0 && accepted == 0 && held.length == 0) continue;
+            writeArm(out, arm);
+            out.writeLong(shown);
+            out.writeLong(accepted);
+            out.writeInt(held.length);
+            for (long[] counts : held) {
+                out.writeLong(counts[0]);
+                out.writeLong(counts[1]);
+                out.writeLong(counts[2]);
+            }
+            written++;
+        }
+        return written;
+    }
+
+    /**
+     * Add the counts written by writeCounts() to the arms, pending counts are flushed or held by the next flush.
+     * @return arms restored
+     */
+    int readCounts(ByteBuffer in, int entries) {
+        for (int i = 0; i < entries; i++) {
+            Arm arm = readArm(in);
+            arm.impressions.add(in.getLong());
+            arm.accepted.add(in.getLong());
+            int held = in.getInt();
+            for (int h = 0; h < held; h++)
+                arm.held.addLast(new long[]{in.getLong(), in.getLong(), in.getLong()});
+        }
+        return entries;
+    }
+
+    private static void writeArm(DataOutputStream out, Arm arm) throws IOException {
+        LearnerCheckpoint.writeString(out, arm.campaign);
+        LearnerCheckpoint.writeString(out, arm.offer);
+        LearnerCheckpoint.writeString(out, arm.one);
+        LearnerCheckpoint.writeString(out, arm.two);
+    }
+
+    private Arm readArm(ByteBuffer in) {
+        return arm(LearnerCheckpoint.readString(in), LearnerCheckpoint.readString(in), LearnerCheckpoint.readString(in),
+                LearnerCheckpoint.readString(in));
+    }
+
+    private Arm arm(String campaign, String offer, String one, String two) {
+        return arms.computeIfAbsent(key(campaign, offer, one, two), k -> new Arm(campaign, offer, one, two));
+    }
+
+    private static String key(String campaign, String offer, String one, String two) {
+        return campaign + "\u0000" + IncrementalRewards.key(offer, one, two);
+    }
+
+}
@@ -0,0 +1,202 @@
+package com.ecosystem.runtime.rewards;
+
+import org.json.JSONObject;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Recent impressions and acceptances of an arm, so that response rates that drift (e.g. over payday cycles) are not
+ * averaged away by the whole history. Configured per corpus with a "window" object in the randomisation parameters:
+ *    {"type": "sliding", "buckets": 24, "bucket_seconds": 3600}   last buckets * bucket_seconds, in time buckets
+ *    {"type": "decay", "half_life_seconds": 86400}                 every event weighted by its age
+ * Updates are O(1), reads O(buckets).
+ */
+public abstract class ArmWindow {
+
+    private static final byte SLIDING = 1;
+    private static final byte DECAYED = 2;
+
+    private final String spec;
+
+    ArmWindow(JSONObject spec) {
+        this.spec = spec.toString();
+    }
+
+    /**
+     * @return window for the specification, null if there is none or it is not valid
+     */
+    public static ArmWindow of(JSONObject spec) {
+        if (spec == null) return null;
+        String type = spec.optString("type", "sliding");
+        if (type.equals("sliding")) {
+            int buckets = spec.optInt("buckets", 24);
+            long bucketSeconds = spec.optLong("bucket_seconds", 3600);
+            return buckets > 0 && bucketSeconds > 0 ? new Sliding(spec, buckets, bucketSeconds * 1000L) : null;
+        }
+        if (type.equals("decay")) {
+            long halfLife = spec.optLong("half_life_seconds", 86400);
+            return halfLife > 0 ? new Decayed(spec, halfLife * 1000L) : null;
+        }
+        return null;
+    }
+
+    boolean matches(JSONObject spec) {
+        return spec != null && this.spec.equals(spec.toString());
+    }
+
+    String getSpec() {
+        return spec;
+    }
+
+    /**
+     * Write the state for a checkpoint, see read().
+     */
+    abstract void write(DataOutputStream out) throws IOException;
+
+    /**
+     * Window for the specification with the state written by write(), null if the state does not fit the specification.
+     */
+    static ArmWindow read(String spec, ByteBuffer in) {
+        ArmWindow window = of(new JSONObject(spec));
+        byte type = in.get();
+        if (type == SLIDING) {
+            int buckets = in.getInt();
+            long[] state = new long[buckets * 3];
+            for (int i = 0; i < state.length; i++)
+                state[i] = in.getLong();
+            if (!(window instanceof Sliding) || ((Sliding) window).buckets != buckets) return null;
+            Sliding sliding = (Sliding) window;
+            for (int slot = 0; slot < buckets; slot++) {
+                sliding.epochs.set(slot, state[slot * 3]);
+                sliding.impressions.set(slot, state[slot * 3 + 1]);
+                sliding.accepted.set(slot, state[slot * 3 + 2]);
+            }
+            return sliding;
+        }
+        if (type == DECAYED) {
+            double[] state = new double[]{in.getDouble(), in.getDouble(), in.getDouble()};
+            if (!(window instanceof Decayed)) return null;
+            ((Decayed) window).state.set(state);
+            return window;
+        }
+        throw new IllegalStateException("Unknown window type " + type);
+    }
+
+    /**
+     * Add events at time now (epoch milliseconds).
+     */
+    public abstract void add(long now, long impressions, long accepted);
+
+    /**
+     * @return {impressions, accepted} in the window at time now, weighted for a decayed window
+     */
+    public abstract double[] counts(long now);
+
+    /**
+     * Ring buffer of time buckets. A bucket is reused once it falls out of the window, events racing its reset at the
+     * bucket boundary can be lost.
+     */
+    static final class Sliding extends ArmWindow {
+        private final int buckets;
+        private final long bucketMillis;
+        private final AtomicLongArray epochs;
+        private final AtomicLongArray impressions;
+        private final AtomicLongArray accepted;
+
+        Sliding(JSONObject spec, int buckets, long bucketMillis) {
+            super(spec);
+            this.buckets = buckets;
+            this.bucketMillis = bucketMillis;
+            this.epochs = new AtomicLongArray(buckets);
+            this.impressions = new AtomicLongArray(buckets);
+            this.accepted = new AtomicLongArray(buckets);
+        }
+
+        @Override
+        public void add(long now, long shown, long taken) {
+            long epoch = now / bucketMillis;
+            int slot = (int) (epoch % buckets);
+            long current = epochs.get(slot);
+            if (current < epoch && epochs.compareAndSet(slot, current, epoch)) {
+                impressions.set(slot, 0);
+                accepted.set(slot, 0);
+            }
+            if (shown != 0) impressions.addAndGet(slot, shown);
+            if (taken != 0) accepted.addAndGet(slot, taken);
+        }
+
+        @Override
+        public double[] counts(long now) {
+            long oldest = now / bucketMillis - buckets;
+            double[] counts = new double[2];
+            for (int slot = 0; slot < buckets; slot++) {
+                if (epochs.get(slot) > oldest) {
+                    counts[0] += impressions.get(slot);
+                    counts[1] += accepted.get(slot);
+                }
+            }
+            return counts;
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(SLIDING);
+            out.writeInt(buckets);
+            for (int slot = 0; slot < buckets; slot++) {
+                out.writeLong(epochs.get(slot));
+                out.writeLong(impressions.get(slot));
+                out.writeLong(accepted.get(slot));
+            }
+        }
+    }
+
+    /**
+     * Exponentially decayed counts, an event half_life_seconds old counts half.
+     */
+    static final class Decayed extends ArmWindow {
+        private final double lambda;
+        private final AtomicReference<double[]> state = new AtomicReference<>(new double[]{0, 0, 0});
+
+        Decayed(JSONObject spec, long halfLifeMillis) {
+            super(spec);
+            this.lambda = Math.log(2) / halfLifeMillis;
+        }
+
+        @Override
+        public void add(long now, long shown, long taken) {
+            double[] previous;
+            double[] next;
+            do {
+                previous = state.get();
+                double factor = decay(previous, now);
+                next = new double[]{previous[0] * factor + shown, previous[1] * factor + taken, Math.max(now, previous[2])};
+            } while (!state.compareAndSet(previous, next));
+        }
+
+        @Override
+        public double[] counts(long now) {
+            double[] current = state.get();
+            double factor = decay(current, now);
+            return new double[]{current[0] * factor, current[1] * factor};
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            double[] current = state.get();
+            out.writeByte(DECAYED);
+            out.writeDouble(current[0]);
+            out.writeDouble(current[1]);
+            out.writeDouble(current[2]);
+        }
+
+        /** State is {impressions, accepted, time of last update}, events older than the last update are not decayed twice */
+        private double decay(double[] current, long now) {
+            return now > current[2] ? Math.exp(-lambda * (now - current[2])) : 1.0;
+        }
+    }
+
+}
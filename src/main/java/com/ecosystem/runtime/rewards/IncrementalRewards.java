@@ -0,0 +1,673 @@
+package com.ecosystem.runtime.rewards;
+
+import com.ecosystem.plugin.lib.BetaSampler;
+import com.ecosystem.runtime.data.LogPartitions;
+import com.ecosystem.runtime.data.PartitionedScan;
+import com.ecosystem.utils.log.LogManager;
+import com.ecosystem.utils.log.Logger;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Incremental Thompson sampling updates for a dynamic engagement corpus. Instead of reprocessing the whole interaction
+ * history every run, only contacts and responses logged after the corpus watermark (last processed ObjectId of each
+ * logging collection) are read and merged into the options store as alpha/beta increments:
+ *    contact:  beta + 1 for every offer in final_result
+ *    response: alpha + 1, beta - 1 (the contact was counted as a failure)
+ * The arm_reward of an updated option is a new Thompson draw from Beta(alpha, beta) of the incremented counts, written in
+ * the same update, as the engine does on a full run.
+ * Every fullRecomputeEvery runs, and when there is no watermark yet, the full engine runs instead as a correctness check
+ * and the watermarks restart from the newest documents seen before it started.
+ *
+ * ObjectIds are assigned by the writer, a document can be committed after one with a larger _id. Runs only read up to
+ * settleSeconds before now, documents committed later than that behind their _id time are not counted until the next
+ * full recompute.
+ *
+ * The range of a run (after the watermark, up to maxDocuments) is fixed first and read in parallel _id partitions with
+ * streaming cursors, each partition is reduced to its own increments and the increments are merged at the end.
+ *
+ * With partitioned logging a run reads the oldest collection that has documents after the watermark, the base collection
+ * once the partitions are caught up, and contacts for responses are looked up in the base collection first and then in
+ * the partitions that overlap the response window before the responses (logging.partition.response.hours), newest
+ * first. Documents only move into partitions after the hot window, so runs that keep up read the base collection only.
+ * A run whose range was partly moved into a partition while it read the base collection merges nothing, the next run
+ * reads that range from the partition.
+ *
+ * With setRollups(true) (INCREMENTAL_ROLLUPS=true in RuntimeApplication) the increments come from the hourly
+ * ResponseRollups of the campaign instead of the logs, the watermark is then the end of the last hour merged and only
+ * hours whose rollups are complete are read. A full recompute moves it to the end of the hour it started in, events of
+ * the rest of that hour are only counted by the next full recompute. The rollups are maintained with ROLLUPS=true, every
+ * replica that scores or takes responses must run with it. Switching between logs and rollups starts with a full
+ * recompute.
+ *
+ * The watermark also records the time up to which logged events are in the store ("covered"), so that online counts held
+ * in memory by ArmStatistics can be dropped once a run has merged them.
+ *
+ * The watermark is moved with a compare-and-set on its version before the increments are merged, so only one run can
+ * merge a range: a concurrent run, or a run with an older fencing token when the engines run on an elected leader (a
+ * replica that lost the lease), fails the compare-and-set and merges nothing. A full recompute claims the watermark the
+ * same way before it starts. If the merge fails after the watermark moved, the next run is a full recompute.
+ */
+public class IncrementalRewards {
+    private static final Logger LOGGER = LogManager.getLogger(IncrementalRewards.class.getName());
+
+    private static final String WATERMARKS = "ecosystem_watermarks";
+    private static final int LOOKUP_BATCH = 1000;
+
+    /**
+     * The existing full recompute, e.g. RollingEcosystemRewards.process.
+     */
+    @FunctionalInterface
+    public interface FullRecompute {
+        void run() throws Exception;
+    }
+
+    private final MongoClient mongoClient;
+    private final int fullRecomputeEvery;
+    private final int maxDocuments;
+    private final long settleSeconds;
+    private final int lookupBatch;
+    private final ExecutorService pool;
+    private final PartitionedScan scan;
+    /** Runs in flight and whether close() was called, guarded by the pool */
+    private int active = 0;
+    private boolean closed = false;
+    private volatile boolean rollups = false;
+
+    /**
+     * @param fullRecomputeEvery Incremental runs between full recomputes
+     * @param maxDocuments       Maximum contacts and responses read per run, the rest is picked up by the next run
+     */
+    public IncrementalRewards(MongoClient mongoClient, int fullRecomputeEvery, int maxDocuments) {
+        this(mongoClient, fullRecomputeEvery, maxDocuments, 1, LOOKUP_BATCH);
+    }
+
+    /**
+     * @param partitions  _id ranges of the contact and response logs read in parallel
+     * @param maxBuffered Maximum log documents held at a time over all partitions (cursor batches, responses waiting for
+     *                    their contacts and the contacts looked up). A cap on documents, not bytes: documents are
+     *                    projected to the fields the increments need, the increments themselves grow with the arms
+     */
+    public IncrementalRewards(MongoClient mongoClient, int fullRecomputeEvery, int maxDocuments, int partitions, int maxBuffered) {
+        this(mongoClient, fullRecomputeEvery, maxDocuments, partitions, maxBuffered, 60);
+    }
+
+    /**
+     * @param settleSeconds Documents with an _id time less than this before now are not read yet
+     */
+    public IncrementalRewards(MongoClient mongoClient, int fullRecomputeEvery, int maxDocuments, int partitions, int maxBuffered,
+                              long settleSeconds) {
+        this.mongoClient = mongoClient;
+        this.fullRecomputeEvery = fullRecomputeEvery;
+        this.maxDocuments = maxDocuments;
+        this.settleSeconds = settleSeconds;
+        /** A response partition holds a cursor batch, the responses waiting for the lookup and the contacts found */
+        this.lookupBatch = Math.max(1, Math.min(LOOKUP_BATCH, maxBuffered / (3 * Math.max(1, partitions))));
+        AtomicInteger number = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(Math.max(1, partitions), r -> {
+            Thread thread = new Thread(r, "ecosystem-incremental-" + number.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scan = new PartitionedScan(pool, partitions);
+    }
+
+    /**
+     * Stop the partition pool once the runs in flight have finished, e.g. when the engines are rebuilt on a new client.
+     * Runs that start after close() do nothing.
+     */
+    public void close() {
+        synchronized (pool) {
+            closed = true;
+            if (active == 0)
+                pool.shutdown();
+        }
+    }
+
+    /**
+     * @param paramDoc Dynamic configuration of the corpus, as returned by checkCorpora
+     * @param corpora  predictor.corpora, used to find the options store of the corpus
+     * @return documents processed, for a full recompute the contacts of the campaign
+     */
+    public long process(JSONObject paramDoc, JSONArray corpora, FullRecompute full) throws Exception {
+        return process(paramDoc, corpora, full, -1);
+    }
+
+    /**
+     * @param fence Fencing token of the leader lease, -1 when the engines are not run by an elected leader
+     * @return documents processed, for a full recompute the contacts of the campaign, -1 if closed
+     */
+    public long process(JSONObject paramDoc, JSONArray corpora, FullRecompute full, long fence) throws Exception {
+        synchronized (pool) {
+            if (closed) {
+                /** Not a failure, which would rebuild the engines again, the replacement runs the corpus on the next tick */
+                LOGGER.warn("IncrementalRewards:W002: Closed, run of " + paramDoc.opt("name") + " left to the replacement");
+                return -1;
+            }
+            active++;
+        }
+        try {
+            return run(paramDoc, corpora, full, fence);
+        } finally {
+            synchronized (pool) {
+                active--;
+                if (closed && active == 0)
+                    pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * @param rollups True to read the increments from the hourly rollups instead of the logs
+     */
+    public void setRollups(boolean rollups) {
+        this.rollups = rollups;
+    }
+
+    /**
+     * @return true once the partition pool has stopped after close()
+     */
+    boolean isStopped() {
+        return pool.isShutdown();
+    }
+
+    private long run(JSONObject paramDoc, JSONArray corpora, FullRecompute full, long fence) throws Exception {
+        String name = String.valueOf(paramDoc.get("name"));
+        LoggingSchema schema = LoggingSchema.of(paramDoc);
+        JSONObject corpus = optionsStore(paramDoc, corpora);
+        if (corpus == null) {
+            LOGGER.warn("IncrementalRewards:W001: No dynamic_engagement corpus for " + name + ", running full recompute");
+            full.run();
+            return schema.countContacts(mongoClient);
+        }
+
+        MongoDatabase logging = mongoClient.getDatabase(schema.getDatabase());
+        MongoCollection<Document> watermarks = logging.getCollection(WATERMARKS);
+        MongoCollection<Document> contacts = logging.getCollection(schema.getContacts());
+        MongoCollection<Document> responses = logging.getCollection(schema.getResponses());
+        MongoCollection<Document> options = mongoClient.getDatabase(corpus.getString("db")).getCollection(corpus.getString("table"));
+
+        Document watermark = watermarks.find(Filters.eq("_id", name)).first();
+        int runs = watermark == null ? 0 : watermark.getInteger("runs", 0);
+        long version = version(watermark);
+        if (watermark != null && fence >= 0 && watermark.get("fence") instanceof Number && ((Number) watermark.get("fence")).longValue() > fence)
+            throw new IllegalStateException("Watermark of " + name + " is fenced by a newer leader, token " + fence + " is stale");
+        /** Exclusive upper bound of this run, writes in flight are read once they settled */
+        long settledAt = (System.currentTimeMillis() / 1000 - settleSeconds) * 1000;
+        Bson settled = Filters.lt("_id", PartitionedScan.floor(settledAt / 1000));
+        /** The watermark of the other source does not say where this one is */
+        if (watermark == null || runs >= fullRecomputeEvery || !watermark.containsKey(rollups ? "hour" : "contacts")) {
+            long start = System.currentTimeMillis();
+            Bson position = rollups
+                    ? Updates.combine(Updates.set("hour", new Date(ResponseRollups.hour(start) + 3600000L)), Updates.unset("contacts"), Updates.unset("responses"))
+                    : Updates.combine(Updates.set("contacts", newest(contacts, settled)), Updates.set("responses", newest(responses, settled)), Updates.unset("hour"));
+            /** Claimed before the run so that a stale or concurrent run cannot merge into the recomputed store */
+            version = claim(watermarks, name, version, Updates.set("runs", fullRecomputeEvery), fence);
+            full.run();
+            saveWatermark(watermarks, name, version, position, settledAt, 0, true, fence);
+            LOGGER.info("IncrementalRewards:I001: Full recompute of " + name + " in " + (System.currentTimeMillis() - start) + " ms");
+            return schema.countContacts(mongoClient);
+        }
+        if (rollups)
+            return fromRollups(logging, watermarks, options, schema, name, watermark, version, runs, fence);
+
+        ObjectId lastContact = watermark.getObjectId("contacts");
+        ObjectId lastResponse = watermark.getObjectId("responses");
+
+        /** Contacts after the watermark, up to maxDocuments, read in parallel _id partitions */
+        Bson contactScope = Filters.and(schema.contactScope(), settled);
+        MongoCollection<Document> contactLog = after(logging, schema.getPartitions(), schema.getContacts(), contactScope, lastContact);
+        ObjectId contactUpper = PartitionedScan.upperBound(contactLog, contactScope, lastContact, maxDocuments);
+        List<Partial> partials = new ArrayList<>();
+        if (contactUpper != null)
+            partials.addAll(scan.scan(lastContact, contactUpper, range -> contacts(contactLog, schema, Filters.and(contactScope, range))));
+        long contactCount = count(partials);
+
+        /** Responses after the watermark, the context comes from the contact with the same uuid */
+        MongoCollection<Document> responseLog = after(logging, schema.getPartitions(), schema.getResponses(), settled, lastResponse);
+        TreeMap<Long, String> contactPartitions = schema.getPartitions().partitions(logging, schema.getContacts());
+        ObjectId responseUpper = PartitionedScan.upperBound(responseLog, settled, lastResponse, maxDocuments);
+        List<Partial> responsePartials = new ArrayList<>();
+        if (responseUpper != null)
+            responsePartials.addAll(scan.scan(lastResponse, responseUpper,
+                    range -> responses(responseLog, logging, contacts, contactPartitions, schema, range)));
+        long responseCount = count(responsePartials);
+        partials.addAll(responsePartials);
+
+        /** The partitions only receive documents older than the hot window, a range read from the base collection after
+         * that is checked for documents moved out from under the scan */
+        if (moved(logging, schema.getPartitions(), schema.getContacts(), contactLog, contactScope, lastContact, contactUpper)
+                || moved(logging, schema.getPartitions(), schema.getResponses(), responseLog, settled, lastResponse, responseUpper)) {
+            LOGGER.warn("IncrementalRewards:W003: Logs of " + name + " moved into partitions during the run, range left to the next run");
+            return 0;
+        }
+        if (contactUpper != null)
+            lastContact = contactUpper;
+        if (responseUpper != null)
+            lastResponse = responseUpper;
+
+        Map<String, double[]> deltas = new HashMap<>();
+        for (Partial partial : partials) {
+            for (Map.Entry<String, double[]> entry : partial.deltas.entrySet()) {
+                double[] delta = deltas.computeIfAbsent(entry.getKey(), k -> new double[2]);
+                delta[0] += entry.getValue()[0];
+                delta[1] += entry.getValue()[1];
+            }
+        }
+
+        /** Events logged before this time are now in the store, a log read up to maxDocuments or from a partition only
+         * up to its upper bound */
+        long covered = Math.min(covered(contactLog, schema.getContacts(), contactUpper, contactCount, settledAt),
+                covered(responseLog, schema.getResponses(), responseUpper, responseCount, settledAt));
+
+        saveWatermark(watermarks, name, version, Updates.combine(Updates.set("contacts", lastContact), Updates.set("responses", lastResponse)),
+                covered, runs + 1, false, fence);
+        int updated = merge(watermarks, name, options, deltas);
+        LOGGER.info("IncrementalRewards:I002: " + name + ": " + contactCount + " contacts, " + responseCount + " responses, "
+                + updated + " options updated");
+        return contactCount + responseCount;
+    }
+
+    /**
+     * Increments from the rollups of the campaign for the complete hours after the watermark.
+     * @return rollups read
+     */
+    private long fromRollups(MongoDatabase logging, MongoCollection<Document> watermarks, MongoCollection<Document> options,
+                             LoggingSchema schema, String name, Document watermark, long version, int runs, long fence) {
+        Date from = watermark.getDate("hour");
+        long to = ResponseRollups.closedBefore(System.currentTimeMillis(), settleSeconds * 1000);
+        if (to <= from.getTime()) return 0;
+
+        String campaign = schema.getCampaignValue() != null ? schema.getCampaignValue() : name;
+        Map<String, double[]> deltas = new HashMap<>();
+        long documents = 0;
+        for (Document rollup : logging.getCollection(ResponseRollups.COLLECTION)
+                .find(Filters.and(Filters.eq("campaign", campaign), Filters.gte("hour", from), Filters.lt("hour", new Date(to))))
+                .batchSize(lookupBatch)) {
+            long shown = rollup.get("impressions") instanceof Number ? ((Number) rollup.get("impressions")).longValue() : 0;
+            long accepted = rollup.get("accepted") instanceof Number ? ((Number) rollup.get("accepted")).longValue() : 0;
+            double[] delta = delta(deltas, String.valueOf(rollup.get("offer")), LoggingSchema.getString(rollup, "contextual_variable_one"),
+                    LoggingSchema.getString(rollup, "contextual_variable_two"));
+            delta[0] += accepted;
+            delta[1] += shown - accepted;
+            documents++;
+        }
+
+        saveWatermark(watermarks, name, version, Updates.set("hour", new Date(to)), to, runs + 1, false, fence);
+        int updated = merge(watermarks, name, options, deltas);
+        LOGGER.info("IncrementalRewards:I003: " + name + ": " + documents + " rollups up to " + new Date(to) + ", " + updated + " options updated");
+        return documents;
+    }
+
+    /**
+     * Merge after the watermark has moved, a failed merge makes the next run a full recompute.
+     */
+    private int merge(MongoCollection<Document> watermarks, String name, MongoCollection<Document> options, Map<String, double[]> deltas) {
+        try {
+            return merge(options, deltas);
+        } catch (RuntimeException e) {
+            /** The watermark has moved past increments that are not in the store, only a full recompute restores them */
+            watermarks.updateOne(Filters.eq("_id", name), Updates.set("runs", fullRecomputeEvery));
+            throw e;
+        }
+    }
+
+    /**
+     * Partial result of one partition.
+     */
+    private static final class Partial {
+        final Map<String, double[]> deltas = new HashMap<>();
+        long documents = 0;
+    }
+
+    private static long count(List<Partial> partials) {
+        long documents = 0;
+        for (Partial partial : partials)
+            documents += partial.documents;
+        return documents;
+    }
+
+    private Partial contacts(MongoCollection<Document> contacts, LoggingSchema schema, Bson filter) {
+        Partial partial = new Partial();
+        try (MongoCursor<Document> cursor = contacts.find(filter)
+                .projection(Projections.include(root(schema.getOffer()), root(schema.getContextualVariableOne()), root(schema.getContextualVariableTwo())))
+                .batchSize(lookupBatch)
+                .iterator()) {
+            while (cursor.hasNext()) {
+                Document contact = cursor.next();
+                partial.documents++;
+                for (String[] shown : schema.shown(contact))
+                    delta(partial.deltas, shown[0], shown[1], shown[2])[1] += 1;
+            }
+        }
+        return partial;
+    }
+
+    /**
+     * Responses are buffered for the contact lookup, lookupBatch per partition at most.
+     */
+    private Partial responses(MongoCollection<Document> responses, MongoDatabase database, MongoCollection<Document> contacts,
+                              TreeMap<Long, String> partitions, LoggingSchema schema, Bson filter) {
+        Partial partial = new Partial();
+        List<Document> pending = new ArrayList<>(lookupBatch);
+        try (MongoCursor<Document> cursor = responses.find(filter)
+                .projection(Projections.include("_id", schema.getUuid(), root(schema.getAccepted())))
+                .batchSize(lookupBatch)
+                .iterator()) {
+            while (cursor.hasNext()) {
+                Document response = cursor.next();
+                partial.documents++;
+                if (response.get(schema.getUuid()) == null) continue;
+                pending.add(response);
+                if (pending.size() == lookupBatch) {
+                    accepted(lookup(database, contacts, partitions, schema.getPartitions(), pending), schema, pending, partial.deltas);
+                    pending.clear();
+                }
+            }
+        }
+        if (!pending.isEmpty())
+            accepted(lookup(database, contacts, partitions, schema.getPartitions(), pending), schema, pending, partial.deltas);
+        return partial;
+    }
+
+    private void accepted(List<MongoCollection<Document>> contacts, LoggingSchema schema, List<Document> responses, Map<String, double[]> deltas) {
+        Set<Object> uuids = new HashSet<>(responses.size() * 2);
+        for (Document response : responses)
+            uuids.add(response.get(schema.getUuid()));
+
+        /** Base collection first, the partitions are only read for the uuids not found yet */
+        Map<Object, Document> byUuid = new HashMap<>();
+        for (MongoCollection<Document> collection : contacts) {
+            Bson filter = Filters.in(schema.getUuid(), uuids);
+            if (schema.getCampaignValue() != null)
+                filter = Filters.and(filter, Filters.eq(schema.getCampaign(), schema.getCampaignValue()));
+            for (Document contact : collection.find(filter)
+                    .projection(Projections.include(schema.getUuid(), root(schema.getOffer()), root(schema.getContextualVariableOne()),
+                            root(schema.getContextualVariableTwo())))
+                    .batchSize(lookupBatch))
+                byUuid.put(contact.get(schema.getUuid()), contact);
+            uuids.removeAll(byUuid.keySet());
+            if (uuids.isEmpty()) break;
+        }
+
+        for (Document response : responses) {
+            Document contact = byUuid.get(response.get(schema.getUuid()));
+            if (contact == null) continue;
+            List<String[]> shown = schema.shown(contact);
+            Object accepted = LoggingSchema.get(response, schema.getAccepted());
+            if (!(accepted instanceof List)) continue;
+            for (Object item : (List<?>) accepted) {
+                Object offer = item instanceof Document ? ((Document) item).get(schema.getAcceptedOffer()) : item;
+                if (offer == null) continue;
+                /** Context of the offer as shown, the first offer's when it was not in the contact */
+                String[] context = shown.isEmpty() ? new String[]{"", LoggingSchema.getString(contact, schema.getContextualVariableOne()),
+                        LoggingSchema.getString(contact, schema.getContextualVariableTwo())} : shown.get(0);
+                for (String[] option : shown) {
+                    if (option[0].equals(String.valueOf(offer))) {
+                        context = option;
+                        break;
+                    }
+                }
+                double[] delta = delta(deltas, String.valueOf(offer), context[1], context[2]);
+                delta[0] += 1;
+                delta[1] -= 1;
+            }
+        }
+    }
+
+    /**
+     * Apply the increments to the options store with a new arm_reward drawn from the incremented counts, options that are
+     * not in the store are left to the full recompute. The counts are read before the write: alpha and beta are
+     * incremented atomically, a concurrent update only makes the draw come from counts that are one update behind.
+     * @param deltas alpha/beta increments keyed by offer, contextual_variable_one and contextual_variable_two, see key()
+     * @return number of options updated
+     */
+    static int merge(MongoCollection<Document> options, Map<String, double[]> deltas) {
+        Set<String> offers = new HashSet<>();
+        for (Map.Entry<String, double[]> entry : deltas.entrySet()) {
+            if (entry.getValue()[0] != 0 || entry.getValue()[1] != 0)
+                offers.add(entry.getKey().split("\u0000", -1)[0]);
+        }
+        if (offers.isEmpty()) return 0;
+
+        Map<String, double[]> counts = new HashMap<>();
+        for (Document option : options.find(Filters.in("optionKey", offers))
+                .projection(Projections.include("optionKey", "contextual_variable_one", "contextual_variable_two", "alpha", "beta"))
+                .into(new ArrayList<>())) {
+            counts.put(key(String.valueOf(option.get("optionKey")), text(option.get("contextual_variable_one")), text(option.get("contextual_variable_two"))),
+                    new double[]{count(option.get("alpha")), count(option.get("beta"))});
+        }
+
+        List<WriteModel<Document>> updates = new ArrayList<>(counts.size());
+        for (Map.Entry<String, double[]> entry : deltas.entrySet()) {
+            double[] delta = entry.getValue();
+            double[] count = counts.get(entry.getKey());
+            if ((delta[0] == 0 && delta[1] == 0) || count == null) continue;
+            String[] key = entry.getKey().split("\u0000", -1);
+            updates.add(new UpdateOneModel<>(
+                    Filters.and(Filters.eq("optionKey", key[0]), context("contextual_variable_one", key[1]), context("contextual_variable_two", key[2])),
+                    increment(delta[0], delta[1], BetaSampler.sample(count[0] + delta[0], count[1] + delta[1]))));
+        }
+        if (updates.isEmpty()) return 0;
+        return options.bulkWrite(updates, new BulkWriteOptions().ordered(false)).getModifiedCount();
+    }
+
+    /**
+     * alpha and beta incremented, arm_reward set to the draw unless it is NaN (counts that are not positive).
+     */
+    static Bson increment(double alpha, double beta, double draw) {
+        Bson counts = Updates.combine(Updates.inc("alpha", alpha), Updates.inc("beta", beta));
+        return draw != draw ? counts : Updates.combine(counts, Updates.set("arm_reward", draw));
+    }
+
+    private static String text(Object value) {
+        return value == null ? "" : String.valueOf(value);
+    }
+
+    private static double count(Object value) {
+        return value instanceof Number ? ((Number) value).doubleValue() : 0.0;
+    }
+
+    /**
+     * Options without contextual variables match the empty context.
+     */
+    private static Bson context(String field, String value) {
+        if (value.isEmpty())
+            return Filters.or(Filters.eq(field, ""), Filters.exists(field, false));
+        return Filters.eq(field, value);
+    }
+
+    private static double[] delta(Map<String, double[]> deltas, String offer, String one, String two) {
+        return deltas.computeIfAbsent(key(offer, one, two), k -> new double[2]);
+    }
+
+    static String key(String offer, String one, String two) {
+        return offer + "\u0000" + one + "\u0000" + two;
+    }
+
+    private static String root(String path) {
+        int dot = path.indexOf('.');
+        return dot < 0 ? path : path.substring(0, dot);
+    }
+
+    /**
+     * Oldest collection of the log with documents in scope after the watermark, the base collection when it is not
+     * partitioned or the partitions are caught up.
+     */
+    private static MongoCollection<Document> after(MongoDatabase database, LogPartitions partitions, String base, Bson scope, ObjectId watermark) {
+        if (partitions.isEnabled() && watermark != null) {
+            for (String name : partitions.collections(database, base, watermark.getDate().getTime(), System.currentTimeMillis())) {
+                if (name.equals(base)) break;
+                MongoCollection<Document> partition = database.getCollection(name);
+                if (partition.find(Filters.and(scope, Filters.gt("_id", watermark))).projection(Projections.include("_id")).first() != null)
+                    return partition;
+            }
+        }
+        return database.getCollection(base);
+    }
+
+    /**
+     * Contact collections for the uuid lookup of a batch of responses: the base collection, then the partitions that
+     * overlap the response window before the batch, newest first.
+     */
+    private static List<MongoCollection<Document>> lookup(MongoDatabase database, MongoCollection<Document> contacts,
+                                                          TreeMap<Long, String> partitions, LogPartitions layout, List<Document> responses) {
+        List<MongoCollection<Document>> collections = new ArrayList<>();
+        collections.add(contacts);
+        if (partitions.isEmpty()) return collections;
+        long[] window = window(responses, layout.getResponseMillis());
+        List<String> overlapping = layout.overlapping(partitions, window[0], window[1]);
+        for (int i = overlapping.size() - 1; i >= 0; i--)
+            collections.add(database.getCollection(overlapping.get(i)));
+        return collections;
+    }
+
+    /**
+     * @return [oldest response time - responseMillis, newest response time] of the batch, by ObjectId time
+     */
+    static long[] window(List<Document> responses, long responseMillis) {
+        long oldest = Long.MAX_VALUE;
+        long newest = Long.MIN_VALUE;
+        for (Document response : responses) {
+            long time = response.get("_id") instanceof ObjectId ? response.getObjectId("_id").getDate().getTime() : System.currentTimeMillis();
+            oldest = Math.min(oldest, time);
+            newest = Math.max(newest, time);
+        }
+        return new long[]{oldest - responseMillis, newest};
+    }
+
+    /**
+     * True if a range read from the base collection now has documents in a partition: maintenance moved them after the
+     * range was fixed. Ranges newer than the hot window cannot have moved.
+     */
+    private static boolean moved(MongoDatabase database, LogPartitions partitions, String base, MongoCollection<Document> log,
+                                 Bson scope, ObjectId from, ObjectId upper) {
+        if (!partitions.isEnabled() || upper == null || !log.getNamespace().getCollectionName().equals(base))
+            return false;
+        long start = from == null ? 0 : from.getDate().getTime();
+        if (start >= System.currentTimeMillis() - partitions.getHotMillis())
+            return false;
+        Bson range = from == null ? Filters.lte("_id", upper) : Filters.and(Filters.gt("_id", from), Filters.lte("_id", upper));
+        for (String name : partitions.collections(database, base, start, upper.getDate().getTime())) {
+            if (name.equals(base)) break;
+            if (database.getCollection(name).find(Filters.and(scope, range)).projection(Projections.include("_id")).first() != null)
+                return true;
+        }
+        return false;
+    }
+
+    private long covered(MongoCollection<Document> log, String base, ObjectId upper, long read, long settledAt) {
+        if (read < maxDocuments && log.getNamespace().getCollectionName().equals(base))
+            return settledAt;
+        return upper == null ? settledAt : Math.min(settledAt, upper.getDate().getTime());
+    }
+
+    /**
+     * Time up to which the events logged for the corpus are in its options store, -1 before the first run.
+     */
+    public static long covered(MongoClient mongoClient, String name) throws IOException {
+        String database = LoggingSchema.of(new JSONObject().put("name", name)).getDatabase();
+        Document watermark = mongoClient.getDatabase(database).getCollection(WATERMARKS).find(Filters.eq("_id", name)).first();
+        Date covered = watermark == null ? null : watermark.getDate("covered");
+        return covered == null ? -1 : covered.getTime();
+    }
+
+    private static ObjectId newest(MongoCollection<Document> collection, Bson filter) {
+        Document newest = collection.find(filter).projection(Projections.include("_id")).sort(Sorts.descending("_id")).first();
+        return newest == null ? null : newest.getObjectId("_id");
+    }
+
+    /**
+     * @param position Where the next run starts, contacts and responses ObjectIds or the rollup hour
+     */
+    private static void saveWatermark(MongoCollection<Document> watermarks, String name, long version, Bson position,
+                                      long covered, int runs, boolean full, long fence) {
+        Bson update = Updates.combine(position, Updates.set("covered", new Date(covered)), Updates.set("runs", runs),
+                Updates.set("updated", new Date()));
+        if (full)
+            update = Updates.combine(update, Updates.set("full_recompute", new Date()));
+        claim(watermarks, name, version, update, fence);
+    }
+
+    /**
+     * @return version of the watermark, 0 if there is none
+     */
+    static long version(Document watermark) {
+        return watermark != null && watermark.get("version") instanceof Number ? ((Number) watermark.get("version")).longValue() : 0;
+    }
+
+    /**
+     * Update the watermark if it still has the version this run read and no newer fence, and move it to the next version.
+     * @return new version of the watermark
+     * @throws IllegalStateException if another run moved the watermark or a newer leader fenced it
+     */
+    static long claim(MongoCollection<Document> watermarks, String name, long version, Bson update, long fence) {
+        Bson filter = Filters.and(Filters.eq("_id", name),
+                version == 0 ? Filters.or(Filters.exists("version", false), Filters.eq("version", 0L)) : Filters.eq("version", version));
+        update = Updates.combine(update, Updates.set("version", version + 1));
+        if (fence >= 0) {
+            update = Updates.combine(update, Updates.set("fence", fence));
+            filter = Filters.and(filter, Filters.or(Filters.exists("fence", false), Filters.lte("fence", fence)));
+        }
+        try {
+            UpdateResult result = watermarks.updateOne(filter, update, new UpdateOptions().upsert(version == 0));
+            if (result.getMatchedCount() == 0 && result.getUpsertedId() == null)
+                throw new IllegalStateException("Watermark of " + name + " moved by another run or fenced by a newer leader, token " + fence);
+        } catch (MongoWriteException e) {
+            /** The watermark exists with another version or a newer fence, the upsert collided with it */
+            if (e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY)
+                throw new IllegalStateException("Watermark of " + name + " moved by another run or fenced by a newer leader, token " + fence);
+            throw e;
+        }
+        return version + 1;
+    }
+
+    /**
+     * The predictor.corpora entry of type dynamic_engagement for this configuration, matched on uuid or name.
+     */
+    static JSONObject optionsStore(JSONObject paramDoc, JSONArray corpora) {
+        if (corpora == null) return null;
+        JSONObject first = null;
+        for (int i = 0; i < corpora.length(); i++) {
+            JSONObject corpus = corpora.optJSONObject(i);
+            if (corpus == null || !"dynamic_engagement".equals(corpus.optString("type")) || !corpus.has("db") || !corpus.has("table"))
+                continue;
+            if (corpus.optString("uuid").equals(paramDoc.optString("uuid", null)) || corpus.optString("name").equals(paramDoc.optString("name")))
+                return corpus;
+            if (first == null) first = corpus;
+        }
+        return first;
+    }
+
+}
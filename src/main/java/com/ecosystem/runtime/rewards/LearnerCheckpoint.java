@@ -0,0 +1,207 @@
+package com.ecosystem.runtime.rewards;
+
+import com.ecosystem.utils.EnvironmentalVariables;
+import com.ecosystem.utils.log.LogManager;
+import com.ecosystem.utils.log.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Local snapshot of the online learner state so that a restarted runtime serves the recent arm statistics and linear
+ * models straight away instead of starting from empty windows and the prior. The file is written next to the target and
+ * moved into place, and is memory mapped and checked on restore, a file with another version or a wrong checksum is
+ * ignored.
+ *
+ * Layout (big endian), strings are a short length and UTF-8 bytes:
+ *    header   int magic, int version, long created, int entries, int payload length, long crc32 of the payload
+ *    payload  int models, per campaign: campaign, specification, randomisation, int offers, per offer: offer, int d,
+ *             A^-1 (d x d doubles) and b (d doubles)
+ *             int windows, per arm: campaign, offer, contextual_variable_one, contextual_variable_two, window
+ *             specification followed by the window state, see ArmWindow.write()
+ *             int counts, per arm: the same four keys, long impressions, long accepted (not yet flushed), int held,
+ *             per held flush: long time, long impressions, long accepted
+ *
+ * Pending counts are flushed to the options store by the first flush after the restore. A snapshot is written after
+ * every flush that updated the store, so a crash between the flush and that snapshot is the only case in which counts
+ * are applied twice, at most the counts of one flush.
+ *
+ * Enable with ONLINE_REWARDS_CHECKPOINT set to a local file, snapshots are written every ONLINE_REWARDS_CHECKPOINT_EVERY
+ * seconds (default 60), after flushes and on shutdown.
+ */
+public class LearnerCheckpoint {
+    private static final Logger LOGGER = LogManager.getLogger(LearnerCheckpoint.class.getName());
+
+    static final int MAGIC = 0x45434b50;
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 32;
+
+    private final Path path;
+    private final long intervalMillis;
+    private volatile long lastSaved = 0;
+
+    private static volatile LearnerCheckpoint instance;
+    private static volatile boolean configured = false;
+
+    /**
+     * @param intervalSeconds Minimum time between snapshots written by checkpoint()
+     */
+    public LearnerCheckpoint(String path, long intervalSeconds) {
+        this.path = Paths.get(path);
+        this.intervalMillis = intervalSeconds * 1000L;
+    }
+
+    /**
+     * @return checkpoint configured from ONLINE_REWARDS_CHECKPOINT, restored into the online learners on the first call,
+     * null if no checkpoint is configured
+     */
+    public static LearnerCheckpoint get() {
+        if (!configured) {
+            synchronized (LearnerCheckpoint.class) {
+                if (!configured) {
+                    String path = EnvironmentalVariables.getEnvKey("ONLINE_REWARDS_CHECKPOINT");
+                    if (path != null && !path.isBlank()) {
+                        String every = EnvironmentalVariables.getEnvKey("ONLINE_REWARDS_CHECKPOINT_EVERY");
+                        LearnerCheckpoint checkpoint = new LearnerCheckpoint(path.trim(), every == null ? 60 : Long.parseLong(every.trim()));
+                        checkpoint.restore(ArmStatistics.get(), LinearBandit.get());
+                        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                            try {
+                                checkpoint.save(ArmStatistics.get(), LinearBandit.active());
+                            } catch (IOException e) {
+                                LOGGER.error("LearnerCheckpoint:E003: Snapshot not written on shutdown: " + e);
+                            }
+                        }, "ecosystem-learner-checkpoint"));
+                        instance = checkpoint;
+                    }
+                    configured = true;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Write a snapshot if the interval has passed since the last one, or straight away when forced.
+     * @param statistics Online statistics, null if they are not enabled
+     * @param linear     Linear bandit, null if no linear corpus has been scored
+     * @param force      True after a flush has written counts to the options store
+     * @return true if a snapshot was written
+     */
+    public boolean checkpoint(ArmStatistics statistics, LinearBandit linear, boolean force) {
+        if (!force && System.currentTimeMillis() - lastSaved < intervalMillis) return false;
+        try {
+            save(statistics, linear);
+            return true;
+        } catch (IOException e) {
+            LOGGER.error("LearnerCheckpoint:E001: Snapshot not written to " + path + ": " + e);
+            return false;
+        }
+    }
+
+    public synchronized void save(ArmStatistics statistics, LinearBandit linear) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(1 << 16);
+        ByteArrayOutputStream section = new ByteArrayOutputStream(1 << 16);
+        int entries = 0;
+        try (DataOutputStream out = new DataOutputStream(payload); DataOutputStream sectionOut = new DataOutputStream(section)) {
+            for (int part = 0; part < 3; part++) {
+                section.reset();
+                int written = 0;
+                if (part == 0 && linear != null)
+                    written = linear.write(sectionOut);
+                else if (part == 1 && statistics != null)
+                    written = statistics.writeWindows(sectionOut);
+                else if (part == 2 && statistics != null)
+                    written = statistics.writeCounts(sectionOut);
+                sectionOut.flush();
+                out.writeInt(written);
+                section.writeTo(out);
+                entries += written;
+            }
+        }
+        byte[] bytes = payload.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis()).putInt(entries).putInt(bytes.length)
+                .putLong(crc.getValue());
+        header.flip();
+
+        Path temporary = Paths.get(path + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(new ByteBuffer[]{header, ByteBuffer.wrap(bytes)});
+            channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        lastSaved = System.currentTimeMillis();
+    }
+
+    /**
+     * Restore the snapshot into the statistics and linear models, nothing is restored if there is no valid snapshot.
+     * @param statistics Online statistics, null if they are not enabled
+     * @param linear     Linear bandit the models are restored into
+     * @return models, windows and counts restored
+     */
+    public int restore(ArmStatistics statistics, LinearBandit linear) {
+        if (!Files.exists(path)) return 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                LOGGER.warn("LearnerCheckpoint:W001: " + path + " is not a version " + VERSION + " snapshot, ignored");
+                return 0;
+            }
+            long created = buffer.getLong(8);
+            int entries = buffer.getInt(16);
+            int length = buffer.getInt(20);
+            if (HEADER_SIZE + (long) length != buffer.capacity()) {
+                LOGGER.warn("LearnerCheckpoint:W002: " + path + " is truncated, ignored");
+                return 0;
+            }
+            ByteBuffer payload = buffer.slice(HEADER_SIZE, length);
+            CRC32 crc = new CRC32();
+            crc.update(payload.duplicate());
+            if (crc.getValue() != buffer.getLong(24)) {
+                LOGGER.warn("LearnerCheckpoint:W003: " + path + " checksum does not match, ignored");
+                return 0;
+            }
+            int restored = linear.read(payload, payload.getInt());
+            if (statistics != null) {
+                restored += statistics.readWindows(payload, payload.getInt());
+                restored += statistics.readCounts(payload, payload.getInt());
+            }
+            LOGGER.info("LearnerCheckpoint:I001: Restored " + restored + " of " + entries + " entries from snapshot of "
+                    + (System.currentTimeMillis() - created) / 1000 + " s ago");
+            return restored;
+        } catch (Exception e) {
+            LOGGER.error("LearnerCheckpoint:E002: Snapshot " + path + " not restored: " + e);
+            return 0;
+        }
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF)
+            throw new IOException("Value too long for snapshot: " + value.substring(0, 64));
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xFFFF];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,421 @@
+package com.ecosystem.runtime.rewards;
+
+import com.ecosystem.utils.EnvironmentalVariables;
+import com.ecosystem.utils.log.LogManager;
+import com.ecosystem.utils.log.Logger;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Contextual linear bandit learned online, for corpora with randomisation.approach "linUCB" or "linearThompson". The
+ * expected take-up of an offer is linear in the customer features, x = [1, features...], with one model per offer
+ * instead of one Beta per (offer, contextual_variable_one, contextual_variable_two):
+ *    {"approach": "linUCB", "linear": {"features": ["age", "balance", "segment=Gold"], "alpha": 1.0, "lambda": 1.0}}
+ * Features are read from featuresObj: numbers and numeric strings as they are, booleans as 1/0, "name=value" as 1 when
+ * the feature has that value. Scale numeric features to similar ranges, the penalty lambda is the same for all.
+ *
+ * Each offer keeps A^-1 (d x d, row major in a primitive array) and b. Offers returned by scoring update A^-1 with the
+ * Sherman-Morrison rank-1 update for the customer x, counted as not taken up; an acceptance through /response adds x to
+ * b. Scoring is one d x d matrix-vector product per offer:
+ *    u = A^-1 x,  mean = b.u,  variance = x.u
+ *    linUCB:          mean + alpha * sqrt(variance)
+ *    linearThompson:  mean + alpha * sqrt(variance) * N(0, 1), a draw from the posterior of x.theta
+ *
+ * The models live in this runtime instance only and start from the prior (A = lambda I, b = 0) when the linear parameters
+ * of the corpus change, or on startup unless they are restored from ONLINE_REWARDS_CHECKPOINT (see LearnerCheckpoint);
+ * there is no engine run for these approaches. Responses are matched to the
+ * features of the impression through its uuid, kept for ONLINE_REWARDS_TTL seconds (default 86400) up to
+ * ONLINE_REWARDS_CONTEXTS uuids (default 1000000). Impressions are expired oldest first from an insertion ordered queue,
+ * on the scheduler tick and when the map is full, each expiry only visits the impressions it removes.
+ */
+public class LinearBandit {
+    private static final Logger LOGGER = LogManager.getLogger(LinearBandit.class.getName());
+
+    private static volatile LinearBandit instance;
+
+    /**
+     * Linear parameters and offer models of a campaign.
+     */
+    public static final class Model {
+        private final String spec;
+        private final JSONObject randomisation;
+        private final boolean thompson;
+        private final String[] features;
+        private final double alpha;
+        private final double lambda;
+        private final Map<String, Arm> arms = new ConcurrentHashMap<>();
+
+        private Model(JSONObject randomisation, String spec) {
+            JSONObject linear = randomisation.optJSONObject("linear");
+            if (linear == null) linear = new JSONObject();
+            JSONArray names = linear.optJSONArray("features");
+            this.spec = spec;
+            this.randomisation = new JSONObject().put("approach", randomisation.optString("approach")).put("linear", linear);
+            this.thompson = "linearThompson".equals(randomisation.optString("approach"));
+            this.features = new String[names != null ? names.length() : 0];
+            for (int i = 0; i < features.length; i++)
+                features[i] = names.getString(i);
+            this.alpha = linear.optDouble("alpha", 1.0);
+            this.lambda = linear.optDouble("lambda", 1.0);
+        }
+
+        /**
+         * @return x for the customer, bias first
+         */
+        public double[] context(JSONObject featuresObj) {
+            double[] x = new double[features.length + 1];
+            x[0] = 1.0;
+            for (int i = 0; i < features.length; i++)
+                x[i + 1] = feature(featuresObj, features[i]);
+            return x;
+        }
+
+        /**
+         * @return upper confidence bound, or posterior draw, of the take-up of the offer for the customer
+         */
+        public double score(String offer, double[] x) {
+            double[] estimate = arm(offer).estimate(x);
+            double spread = alpha * Math.sqrt(Math.max(0.0, estimate[1]));
+            if (thompson)
+                spread *= ThreadLocalRandom.current().nextGaussian();
+            return estimate[0] + spread;
+        }
+
+        private Arm arm(String offer) {
+            return arms.computeIfAbsent(offer, o -> new Arm(features.length + 1, lambda));
+        }
+    }
+
+    /**
+     * A^-1 and b of an offer, updated and read under the lock of the arm.
+     */
+    static final class Arm {
+        private final int d;
+        private final double[] inverse;
+        private final double[] b;
+        private final double[] u;
+
+        Arm(int d, double lambda) {
+            this.d = d;
+            this.inverse = new double[d * d];
+            this.b = new double[d];
+            this.u = new double[d];
+            double diagonal = lambda > 0 ? 1.0 / lambda : 1.0;
+            for (int i = 0; i < d; i++)
+                inverse[i * d + i] = diagonal;
+        }
+
+        /**
+         * @return {b.A^-1 x, x.A^-1 x}
+         */
+        synchronized double[] estimate(double[] x) {
+            multiply(x);
+            double mean = 0.0;
+            double variance = 0.0;
+            for (int i = 0; i < d; i++) {
+                mean += b[i] * u[i];
+                variance += x[i] * u[i];
+            }
+            return new double[]{mean, variance};
+        }
+
+        /**
+         * Sherman-Morrison: A^-1 - (A^-1 x)(A^-1 x)^T / (1 + x.A^-1 x), A^-1 is symmetric.
+         */
+        synchronized void shown(double[] x) {
+            multiply(x);
+            double denominator = 1.0;
+            for (int i = 0; i < d; i++)
+                denominator += x[i] * u[i];
+            for (int i = 0; i < d; i++) {
+                double scaled = u[i] / denominator;
+                int row = i * d;
+                for (int j = 0; j < d; j++)
+                    inverse[row + j] -= scaled * u[j];
+            }
+        }
+
+        synchronized void write(DataOutputStream out) throws IOException {
+            out.writeInt(d);
+            for (double value : inverse)
+                out.writeDouble(value);
+            for (double value : b)
+                out.writeDouble(value);
+        }
+
+        /**
+         * Replace the state with the one written by write(), false (and the state skipped) if the dimension differs.
+         */
+        synchronized boolean read(ByteBuffer in) {
+            int written = in.getInt();
+            if (written != d) {
+                in.position(in.position() + (written * written + written) * Double.BYTES);
+                return false;
+            }
+            for (int i = 0; i < inverse.length; i++)
+                inverse[i] = in.getDouble();
+            for (int i = 0; i < d; i++)
+                b[i] = in.getDouble();
+            return true;
+        }
+
+        synchronized void accepted(double[] x) {
+            for (int i = 0; i < d; i++)
+                b[i] += x[i];
+        }
+
+        private void multiply(double[] x) {
+            for (int i = 0; i < d; i++) {
+                double sum = 0.0;
+                int row = i * d;
+                for (int j = 0; j < d; j++)
+                    sum += inverse[row + j] * x[j];
+                u[i] = sum;
+            }
+        }
+    }
+
+    /**
+     * Offers shown for a uuid and the customer they were scored for.
+     */
+    private static final class Impression {
+        final String uuid;
+        final long created;
+        final double[] x;
+        final Map<String, Arm> offers = new ConcurrentHashMap<>();
+
+        Impression(String uuid, long created, double[] x) {
+            this.uuid = uuid;
+            this.created = created;
+            this.x = x;
+        }
+    }
+
+    private final Map<String, Model> models = new ConcurrentHashMap<>();
+    private final Map<String, Impression> impressions = new ConcurrentHashMap<>();
+    /** Impressions in the order they were added, created is non-decreasing from head to tail */
+    private final Queue<Impression> expiry = new ConcurrentLinkedQueue<>();
+    private final long ttlMillis;
+    private final int maxContexts;
+
+    private final Counter impressionCount;
+    private final Counter acceptedCount;
+    private final Counter unmatched;
+    private final Counter dropped;
+
+    public LinearBandit(long ttlSeconds, int maxContexts, MeterRegistry registry) {
+        this.ttlMillis = ttlSeconds * 1000L;
+        this.maxContexts = maxContexts;
+        this.impressionCount = Counter.builder("ecosystem.linear.bandit.events").tag("type", "impression").register(registry);
+        this.acceptedCount = Counter.builder("ecosystem.linear.bandit.events").tag("type", "accepted").register(registry);
+        this.unmatched = Counter.builder("ecosystem.linear.bandit.events").tag("type", "unmatched").register(registry);
+        this.dropped = Counter.builder("ecosystem.linear.bandit.events").tag("type", "dropped").register(registry);
+        Gauge.builder("ecosystem.linear.bandit.contexts", impressions, Map::size).register(registry);
+    }
+
+    /**
+     * @return the bandit, created when a linear corpus is first scored
+     */
+    public static LinearBandit get() {
+        if (instance == null) {
+            synchronized (LinearBandit.class) {
+                if (instance == null) {
+                    String ttl = EnvironmentalVariables.getEnvKey("ONLINE_REWARDS_TTL");
+                    String contexts = EnvironmentalVariables.getEnvKey("ONLINE_REWARDS_CONTEXTS");
+                    instance = new LinearBandit(ttl == null ? 86400 : Long.parseLong(ttl.trim()),
+                            contexts == null ? 1000000 : Integer.parseInt(contexts.trim()), Metrics.globalRegistry);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * @return the bandit if a linear corpus has been scored, null otherwise
+     */
+    public static LinearBandit active() {
+        return instance;
+    }
+
+    public static boolean isLinear(JSONObject randomisation) {
+        String approach = randomisation.optString("approach");
+        return approach.equals("linUCB") || approach.equals("linearThompson");
+    }
+
+    /**
+     * Model of the campaign, reset to the prior when its linear parameters change.
+     */
+    public Model model(String campaign, JSONObject randomisation) {
+        String spec = randomisation.optString("approach") + randomisation.optJSONObject("linear");
+        Model model = models.get(campaign);
+        if (model != null && model.spec.equals(spec))
+            return model;
+        if (model != null)
+            LOGGER.info("LinearBandit:I001: Parameters of " + campaign + " changed, models reset: " + spec);
+        model = new Model(randomisation, spec);
+        models.put(campaign, model);
+        return model;
+    }
+
+    /**
+     * Update the models of the offers returned for a uuid with the customer features.
+     * @param finalResult Offers with offer
+     */
+    public void impressions(Model model, String uuid, JSONArray finalResult, double[] x) {
+        impressions(model, uuid, finalResult, x, System.currentTimeMillis());
+    }
+
+    void impressions(Model model, String uuid, JSONArray finalResult, double[] x, long now) {
+        if (finalResult == null || finalResult.isEmpty()) return;
+        Impression impression = new Impression(uuid, now, x);
+        for (int i = 0; i < finalResult.length(); i++) {
+            JSONObject offer = finalResult.optJSONObject(i);
+            if (offer == null || !offer.has("offer")) continue;
+            Arm arm = model.arm(String.valueOf(offer.get("offer")));
+            arm.shown(x);
+            impression.offers.put(String.valueOf(offer.get("offer")), arm);
+            impressionCount.increment();
+        }
+        if (uuid == null || impression.offers.isEmpty()) return;
+        if (impressions.size() >= maxContexts)
+            expire(now);
+        if (impressions.size() < maxContexts) {
+            impressions.put(uuid, impression);
+            expiry.add(impression);
+        } else {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Remove the impressions older than the ttl, oldest first, called on the scheduler tick.
+     * @return impressions removed
+     */
+    public int expire(long now) {
+        int removed = 0;
+        Impression oldest;
+        while ((oldest = expiry.peek()) != null && now - oldest.created > ttlMillis) {
+            if (expiry.remove(oldest)) {
+                /** Not the impression of a uuid that was scored again since */
+                impressions.remove(oldest.uuid, oldest);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Add the features of the impression to the offers accepted in a /response document, never fails the response.
+     *    {"uuid": "...", "offers_accepted": [{"offer_name": "OFFER_A"}]}
+     */
+    public void response(JSONObject document) {
+        try {
+            JSONArray accepted = document.optJSONArray("offers_accepted");
+            if (accepted == null) return;
+            Impression impression = impressions.get(document.optString("uuid"));
+            if (impression == null || System.currentTimeMillis() - impression.created > ttlMillis) {
+                unmatched.increment();
+                return;
+            }
+            for (int i = 0; i < accepted.length(); i++) {
+                Object item = accepted.get(i);
+                Object offer = item instanceof JSONObject ? ((JSONObject) item).opt("offer_name") : item;
+                Arm arm = offer == null ? null : impression.offers.remove(String.valueOf(offer));
+                if (arm == null) {
+                    unmatched.increment();
+                    continue;
+                }
+                arm.accepted(impression.x);
+                acceptedCount.increment();
+            }
+        } catch (Exception e) {
+            LOGGER.error("LinearBandit:E001: Response not recorded: " + e);
+        }
+    }
+
+    /**
+     * Write the models of every campaign, see LearnerCheckpoint.
+     * @return models written
+     */
+    int write(DataOutputStream out) throws IOException {
+        int written = 0;
+        for (Map.Entry<String, Model> entry : models.entrySet()) {
+            Model model = entry.getValue();
+            LearnerCheckpoint.writeString(out, entry.getKey());
+            LearnerCheckpoint.writeString(out, model.spec);
+            LearnerCheckpoint.writeString(out, model.randomisation.toString());
+            Map<String, Arm> arms = new HashMap<>(model.arms);
+            out.writeInt(arms.size());
+            for (Map.Entry<String, Arm> arm : arms.entrySet()) {
+                LearnerCheckpoint.writeString(out, arm.getKey());
+                arm.getValue().write(out);
+            }
+            written++;
+        }
+        return written;
+    }
+
+    /**
+     * Restore the models written by write(), offers whose dimension no longer fits the features are left at the prior.
+     * @return models restored
+     */
+    int read(ByteBuffer in, int entries) {
+        for (int i = 0; i < entries; i++) {
+            String campaign = LearnerCheckpoint.readString(in);
+            String spec = LearnerCheckpoint.readString(in);
+            Model model = new Model(new JSONObject(LearnerCheckpoint.readString(in)), spec);
+            int arms = in.getInt();
+            for (int a = 0; a < arms; a++) {
+                String offer = LearnerCheckpoint.readString(in);
+                if (!model.arm(offer).read(in))
+                    LOGGER.warn("LinearBandit:W001: Snapshot of " + campaign + " " + offer + " has another dimension, not restored");
+            }
+            models.put(campaign, model);
+        }
+        return entries;
+    }
+
+    /**
+     * @return value of the feature, 0 if it is missing or not a finite number
+     */
+    private static double feature(JSONObject featuresObj, String name) {
+        double value = value(featuresObj, name);
+        return Double.isFinite(value) ? value : 0.0;
+    }
+
+    private static double value(JSONObject featuresObj, String name) {
+        int equals = name.indexOf('=');
+        if (equals > 0) {
+            Object value = featuresObj.opt(name.substring(0, equals));
+            return value != null && String.valueOf(value).equals(name.substring(equals + 1)) ? 1.0 : 0.0;
+        }
+        Object value = featuresObj.opt(name);
+        if (value instanceof Number)
+            return ((Number) value).doubleValue();
+        if (value instanceof Boolean)
+            return (Boolean) value ? 1.0 : 0.0;
+        if (value != null) {
+            try {
+                return Double.parseDouble(String.valueOf(value).trim());
+            } catch (NumberFormatException e) {
+                return 0.0;
+            }
+        }
+        return 0.0;
+    }
+
+}
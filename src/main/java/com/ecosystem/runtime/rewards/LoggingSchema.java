@@ -0,0 +1,214 @@
+package com.ecosystem.runtime.rewards;
+
+import com.ecosystem.runtime.data.LogPartitions;
+import com.ecosystem.runtime.settings.SettingsWatcher;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.model.Filters;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Where the runtime logs contacts and responses, and where the fields that the reward engines need are found in those
+ * documents. Collections come from logging.database, logging.collection and logging.collection.response; field paths
+ * can be overridden per corpus with a "logging_schema" object in the dynamic configuration, e.g.
+ *    {"logging_schema": {"offer": "final_result.0.result.offer", "campaign_value": "recommender"}}
+ *
+ * Paths are dot separated, numeric parts index into arrays. With logging.partition set, older documents are in time
+ * partitions of the collections, see LogPartitions.
+ *
+ * Contacts are those of the campaign named like the corpus (the name field of the log), set campaign_value when the
+ * logged campaign has another name. Every offer of final_result is a contact, see shown().
+ */
+public class LoggingSchema {
+
+    private final String database;
+    private final String contacts;
+    private final String responses;
+    private LogPartitions partitions = new LogPartitions(LogPartitions.Period.NONE, 0, 0);
+
+    private String uuid = "uuid";
+    private String campaign = "name";
+    private String campaignValue = null;
+    private String offer = "final_result.0.result.offer";
+    private String contextualVariableOne = "final_result.0.result.contextual_variable_one";
+    private String contextualVariableTwo = "final_result.0.result.contextual_variable_two";
+    private String accepted = "offers_accepted";
+    private String acceptedOffer = "offer_name";
+
+    public LoggingSchema(String database, String contacts, String responses) {
+        this.database = database;
+        this.contacts = contacts;
+        this.responses = responses;
+    }
+
+    /**
+     * Schema of this deployment with the overrides of the dynamic configuration.
+     */
+    public static LoggingSchema of(JSONObject paramDoc) throws IOException {
+        Properties properties = SettingsWatcher.properties();
+        String contacts = properties.getProperty("logging.collection", "ecosystemruntime");
+        LoggingSchema schema = new LoggingSchema(properties.getProperty("logging.database", "logging"), contacts,
+                properties.getProperty("logging.collection.response", contacts + "_response"));
+        schema.partitions = LogPartitions.of(properties);
+
+        String name = paramDoc.optString("name", "");
+        if (!name.isEmpty())
+            schema.campaignValue = name;
+        JSONObject overrides = paramDoc.optJSONObject("logging_schema");
+        if (overrides != null) {
+            schema.uuid = overrides.optString("uuid", schema.uuid);
+            schema.campaign = overrides.optString("campaign", schema.campaign);
+            schema.campaignValue = overrides.optString("campaign_value", schema.campaignValue);
+            schema.offer = overrides.optString("offer", schema.offer);
+            schema.contextualVariableOne = overrides.optString("contextual_variable_one", schema.contextualVariableOne);
+            schema.contextualVariableTwo = overrides.optString("contextual_variable_two", schema.contextualVariableTwo);
+            schema.accepted = overrides.optString("accepted", schema.accepted);
+            schema.acceptedOffer = overrides.optString("accepted_offer", schema.acceptedOffer);
+        }
+        return schema;
+    }
+
+    public String getDatabase() {
+        return database;
+    }
+
+    public String getContacts() {
+        return contacts;
+    }
+
+    public String getResponses() {
+        return responses;
+    }
+
+    public LogPartitions getPartitions() {
+        return partitions;
+    }
+
+    public String getUuid() {
+        return uuid;
+    }
+
+    public String getCampaign() {
+        return campaign;
+    }
+
+    /**
+     * @return campaign to filter contacts on, null for a schema without a corpus
+     */
+    public String getCampaignValue() {
+        return campaignValue;
+    }
+
+    /**
+     * Filter on the contacts of this campaign, empty for a schema without a corpus.
+     */
+    public Bson contactScope() {
+        return campaignValue != null ? Filters.eq(campaign, campaignValue) : new Document();
+    }
+
+    /**
+     * Contacts of this campaign in the base contact collection, the log a full engine run reads.
+     */
+    public long countContacts(MongoClient mongoClient) {
+        return mongoClient.getDatabase(database).getCollection(contacts).countDocuments(contactScope());
+    }
+
+    public String getOffer() {
+        return offer;
+    }
+
+    public String getContextualVariableOne() {
+        return contextualVariableOne;
+    }
+
+    public String getContextualVariableTwo() {
+        return contextualVariableTwo;
+    }
+
+    public String getAccepted() {
+        return accepted;
+    }
+
+    public String getAcceptedOffer() {
+        return acceptedOffer;
+    }
+
+    /**
+     * Offers shown in a contact with their contextual variables. When the offer path indexes into an array, as the
+     * default final_result.0.result.offer, every element of the array is an offer shown; contextual variable paths into
+     * the same array are read from that element, other paths from the contact.
+     * @return {offer, contextual_variable_one, contextual_variable_two} per offer shown, offers missing in an element are skipped
+     */
+    public List<String[]> shown(Document contact) {
+        List<String[]> shown = new ArrayList<>();
+        String[] parts = offer.split("\\.");
+        int index = 0;
+        while (index < parts.length && !isIndex(parts[index])) index++;
+        if (index == parts.length || index == 0) {
+            String value = getString(contact, offer);
+            if (!value.isEmpty())
+                shown.add(new String[]{value, getString(contact, contextualVariableOne), getString(contact, contextualVariableTwo)});
+            return shown;
+        }
+
+        String array = String.join(".", Arrays.copyOfRange(parts, 0, index));
+        String element = array + "." + parts[index] + ".";
+        Object items = get(contact, array);
+        if (!(items instanceof List)) return shown;
+        for (Object item : (List<?>) items) {
+            if (!(item instanceof Document)) continue;
+            String value = getString((Document) item, offer.substring(element.length()));
+            if (value.isEmpty()) continue;
+            shown.add(new String[]{value, context(contact, (Document) item, contextualVariableOne, element),
+                    context(contact, (Document) item, contextualVariableTwo, element)});
+        }
+        return shown;
+    }
+
+    private static String context(Document contact, Document item, String path, String element) {
+        return path.startsWith(element) ? getString(item, path.substring(element.length())) : getString(contact, path);
+    }
+
+    /**
+     * Value at a dot separated path, null if any part is missing.
+     */
+    public static Object get(Document document, String path) {
+        Object value = document;
+        for (String part : path.split("\\.")) {
+            if (value instanceof Document) {
+                value = ((Document) value).get(part);
+            } else if (value instanceof List && isIndex(part)) {
+                List<?> list = (List<?>) value;
+                int index = Integer.parseInt(part);
+                value = index < list.size() ? list.get(index) : null;
+            } else {
+                return null;
+            }
+            if (value == null) return null;
+        }
+        return value;
+    }
+
+    /**
+     * String value at a path, "" when missing, as the options store keys contextual variables.
+     */
+    public static String getString(Document document, String path) {
+        Object value = get(document, path);
+        return value == null ? "" : String.valueOf(value);
+    }
+
+    private static boolean isIndex(String part) {
+        for (int i = 0; i < part.length(); i++) {
+            if (!Character.isDigit(part.charAt(i))) return false;
+        }
+        return !part.isEmpty();
+    }
+
+}
@@ -0,0 +1,419 @@
+package com.ecosystem.runtime.rewards;
+
+import com.ecosystem.data.mongodb.ConnectionFactory;
+import com.ecosystem.runtime.data.ManagedMongoClient;
+import com.ecosystem.utils.EnvironmentalVariables;
+import com.ecosystem.utils.log.LogManager;
+import com.ecosystem.utils.log.Logger;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Impressions and acceptances per campaign, offer, contextual variables and hour, kept up to date as predictions and
+ * responses are logged so that reports and engines do not have to aggregate the raw logging collections:
+ *    {campaign, offer, contextual_variable_one, contextual_variable_two, hour, impressions, accepted, updated}
+ * in the ecosystem_rollups collection of the logging database.
+ *
+ * Counts are collected in memory and upserted with $inc in one unordered bulk write per flush. A response only carries
+ * the uuid of its prediction, responses are resolved to campaign and context with one lookup in the logging collection
+ * per flush batch and counted in the hour they were received.
+ *
+ * Responses are retried for RETRY_MILLIS after they are received, the rollups of an hour are complete once that has passed
+ * after its end, see closedBefore(). IncrementalRewards reads complete hours instead of the logs with
+ * INCREMENTAL_ROLLUPS=true.
+ *
+ * Enable with ROLLUPS=true, flushed every ROLLUPS_FLUSH seconds (default 10). The rollups have their own managed client,
+ * replaced after a failed flush and closed with a last flush on shutdown.
+ */
+public class ResponseRollups {
+    private static final Logger LOGGER = LogManager.getLogger(ResponseRollups.class.getName());
+
+    public static final String COLLECTION = "ecosystem_rollups";
+    private static final long HOUR = 3600000L;
+    private static final int LOOKUP_BATCH = 1000;
+    private static final int MAX_PENDING = 100000;
+    /** Responses whose prediction is not logged yet are retried for this long */
+    static final long RETRY_MILLIS = 600000L;
+
+    private static volatile ResponseRollups instance;
+    private static volatile boolean configured = false;
+
+    /**
+     * Accepted offers of a response waiting for the lookup of its prediction.
+     */
+    private static final class Pending {
+        final String uuid;
+        final List<String> offers;
+        final long received;
+
+        Pending(String uuid, List<String> offers, long received) {
+            this.uuid = uuid;
+            this.offers = offers;
+            this.received = received;
+        }
+    }
+
+    private final ManagedMongoClient client;
+    private final LoggingSchema schema;
+    /** Impressions and acceptances per rollup not yet written */
+    private final Map<String, LongAdder[]> counts = new ConcurrentHashMap<>();
+    private final Queue<Pending> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingSize = new AtomicInteger();
+    private final ScheduledExecutorService flusher;
+    private volatile boolean indexed = false;
+
+    private final Counter written;
+    private final Counter unmatched;
+    private final Counter dropped;
+    private final Counter failures;
+
+    public ResponseRollups(ManagedMongoClient client, LoggingSchema schema, MeterRegistry registry) {
+        this.client = client;
+        this.schema = schema;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ecosystem-rollups");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.written = Counter.builder("ecosystem.rollups.written").register(registry);
+        this.unmatched = Counter.builder("ecosystem.rollups.responses").tag("result", "unmatched").register(registry);
+        this.dropped = Counter.builder("ecosystem.rollups.responses").tag("result", "dropped").register(registry);
+        this.failures = Counter.builder("ecosystem.rollups.failures").register(registry);
+        Gauge.builder("ecosystem.rollups.pending", pendingSize, AtomicInteger::get).register(registry);
+    }
+
+    /**
+     * @return rollups configured from ROLLUPS, null if rollups are not enabled
+     */
+    public static ResponseRollups get() {
+        if (!configured) {
+            synchronized (ResponseRollups.class) {
+                if (!configured) {
+                    if ("true".equalsIgnoreCase(EnvironmentalVariables.getEnvKey("ROLLUPS"))) {
+                        try {
+                            String flush = EnvironmentalVariables.getEnvKey("ROLLUPS_FLUSH");
+                            long flushSeconds = flush == null ? 10 : Long.parseLong(flush.trim());
+                            ManagedMongoClient client = new ManagedMongoClient(() -> new ConnectionFactory().getMongoClient(),
+                                    flushSeconds * 1000L, Metrics.globalRegistry);
+                            ResponseRollups rollups = new ResponseRollups(client, LoggingSchema.of(new JSONObject()), Metrics.globalRegistry);
+                            rollups.start(flushSeconds);
+                            Runtime.getRuntime().addShutdownHook(new Thread(rollups::stop, "ecosystem-rollups-stop"));
+                            instance = rollups;
+                        } catch (Exception e) {
+                            LOGGER.error("ResponseRollups:E001: Rollups not started: " + e);
+                        }
+                    }
+                    configured = true;
+                }
+            }
+        }
+        return instance;
+    }
+
+    public void start(long flushSeconds) {
+        flusher.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (Exception e) {
+                LOGGER.error("ResponseRollups:E002: Flush failed: " + e);
+            }
+        }, flushSeconds, flushSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop the flushes, write what was collected and close the client.
+     */
+    public void stop() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(30, TimeUnit.SECONDS);
+            flush();
+        } catch (Exception e) {
+            LOGGER.error("ResponseRollups:E007: Last flush failed: " + e);
+        } finally {
+            client.close();
+        }
+    }
+
+    /**
+     * End of the newest hour whose rollups are complete, responses are counted in the hour they were received but only
+     * up to RETRY_MILLIS later.
+     * @param settleMillis Allowance for the flush interval and writes in flight
+     * @return exclusive end hour, epoch milliseconds
+     */
+    public static long closedBefore(long now, long settleMillis) {
+        return hour(now - RETRY_MILLIS - settleMillis);
+    }
+
+    /**
+     * Count the offers of a logged prediction.
+     * @param finalResult final_result of the prediction, offers directly or under "result"
+     */
+    public void prediction(String campaign, JSONArray finalResult) {
+        if (finalResult == null) return;
+        long hour = hour(System.currentTimeMillis());
+        for (int i = 0; i < finalResult.length(); i++) {
+            JSONObject item = finalResult.optJSONObject(i);
+            if (item == null) continue;
+            JSONObject offer = item.optJSONObject("result") != null ? item.getJSONObject("result") : item;
+            if (!offer.has("offer")) continue;
+            counter(key(campaign, String.valueOf(offer.get("offer")), offer.optString("contextual_variable_one", ""),
+                    offer.optString("contextual_variable_two", ""), hour))[0].increment();
+        }
+    }
+
+    /**
+     * Count the offers accepted in a /response document, never fails the response.
+     *    {"uuid": "...", "offers_accepted": [{"offer_name": "OFFER_A"}]}
+     */
+    public void response(JSONObject document) {
+        try {
+            JSONArray accepted = document.optJSONArray("offers_accepted");
+            String uuid = document.optString("uuid", null);
+            if (accepted == null || accepted.isEmpty() || uuid == null) return;
+            List<String> offers = new ArrayList<>(accepted.length());
+            for (int i = 0; i < accepted.length(); i++) {
+                Object item = accepted.get(i);
+                Object offer = item instanceof JSONObject ? ((JSONObject) item).opt("offer_name") : item;
+                if (offer != null) offers.add(String.valueOf(offer));
+            }
+            if (pendingSize.get() >= MAX_PENDING) {
+                dropped.increment();
+                return;
+            }
+            pending.add(new Pending(uuid, offers, System.currentTimeMillis()));
+            pendingSize.incrementAndGet();
+        } catch (Exception e) {
+            LOGGER.error("ResponseRollups:E003: Response not counted: " + e);
+        }
+    }
+
+    /**
+     * Write the counts collected since the last flush. Counts that are not written are kept for the next flush.
+     * @return rollup documents updated
+     */
+    public synchronized int flush() {
+        try (ManagedMongoClient.Lease lease = client.acquire()) {
+            return flush(lease.getClient().getDatabase(schema.getDatabase()));
+        }
+    }
+
+    private int flush(MongoDatabase database) {
+        MongoCollection<Document> rollups = database.getCollection(COLLECTION);
+        if (!indexed) {
+            rollups.createIndex(Indexes.ascending("campaign", "hour", "offer", "contextual_variable_one", "contextual_variable_two"),
+                    new IndexOptions().unique(true));
+            indexed = true;
+        }
+
+        resolveResponses(database);
+
+        /** Take the counts off the adders, updates that arrive meanwhile stay for the next flush */
+        Map<String, long[]> taken = new HashMap<>();
+        for (Map.Entry<String, LongAdder[]> entry : counts.entrySet()) {
+            long shown = entry.getValue()[0].sum();
+            long accepted = entry.getValue()[1].sum();
+            if (shown == 0 && accepted == 0) continue;
+            entry.getValue()[0].add(-shown);
+            entry.getValue()[1].add(-accepted);
+            taken.put(entry.getKey(), new long[]{shown, accepted});
+        }
+        /** Forget written rollups of past hours, predictions only count in the current hour */
+        long current = hour(System.currentTimeMillis());
+        counts.entrySet().removeIf(entry -> !taken.containsKey(entry.getKey()) && hourOf(entry.getKey()) < current
+                && entry.getValue()[0].sum() == 0 && entry.getValue()[1].sum() == 0);
+        if (taken.isEmpty()) return 0;
+
+        List<String> keys = new ArrayList<>(taken.keySet());
+        List<WriteModel<Document>> updates = new ArrayList<>(keys.size());
+        Date now = new Date();
+        for (String key : keys) {
+            String[] parts = key.split("\u0000", -1);
+            long[] count = taken.get(key);
+            updates.add(new UpdateOneModel<>(
+                    Filters.and(Filters.eq("campaign", parts[0]), Filters.eq("hour", new Date(Long.parseLong(parts[4]))),
+                            Filters.eq("offer", parts[1]), Filters.eq("contextual_variable_one", parts[2]),
+                            Filters.eq("contextual_variable_two", parts[3])),
+                    Updates.combine(Updates.inc("impressions", count[0]), Updates.inc("accepted", count[1]), Updates.set("updated", now)),
+                    new UpdateOptions().upsert(true)));
+        }
+        try {
+            rollups.bulkWrite(updates, new BulkWriteOptions().ordered(false));
+            written.increment(updates.size());
+            return updates.size();
+        } catch (MongoBulkWriteException e) {
+            /** Unordered: everything but the failed updates is written, keep only those */
+            for (BulkWriteError error : e.getWriteErrors())
+                restore(keys.get(error.getIndex()), taken.get(keys.get(error.getIndex())));
+            failures.increment();
+            LOGGER.error("ResponseRollups:E004: " + e.getWriteErrors().size() + " rollups not written, kept for the next flush");
+            return updates.size() - e.getWriteErrors().size();
+        } catch (Exception e) {
+            for (String key : keys)
+                restore(key, taken.get(key));
+            failures.increment();
+            LOGGER.error("ResponseRollups:E005: Rollups not written, kept for the next flush on a new client: " + e);
+            client.recordFailure();
+            client.swap();
+            return 0;
+        }
+    }
+
+    /**
+     * Campaign and context of pending responses from their logged prediction, added to the counts.
+     */
+    private void resolveResponses(MongoDatabase database) {
+        List<Pending> batch = new ArrayList<>(LOOKUP_BATCH);
+        List<Pending> retry = new ArrayList<>();
+        Pending next;
+        while ((next = pending.poll()) != null) {
+            pendingSize.decrementAndGet();
+            batch.add(next);
+            if (batch.size() == LOOKUP_BATCH) {
+                lookup(database, batch, retry);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty())
+            lookup(database, batch, retry);
+        for (Pending again : retry) {
+            pending.add(again);
+            pendingSize.incrementAndGet();
+        }
+    }
+
+    private void lookup(MongoDatabase database, List<Pending> batch, List<Pending> retry) {
+        List<String> uuids = new ArrayList<>(batch.size());
+        for (Pending response : batch)
+            uuids.add(response.uuid);
+
+        Map<Object, Document> byUuid = new HashMap<>();
+        try {
+            MongoCollection<Document> contacts = database.getCollection(schema.getContacts());
+            for (Document contact : contacts.find(Filters.in(schema.getUuid(), uuids))
+                    .projection(Projections.include(schema.getUuid(), schema.getCampaign(), root(schema.getContextualVariableOne()),
+                            root(schema.getContextualVariableTwo()))))
+                byUuid.put(String.valueOf(contact.get(schema.getUuid())), contact);
+        } catch (Exception e) {
+            client.recordFailure();
+            LOGGER.error("ResponseRollups:E006: Predictions of responses not found, retrying: " + e);
+            retry.addAll(batch);
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        for (Pending response : batch) {
+            Document contact = byUuid.get(response.uuid);
+            if (contact == null) {
+                if (now - response.received < RETRY_MILLIS)
+                    retry.add(response);
+                else
+                    unmatched.increment();
+                continue;
+            }
+            String campaign = LoggingSchema.getString(contact, schema.getCampaign());
+            String one = LoggingSchema.getString(contact, schema.getContextualVariableOne());
+            String two = LoggingSchema.getString(contact, schema.getContextualVariableTwo());
+            for (String offer : response.offers)
+                counter(key(campaign, offer, one, two, hour(response.received)))[1].increment();
+        }
+    }
+
+    private void restore(String key, long[] count) {
+        LongAdder[] counter = counter(key);
+        counter[0].add(count[0]);
+        counter[1].add(count[1]);
+    }
+
+    private LongAdder[] counter(String key) {
+        return counts.computeIfAbsent(key, k -> new LongAdder[]{new LongAdder(), new LongAdder()});
+    }
+
+    /**
+     * Impressions, acceptances and take up per offer and context of a campaign.
+     * @param from Inclusive start hour
+     * @param to   Exclusive end hour
+     */
+    public JSONArray stats(String campaign, Date from, Date to) {
+        return client.execute(mongoClient -> stats(mongoClient.getDatabase(schema.getDatabase()).getCollection(COLLECTION), campaign, from, to));
+    }
+
+    private static JSONArray stats(MongoCollection<Document> rollups, String campaign, Date from, Date to) {
+        List<Bson> pipeline = Arrays.asList(
+                Aggregates.match(Filters.and(Filters.eq("campaign", campaign), Filters.gte("hour", from), Filters.lt("hour", to))),
+                Aggregates.group(new Document("offer", "$offer").append("contextual_variable_one", "$contextual_variable_one")
+                                .append("contextual_variable_two", "$contextual_variable_two"),
+                        Accumulators.sum("impressions", "$impressions"), Accumulators.sum("accepted", "$accepted")),
+                Aggregates.sort(Sorts.descending("accepted")));
+
+        JSONArray stats = new JSONArray();
+        for (Document group : rollups.aggregate(pipeline)) {
+            Document id = group.get("_id", Document.class);
+            long shown = ((Number) group.get("impressions")).longValue();
+            long accepted = ((Number) group.get("accepted")).longValue();
+            stats.put(new JSONObject()
+                    .put("offer", id.get("offer"))
+                    .put("contextual_variable_one", id.get("contextual_variable_one"))
+                    .put("contextual_variable_two", id.get("contextual_variable_two"))
+                    .put("impressions", shown)
+                    .put("accepted", accepted)
+                    .put("take_up", shown == 0 ? 0.0 : (double) accepted / shown));
+        }
+        return stats;
+    }
+
+    static long hour(long millis) {
+        return millis - millis % HOUR;
+    }
+
+    private static long hourOf(String key) {
+        return Long.parseLong(key.substring(key.lastIndexOf('\u0000') + 1));
+    }
+
+    private static String key(String campaign, String offer, String one, String two, long hour) {
+        return campaign + "\u0000" + offer + "\u0000" + one + "\u0000" + two + "\u0000" + hour;
+    }
+
+    private static String root(String path) {
+        int dot = path.indexOf('.');
+        return dot < 0 ? path : path.substring(0, dot);
+    }
+
+}
@@ -0,0 +1,211 @@
+package com.ecosystem.runtime.scheduler;
+
+import com.ecosystem.utils.log.LogManager;
+import com.ecosystem.utils.log.Logger;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Runs the dynamic engines on a bounded pool, one job per engine key (corpus and algorithm), so that a slow engine does
+ * not hold up the others. A key is not started again while its previous run is still going, runs over the timeout
+ * (counted from the start of the run, not from the submit) are interrupted and a failing engine only affects its own key.
+ * cancelAll() interrupts every run in flight, e.g. when the replica is no longer leader. Cancelled runs are counted but
+ * not reported to the failure listener, there is nothing wrong with their engine.
+ *
+ * Per engine the last run duration, documents processed and lag behind wall-clock (time since the start of the last
+ * successful run, i.e. the newest data it can have seen) are published.
+ */
+public class EngineScheduler {
+    private static final Logger LOGGER = LogManager.getLogger(EngineScheduler.class.getName());
+
+    /**
+     * An engine run.
+     */
+    @FunctionalInterface
+    public interface EngineJob {
+        /**
+         * @return documents processed, -1 if the engine does not report it
+         */
+        long run() throws Exception;
+    }
+
+    private final ThreadPoolExecutor pool;
+    private final ScheduledExecutorService watchdog;
+    private final long timeoutMillis;
+    private final MeterRegistry registry;
+    private final Map<String, EngineState> engines = new ConcurrentHashMap<>();
+    private volatile BiConsumer<String, Throwable> failureListener = (engine, e) -> {};
+
+    /**
+     * Run state and metrics of one engine key.
+     */
+    private static final class EngineState {
+        final AtomicBoolean running = new AtomicBoolean(false);
+        volatile double lastDurationSeconds = 0;
+        volatile long processed = 0;
+        volatile long lastSuccessStart = 0;
+        /** Interrupts the run in flight, null between runs */
+        volatile Runnable cancel;
+        Counter failures;
+        Counter timeouts;
+        Counter skipped;
+        Counter cancelled;
+    }
+
+    /**
+     * @param threads       Engines that can run at the same time
+     * @param timeoutMillis Maximum run time before an engine is interrupted
+     */
+    public EngineScheduler(int threads, long timeoutMillis, MeterRegistry registry) {
+        AtomicInteger number = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(threads * 4), r -> {
+            Thread thread = new Thread(r, "ecosystem-engine-" + number.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ecosystem-engine-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timeoutMillis = timeoutMillis;
+        this.registry = registry;
+    }
+
+    public void setFailureListener(BiConsumer<String, Throwable> failureListener) {
+        this.failureListener = failureListener;
+    }
+
+    /**
+     * Start a run of the engine unless its previous run is still going.
+     * @param engine Engine key, e.g. corpus name and algorithm
+     * @return true if the run was started
+     */
+    public boolean submit(String engine, EngineJob job) {
+        EngineState state = engines.computeIfAbsent(engine, this::register);
+        if (!state.running.compareAndSet(false, true)) {
+            state.skipped.increment();
+            LOGGER.info("EngineScheduler:I001: " + engine + " still running, skipping this run");
+            return false;
+        }
+
+        try {
+            pool.execute(() -> execute(engine, state, job));
+        } catch (RejectedExecutionException e) {
+            state.running.set(false);
+            state.skipped.increment();
+            LOGGER.warn("EngineScheduler:W001: Engine pool full, " + engine + " not started");
+            return false;
+        }
+        return true;
+    }
+
+    private void execute(String engine, EngineState state, EngineJob job) {
+        long start = System.currentTimeMillis();
+        Thread runner = Thread.currentThread();
+        AtomicBoolean finished = new AtomicBoolean(false);
+        AtomicBoolean cancelled = new AtomicBoolean(false);
+        state.cancel = () -> {
+            synchronized (finished) {
+                if (!finished.get()) {
+                    cancelled.set(true);
+                    state.cancelled.increment();
+                    runner.interrupt();
+                }
+            }
+        };
+        ScheduledFuture<?> timeout = watchdog.schedule(() -> {
+            synchronized (finished) {
+                if (!finished.get()) {
+                    state.timeouts.increment();
+                    LOGGER.error("EngineScheduler:E001: " + engine + " exceeded " + timeoutMillis + " ms, interrupting");
+                    runner.interrupt();
+                }
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        try {
+            long processed = job.run();
+            state.lastSuccessStart = start;
+            if (processed >= 0) state.processed = processed;
+        } catch (Throwable e) {
+            if (cancelled.get()) {
+                LOGGER.info("EngineScheduler:I003: " + engine + " cancelled: " + e);
+                return;
+            }
+            state.failures.increment();
+            LOGGER.error("EngineScheduler:E002: " + engine + " failed: " + e);
+            try {
+                failureListener.accept(engine, e);
+            } catch (Exception listenerFailure) {
+                LOGGER.error("EngineScheduler:E003: Failure listener for " + engine + " failed: " + listenerFailure);
+            }
+        } finally {
+            synchronized (finished) {
+                finished.set(true);
+            }
+            state.cancel = null;
+            timeout.cancel(false);
+            /** An interrupt of this run must not reach the next job of the pool thread */
+            Thread.interrupted();
+            state.lastDurationSeconds = (System.currentTimeMillis() - start) / 1000.0;
+            state.running.set(false);
+            LOGGER.info("EngineScheduler:I002: " + engine + " run took " + state.lastDurationSeconds + " s");
+        }
+    }
+
+    private EngineState register(String engine) {
+        EngineState state = new EngineState();
+        Gauge.builder("ecosystem.engine.last.duration.seconds", state, s -> s.lastDurationSeconds).tag("engine", engine).register(registry);
+        Gauge.builder("ecosystem.engine.processed", state, s -> s.processed).tag("engine", engine).register(registry);
+        Gauge.builder("ecosystem.engine.lag.seconds", state, s -> s.lastSuccessStart == 0 ? -1 : (System.currentTimeMillis() - s.lastSuccessStart) / 1000.0)
+                .tag("engine", engine)
+                .register(registry);
+        Gauge.builder("ecosystem.engine.running", state, s -> s.running.get() ? 1 : 0).tag("engine", engine).register(registry);
+        state.failures = Counter.builder("ecosystem.engine.failures").tag("engine", engine).register(registry);
+        state.timeouts = Counter.builder("ecosystem.engine.timeouts").tag("engine", engine).register(registry);
+        state.skipped = Counter.builder("ecosystem.engine.skipped").tag("engine", engine).register(registry);
+        state.cancelled = Counter.builder("ecosystem.engine.cancelled").tag("engine", engine).register(registry);
+        return state;
+    }
+
+    /**
+     * Interrupt every run in flight. Runs that end with an exception are not failures of their key.
+     * @return runs interrupted
+     */
+    public int cancelAll(String reason) {
+        int cancelled = 0;
+        for (Map.Entry<String, EngineState> entry : engines.entrySet()) {
+            Runnable cancel = entry.getValue().cancel;
+            if (cancel == null) continue;
+            LOGGER.warn("EngineScheduler:W002: Cancelling " + entry.getKey() + ": " + reason);
+            cancel.run();
+            cancelled++;
+        }
+        return cancelled;
+    }
+
+    public boolean isRunning(String engine) {
+        EngineState state = engines.get(engine);
+        return state != null && state.running.get();
+    }
+
+    public void shutdown() {
+        watchdog.shutdownNow();
+        pool.shutdownNow();
+    }
+
+}
@@ -0,0 +1,47 @@
+package com.ecosystem.runtime.scheduler;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Lease store for a single process, e.g. a runtime without Mongo or for trying out election behaviour locally.
+ */
+public class InMemoryLeaseStore implements LeaseStore {
+
+    private static final class Lease {
+        String holder;
+        long expires;
+        long token;
+    }
+
+    private final Map<String, Lease> leases = new HashMap<>();
+
+    @Override
+    public synchronized long tryAcquire(String name, String holder, long ttlMillis, long now) {
+        Lease lease = leases.computeIfAbsent(name, n -> new Lease());
+        if (holder.equals(lease.holder)) {
+            lease.expires = now + ttlMillis;
+            return lease.token;
+        }
+        if (lease.holder != null && lease.expires >= now)
+            return -1;
+        lease.holder = holder;
+        lease.expires = now + ttlMillis;
+        lease.token++;
+        return lease.token;
+    }
+
+    @Override
+    public synchronized void release(String name, String holder) {
+        Lease lease = leases.get(name);
+        if (lease != null && holder.equals(lease.holder))
+            lease.expires = 0;
+    }
+
+    @Override
+    public synchronized String holder(String name, long now) {
+        Lease lease = leases.get(name);
+        return lease == null || lease.expires < now ? null : lease.holder;
+    }
+
+}
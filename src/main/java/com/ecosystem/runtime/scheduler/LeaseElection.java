@@ -0,0 +1,165 @@
+package com.ecosystem.runtime.scheduler;
+
+import com.ecosystem.utils.log.LogManager;
+import com.ecosystem.utils.log.Logger;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.lang.management.ManagementFactory;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Lease based leader election between runtime replicas, so that work that must run once per deployment (the dynamic
+ * engines) runs on one replica only. The lease is renewed every third of its time on a background thread, a replica
+ * that cannot renew stops being leader when its lease would have expired, before another replica can take it over.
+ *
+ * The fencing token increases with every change of leader. Work started as leader carries the token, stores that
+ * record it reject writes with an older token. The leadership listener is told about every change, e.g. to cancel the
+ * work in flight when the replica is no longer leader.
+ */
+public class LeaseElection {
+    private static final Logger LOGGER = LogManager.getLogger(LeaseElection.class.getName());
+
+    private final LeaseStore store;
+    private final String name;
+    private final String holder;
+    private final long ttlMillis;
+    private final ScheduledExecutorService renewer;
+
+    private volatile long token = -1;
+    private volatile long validUntil = 0;
+    private volatile boolean leader = false;
+    private volatile Consumer<Boolean> leadershipListener = leader -> {};
+
+    private final Counter elected;
+    private final Counter demoted;
+
+    /**
+     * @param name      Lease name, replicas with the same name compete
+     * @param ttlMillis Time the lease is held for without renewal
+     */
+    public LeaseElection(LeaseStore store, String name, long ttlMillis, MeterRegistry registry) {
+        this.store = store;
+        this.name = name;
+        this.holder = ManagementFactory.getRuntimeMXBean().getName() + "/" + UUID.randomUUID().toString().substring(0, 8);
+        this.ttlMillis = ttlMillis;
+        this.renewer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ecosystem-lease-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.elected = Counter.builder("ecosystem.scheduler.leadership.changes").tag("lease", name).tag("to", "leader").register(registry);
+        this.demoted = Counter.builder("ecosystem.scheduler.leadership.changes").tag("lease", name).tag("to", "follower").register(registry);
+        Gauge.builder("ecosystem.scheduler.leader", this, e -> e.isLeader() ? 1 : 0).tag("lease", name).register(registry);
+    }
+
+    /**
+     * @param leadershipListener Called with true when this replica becomes leader and false when it stops being leader
+     */
+    public void setLeadershipListener(Consumer<Boolean> leadershipListener) {
+        this.leadershipListener = leadershipListener;
+    }
+
+    /**
+     * Try for the lease now and keep renewing it in the background.
+     */
+    public void start() {
+        check();
+        long period = Math.max(1, ttlMillis / 3);
+        renewer.scheduleWithFixedDelay(this::check, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Renew or acquire the lease.
+     * @return true if this replica is leader
+     */
+    public boolean check() {
+        long now = System.currentTimeMillis();
+        try {
+            long acquired = store.tryAcquire(name, holder, ttlMillis, now);
+            if (acquired >= 0) {
+                token = acquired;
+                validUntil = now + ttlMillis;
+            } else {
+                validUntil = 0;
+            }
+        } catch (Exception e) {
+            /** Keep leadership until the lease would have expired, nobody else can take it over before then */
+            LOGGER.error("LeaseElection:E001: Lease " + name + " not renewed: " + e);
+        }
+        return isLeader();
+    }
+
+    /**
+     * @return true if this replica holds an unexpired lease
+     */
+    public boolean isLeader() {
+        boolean current = System.currentTimeMillis() < validUntil;
+        if (current != leader) {
+            boolean changed = false;
+            synchronized (this) {
+                if (current != leader) {
+                    changed = true;
+                    leader = current;
+                    if (current) {
+                        elected.increment();
+                        LOGGER.info("LeaseElection:I001: " + holder + " is leader of " + name + " with token " + token);
+                    } else {
+                        demoted.increment();
+                        LOGGER.info("LeaseElection:I002: " + holder + " is no longer leader of " + name);
+                    }
+                }
+            }
+            if (changed) {
+                try {
+                    leadershipListener.accept(current);
+                } catch (Exception e) {
+                    LOGGER.error("LeaseElection:E003: Leadership listener of " + name + " failed: " + e);
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * @return fencing token of the current or last lease, -1 if this replica was never leader
+     */
+    public long getToken() {
+        return token;
+    }
+
+    public String getHolder() {
+        return holder;
+    }
+
+    /**
+     * @return current leader, null if unknown or there is none
+     */
+    public String getLeader() {
+        try {
+            return store.holder(name, System.currentTimeMillis());
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stop renewing and give the lease up.
+     */
+    public void stop() {
+        renewer.shutdownNow();
+        validUntil = 0;
+        isLeader();
+        try {
+            store.release(name, holder);
+        } catch (Exception e) {
+            LOGGER.error("LeaseElection:E002: Lease " + name + " not released: " + e);
+        }
+    }
+
+}
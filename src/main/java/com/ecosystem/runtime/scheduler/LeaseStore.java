@@ -0,0 +1,27 @@
+package com.ecosystem.runtime.scheduler;
+
+/**
+ * Storage of named leases for LeaseElection. Each time a lease changes holder its fencing token is incremented, so
+ * work done under an older token can be recognised and rejected.
+ */
+public interface LeaseStore {
+
+    /**
+     * Renew the lease if the holder has it, otherwise take it if it is free or expired.
+     * @param now       Current time, epoch milliseconds
+     * @param ttlMillis Time the lease is held for without renewal
+     * @return fencing token if the holder has the lease after the call, -1 otherwise
+     */
+    long tryAcquire(String name, String holder, long ttlMillis, long now);
+
+    /**
+     * Give the lease up if the holder has it, so that another holder does not have to wait for it to expire.
+     */
+    void release(String name, String holder);
+
+    /**
+     * @return holder of an unexpired lease, null if there is none
+     */
+    String holder(String name, long now);
+
+}
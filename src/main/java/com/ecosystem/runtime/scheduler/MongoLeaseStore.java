@@ -0,0 +1,84 @@
+package com.ecosystem.runtime.scheduler;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+
+import java.util.Date;
+import java.util.function.Supplier;
+
+/**
+ * Leases as documents in Mongo, {_id: name, holder, expires, token}, shared by all runtime replicas.
+ * Renewal and take over are single findOneAndUpdate operations, two replicas racing for a free lease are resolved by the
+ * unique _id: one upsert wins and the other fails with a duplicate key.
+ *
+ * Expiry uses the clock of the replicas, the lease time must be well above the clock skew between them.
+ */
+public class MongoLeaseStore implements LeaseStore {
+
+    private final Supplier<MongoClient> client;
+    private final String database;
+    private final String collection;
+
+    /**
+     * @param client Current client, e.g. ManagedMongoClient::getClient so that a swapped client is picked up
+     */
+    public MongoLeaseStore(Supplier<MongoClient> client, String database, String collection) {
+        this.client = client;
+        this.database = database;
+        this.collection = collection;
+    }
+
+    private MongoCollection<Document> leases() {
+        return client.get().getDatabase(database).getCollection(collection);
+    }
+
+    @Override
+    public long tryAcquire(String name, String holder, long ttlMillis, long now) {
+        MongoCollection<Document> leases = leases();
+        FindOneAndUpdateOptions after = new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER);
+
+        Document renewed = leases.findOneAndUpdate(Filters.and(Filters.eq("_id", name), Filters.eq("holder", holder)),
+                Updates.set("expires", new Date(now + ttlMillis)), after);
+        if (renewed != null)
+            return token(renewed);
+
+        try {
+            Document taken = leases.findOneAndUpdate(Filters.and(Filters.eq("_id", name), Filters.lt("expires", new Date(now))),
+                    Updates.combine(Updates.set("holder", holder), Updates.set("expires", new Date(now + ttlMillis)), Updates.inc("token", 1L)),
+                    after.upsert(true));
+            return taken == null ? -1 : token(taken);
+        } catch (MongoCommandException e) {
+            /** The lease is held by another replica, the upsert collided with its document */
+            if (ErrorCategory.fromErrorCode(e.getErrorCode()) == ErrorCategory.DUPLICATE_KEY) return -1;
+            throw e;
+        } catch (MongoWriteException e) {
+            if (e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) return -1;
+            throw e;
+        }
+    }
+
+    @Override
+    public void release(String name, String holder) {
+        leases().updateOne(Filters.and(Filters.eq("_id", name), Filters.eq("holder", holder)), Updates.set("expires", new Date(0)));
+    }
+
+    @Override
+    public String holder(String name, long now) {
+        Document lease = leases().find(Filters.and(Filters.eq("_id", name), Filters.gte("expires", new Date(now)))).first();
+        return lease == null ? null : lease.getString("holder");
+    }
+
+    private static long token(Document lease) {
+        Object token = lease.get("token");
+        return token instanceof Number ? ((Number) token).longValue() : 0;
+    }
+
+}
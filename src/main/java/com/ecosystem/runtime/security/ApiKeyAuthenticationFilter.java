@@ -0,0 +1,145 @@
+package com.ecosystem.runtime.security;
+
+import com.ecosystem.utils.log.LogManager;
+import com.ecosystem.utils.log.Logger;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Authenticate requests carrying an HMAC signed X-API-KEY header, as declared in the OpenAPI apiKeyScheme.
+ * Key format: {client}.{expires}.{base64url(HMAC-SHA256(secret, client.expires))}, expires in epoch seconds.
+ * The signature is compared in constant time. Expired keys, and keys or clients listed in security.api.key.revoked,
+ * are rejected. Requests without the header fall through to basic auth.
+ *
+ * Issue a key with the secret in api_key_secret:
+ *    java -cp ecosystem-runtime-localbuild.jar -Dloader.main=com.ecosystem.runtime.security.ApiKeyAuthenticationFilter
+ *         org.springframework.boot.loader.launch.PropertiesLauncher {client} {days}
+ */
+public class ApiKeyAuthenticationFilter extends OncePerRequestFilter {
+    private static final Logger LOGGER = LogManager.getLogger(ApiKeyAuthenticationFilter.class.getName());
+
+    public static final String HEADER = "X-API-KEY";
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final SecretKeySpec key;
+    private final List<SimpleGrantedAuthority> authorities;
+    private final ThreadLocal<Mac> mac;
+    private final Set<String> revoked = new HashSet<>();
+    private final Clock clock;
+
+    /**
+     * @param secret  Shared secret used to sign keys
+     * @param role    Role granted to valid keys, ADMIN or USER
+     * @param revoked Comma separated client names or keys that are no longer accepted
+     */
+    public ApiKeyAuthenticationFilter(String secret, String role, String revoked) {
+        this(secret, role, revoked, Clock.systemUTC());
+    }
+
+    ApiKeyAuthenticationFilter(String secret, String role, String revoked, Clock clock) {
+        this.key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+        this.authorities = List.of(new SimpleGrantedAuthority("ROLE_" + role));
+        this.clock = clock;
+        if (revoked != null) {
+            for (String entry : revoked.split(",")) {
+                if (!entry.isBlank()) this.revoked.add(entry.trim());
+            }
+        }
+        this.mac = ThreadLocal.withInitial(() -> {
+            try {
+                Mac m = Mac.getInstance(ALGORITHM);
+                m.init(key);
+                return m;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    /**
+     * Generate an API key for a client, see main().
+     * @param expires Epoch seconds after which the key is rejected
+     */
+    public String sign(String client, long expires) {
+        String payload = client + "." + expires;
+        byte[] signature = mac.get().doFinal(payload.getBytes(StandardCharsets.UTF_8));
+        return payload + "." + Base64.getUrlEncoder().withoutPadding().encodeToString(signature);
+    }
+
+    /**
+     * @param apiKey Value of X-API-KEY
+     * @return client name if the signature is valid, the key has not expired and is not revoked, otherwise null
+     */
+    public String verify(String apiKey) {
+        int dot = apiKey.lastIndexOf('.');
+        if (dot <= 0 || dot == apiKey.length() - 1) return null;
+        String payload = apiKey.substring(0, dot);
+        int expiresDot = payload.lastIndexOf('.');
+        if (expiresDot <= 0) return null;
+        String client = payload.substring(0, expiresDot);
+        long expires;
+        byte[] presented;
+        try {
+            expires = Long.parseLong(payload.substring(expiresDot + 1));
+            presented = Base64.getUrlDecoder().decode(apiKey.substring(dot + 1));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        byte[] expected = mac.get().doFinal(payload.getBytes(StandardCharsets.UTF_8));
+        if (!MessageDigest.isEqual(expected, presented)) return null;
+        if (clock.millis() / 1000 >= expires) return null;
+        if (revoked.contains(client) || revoked.contains(apiKey)) return null;
+        return client;
+    }
+
+    /**
+     * Print an API key: {client} {days valid}, signed with the secret in api_key_secret.
+     */
+    public static void main(String[] args) {
+        String secret = System.getenv("api_key_secret");
+        if (args.length != 2 || secret == null || secret.isEmpty()) {
+            System.err.println("Usage: api_key_secret=... ApiKeyAuthenticationFilter {client} {days}");
+            System.exit(1);
+        }
+        long expires = System.currentTimeMillis() / 1000 + Long.parseLong(args[1]) * 86400L;
+        System.out.println(new ApiKeyAuthenticationFilter(secret, "USER", null).sign(args[0], expires));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String apiKey = request.getHeader(HEADER);
+        if (apiKey != null && !apiKey.isEmpty()) {
+            String client = verify(apiKey);
+            if (client == null) {
+                LOGGER.info("ApiKeyAuthenticationFilter:I001: Invalid API key from: " + request.getRemoteAddr());
+                response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Invalid API key");
+                return;
+            }
+            SecurityContext context = SecurityContextHolder.createEmptyContext();
+            context.setAuthentication(UsernamePasswordAuthenticationToken.authenticated(client, null, authorities));
+            SecurityContextHolder.setContext(context);
+        }
+        chain.doFilter(request, response);
+    }
+
+}
@@ -0,0 +1,38 @@
+package com.ecosystem.runtime.security;
+
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+
+/**
+ * Wraps the configured AuthenticationManager so that basic auth credentials are only hashed (BCrypt etc.) once per
+ * cache time to live. Failed attempts are never cached and always go to the delegate.
+ */
+public class CachingAuthenticationManager implements AuthenticationManager {
+
+    private final AuthenticationManager delegate;
+    private final CredentialCache cache;
+
+    public CachingAuthenticationManager(AuthenticationManager delegate, CredentialCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    @Override
+    public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+        if (!(authentication instanceof UsernamePasswordAuthenticationToken) || authentication.getCredentials() == null)
+            return delegate.authenticate(authentication);
+
+        String digest = CredentialCache.digest(authentication.getName(), authentication.getCredentials());
+        Authentication cached = cache.get(digest);
+        if (cached != null)
+            return cached;
+
+        Authentication result = delegate.authenticate(authentication);
+        if (result != null && result.isAuthenticated())
+            cache.put(digest, result);
+        return result;
+    }
+
+}
@@ -0,0 +1,98 @@
+package com.ecosystem.runtime.security;
+
+import org.springframework.security.core.Authentication;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded cache of successfully verified credentials with a short time to live.
+ * Entries are keyed on a SHA-256 digest of username and password, the clear text password is never kept.
+ */
+public class CredentialCache {
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private static final class Entry {
+        final Authentication authentication;
+        final long expires;
+
+        Entry(Authentication authentication, long expires) {
+            this.authentication = authentication;
+            this.expires = expires;
+        }
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final long ttlNanos;
+
+    /**
+     * @param maxEntries Maximum number of verified credentials kept
+     * @param ttlSeconds Time in seconds before a credential must be verified again
+     */
+    public CredentialCache(int maxEntries, long ttlSeconds) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.ttlNanos = Math.max(1, ttlSeconds) * 1_000_000_000L;
+    }
+
+    public static String digest(String username, Object credentials) {
+        MessageDigest md = SHA256.get();
+        md.reset();
+        md.update(username.getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+        md.update(String.valueOf(credentials).getBytes(StandardCharsets.UTF_8));
+        return Base64.getEncoder().encodeToString(md.digest());
+    }
+
+    /**
+     * @param digest Digest from digest(username, credentials)
+     * @return Cached authentication or null if absent or expired
+     */
+    public Authentication get(String digest) {
+        Entry entry = entries.get(digest);
+        if (entry == null) return null;
+        if (System.nanoTime() - entry.expires > 0) {
+            entries.remove(digest, entry);
+            return null;
+        }
+        return entry.authentication;
+    }
+
+    public void put(String digest, Authentication authentication) {
+        if (entries.size() >= maxEntries)
+            evict();
+        entries.put(digest, new Entry(authentication, System.nanoTime() + ttlNanos));
+    }
+
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /** Drop expired entries, if still full drop arbitrary entries until there's space. */
+    private void evict() {
+        long now = System.nanoTime();
+        entries.values().removeIf(e -> now - e.expires > 0);
+        Iterator<String> keys = entries.keySet().iterator();
+        while (entries.size() >= maxEntries && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+        }
+    }
+
+}
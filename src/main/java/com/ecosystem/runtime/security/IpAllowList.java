@@ -0,0 +1,167 @@
+package com.ecosystem.runtime.security;
+
+import com.ecosystem.utils.log.LogManager;
+import com.ecosystem.utils.log.Logger;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Thread-safe IP allowlist backed by a binary prefix trie of CIDR ranges (IPv4 and IPv6).
+ * Additions copy the affected path and publish a new root, so lookups never lock and only walk the address bits.
+ * Example entries: 10.0.0.0/8, 192.168.1.17, 2001:db8::/32
+ */
+public class IpAllowList {
+    private static final Logger LOGGER = LogManager.getLogger(IpAllowList.class.getName());
+
+    private static final class Node {
+        final Node zero;
+        final Node one;
+        final boolean terminal;
+
+        Node(Node zero, Node one, boolean terminal) {
+            this.zero = zero;
+            this.one = one;
+            this.terminal = terminal;
+        }
+    }
+
+    private static final Node EMPTY = new Node(null, null, false);
+
+    private volatile Node ipv4 = EMPTY;
+    private volatile Node ipv6 = EMPTY;
+    private volatile int size = 0;
+
+    public IpAllowList() {
+    }
+
+    /**
+     * Build allowlist from comma separated CIDR ranges or addresses.
+     * @param ranges Example: "10.0.0.0/8,127.0.0.1"
+     * @return IpAllowList
+     */
+    public static IpAllowList fromString(String ranges) {
+        IpAllowList allowList = new IpAllowList();
+        if (ranges == null || ranges.isBlank()) return allowList;
+        for (String range : ranges.split(",")) {
+            if (!range.isBlank())
+                allowList.add(range.trim());
+        }
+        return allowList;
+    }
+
+    /**
+     * Add a CIDR range or single address. Invalid entries, including host names, are logged and ignored.
+     * @param cidr Range such as 10.1.0.0/16 or a single address
+     * @return true if the range was added
+     */
+    public synchronized boolean add(String cidr) {
+        try {
+            String address = cidr;
+            int prefix = -1;
+            int slash = cidr.indexOf('/');
+            if (slash > 0) {
+                address = cidr.substring(0, slash);
+                prefix = Integer.parseInt(cidr.substring(slash + 1));
+            }
+            byte[] bytes = literal(address);
+            if (bytes == null) {
+                LOGGER.error("IpAllowList:E002: Invalid allowlist entry ignored, not an IP address: " + cidr);
+                return false;
+            }
+            int bits = bytes.length * 8;
+            if (prefix < 0) prefix = bits;
+            if (prefix > bits) {
+                LOGGER.error("IpAllowList:E001: Prefix out of range, entry ignored: " + cidr);
+                return false;
+            }
+            if (bytes.length == 4)
+                ipv4 = insert(ipv4, bytes, 0, prefix);
+            else
+                ipv6 = insert(ipv6, bytes, 0, prefix);
+            size = size + 1;
+            return true;
+        } catch (NumberFormatException e) {
+            LOGGER.error("IpAllowList:E002: Invalid allowlist entry ignored: " + cidr + " " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Parse a literal IPv4 or IPv6 address without name resolution.
+     * @return address bytes, null if the value is not an address literal
+     */
+    static byte[] literal(String address) {
+        if (address == null || address.isEmpty()) return null;
+        if (address.indexOf(':') >= 0) {
+            /** InetAddress parses values with a colon as IPv6 literals and never resolves them */
+            try {
+                return InetAddress.getByName(address).getAddress();
+            } catch (UnknownHostException e) {
+                return null;
+            }
+        }
+        byte[] bytes = new byte[4];
+        int part = 0;
+        int value = -1;
+        for (int i = 0; i < address.length(); i++) {
+            char c = address.charAt(i);
+            if (c == '.') {
+                if (value < 0 || part == 3) return null;
+                bytes[part++] = (byte) value;
+                value = -1;
+            } else if (c >= '0' && c <= '9') {
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+                if (value > 255) return null;
+            } else {
+                return null;
+            }
+        }
+        if (value < 0 || part != 3) return null;
+        bytes[3] = (byte) value;
+        return bytes;
+    }
+
+    private static Node insert(Node node, byte[] bytes, int depth, int prefix) {
+        if (node == null) node = EMPTY;
+        if (node.terminal) return node;
+        if (depth == prefix) return new Node(null, null, true);
+        if (bit(bytes, depth) == 0)
+            return new Node(insert(node.zero, bytes, depth + 1, prefix), node.one, false);
+        return new Node(node.zero, insert(node.one, bytes, depth + 1, prefix), false);
+    }
+
+    private static int bit(byte[] bytes, int index) {
+        return (bytes[index >>> 3] >>> (7 - (index & 7))) & 1;
+    }
+
+    /**
+     * Test if the address is covered by any range. Host names are not resolved and never match.
+     * @param address Literal IPv4 or IPv6 address, typically HttpServletRequest.getRemoteAddr()
+     * @return true if allowed
+     */
+    public boolean contains(String address) {
+        byte[] bytes = literal(address);
+        return bytes != null && contains(bytes);
+    }
+
+    public boolean contains(byte[] bytes) {
+        Node node = bytes.length == 4 ? ipv4 : ipv6;
+        int bits = bytes.length * 8;
+        for (int i = 0; node != null; i++) {
+            if (node.terminal) return true;
+            if (i == bits) return false;
+            node = bit(bytes, i) == 0 ? node.zero : node.one;
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+}
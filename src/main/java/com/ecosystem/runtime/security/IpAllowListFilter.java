@@ -0,0 +1,33 @@
+package com.ecosystem.runtime.security;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Reject requests from addresses outside the allowlist before any credential checks are done.
+ * An empty allowlist allows all addresses.
+ */
+public class IpAllowListFilter extends OncePerRequestFilter {
+
+    private final IpAllowList allowList;
+
+    public IpAllowListFilter(IpAllowList allowList) {
+        this.allowList = allowList;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        if (!allowList.isEmpty() && !allowList.contains(request.getRemoteAddr())) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+        chain.doFilter(request, response);
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.ecosystem.runtime.settings;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import org.bson.Document;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Version of the corpora configuration kept in Mongo, for SettingsWatcher.setCorporaVersion. Only the configuration
+ * documents of the corpora in the current settings are read, matched on uuid or name, and digested in _id order. This
+ * is one indexed query per check instead of loading a new GlobalSettings.
+ */
+public class CorporaVersion implements Supplier<String> {
+
+    private final Supplier<MongoClient> client;
+    private final String database;
+    private final String collection;
+    private final Supplier<JSONArray> corpora;
+
+    /**
+     * @param client     Client of the runtime, resolved on each check
+     * @param database   Database of the corpora configuration
+     * @param collection Collection of the corpora configuration
+     * @param corpora    predictor.corpora of the current settings
+     */
+    public CorporaVersion(Supplier<MongoClient> client, String database, String collection, Supplier<JSONArray> corpora) {
+        this.client = client;
+        this.database = database;
+        this.collection = collection;
+        this.corpora = corpora;
+    }
+
+    /**
+     * @return hex digest of the configuration documents, empty when there are no corpora
+     */
+    @Override
+    public String get() {
+        JSONArray current = corpora.get();
+        List<String> uuids = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for (int i = 0; current != null && i < current.length(); i++) {
+            JSONObject corpus = current.optJSONObject(i);
+            if (corpus == null) continue;
+            if (corpus.has("uuid")) uuids.add(corpus.optString("uuid"));
+            if (corpus.has("name")) names.add(corpus.optString("name"));
+        }
+        if (uuids.isEmpty() && names.isEmpty()) return "";
+        return digest(client.get().getDatabase(database).getCollection(collection)
+                .find(Filters.or(Filters.in("uuid", uuids), Filters.in("name", names)))
+                .sort(Sorts.ascending("_id")));
+    }
+
+    static String digest(Iterable<Document> documents) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        for (Document document : documents) {
+            digest.update(document.toJson().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+}
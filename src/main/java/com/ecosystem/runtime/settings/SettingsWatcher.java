@@ -0,0 +1,361 @@
+package com.ecosystem.runtime.settings;
+
+import com.ecosystem.utils.GlobalSettings;
+import com.ecosystem.utils.log.LogManager;
+import com.ecosystem.utils.log.Logger;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Watches ecosystem.properties and plugin.properties and publishes a new GlobalSettings snapshot only when the content
+ * changed. Files are hashed as a whole first, unchanged files cost one read and a digest; on a change the corpora
+ * (predictor.corpora) and the other settings are hashed separately and listeners receive the sections that changed.
+ *
+ * Corpora and their randomisation are also read from Mongo, edits there do not touch the files. With setCorporaVersion
+ * each check also compares a version of the corpora in Mongo (see CorporaVersion), a new version is published as a
+ * CORPORA change.
+ *
+ * Changes are picked up by a WatchService thread, check() can also be called directly (the scheduler does this every
+ * tick) for file systems where watch events are not delivered.
+ */
+public class SettingsWatcher {
+    private static final Logger LOGGER = LogManager.getLogger(SettingsWatcher.class.getName());
+
+    /** Wait for writers to finish before reading a changed file */
+    private static final long DEBOUNCE_MILLIS = 250;
+
+    private static SettingsWatcher instance;
+
+    /**
+     * Settings sections, properties are assigned by key prefix. Anything not listed is OTHER, which only replaces the
+     * settings snapshot. CORPORA rebuilds the dynamic engines, MODELS releases the layouts and timers of retired models
+     * in MultiModelScorer, LOOKUP (and OTHER) replace the settings of the in-process ScoringEngines. The offer matrix is
+     * read per request by the engine and not cached here, its properties are OTHER.
+     */
+    public enum Section {
+        CORPORA("predictor.corpora"),
+        MODELS("mojo.key", "user.generated.models", "predictor.selector"),
+        LOOKUP("predictor.param.lookup", "predictor.whitelist"),
+        OTHER();
+
+        private final String[] prefixes;
+
+        Section(String... prefixes) {
+            this.prefixes = prefixes;
+        }
+
+        static Section of(String key) {
+            for (Section section : values()) {
+                for (String prefix : section.prefixes) {
+                    if (key.startsWith(prefix)) return section;
+                }
+            }
+            return OTHER;
+        }
+    }
+
+    /**
+     * Published on every change.
+     */
+    public static class Change {
+        private final Set<Section> sections;
+        private final GlobalSettings settings;
+
+        Change(Set<Section> sections, GlobalSettings settings) {
+            this.sections = Collections.unmodifiableSet(sections);
+            this.settings = settings;
+        }
+
+        public Set<Section> getSections() {
+            return sections;
+        }
+
+        public boolean changed(Section section) {
+            return sections.contains(section);
+        }
+
+        public GlobalSettings getSettings() {
+            return settings;
+        }
+    }
+
+    private final List<Path> files;
+    private final Callable<GlobalSettings> loader;
+    private final List<Consumer<Change>> listeners = new CopyOnWriteArrayList<>();
+    private volatile GlobalSettings settings;
+    private byte[] fileDigest = new byte[0];
+    private Map<Section, byte[]> sectionDigests = new EnumMap<>(Section.class);
+    private Supplier<String> corporaVersion;
+    private byte[] lastCorporaVersion;
+    private WatchService watchService;
+
+    public SettingsWatcher(List<Path> files, GlobalSettings settings) {
+        this(files, settings, GlobalSettings::new);
+    }
+
+    /**
+     * @param loader Loads the settings published on a change
+     */
+    SettingsWatcher(List<Path> files, GlobalSettings settings, Callable<GlobalSettings> loader) {
+        this.files = files;
+        this.settings = settings;
+        this.loader = loader;
+        try {
+            Map<Section, byte[]> digests = new EnumMap<>(Section.class);
+            fileDigest = digestFiles(digests);
+            sectionDigests = digests;
+        } catch (IOException e) {
+            LOGGER.error("SettingsWatcher:E001: Settings files not readable: " + files + " " + e);
+        }
+    }
+
+    /**
+     * Shared watcher for the properties files of the runtime, started on first use.
+     * @param settings Settings already loaded at startup
+     */
+    public static synchronized SettingsWatcher get(GlobalSettings settings) {
+        if (instance == null) {
+            instance = new SettingsWatcher(defaultFiles(), settings);
+            instance.start();
+        }
+        return instance;
+    }
+
+    /**
+     * ecosystem.properties (or the properties setting) and plugin.properties next to it.
+     */
+    static List<Path> defaultFiles() {
+        String file = System.getProperty("properties");
+        if (file == null) file = System.getenv("properties");
+        Path properties = Paths.get(file != null ? file : "ecosystem.properties").toAbsolutePath();
+        return Arrays.asList(properties, properties.resolveSibling("plugin.properties"));
+    }
+
+    /**
+     * Raw properties of the runtime files, plugin.properties overrides ecosystem.properties. For values GlobalSettings
+     * does not expose, such as the logging collections.
+     */
+    public static Properties properties() throws IOException {
+        Properties properties = new Properties();
+        for (Path file : defaultFiles()) {
+            if (Files.exists(file)) {
+                try (StringReader reader = new StringReader(new String(Files.readAllBytes(file), StandardCharsets.UTF_8))) {
+                    properties.load(reader);
+                }
+            }
+        }
+        return properties;
+    }
+
+    public GlobalSettings getSettings() {
+        return settings;
+    }
+
+    public void addListener(Consumer<Change> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<Change> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Compare the corpora on every check, the current corpora are the baseline.
+     * @param version Version of the corpora, cheap enough to read on every check, for example a CorporaVersion
+     */
+    public synchronized void setCorporaVersion(Supplier<String> version) {
+        corporaVersion = version;
+        lastCorporaVersion = corporaVersion();
+    }
+
+    /**
+     * @return digest of the corpora, null if there is no version or it cannot be read
+     */
+    private byte[] corporaVersion() {
+        if (corporaVersion == null) return null;
+        try {
+            return sha256().digest(String.valueOf(corporaVersion.get()).getBytes(StandardCharsets.UTF_8));
+        } catch (RuntimeException e) {
+            LOGGER.error("SettingsWatcher:E006: Corpora not read, compared on the next check: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Compare the files and the corpora with the last published content, publish a new snapshot
+     * when something changed.
+     * @return changed sections, empty if nothing changed
+     */
+    public synchronized Set<Section> check() {
+        Map<Section, byte[]> digests = new EnumMap<>(Section.class);
+        byte[] digest;
+        try {
+            digest = digestFiles(digests);
+        } catch (IOException e) {
+            LOGGER.error("SettingsWatcher:E002: Settings files not readable, keeping current settings: " + e);
+            return Collections.emptySet();
+        }
+        byte[] version = corporaVersion();
+        boolean corporaChanged = version != null && !MessageDigest.isEqual(version, lastCorporaVersion);
+        if (MessageDigest.isEqual(digest, fileDigest) && !corporaChanged)
+            return Collections.emptySet();
+
+        Set<Section> changed = EnumSet.noneOf(Section.class);
+        Set<Section> all = new HashSet<>(digests.keySet());
+        all.addAll(sectionDigests.keySet());
+        for (Section section : all) {
+            if (!MessageDigest.isEqual(digests.getOrDefault(section, new byte[0]), sectionDigests.getOrDefault(section, new byte[0])))
+                changed.add(section);
+        }
+        if (corporaChanged)
+            changed.add(Section.CORPORA);
+
+        /** Whitespace or comment only edits, nothing to publish */
+        if (changed.isEmpty()) {
+            fileDigest = digest;
+            return changed;
+        }
+
+        GlobalSettings next;
+        try {
+            next = loader.call();
+        } catch (Exception e) {
+            /** Digests are not updated so that the next check retries */
+            LOGGER.error("SettingsWatcher:E003: Settings not loaded, keeping current settings: " + e);
+            return Collections.emptySet();
+        }
+        settings = next;
+        fileDigest = digest;
+        sectionDigests = digests;
+        if (version != null) lastCorporaVersion = version;
+
+        LOGGER.info("SettingsWatcher:I001: Settings changed: " + changed);
+        Change change = new Change(changed, next);
+        for (Consumer<Change> listener : listeners) {
+            try {
+                listener.accept(change);
+            } catch (Exception e) {
+                LOGGER.error("SettingsWatcher:E004: Settings listener failed: " + e);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Digest of the raw files and, per section, of the sorted key=value pairs.
+     */
+    private byte[] digestFiles(Map<Section, byte[]> sections) throws IOException {
+        MessageDigest content = sha256();
+        Map<String, String> values = new TreeMap<>();
+        for (Path file : files) {
+            if (!Files.exists(file)) continue;
+            byte[] bytes = Files.readAllBytes(file);
+            content.update(file.toString().getBytes(StandardCharsets.UTF_8));
+            content.update(bytes);
+
+            Properties properties = new Properties();
+            properties.load(new StringReader(new String(bytes, StandardCharsets.UTF_8)));
+            for (String key : properties.stringPropertyNames())
+                values.put(key, properties.getProperty(key));
+        }
+
+        Map<Section, MessageDigest> digests = new EnumMap<>(Section.class);
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            MessageDigest digest = digests.computeIfAbsent(Section.of(entry.getKey()), s -> sha256());
+            digest.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '=');
+            digest.update(entry.getValue().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+        }
+        for (Map.Entry<Section, MessageDigest> entry : digests.entrySet())
+            sections.put(entry.getKey(), entry.getValue().digest());
+        return content.digest();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Watch the directories of the files. Any event in a directory triggers a check, this also covers editors that
+     * replace the file and mounted config maps that swap a symlink.
+     */
+    public synchronized void start() {
+        if (watchService != null) return;
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            Set<Path> directories = new HashSet<>();
+            for (Path file : files)
+                directories.add(file.getParent());
+            for (Path directory : directories) {
+                directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+            }
+        } catch (IOException e) {
+            LOGGER.error("SettingsWatcher:E005: File watch not available, settings are checked by the scheduler only: " + e);
+            return;
+        }
+
+        Thread thread = new Thread(this::watch, "ecosystem-settings-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void watch() {
+        WatchService service = watchService;
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                Thread.sleep(DEBOUNCE_MILLIS);
+                key.pollEvents();
+                key.reset();
+                WatchKey more;
+                while ((more = service.poll()) != null) {
+                    more.pollEvents();
+                    more.reset();
+                }
+                check();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public synchronized void stop() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+            watchService = null;
+        }
+    }
+
+}
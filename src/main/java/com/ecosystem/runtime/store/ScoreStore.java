@@ -0,0 +1,155 @@
+package com.ecosystem.runtime.store;
+
+import com.ecosystem.utils.EnvironmentalVariables;
+import com.ecosystem.utils.log.LogManager;
+import com.ecosystem.utils.log.Logger;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Serves precomputed scores from the score table written by the batch command (batch ... --table).
+ * The file is checked for changes every check interval on a background thread, a new table is mapped next to the
+ * current one and swapped in atomically, requests in flight keep the table they started with. Lookups never touch the
+ * file system; until the first table is mapped they miss and scoring continues without precomputed scores.
+ *
+ * Configure with the SCORE_TABLE (path) and SCORE_TABLE_CHECK (seconds, default 60) environment variables.
+ */
+public class ScoreStore {
+    private static final Logger LOGGER = LogManager.getLogger(ScoreStore.class.getName());
+
+    private static volatile ScoreStore instance;
+    private static volatile boolean configured = false;
+
+    private final Path path;
+    private final long checkIntervalMillis;
+    private final AtomicReference<ScoreTable> table = new AtomicReference<>();
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+    private final ScheduledExecutorService refresher;
+    private volatile long loadedModified = -1;
+    private volatile long loadedAt = 0;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter swaps;
+    private final Counter failures;
+
+    public ScoreStore(String path, long checkIntervalSeconds, MeterRegistry registry) {
+        this.path = Paths.get(path);
+        this.checkIntervalMillis = Math.max(1, checkIntervalSeconds) * 1000L;
+        this.refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ecosystem-score-table");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.hits = Counter.builder("ecosystem.score.table.lookups").tag("result", "hit").register(registry);
+        this.misses = Counter.builder("ecosystem.score.table.lookups").tag("result", "miss").register(registry);
+        this.swaps = Counter.builder("ecosystem.score.table.swaps").register(registry);
+        this.failures = Counter.builder("ecosystem.score.table.failures").register(registry);
+        Gauge.builder("ecosystem.score.table.age.seconds", this, ScoreStore::getAgeSeconds)
+                .description("Seconds since the score table in use was written")
+                .register(registry);
+        Gauge.builder("ecosystem.score.table.loaded.seconds", this, s -> s.loadedAt == 0 ? -1 : (System.currentTimeMillis() - s.loadedAt) / 1000.0)
+                .description("Seconds since the score table in use was loaded")
+                .register(registry);
+        Gauge.builder("ecosystem.score.table.customers", this, s -> s.table.get() == null ? 0 : s.table.get().size())
+                .register(registry);
+    }
+
+    /**
+     * Map the table now, off the calling thread, and check the file for changes every check interval.
+     */
+    public void start() {
+        refresher.scheduleWithFixedDelay(this::refresh, 0, checkIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        refresher.shutdownNow();
+    }
+
+    /**
+     * @return store configured from SCORE_TABLE, null if no score table is configured
+     */
+    public static ScoreStore get() {
+        if (!configured) {
+            synchronized (ScoreStore.class) {
+                if (!configured) {
+                    String path = EnvironmentalVariables.getEnvKey("SCORE_TABLE");
+                    if (path != null && !path.isBlank()) {
+                        String check = EnvironmentalVariables.getEnvKey("SCORE_TABLE_CHECK");
+                        instance = new ScoreStore(path.trim(), check == null ? 60 : Long.parseLong(check.trim()), Metrics.globalRegistry);
+                        instance.start();
+                    }
+                    configured = true;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * @return precomputed scores of the customer, null if not available
+     */
+    public ScoreTable.Scores lookup(String customer) {
+        ScoreTable current = table.get();
+        ScoreTable.Scores scores = current == null ? null : current.get(customer);
+        if (scores == null) misses.increment();
+        else hits.increment();
+        return scores;
+    }
+
+    /**
+     * Map the table again if the file changed. Only one caller refreshes, others continue with the current table.
+     * @return true if a new table was swapped in
+     */
+    public boolean refresh() {
+        if (!refreshing.compareAndSet(false, true))
+            return false;
+        try {
+            if (!Files.exists(path))
+                return false;
+            long modified = Files.getLastModifiedTime(path).toMillis();
+            if (modified == loadedModified && table.get() != null)
+                return false;
+
+            ScoreTable next = ScoreTable.open(path);
+            ScoreTable previous = table.getAndSet(next);
+            loadedModified = modified;
+            loadedAt = System.currentTimeMillis();
+            swaps.increment();
+            LOGGER.info("ScoreStore:I001: Score table " + (previous == null ? "loaded" : "swapped") + ": " + path
+                    + ", customers: " + next.size() + ", age seconds: " + getAgeSeconds());
+            return true;
+        } catch (IOException | RuntimeException e) {
+            failures.increment();
+            LOGGER.error("ScoreStore:E001: Score table not loaded, keeping current table: " + path + " " + e);
+            return false;
+        } finally {
+            refreshing.set(false);
+        }
+    }
+
+    public ScoreTable getTable() {
+        return table.get();
+    }
+
+    /**
+     * @return freshness of the table in use, -1 if there is no table
+     */
+    public double getAgeSeconds() {
+        ScoreTable current = table.get();
+        return current == null ? -1 : (System.currentTimeMillis() - current.getCreated()) / 1000.0;
+    }
+
+}
@@ -0,0 +1,154 @@
+package com.ecosystem.runtime.store;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read only, memory mapped, customer keyed table of precomputed offer scores.
+ *
+ * Layout (big endian):
+ *    header:     magic, version, customers, offers (int), created millis, index offset, dictionary offset (long)
+ *    records:    key length (short), key (utf-8), n (short), n x (offer index int, score float)
+ *    index:      customers x (key hash long, record offset long), sorted by hash
+ *    dictionary: offers x (name length short, name utf-8)
+ *
+ * Lookups are a binary search over the index and only touch the pages they need, so the table does not have to fit in
+ * the heap. Absolute reads on the mapped buffer are safe for concurrent readers. Tables are limited to 2GB.
+ */
+public class ScoreTable {
+
+    static final int MAGIC = 0x45435354;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 40;
+
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final int customers;
+    private final long created;
+    private final int indexOffset;
+    private final String[] offers;
+
+    private ScoreTable(Path path, MappedByteBuffer buffer) throws IOException {
+        this.path = path;
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+            throw new IOException("Not a score table: " + path);
+        if (buffer.getInt(4) != VERSION)
+            throw new IOException("Unsupported score table version " + buffer.getInt(4) + ": " + path);
+        this.customers = buffer.getInt(8);
+        this.offers = new String[buffer.getInt(12)];
+        this.created = buffer.getLong(16);
+        this.indexOffset = (int) buffer.getLong(24);
+
+        int position = (int) buffer.getLong(32);
+        for (int i = 0; i < offers.length; i++) {
+            int length = Short.toUnsignedInt(buffer.getShort(position));
+            byte[] name = new byte[length];
+            buffer.get(position + 2, name);
+            offers[i] = new String(name, StandardCharsets.UTF_8);
+            position = position + 2 + length;
+        }
+    }
+
+    public static ScoreTable open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Score table larger than 2GB, split by campaign: " + path);
+            return new ScoreTable(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * @return scores of the customer, null if the customer is not in the table
+     */
+    public Scores get(String customer) {
+        byte[] key = customer.getBytes(StandardCharsets.UTF_8);
+        long hash = hash(key);
+
+        int low = 0;
+        int high = customers - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midHash = buffer.getLong(indexOffset + mid * 16);
+            if (midHash < hash) low = mid + 1;
+            else if (midHash > hash) high = mid - 1;
+            else {
+                /** Hash collisions are adjacent in the index */
+                int first = mid;
+                while (first > 0 && buffer.getLong(indexOffset + (first - 1) * 16) == hash) first--;
+                for (int i = first; i < customers && buffer.getLong(indexOffset + i * 16) == hash; i++) {
+                    int offset = (int) buffer.getLong(indexOffset + i * 16 + 8);
+                    if (keyEquals(offset, key))
+                        return new Scores(offset + 2 + key.length);
+                }
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private boolean keyEquals(int offset, byte[] key) {
+        if (Short.toUnsignedInt(buffer.getShort(offset)) != key.length) return false;
+        for (int i = 0; i < key.length; i++) {
+            if (buffer.get(offset + 2 + i) != key[i]) return false;
+        }
+        return true;
+    }
+
+    public int size() {
+        return customers;
+    }
+
+    /**
+     * @return time the table was written, epoch millis
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Scores of a single customer, a view over the mapped record.
+     */
+    public final class Scores {
+        private final int offset;
+        private final int size;
+
+        private Scores(int offset) {
+            this.offset = offset + 2;
+            this.size = Short.toUnsignedInt(buffer.getShort(offset));
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public String offer(int i) {
+            return offers[buffer.getInt(offset + i * 8)];
+        }
+
+        public float score(int i) {
+            return buffer.getFloat(offset + i * 8 + 4);
+        }
+    }
+
+    /**
+     * 64 bit FNV-1a, stable across writer and reader versions.
+     */
+    static long hash(byte[] key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key) {
+            hash ^= (b & 0xff);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+}
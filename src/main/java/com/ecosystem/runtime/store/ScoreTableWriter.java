@@ -0,0 +1,185 @@
+package com.ecosystem.runtime.store;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a customer keyed score table, see ScoreTable for the file layout.
+ * Records are streamed to disk, only the (hash, offset) index and the offer dictionary are kept in memory. The table is
+ * written to a temporary file and moved into place on commit so that readers never see a partial table, closing
+ * without commit discards it. A customer added more than once keeps the scores added last.
+ */
+public class ScoreTableWriter implements Closeable {
+
+    private final Path target;
+    private final Path temporary;
+    private final DataOutputStream out;
+    private final Map<String, Integer> offerIndex = new HashMap<>();
+    private final List<String> offers = new ArrayList<>();
+
+    private long[] hashes = new long[1024];
+    private long[] offsets = new long[1024];
+    private int customers = 0;
+    private int duplicates = 0;
+    private long position = ScoreTable.HEADER_SIZE;
+    private boolean committed = false;
+
+    public ScoreTableWriter(String path) throws IOException {
+        this.target = Paths.get(path);
+        this.temporary = Paths.get(path + ".tmp");
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary.toFile()), 1 << 16));
+        out.write(new byte[ScoreTable.HEADER_SIZE]);
+    }
+
+    /**
+     * Add the scores of one customer, replacing scores added before for the same customer.
+     * @param customer Customer key
+     * @param offers   Offer names
+     * @param scores   Score per offer
+     */
+    public void add(String customer, String[] offers, float[] scores) throws IOException {
+        byte[] key = customer.getBytes(StandardCharsets.UTF_8);
+        if (key.length > 0xFFFF || offers.length > 0xFFFF)
+            throw new IOException("Score table record too large for customer: " + customer);
+
+        if (customers == hashes.length) {
+            hashes = Arrays.copyOf(hashes, customers * 2);
+            offsets = Arrays.copyOf(offsets, customers * 2);
+        }
+        hashes[customers] = ScoreTable.hash(key);
+        offsets[customers] = position;
+        customers = customers + 1;
+
+        out.writeShort(key.length);
+        out.write(key);
+        out.writeShort(offers.length);
+        for (int i = 0; i < offers.length; i++) {
+            out.writeInt(offerIndex.computeIfAbsent(offers[i], this::newOffer));
+            out.writeFloat(scores[i]);
+        }
+        position = position + 4 + key.length + offers.length * 8L;
+    }
+
+    private int newOffer(String offer) {
+        offers.add(offer);
+        return offers.size() - 1;
+    }
+
+    /**
+     * @return customers in the table, known once committed
+     */
+    public int size() {
+        return customers - duplicates;
+    }
+
+    /**
+     * @return records replaced by a later record of the same customer, known once committed
+     */
+    public int duplicates() {
+        return duplicates;
+    }
+
+    /**
+     * Write index and dictionary and move the table into place.
+     */
+    public void commit() throws IOException {
+        if (committed) return;
+        committed = true;
+
+        /** Index sorted by hash, offsets move with their hash */
+        Integer[] order = new Integer[customers];
+        for (int i = 0; i < customers; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(hashes[a], hashes[b]));
+        boolean[] replaced = replaced(order);
+
+        long indexOffset = position;
+        for (Integer i : order) {
+            if (replaced[i]) continue;
+            out.writeLong(hashes[i]);
+            out.writeLong(offsets[i]);
+        }
+        long dictionaryOffset = indexOffset + (customers - duplicates) * 16L;
+        for (String offer : offers) {
+            byte[] name = offer.getBytes(StandardCharsets.UTF_8);
+            out.writeShort(name.length);
+            out.write(name);
+        }
+        out.close();
+
+        try (RandomAccessFile file = new RandomAccessFile(temporary.toFile(), "rw")) {
+            file.writeInt(ScoreTable.MAGIC);
+            file.writeInt(ScoreTable.VERSION);
+            file.writeInt(customers - duplicates);
+            file.writeInt(offers.size());
+            file.writeLong(System.currentTimeMillis());
+            file.writeLong(indexOffset);
+            file.writeLong(dictionaryOffset);
+            file.getFD().sync();
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Records of a customer added again later, found by comparing the keys of equal hashes in the written records.
+     * The sort is stable, so within a run of equal hashes records are in the order they were added.
+     */
+    private boolean[] replaced(Integer[] order) throws IOException {
+        boolean[] replaced = new boolean[customers];
+        out.flush();
+        RandomAccessFile file = null;
+        try {
+            for (int start = 0; start < customers; ) {
+                int end = start + 1;
+                while (end < customers && hashes[order[end]] == hashes[order[start]]) end++;
+                if (end - start > 1) {
+                    if (file == null) file = new RandomAccessFile(temporary.toFile(), "r");
+                    byte[][] keys = new byte[end - start][];
+                    for (int i = start; i < end; i++)
+                        keys[i - start] = key(file, offsets[order[i]]);
+                    for (int i = start; i < end - 1; i++) {
+                        for (int j = i + 1; j < end; j++) {
+                            if (Arrays.equals(keys[i - start], keys[j - start])) {
+                                replaced[order[i]] = true;
+                                duplicates = duplicates + 1;
+                                break;
+                            }
+                        }
+                    }
+                }
+                start = end;
+            }
+        } finally {
+            if (file != null) file.close();
+        }
+        return replaced;
+    }
+
+    private static byte[] key(RandomAccessFile file, long offset) throws IOException {
+        file.seek(offset);
+        byte[] key = new byte[file.readUnsignedShort()];
+        file.readFully(key);
+        return key;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (committed) return;
+        out.close();
+        Files.deleteIfExists(temporary);
+    }
+
+}
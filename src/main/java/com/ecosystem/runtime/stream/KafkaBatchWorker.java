@@ -0,0 +1,240 @@
+package com.ecosystem.runtime.stream;
+
+import com.ecosystem.utils.log.LogManager;
+import com.ecosystem.utils.log.Logger;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Consumes a topic in batches and commits offsets only after a batch was processed (at-least-once).
+ * A batch is processed when it reaches the maximum size or when its oldest record is older than the maximum latency.
+ * If processing fails the partitions are rewound to the start of the batch and the batch is retried after a back-off.
+ * Pending records are processed before partitions are revoked so that a rebalance does not replay them.
+ *
+ * The consumer is only used from the worker thread, lag is published through a cached gauge. Workers take any
+ * Consumer, so MockConsumer from kafka-clients can stand in for a broker in tests.
+ */
+public abstract class KafkaBatchWorker implements Runnable {
+    private static final Logger LOGGER = LogManager.getLogger(KafkaBatchWorker.class.getName());
+
+    private static final long RETRY_BACKOFF_MILLIS = 1000;
+
+    private final String name;
+    private final String topic;
+    private final int maxBatchSize;
+    private final long maxLatencyMillis;
+    private final Consumer<String, String> consumer;
+
+    private final List<ConsumerRecord<String, String>> batch = new ArrayList<>();
+    private long batchStart = 0;
+    private volatile boolean running = false;
+    private Thread thread;
+
+    private final AtomicLong lag = new AtomicLong(0);
+    private final Counter records;
+    private final Counter failures;
+    private final Timer batchTimer;
+
+    /**
+     * @param name             Worker name, used for the thread and the metric tag
+     * @param bootstrapServers Kafka bootstrap servers
+     * @param groupId          Consumer group
+     * @param topic            Topic to consume
+     * @param maxBatchSize     Maximum records per batch
+     * @param maxLatencyMillis Maximum time a record waits for its batch
+     */
+    protected KafkaBatchWorker(String name, String bootstrapServers, String groupId, String topic, int maxBatchSize,
+                               long maxLatencyMillis, MeterRegistry registry) {
+        this(name, consumer(bootstrapServers, groupId, maxBatchSize), topic, maxBatchSize, maxLatencyMillis, registry);
+    }
+
+    /**
+     * @param consumer Consumer with auto commit off, used only from the worker thread and closed when it stops
+     */
+    protected KafkaBatchWorker(String name, Consumer<String, String> consumer, String topic, int maxBatchSize,
+                               long maxLatencyMillis, MeterRegistry registry) {
+        this.name = name;
+        this.topic = topic;
+        this.maxBatchSize = maxBatchSize;
+        this.maxLatencyMillis = maxLatencyMillis;
+        this.consumer = consumer;
+
+        this.records = Counter.builder("ecosystem.stream.records").tag("worker", name).register(registry);
+        this.failures = Counter.builder("ecosystem.stream.failures").tag("worker", name).register(registry);
+        this.batchTimer = Timer.builder("ecosystem.stream.batch").tag("worker", name).register(registry);
+        Gauge.builder("ecosystem.stream.lag", lag, AtomicLong::get)
+                .tag("worker", name)
+                .description("Records behind the end of the assigned partitions")
+                .register(registry);
+    }
+
+    /**
+     * String consumer of the group, offsets are only committed by the worker.
+     */
+    static KafkaConsumer<String, String> consumer(String bootstrapServers, String groupId, int maxBatchSize) {
+        Properties config = new Properties();
+        config.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        config.put(ConsumerConfig.GROUP_ID_CONFIG, groupId);
+        config.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        config.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        config.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, String.valueOf(maxBatchSize));
+        config.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
+        config.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
+        return new KafkaConsumer<>(config);
+    }
+
+    /**
+     * Idempotent string producer, sends are acknowledged by all in-sync replicas.
+     */
+    static KafkaProducer<String, String> producer(String bootstrapServers) {
+        Properties config = new Properties();
+        config.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        config.put(ProducerConfig.ACKS_CONFIG, "all");
+        config.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, "true");
+        config.put(ProducerConfig.LINGER_MS_CONFIG, "5");
+        config.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
+        config.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
+        return new KafkaProducer<>(config);
+    }
+
+    /**
+     * Process a batch, throw to have the batch retried. Records of a partition are in offset order.
+     */
+    protected abstract void process(List<ConsumerRecord<String, String>> batch) throws Exception;
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        thread = new Thread(this, "ecosystem-" + name);
+        thread.setDaemon(true);
+        thread.start();
+        LOGGER.info("KafkaBatchWorker:I001: " + name + " consuming " + topic + " (batch " + maxBatchSize + ", latency " + maxLatencyMillis + "ms)");
+    }
+
+    public synchronized void stop() throws InterruptedException {
+        if (!running) return;
+        running = false;
+        consumer.wakeup();
+        thread.join(Duration.ofSeconds(30).toMillis());
+    }
+
+    @Override
+    public void run() {
+        try {
+            consumer.subscribe(Collections.singletonList(topic), new ConsumerRebalanceListener() {
+                @Override
+                public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+                    flush();
+                }
+
+                @Override
+                public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+                }
+            });
+            while (running) {
+                long wait = batch.isEmpty() ? maxLatencyMillis : Math.max(0, batchStart + maxLatencyMillis - System.currentTimeMillis());
+                ConsumerRecords<String, String> polled = consumer.poll(Duration.ofMillis(Math.max(1, Math.min(wait, 500))));
+                if (!polled.isEmpty() && batch.isEmpty())
+                    batchStart = System.currentTimeMillis();
+                for (ConsumerRecord<String, String> record : polled)
+                    batch.add(record);
+                updateLag();
+
+                if (batch.size() >= maxBatchSize || (!batch.isEmpty() && System.currentTimeMillis() - batchStart >= maxLatencyMillis))
+                    flush();
+            }
+            flush();
+        } catch (WakeupException e) {
+            if (running) LOGGER.error("KafkaBatchWorker:E001: " + name + " unexpected wakeup");
+            flush();
+        } catch (Exception e) {
+            LOGGER.error("KafkaBatchWorker:E002: " + name + " stopped: " + e);
+        } finally {
+            running = false;
+            consumer.close(Duration.ofSeconds(10));
+        }
+    }
+
+    /**
+     * Process the pending batch and commit, rewind to the start of the batch on failure.
+     */
+    private void flush() {
+        if (batch.isEmpty()) return;
+        Map<TopicPartition, OffsetAndMetadata> commit = new HashMap<>();
+        Map<TopicPartition, Long> rewind = new HashMap<>();
+        for (ConsumerRecord<String, String> record : batch) {
+            TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+            rewind.putIfAbsent(partition, record.offset());
+            commit.put(partition, new OffsetAndMetadata(record.offset() + 1));
+        }
+
+        long start = System.nanoTime();
+        try {
+            process(batch);
+            consumer.commitSync(commit);
+            records.increment(batch.size());
+        } catch (WakeupException e) {
+            throw e;
+        } catch (Exception e) {
+            failures.increment();
+            LOGGER.error("KafkaBatchWorker:E003: " + name + " batch of " + batch.size() + " failed, retrying: " + e);
+            for (Map.Entry<TopicPartition, Long> entry : rewind.entrySet()) {
+                if (consumer.assignment().contains(entry.getKey()))
+                    consumer.seek(entry.getKey(), entry.getValue());
+            }
+            sleep(RETRY_BACKOFF_MILLIS);
+        } finally {
+            batchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            batch.clear();
+        }
+    }
+
+    private void updateLag() {
+        long total = 0;
+        for (TopicPartition partition : consumer.assignment()) {
+            OptionalLong partitionLag = consumer.currentLag(partition);
+            if (partitionLag.isPresent()) total = total + partitionLag.getAsLong();
+        }
+        lag.set(total + batch.size());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+}
@@ -0,0 +1,332 @@
+package com.ecosystem.runtime.stream;
+
+import com.ecosystem.runtime.ScoringEngine;
+import com.ecosystem.runtime.rewards.LoggingSchema;
+import com.ecosystem.runtime.settings.SettingsWatcher;
+import com.ecosystem.utils.GlobalSettings;
+import com.ecosystem.utils.log.LogManager;
+import com.ecosystem.utils.log.Logger;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.InsertManyOptions;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Response ingestion from Kafka: acceptance events in the /response format
+ * {"uuid": "...", "offers_accepted": [{"offer_name": "OFFER_A"}], "channel_name": "app"}
+ * are decoded per batch and persisted before the offsets are committed.
+ *
+ * stream.response.write selects how events are persisted:
+ *    engine: each event through putResponseReturnDetail, the same logic as /response (default)
+ *    bulk:   one unordered insertMany of the raw events into the response log (logging.collection.response), the online
+ *            learners are updated as for /response but none of the other work of putResponseReturnDetail is done, so
+ *            only use it when nothing reads more than the raw event from the response log
+ *
+ * Failures are split per event. Permanent failures (invalid JSON, no uuid, an event the response logic rejects,
+ * a document Mongo refuses) are produced to stream.response.dead.letter.topic when set, otherwise counted and skipped,
+ * so one bad event does not hold up the partition. Transient failures (Mongo unavailable, timeouts) retry the batch,
+ * and a retry only writes the events that were not persisted yet. In bulk mode the ids of a pending batch are kept, so
+ * an insert whose outcome was unknown is recognised as a duplicate key on retry. A restart between write and commit
+ * replays the batch (at-least-once).
+ *
+ * Enable with stream.response.enabled=true, see application.properties.
+ */
+@Component
+@ConditionalOnProperty(name = "stream.response.enabled", havingValue = "true")
+public class ResponseIngestion extends KafkaBatchWorker {
+    private static final Logger LOGGER = LogManager.getLogger(ResponseIngestion.class.getName());
+
+    /** Write errors that fail again on retry: bad value, type mismatch, document validation, document too large */
+    private static final Set<Integer> PERMANENT_CODES = Set.of(2, 14, 121, 10334);
+    private static final int DUPLICATE_KEY = 11000;
+
+    /**
+     * A decoded event, key is topic-partition@offset of its record.
+     */
+    static final class Event {
+        final ConsumerRecord<String, String> record;
+        final String key;
+        final JSONObject document;
+
+        Event(ConsumerRecord<String, String> record, JSONObject document) {
+            this.record = record;
+            this.key = record.topic() + "-" + record.partition() + "@" + record.offset();
+            this.document = document;
+        }
+    }
+
+    private final boolean bulk;
+    private final Producer<String, String> deadLetter;
+    private final String deadLetterTopic;
+    private final ThreadPoolExecutor pool;
+
+    /** Events of pending batches that were persisted or dead lettered, skipped when the batch is retried */
+    private final Set<String> handled = ConcurrentHashMap.newKeySet();
+    /** Ids of events of pending batches in bulk mode */
+    private final Map<String, ObjectId> ids = new ConcurrentHashMap<>();
+
+    private final Counter persisted;
+    private final Counter duplicates;
+    private final Counter invalid;
+    private final Counter rejected;
+    private final Counter deadLettered;
+    private ScoringEngine engine;
+    private MongoCollection<Document> responses;
+
+    @Autowired
+    public ResponseIngestion(@Value("${stream.bootstrap.servers}") String bootstrapServers,
+                             @Value("${stream.response.group}") String groupId,
+                             @Value("${stream.response.topic}") String topic,
+                             @Value("${stream.response.write:engine}") String write,
+                             @Value("${stream.response.dead.letter.topic:}") String deadLetterTopic,
+                             @Value("${stream.response.batch.size:1000}") int batchSize,
+                             @Value("${stream.response.batch.latency:200}") long batchLatency,
+                             @Value("${stream.response.threads:4}") int threads) {
+        this(consumer(bootstrapServers, groupId, batchSize), deadLetterTopic.isBlank() ? null : producer(bootstrapServers),
+                topic, "bulk".equalsIgnoreCase(write.trim()), deadLetterTopic, batchSize, batchLatency, threads, Metrics.globalRegistry);
+    }
+
+    /**
+     * @param consumer        Response topic consumer, closed by the worker
+     * @param deadLetter      Producer for permanent failures, null to count and skip them
+     * @param bulk            true for one insertMany per batch, false for putResponseReturnDetail per event
+     */
+    ResponseIngestion(Consumer<String, String> consumer, Producer<String, String> deadLetter, String topic, boolean bulk,
+                      String deadLetterTopic, int batchSize, long batchLatency, int threads, MeterRegistry registry) {
+        super("response-ingestion", consumer, topic, batchSize, batchLatency, registry);
+        this.bulk = bulk;
+        this.deadLetter = deadLetter;
+        this.deadLetterTopic = deadLetterTopic;
+        this.pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(batchSize),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        this.persisted = Counter.builder("ecosystem.stream.responses").tag("result", "persisted").register(registry);
+        this.duplicates = Counter.builder("ecosystem.stream.responses").tag("result", "duplicate").register(registry);
+        this.invalid = Counter.builder("ecosystem.stream.rejected").tag("worker", "response-ingestion").tag("reason", "invalid").register(registry);
+        this.rejected = Counter.builder("ecosystem.stream.rejected").tag("worker", "response-ingestion").tag("reason", "permanent").register(registry);
+        this.deadLettered = Counter.builder("ecosystem.stream.dead.letter").tag("worker", "response-ingestion").register(registry);
+    }
+
+    @PostConstruct
+    public void init() throws Exception {
+        SettingsWatcher watcher = SettingsWatcher.get(new GlobalSettings());
+        engine = ScoringEngine.create(watcher.getSettings()).follow(watcher);
+        if (bulk) {
+            LoggingSchema schema = LoggingSchema.of(new JSONObject());
+            responses = engine.getMongoClient().getDatabase(schema.getDatabase()).getCollection(schema.getResponses());
+        }
+        start();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        stop();
+        pool.shutdown();
+        if (deadLetter != null) deadLetter.close(Duration.ofSeconds(10));
+    }
+
+    @Override
+    protected void process(List<ConsumerRecord<String, String>> batch) throws Exception {
+        List<Event> events = new ArrayList<>(batch.size());
+        Map<ConsumerRecord<String, String>, String> permanent = new LinkedHashMap<>();
+        for (ConsumerRecord<String, String> record : batch) {
+            try {
+                JSONObject document = new JSONObject(record.value());
+                Event event = new Event(record, document);
+                if (!document.has("uuid"))
+                    permanent.put(record, "No uuid in event");
+                else if (!handled.contains(event.key))
+                    events.add(event);
+            } catch (JSONException | NullPointerException e) {
+                permanent.put(record, "Invalid event: " + e.getMessage());
+            }
+        }
+        invalid.increment(permanent.size());
+
+        Map<Event, Exception> failed = bulk ? insert(events) : respond(events);
+        List<Event> retry = new ArrayList<>();
+        for (Event event : events) {
+            Exception e = failed.get(event);
+            if (e == null) {
+                handled.add(event.key);
+            } else if (isPermanent(e)) {
+                permanent.put(event.record, String.valueOf(e.getMessage()));
+                rejected.increment();
+            } else {
+                retry.add(event);
+            }
+        }
+
+        deadLetter(permanent);
+
+        if (!retry.isEmpty()) {
+            Exception cause = failed.get(retry.get(0));
+            throw new IOException(retry.size() + " of " + batch.size() + " events not persisted: " + cause, cause);
+        }
+
+        /** The batch is committed next, its events are not retried any more */
+        for (ConsumerRecord<String, String> record : batch) {
+            String key = record.topic() + "-" + record.partition() + "@" + record.offset();
+            handled.remove(key);
+            ids.remove(key);
+        }
+    }
+
+    /**
+     * Insert the events into the response log with one unordered bulk write.
+     * @return failed events, duplicate keys of a retried insert count as persisted
+     */
+    Map<Event, Exception> insert(List<Event> events) {
+        Map<Event, Exception> failed = new HashMap<>();
+        if (events.isEmpty()) return failed;
+        List<Document> documents = new ArrayList<>(events.size());
+        for (Event event : events) {
+            Document document = Document.parse(event.document.toString());
+            document.put("_id", ids.computeIfAbsent(event.key, k -> new ObjectId()));
+            documents.add(document);
+        }
+
+        boolean[] duplicate = new boolean[events.size()];
+        try {
+            responses().insertMany(documents, new InsertManyOptions().ordered(false));
+        } catch (MongoBulkWriteException e) {
+            for (BulkWriteError error : e.getWriteErrors()) {
+                if (error.getCode() == DUPLICATE_KEY)
+                    duplicate[error.getIndex()] = true;
+                else
+                    failed.put(events.get(error.getIndex()), new MongoException(error.getCode(), error.getMessage()));
+            }
+            /** Written but not acknowledged by the write concern: retried, the retry sees duplicate keys */
+            if (e.getWriteConcernError() != null) {
+                for (int i = 0; i < events.size(); i++)
+                    failed.putIfAbsent(events.get(i), e);
+            }
+        } catch (MongoException e) {
+            for (Event event : events)
+                failed.put(event, e);
+        }
+
+        for (int i = 0; i < events.size(); i++) {
+            Event event = events.get(i);
+            if (failed.containsKey(event)) continue;
+            if (duplicate[i]) {
+                duplicates.increment();
+                continue;
+            }
+            persisted.increment();
+            ScoringEngine.responseLogged(event.document);
+        }
+        return failed;
+    }
+
+    /**
+     * Log each event through putResponseReturnDetail on the pool.
+     * @return failed events
+     */
+    Map<Event, Exception> respond(List<Event> events) throws InterruptedException {
+        List<Future<JSONObject>> written = new ArrayList<>(events.size());
+        for (Event event : events)
+            written.add(pool.submit(() -> respond(event.document)));
+
+        Map<Event, Exception> failed = new HashMap<>();
+        for (int i = 0; i < events.size(); i++) {
+            try {
+                written.get(i).get();
+                persisted.increment();
+            } catch (ExecutionException e) {
+                failed.put(events.get(i), e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+            }
+        }
+        return failed;
+    }
+
+    JSONObject respond(JSONObject document) throws Exception {
+        return engine.response(document);
+    }
+
+    MongoCollection<Document> responses() {
+        return responses;
+    }
+
+    /**
+     * Produce permanent failures to the dead letter topic and wait for the acknowledgements, or count and skip them.
+     * Dead lettered events are not sent again when the batch is retried.
+     */
+    private void deadLetter(Map<ConsumerRecord<String, String>, String> permanent) throws Exception {
+        if (permanent.isEmpty()) return;
+        List<Future<RecordMetadata>> sent = new ArrayList<>();
+        for (Map.Entry<ConsumerRecord<String, String>, String> entry : permanent.entrySet()) {
+            ConsumerRecord<String, String> record = entry.getKey();
+            String key = record.topic() + "-" + record.partition() + "@" + record.offset();
+            if (handled.contains(key)) continue;
+            LOGGER.warn("ResponseIngestion:W001: Event at " + key + " not persisted, "
+                    + (deadLetter != null ? "sent to " + deadLetterTopic : "skipped") + ": " + entry.getValue());
+            if (deadLetter == null) {
+                handled.add(key);
+                continue;
+            }
+            ProducerRecord<String, String> dead = new ProducerRecord<>(deadLetterTopic, record.key(), record.value());
+            dead.headers().add("error", entry.getValue().getBytes(StandardCharsets.UTF_8));
+            dead.headers().add("source", key.getBytes(StandardCharsets.UTF_8));
+            sent.add(deadLetter.send(dead));
+        }
+        for (Future<RecordMetadata> future : sent)
+            future.get();
+        for (ConsumerRecord<String, String> record : permanent.keySet()) {
+            String key = record.topic() + "-" + record.partition() + "@" + record.offset();
+            if (handled.add(key) && deadLetter != null)
+                deadLettered.increment();
+        }
+    }
+
+    /**
+     * Failures of the event itself are permanent, failures of Mongo or the network anywhere in the cause chain are
+     * transient unless Mongo refused the document.
+     */
+    static boolean isPermanent(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MongoException)
+                return PERMANENT_CODES.contains(((MongoException) cause).getCode());
+            if (cause instanceof IOException || cause instanceof TimeoutException || cause instanceof InterruptedException)
+                return false;
+            if (cause.getCause() == cause) break;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,137 @@
+package com.ecosystem.runtime.stream;
+
+import com.ecosystem.runtime.ScoringEngine;
+import com.ecosystem.runtime.ScoringRequest;
+import com.ecosystem.runtime.ScoringResult;
+import com.ecosystem.runtime.settings.SettingsWatcher;
+import com.ecosystem.utils.GlobalSettings;
+import com.ecosystem.utils.log.LogManager;
+import com.ecosystem.utils.log.Logger;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streaming scoring mode: invocation payloads (same as /invocations) are consumed from the request topic, scored in
+ * micro-batches on a bounded pool and the results are produced to the result topic with the request key.
+ * Offsets are committed once all results of the batch are acknowledged by the broker, so a restart replays at most
+ * the batch in progress.
+ *
+ * Enable with stream.scoring.enabled=true, see application.properties.
+ */
+@Component
+@ConditionalOnProperty(name = "stream.scoring.enabled", havingValue = "true")
+public class StreamScoring extends KafkaBatchWorker {
+    private static final Logger LOGGER = LogManager.getLogger(StreamScoring.class.getName());
+
+    private final String resultTopic;
+    private final ThreadPoolExecutor pool;
+    private final Producer<String, String> producer;
+    private ScoringEngine engine;
+
+    @Autowired
+    public StreamScoring(@Value("${stream.bootstrap.servers}") String bootstrapServers,
+                         @Value("${stream.scoring.group}") String groupId,
+                         @Value("${stream.scoring.request.topic}") String requestTopic,
+                         @Value("${stream.scoring.result.topic}") String resultTopic,
+                         @Value("${stream.scoring.batch.size:500}") int batchSize,
+                         @Value("${stream.scoring.batch.latency:50}") long batchLatency,
+                         @Value("${stream.scoring.threads:8}") int threads) {
+        this(consumer(bootstrapServers, groupId, batchSize), producer(bootstrapServers), requestTopic, resultTopic,
+                batchSize, batchLatency, threads, Metrics.globalRegistry);
+    }
+
+    /**
+     * @param consumer Request topic consumer, closed by the worker
+     * @param producer Result topic producer, closed on shutdown
+     */
+    StreamScoring(Consumer<String, String> consumer, Producer<String, String> producer, String requestTopic,
+                  String resultTopic, int batchSize, long batchLatency, int threads, MeterRegistry registry) {
+        super("stream-scoring", consumer, requestTopic, batchSize, batchLatency, registry);
+        this.resultTopic = resultTopic;
+        this.producer = producer;
+
+        /** Bounded: the queue holds at most one batch, callers score themselves when it is full */
+        this.pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(batchSize),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @PostConstruct
+    public void init() throws Exception {
+        SettingsWatcher watcher = SettingsWatcher.get(new GlobalSettings());
+        engine = ScoringEngine.create(watcher.getSettings()).follow(watcher);
+        start();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        stop();
+        pool.shutdown();
+        producer.close(Duration.ofSeconds(10));
+    }
+
+    @Override
+    protected void process(List<ConsumerRecord<String, String>> batch) throws Exception {
+        List<Future<String>> scored = new ArrayList<>(batch.size());
+        for (ConsumerRecord<String, String> record : batch)
+            scored.add(pool.submit(task(record)));
+
+        List<Future<RecordMetadata>> sent = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++)
+            sent.add(producer.send(new ProducerRecord<>(resultTopic, batch.get(i).key(), scored.get(i).get())));
+
+        /** Commit only after every result of the batch is acknowledged, a failed send fails the batch */
+        for (Future<RecordMetadata> future : sent)
+            future.get();
+    }
+
+    /**
+     * Scoring errors are produced as results with an ErrorMessage, they do not hold up the partition.
+     */
+    private Callable<String> task(ConsumerRecord<String, String> record) {
+        return () -> {
+            try {
+                ScoringRequest request = ScoringRequest.fromInvocation(new JSONObject(record.value()), defaultCampaign());
+                ScoringResult result = score(request);
+                return result.toJSON().toString();
+            } catch (Exception e) {
+                LOGGER.error("StreamScoring:E001: Request at " + record.topic() + "-" + record.partition() + "@" + record.offset() + " not scored: " + e);
+                return new JSONObject()
+                        .put("ErrorMessage", String.valueOf(e.getMessage()))
+                        .put("topic", record.topic())
+                        .put("partition", record.partition())
+                        .put("offset", record.offset())
+                        .toString();
+            }
+        };
+    }
+
+    ScoringResult score(ScoringRequest request) {
+        return engine.score(request);
+    }
+
+    String defaultCampaign() {
+        return engine.getSettings().getProjectDeploymentID();
+    }
+
+}
@@ -0,0 +1,85 @@
+package com.ecosystem.plugin.lib;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BetaSamplerTest {
+
+    /**
+     * Sample mean and variance of n draws against the moments of Beta(alpha, beta).
+     */
+    static void assertMoments(double alpha, double beta, int n) {
+        double sum = 0;
+        double squares = 0;
+        for (int i = 0; i < n; i++) {
+            double draw = BetaSampler.sample(alpha, beta);
+            assertTrue(draw >= 0.0 && draw <= 1.0, "draw " + draw);
+            sum += draw;
+            squares += draw * draw;
+        }
+        double mean = sum / n;
+        double variance = squares / n - mean * mean;
+        double expectedMean = alpha / (alpha + beta);
+        double expectedVariance = alpha * beta / ((alpha + beta) * (alpha + beta) * (alpha + beta + 1));
+        String shape = "Beta(" + alpha + ", " + beta + ")";
+        assertEquals(expectedMean, mean, 6 * Math.sqrt(expectedVariance / n), shape + " mean");
+        assertEquals(expectedVariance, variance, 0.03 * expectedVariance, shape + " variance");
+    }
+
+    @Test
+    void shapesBelowOne() {
+        assertMoments(0.3, 0.7, 400000);
+        assertMoments(0.5, 1000, 400000);
+        /** Both gammas underflow for tiny shapes, draws are 0 or 1 */
+        assertMoments(0.001, 0.001, 400000);
+    }
+
+    @Test
+    void shapesAroundOne() {
+        assertMoments(1, 1, 400000);
+        assertMoments(1.2, 0.9, 400000);
+        assertMoments(1, 5000, 400000);
+    }
+
+    @Test
+    void largeShapes() {
+        assertMoments(50, 200, 400000);
+        assertMoments(2000, 30000, 400000);
+    }
+
+    @Test
+    void invalidShapesAreNaN() {
+        assertTrue(Double.isNaN(BetaSampler.sample(0, 1)));
+        assertTrue(Double.isNaN(BetaSampler.sample(1, -2)));
+        assertTrue(Double.isNaN(BetaSampler.sample(Double.NaN, 1)));
+        assertTrue(Double.isNaN(BetaSampler.sample(1, Double.POSITIVE_INFINITY)));
+        assertEquals(1.0, BetaSampler.upper(0, 1, 3.72));
+        assertEquals(1.0, BetaSampler.upper(1, Double.NaN, 3.72));
+
+        double[] draws = new double[3];
+        BetaSampler.sample(new double[]{1, 0, 2}, new double[]{1, 1, 2}, draws, 3);
+        assertFalse(Double.isNaN(draws[0]));
+        assertTrue(Double.isNaN(draws[1]));
+        assertFalse(Double.isNaN(draws[2]));
+    }
+
+    /**
+     * At z 3.72 about 1.2e-4 of the draws are above the bound for skewed arms, see upper(). 4e6 draws expect about
+     * 480 above it, the bounds are more than ten standard deviations away.
+     */
+    @Test
+    void upperIsExceededAtAboutTheNormalTailRate() {
+        int n = 4000000;
+        for (double[] shape : new double[][]{{0.5, 1000}, {1, 5000}, {50, 5000}}) {
+            double upper = BetaSampler.upper(shape[0], shape[1], 3.72);
+            int above = 0;
+            for (int i = 0; i < n; i++) {
+                if (BetaSampler.sample(shape[0], shape[1]) > upper) above++;
+            }
+            double rate = above / (double) n;
+            assertTrue(rate > 0.5e-4 && rate < 2e-4, "Beta(" + shape[0] + ", " + shape[1] + ") exceeded " + rate);
+        }
+    }
+
+}
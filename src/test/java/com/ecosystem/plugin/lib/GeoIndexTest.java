@@ -0,0 +1,211 @@
+package com.ecosystem.plugin.lib;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GeoIndexTest {
+
+    static JSONObject location(double lat, double lon) {
+        return new JSONObject().put("lat", lat).put("lon", lon);
+    }
+
+    /**
+     * Locations spread over the globe, with clusters on the antimeridian and around both poles.
+     */
+    static JSONObject locations(Random random, int size) {
+        JSONObject locations = new JSONObject();
+        for (int i = 0; i < size; i++) {
+            double lat;
+            double lon;
+            switch (i % 4) {
+                case 0:
+                    lat = Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+                    lon = 360 * random.nextDouble() - 180;
+                    break;
+                case 1:
+                    lat = 20 * random.nextDouble() - 10;
+                    lon = random.nextBoolean() ? 180 - 2 * random.nextDouble() : -180 + 2 * random.nextDouble();
+                    break;
+                case 2:
+                    lat = 88 + 2 * random.nextDouble();
+                    lon = 360 * random.nextDouble() - 180;
+                    break;
+                default:
+                    lat = -88 - 2 * random.nextDouble();
+                    lon = 360 * random.nextDouble() - 180;
+            }
+            locations.put("l" + i, location(lat, lon));
+        }
+        return locations;
+    }
+
+    /**
+     * Haversine distance to every location, the closest k within the radius that pass the filter.
+     */
+    static List<GeoIndex.Hit> scan(JSONObject locations, double lat, double lon, int k, double radiusKm, Predicate<String> filter) {
+        List<GeoIndex.Hit> hits = new ArrayList<>();
+        for (String location : locations.keySet()) {
+            double[] point = GeoIndex.coordinates(locations.getJSONObject(location));
+            double km = GeoIndex.distanceKm(lat, lon, point[0], point[1]);
+            if ((radiusKm > 0 && km > radiusKm) || (filter != null && !filter.test(location))) continue;
+            hits.add(new GeoIndex.Hit(location, km));
+        }
+        hits.sort((a, b) -> Double.compare(a.getKm(), b.getKm()));
+        return hits.subList(0, Math.min(k, hits.size()));
+    }
+
+    static void assertHits(List<GeoIndex.Hit> expected, List<GeoIndex.Hit> actual, String query) {
+        assertEquals(expected.size(), actual.size(), query);
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getKm(), actual.get(i).getKm(), 1e-9, query + " hit " + i);
+            assertEquals(expected.get(i).getLocation(), actual.get(i).getLocation(), query + " hit " + i);
+        }
+    }
+
+    static double[][] queries(Random random) {
+        List<double[]> queries = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+            queries.add(new double[]{Math.toDegrees(Math.asin(2 * random.nextDouble() - 1)), 360 * random.nextDouble() - 180});
+        for (double lon : new double[]{180, -180, 179.99, -179.99})
+            queries.add(new double[]{5 * random.nextDouble(), lon});
+        for (double lat : new double[]{90, -90, 89.95, -89.95})
+            queries.add(new double[]{lat, 360 * random.nextDouble() - 180});
+        return queries.toArray(new double[0][]);
+    }
+
+    @Test
+    void nearestMatchesAFullScan() {
+        Random random = new Random(47);
+        JSONObject locations = locations(random, 4000);
+        GeoIndex index = GeoIndex.build(locations, 0.5);
+        assertEquals(4000, index.size());
+
+        for (double[] query : queries(random)) {
+            String name = query[0] + "," + query[1];
+            assertHits(scan(locations, query[0], query[1], 10, 0, null), index.nearest(query[0], query[1], 10, 0, null), name);
+            assertHits(scan(locations, query[0], query[1], 1, 0, null), index.nearest(query[0], query[1], 1, 0, null), name);
+        }
+    }
+
+    @Test
+    void radiusAndFilterMatchAFullScan() {
+        Random random = new Random(11);
+        JSONObject locations = locations(random, 4000);
+        GeoIndex index = GeoIndex.build(locations, 0.5);
+        Predicate<String> even = location -> Integer.parseInt(location.substring(1)) % 2 == 0;
+
+        for (double[] query : queries(random)) {
+            String name = query[0] + "," + query[1];
+            for (double radius : new double[]{50, 500, 3000}) {
+                assertHits(scan(locations, query[0], query[1], Integer.MAX_VALUE, radius, null),
+                        index.within(query[0], query[1], radius, null), name + " within " + radius);
+                assertHits(scan(locations, query[0], query[1], 5, radius, even),
+                        index.nearest(query[0], query[1], 5, radius, even), name + " nearest even within " + radius);
+            }
+        }
+    }
+
+    @Test
+    void locationsAcrossThePoleAreFound() {
+        /** 12 columns of 30 degrees: the location across the pole is in the last ring, 6 columns away */
+        JSONObject locations = new JSONObject();
+        for (int i = 0; i < 60; i++)
+            locations.put("equator" + i, location(0.5 * i - 15, 10.0 + 0.1 * i));
+        locations.put("across", location(-89.0, -170.0));
+        GeoIndex index = GeoIndex.build(locations, 30.0);
+
+        List<GeoIndex.Hit> hits = index.within(-80.0, 10.0, 2000, null);
+        assertEquals(1, hits.size());
+        assertEquals("across", hits.get(0).getLocation());
+        assertHits(scan(locations, -80.0, 10.0, 100, 0, null), index.nearest(-80.0, 10.0, 100, 0, null), "all");
+    }
+
+    @Test
+    void sparseIndexesAreScanned() {
+        /** Fewer locations than cells in the first ring: every query scans the locations instead of the rings */
+        JSONObject locations = new JSONObject()
+                .put("cape_town", location(-33.92, 18.42))
+                .put("london", location(51.51, -0.13))
+                .put("auckland", location(-36.85, 174.76))
+                .put("apia", location(-13.83, -171.76));
+        GeoIndex index = GeoIndex.build(locations, 0.1);
+
+        List<GeoIndex.Hit> hits = index.nearest(-20.0, 179.9, 2, 0, null);
+        assertEquals("apia", hits.get(0).getLocation());
+        assertEquals("auckland", hits.get(1).getLocation());
+        assertHits(scan(locations, -20.0, 179.9, 4, 0, null), index.nearest(-20.0, 179.9, 4, 0, null), "all");
+        assertEquals(1, index.within(-33.9, 18.4, 10, null).size());
+        assertTrue(index.nearest(-33.9, 18.4, 4, 0, location -> !location.equals("cape_town")).stream()
+                .noneMatch(hit -> hit.getLocation().equals("cape_town")));
+    }
+
+    @Test
+    void locationsWithoutCoordinatesAreNotIndexed() {
+        JSONObject locations = new JSONObject()
+                .put("geojson", new JSONObject().put("location", new JSONObject().put("coordinates", new JSONArray().put(18.42).put(-33.92))))
+                .put("text", new JSONObject().put("latitude", " -33.9 ").put("longitude", "18.4"))
+                .put("missing", new JSONObject().put("name", "no coordinates"))
+                .put("invalid", location(95, 10));
+        GeoIndex index = GeoIndex.build(locations, 0.1);
+
+        assertEquals(2, index.size());
+        double[] point = GeoIndex.coordinates(locations.getJSONObject("geojson"));
+        assertEquals(-33.92, point[0]);
+        assertEquals(18.42, point[1]);
+    }
+
+    @Test
+    void updatesAddMoveAndRemoveLocations() {
+        Random random = new Random(5);
+        JSONObject locations = locations(random, 2000);
+        GeoIndex index = GeoIndex.build(locations, 0.5);
+
+        JSONObject next = new JSONObject(locations.toString());
+        next.remove("l0");
+        next.remove("l1");
+        next.put("l2", location(-33.92, 18.42));
+        next.put("added", location(51.51, -0.13));
+        next.put("cellmate", location(-33.93, 18.43));
+        GeoIndex updated = index.update(next);
+
+        assertEquals(2000, updated.size());
+        assertEquals(2000, index.size());
+        for (double[] query : queries(random)) {
+            String name = query[0] + "," + query[1];
+            assertHits(scan(next, query[0], query[1], 10, 0, null), updated.nearest(query[0], query[1], 10, 0, null), name);
+            assertHits(scan(locations, query[0], query[1], 10, 0, null), index.nearest(query[0], query[1], 10, 0, null), name);
+        }
+        assertEquals(Set.of("l2", "cellmate"), Set.of(updated.members(-33.92, 18.42)));
+    }
+
+    @Test
+    void unchangedCellsAreShared() {
+        JSONObject locations = new JSONObject()
+                .put("a", location(10.01, 20.01))
+                .put("b", location(10.02, 20.02))
+                .put("c", location(-40.0, 100.0))
+                .put("d", location(60.0, -30.0));
+        GeoIndex index = GeoIndex.build(locations, 0.1);
+
+        JSONObject next = new JSONObject(locations.toString());
+        next.put("c", location(-40.0, 100.5));
+        next.remove("d");
+        GeoIndex updated = index.update(next);
+
+        assertSame(index.members(10.01, 20.01), updated.members(10.01, 20.01));
+        assertNull(updated.members(-40.0, 100.0));
+        assertEquals(List.of("c"), List.of(updated.members(-40.0, 100.5)));
+        assertNull(updated.members(60.0, -30.0));
+        assertEquals(List.of("d"), List.of(index.members(60.0, -30.0)));
+    }
+
+}
@@ -0,0 +1,107 @@
+package com.ecosystem.plugin.lib;
+
+import hex.ModelCategory;
+import hex.genmodel.GenModel;
+import hex.genmodel.easy.EasyPredictModelWrapper;
+import hex.genmodel.easy.RowData;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MultiModelScorerTest {
+
+    /**
+     * Binomial model on "age" that returns p after sleeping, or fails when p is negative.
+     */
+    static EasyPredictModelWrapper model(double p, long sleepMillis) {
+        GenModel model = new GenModel(new String[]{"age", "accepted"}, new String[][]{null, {"0", "1"}}, "accepted") {
+            @Override
+            public ModelCategory getModelCategory() {
+                return ModelCategory.Binomial;
+            }
+
+            @Override
+            public String getUUID() {
+                return "test";
+            }
+
+            @Override
+            public double[] score0(double[] row, double[] preds) {
+                if (sleepMillis > 0) {
+                    try {
+                        Thread.sleep(sleepMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                if (p < 0)
+                    throw new IllegalStateException("broken model");
+                preds[0] = 1;
+                preds[1] = 1 - p;
+                preds[2] = p;
+                return preds;
+            }
+        };
+        return new EasyPredictModelWrapper(model);
+    }
+
+    static MultiModelScorer.Result score(MultiModelScorer scorer, EasyPredictModelWrapper... models) {
+        String[] names = new String[models.length];
+        for (int i = 0; i < models.length; i++)
+            names[i] = "offer" + i + ".zip";
+        return scorer.score(models, names, new JSONObject().put("age", 30), new RowData());
+    }
+
+    @Test
+    void offersWithoutAModelAreNotDropped() {
+        MultiModelScorer scorer = new MultiModelScorer(2, 16, 1000, 1000, new SimpleMeterRegistry());
+        MultiModelScorer.Result result = score(scorer, model(0.25, 0), null, model(0.75, 0));
+
+        assertEquals(0, result.getDropped());
+        assertEquals(0.25, result.score(0), 1e-12);
+        assertTrue(Double.isNaN(result.score(1)));
+        assertEquals(0.75, result.score(2), 1e-12);
+    }
+
+    @Test
+    void slowAndFailedModelsAreDropped() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        MultiModelScorer scorer = new MultiModelScorer(1, 16, 20, 5000, registry);
+        MultiModelScorer.Result result = score(scorer, model(0.5, 0), model(0.5, 60), model(-1, 0), null);
+
+        assertEquals(2, result.getDropped());
+        assertEquals(0.5, result.score(0), 1e-12);
+        assertTrue(Double.isNaN(result.score(1)));
+        assertEquals(1.0, registry.get("ecosystem.multimodel.dropped").tag("reason", "slow").counter().count());
+        assertEquals(1.0, registry.get("ecosystem.multimodel.dropped").tag("reason", "error").counter().count());
+    }
+
+    @Test
+    void modelsPastTheRequestTimeoutAreNotStarted() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        MultiModelScorer scorer = new MultiModelScorer(1, 16, 1000, 30, registry);
+        MultiModelScorer.Result result = score(scorer, model(0.5, 50), null, model(0.5, 0), model(0.5, 0));
+
+        assertEquals(2, result.getDropped());
+        assertEquals(0.5, result.score(0), 1e-12);
+        assertEquals(2.0, registry.get("ecosystem.multimodel.dropped").tag("reason", "timeout").counter().count());
+    }
+
+    @Test
+    void replacedModelsReleaseTheirTimers() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        MultiModelScorer scorer = new MultiModelScorer(1, 16, 1000, 1000, registry);
+        score(scorer, model(0.5, 0), model(0.5, 0));
+        assertEquals(2, registry.find("ecosystem.multimodel.score").timers().size());
+
+        scorer.modelsChanged();
+        assertTrue(registry.find("ecosystem.multimodel.score").timers().isEmpty());
+
+        MultiModelScorer.Result result = score(scorer, model(0.25, 0));
+        assertEquals(0.25, result.score(0), 1e-12);
+        assertEquals(1, registry.find("ecosystem.multimodel.score").timers().size());
+    }
+
+}
@@ -0,0 +1,39 @@
+package com.ecosystem.plugin.lib;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OpeningHoursTest {
+
+    static JSONObject hours(String opening, String closing) {
+        return new JSONObject().put("opening1", opening).put("closing1", closing);
+    }
+
+    @Test
+    void unknownDayKeysAreSkippedAndTheDaysStillRestricted() {
+        JSONObject locations = new JSONObject().put("store", new JSONObject().put("open_times", new JSONObject()
+                .put("operatingStatus", "operating")
+                .put("monday", hours("08:00 AM", "05:00 PM"))
+                .put("public_holiday", hours("10:00 AM", "01:00 PM"))));
+        OpeningHours openingHours = OpeningHours.of("holidays", 1L, locations);
+
+        assertTrue(openingHours.isOpen("store", OpeningHours.minuteOfWeek("monday", "11:00 AM")));
+        assertFalse(openingHours.isOpen("store", OpeningHours.minuteOfWeek("monday", "07:00 PM")));
+        assertTrue(openingHours.isOpen("store", OpeningHours.minuteOfWeek("tuesday", "07:00 PM")));
+    }
+
+    @Test
+    void hoursOverMidnightRunIntoTheNextDay() {
+        JSONObject locations = new JSONObject().put("club", new JSONObject().put("open_times", new JSONObject()
+                .put("monday", hours("06:00 PM", "11:00 PM"))
+                .put("sunday", hours("10:00 PM", "02:00 AM"))));
+        OpeningHours openingHours = OpeningHours.of("late", 1L, locations);
+
+        assertTrue(openingHours.isOpen("club", OpeningHours.minuteOfWeek("monday", "01:30 AM")));
+        assertFalse(openingHours.isOpen("club", OpeningHours.minuteOfWeek("monday", "02:30 AM")));
+        assertFalse(openingHours.isOpen("club", OpeningHours.minuteOfWeek("sunday", "09:00 PM")));
+    }
+
+}
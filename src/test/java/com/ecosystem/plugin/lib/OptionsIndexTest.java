@@ -0,0 +1,34 @@
+package com.ecosystem.plugin.lib;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OptionsIndexTest {
+
+    static JSONObject option(String key, double reward) {
+        return new JSONObject().put("optionKey", key).put("arm_reward", reward).put("contextual_variable_one", "gold");
+    }
+
+    @Test
+    void optionsChangedInPlaceAreIndexedAgainForANewVersion() {
+        JSONArray options = new JSONArray().put(option("A", 0.2)).put(option("B", 0.5));
+        OptionsIndex index = OptionsIndex.of("recommender", 1L, options);
+        assertSame(index, OptionsIndex.of("recommender", 1L, options));
+        assertArrayEquals(new int[]{1, 0}, index.lookup("gold", ""));
+
+        options.put(0, option("A", 0.9));
+        OptionsIndex refreshed = OptionsIndex.of("recommender", 2L, options);
+        assertNotSame(index, refreshed);
+        assertArrayEquals(new int[]{0, 1}, refreshed.lookup("gold", ""));
+    }
+
+    @Test
+    void aNewOptionsArrayIsIndexedForTheSameVersion() {
+        OptionsIndex index = OptionsIndex.of("other", "2026-10-19", new JSONArray().put(option("A", 0.2)));
+        assertNotSame(index, OptionsIndex.of("other", "2026-10-19", new JSONArray().put(option("A", 0.2))));
+    }
+
+}
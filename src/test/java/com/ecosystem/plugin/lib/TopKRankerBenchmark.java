@@ -0,0 +1,71 @@
+package com.ecosystem.plugin.lib;
+
+import com.ecosystem.utils.JSONArraySort;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeping the resultcount best offers of a request with TopKRanker against building every offer and sorting the array
+ * with JSONArraySort.sortArray, as the post-score plugins did, by number of candidates.
+ *    mvn dependency:build-classpath -Dmdep.includeScope=test -Dmdep.outputFile=cp.txt && mvn test-compile
+ *    java -cp target/test-classes:target/classes:$(cat cp.txt) org.openjdk.jmh.Main TopKRankerBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TopKRankerBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int candidates;
+
+    @Param({"5"})
+    public int resultcount;
+
+    private String[] offers;
+    private double[] scores;
+
+    @Setup
+    public void setup() {
+        offers = new String[candidates];
+        scores = new double[candidates];
+        for (int i = 0; i < candidates; i++) {
+            offers[i] = "offer" + i;
+            scores[i] = ThreadLocalRandom.current().nextDouble();
+        }
+    }
+
+    private JSONObject offer(int i) {
+        return new JSONObject().put("offer", offers[i]).put("offer_name", offers[i]).put("score", scores[i])
+                .put("final_score", scores[i]).put("spend_limit", -1);
+    }
+
+    @Benchmark
+    public JSONArray sortArray() {
+        JSONArray finalOffers = new JSONArray();
+        for (int i = 0; i < candidates; i++)
+            finalOffers.put(offer(i));
+        JSONArray sorted = JSONArraySort.sortArray(finalOffers, "score", "double", "d");
+        JSONArray result = new JSONArray();
+        for (int i = 0; i < Math.min(resultcount, sorted.length()); i++)
+            result.put(sorted.getJSONObject(i));
+        return result;
+    }
+
+    @Benchmark
+    public JSONArray topK() {
+        TopKRanker<JSONObject> ranker = new TopKRanker<>(resultcount, true);
+        for (int i = 0; i < candidates; i++) {
+            if (!ranker.accepts(scores[i], -1)) continue;
+            ranker.add(scores[i], -1, offer(i));
+        }
+        return ranker.toJSONArray();
+    }
+
+}
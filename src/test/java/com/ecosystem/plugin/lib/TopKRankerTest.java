@@ -0,0 +1,123 @@
+package com.ecosystem.plugin.lib;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TopKRankerTest {
+
+    @Test
+    void keepsTheBestFirstAndTiesInAddedOrder() {
+        TopKRanker<String> ranker = new TopKRanker<>(3, false);
+        ranker.add(0.5, "a");
+        ranker.add(0.9, "b");
+        ranker.add(0.5, "c");
+        ranker.add(0.1, "d");
+        ranker.add(0.5, "e");
+
+        assertEquals(List.of("b", "a", "c"), ranker.ranked());
+        assertFalse(ranker.accepts(0.5));
+        assertTrue(ranker.accepts(0.51));
+    }
+
+    @Test
+    void nanScoresRankLast() {
+        TopKRanker<String> ranker = new TopKRanker<>(3, false);
+        ranker.add(Double.NaN, "nan");
+        ranker.add(-5.0, "low");
+        ranker.add(0.2, "high");
+        assertEquals(List.of("high", "low", "nan"), ranker.ranked());
+
+        assertTrue(ranker.accepts(-1.0));
+        ranker.add(-1.0, "mid");
+        assertEquals(List.of("high", "mid", "low"), ranker.ranked());
+        assertFalse(ranker.accepts(Double.NaN));
+        assertFalse(ranker.add(Double.NaN, "nan"));
+    }
+
+    @Test
+    void growsPastTheInitialCapacity() {
+        int k = 100;
+        TopKRanker<Integer> ranker = new TopKRanker<>(k, false);
+        List<Integer> values = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            values.add(i);
+        Collections.shuffle(values, new Random(7));
+        for (Integer value : values)
+            ranker.add(value, value);
+
+        assertEquals(k, ranker.size());
+        List<Integer> ranked = ranker.ranked();
+        for (int i = 0; i < k; i++)
+            assertEquals(999 - i, (int) ranked.get(i));
+    }
+
+    @Test
+    void offersWithoutBudgetAreRejected() {
+        TopKRanker<String> ranker = new TopKRanker<>(5, true);
+        assertTrue(ranker.add(0.1, -1, "unlimited"));
+        assertTrue(ranker.add(0.2, 10, "limited"));
+        assertFalse(ranker.accepts(0.9, 0));
+        assertFalse(ranker.add(0.9, 0, "spent"));
+        assertFalse(ranker.add(0.9, -2, "invalid"));
+        assertEquals(List.of("limited", "unlimited"), ranker.ranked());
+
+        TopKRanker<String> noBudget = new TopKRanker<>(5, false);
+        assertTrue(noBudget.add(0.9, 0, "spent"));
+    }
+
+    @Test
+    void acceptsAgreesWithAdd() {
+        Random random = new Random(11);
+        TopKRanker<Integer> ranker = new TopKRanker<>(10, true);
+        for (int i = 0; i < 10000; i++) {
+            /** Coarse scores for ties, some NaN and some without budget */
+            double score = random.nextInt(10) == 0 ? Double.NaN : random.nextInt(50) / 10.0;
+            double spendLimit = random.nextInt(5) == 0 ? 0 : -1;
+            boolean accepts = ranker.accepts(score, spendLimit);
+            assertEquals(accepts, ranker.add(score, spendLimit, i), "candidate " + i);
+        }
+    }
+
+    @Test
+    void exploreSamplesByWeight() {
+        double[] weights = {1, 2, 3, 4};
+        int[] chosen = new int[weights.length];
+        int trials = 40000;
+        for (int t = 0; t < trials; t++) {
+            TopKRanker<Integer> ranker = TopKRanker.of(new JSONObject().put("resultcount", 1).put("explore", 1), false);
+            for (int i = 0; i < weights.length; i++)
+                ranker.add(ranker.key(0.0, weights[i]), i);
+            chosen[ranker.ranked().get(0)]++;
+        }
+        for (int i = 0; i < weights.length; i++)
+            assertEquals(weights[i] / 10.0, chosen[i] / (double) trials, 0.015, "candidate " + i);
+    }
+
+    @Test
+    void exploreSamplesWithoutReplacement() {
+        int n = 10;
+        int[] included = new int[n];
+        int trials = 20000;
+        for (int t = 0; t < trials; t++) {
+            TopKRanker<Integer> ranker = new TopKRanker<>(3, false, true);
+            for (int i = 0; i < n; i++)
+                ranker.add(ranker.key(i), i);
+            List<Integer> sample = ranker.ranked();
+            assertEquals(3, new HashSet<>(sample).size());
+            for (Integer i : sample)
+                included[i]++;
+        }
+        /** Uniform weights, every candidate is in the sample with probability k/n whatever its score */
+        for (int i = 0; i < n; i++)
+            assertEquals(0.3, included[i] / (double) trials, 0.02, "candidate " + i);
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.ecosystem.runtime;
+
+import com.ecosystem.utils.GlobalSettings;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process ScoringEngine against the same request through /invocations. Both score against the deployment in the
+ * runtime properties, so Mongo and the models must be reachable; the HTTP path needs a running runtime:
+ *    mvn dependency:build-classpath -Dmdep.includeScope=test -Dmdep.outputFile=cp.txt && mvn test-compile
+ *    java -cp target/test-classes:target/classes:$(cat cp.txt) org.openjdk.jmh.Main ScoringEngineBenchmark \
+ *        -jvmArgsAppend "-Dbenchmark.url=http://localhost:8091 -Dbenchmark.campaign=recommender -Dbenchmark.customer=1234"
+ * benchmark.user and benchmark.password are sent as basic auth when the runtime is secured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ScoringEngineBenchmark {
+
+    private ScoringEngine engine;
+    private HttpClient http;
+    private HttpRequest invocation;
+    private ScoringRequest request;
+
+    @Setup
+    public void setup() throws Exception {
+        String url = System.getProperty("benchmark.url", "http://localhost:8091");
+        String campaign = System.getProperty("benchmark.campaign", "recommender");
+        String customer = System.getProperty("benchmark.customer", "1234");
+        int offers = Integer.getInteger("benchmark.offers", 1);
+
+        request = new ScoringRequest(campaign, customer).setNumberOffers(offers);
+        engine = ScoringEngine.create(new GlobalSettings());
+
+        JSONObject payload = new JSONObject().put("campaign", campaign).put("subcampaign", campaign)
+                .put("customer", customer).put("channel", "api").put("numberoffers", offers)
+                .put("userid", "benchmark").put("params", "{}");
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url + "/invocations"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(payload.toString()));
+        String user = System.getProperty("benchmark.user");
+        if (user != null) {
+            String credentials = user + ":" + System.getProperty("benchmark.password", "");
+            builder.header("Authorization", "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8)));
+        }
+        invocation = builder.build();
+        http = HttpClient.newHttpClient();
+    }
+
+    @Benchmark
+    public ScoringResult inProcess() {
+        return engine.score(request);
+    }
+
+    @Benchmark
+    public ScoringResult invocations() throws Exception {
+        String body = http.send(invocation, HttpResponse.BodyHandlers.ofString()).body();
+        return new ScoringResult(new JSONObject(body));
+    }
+
+}
@@ -0,0 +1,55 @@
+package com.ecosystem.runtime;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScoringRequestTest {
+
+    @Test
+    void invocationDefaultsMatchTheApi() {
+        ScoringRequest request = ScoringRequest.fromInvocation(new JSONObject().put("customer", 1234), "deployment");
+        assertEquals("deployment", request.getCampaign());
+        assertEquals("deployment", request.getSubcampaign());
+        assertEquals("1234", request.getCustomer());
+        assertEquals("api", request.getChannel());
+        assertEquals("api", request.getUserId());
+        assertEquals(1, request.getNumberOffers());
+        assertTrue(request.getParams().isEmpty());
+    }
+
+    @Test
+    void invocationFieldsOverrideDefaults() {
+        JSONObject payload = new JSONObject()
+                .put("campaign", "recommender").put("subcampaign", "sub").put("channel", "app")
+                .put("numberoffers", "3").put("userid", "test").put("params", "{\"detail\":\"score\"}");
+        ScoringRequest request = ScoringRequest.fromInvocation(payload, "deployment");
+        assertEquals("recommender", request.getCampaign());
+        assertEquals("sub", request.getSubcampaign());
+        assertEquals("app", request.getChannel());
+        assertEquals(3, request.getNumberOffers());
+        assertEquals("score", request.getParams().getString("detail"));
+    }
+
+    @Test
+    void paramsAreUrlDecodedAndUnquoted() {
+        assertEquals("a b+\u00fc", ScoringRequest.parseParams("%7B%22name%22%3A%22a+b%2B%C3%BC%22%7D").getString("name"));
+        assertEquals(1, ScoringRequest.parseParams("\"{\\\"x\\\":1}\"").getInt("x"));
+    }
+
+    @Test
+    void predictionParamsCarryRequestAndInputs() {
+        ScoringRequest request = new ScoringRequest("recommender", "42").setNumberOffers(2)
+                .setParams(new JSONObject("{\"input\":[\"x\"],\"value\":[1],\"mab\":{\"class\":\"mabone\",\"epsilon\":0.2}}"));
+        JSONObject param = ScoringEngine.predictionParams(null, true, request);
+        assertTrue(param.getBoolean("UPDATE"));
+        assertFalse(param.getBoolean("dbparam"));
+        assertEquals("recommender", param.getString("subcampaign"));
+        assertEquals(2, param.getInt("resultcount"));
+        assertEquals("42", param.getJSONObject("lookup").getString("value"));
+        assertEquals(0.2, param.getJSONObject("mab").getDouble("epsilon"), 0.0);
+        assertEquals("recommender", param.getJSONObject("api_params").getString("campaign"));
+    }
+
+}
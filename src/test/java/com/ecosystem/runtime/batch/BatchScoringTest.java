@@ -0,0 +1,101 @@
+package com.ecosystem.runtime.batch;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import hex.genmodel.easy.EasyPredictModelWrapper;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchScoringTest {
+
+    /**
+     * Post-score plugin returning one offer per customer, named after the customer.
+     */
+    public static class EchoPostScore {
+        public static JSONObject getPostPredict(JSONObject predictModelMojoResult, JSONObject params, CqlSession session,
+                                                EasyPredictModelWrapper[] models) {
+            String customer = params.getString("customer");
+            if (customer.equals("fail"))
+                throw new IllegalStateException("failed on purpose");
+            JSONObject result = new JSONObject().put("offer", "OFFER_" + customer).put("score", 0.5);
+            return new JSONObject().put("final_result", new JSONArray().put(new JSONObject().put("rank", 1).put("result", result)));
+        }
+    }
+
+    private Path directory;
+    private String properties;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("batch-scoring");
+        properties = System.getProperty("properties");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (properties == null) System.clearProperty("properties");
+        else System.setProperty("properties", properties);
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    void parseArgsReadsValuesAndFlags() {
+        Map<String, String> options = BatchScoring.parseArgs(new String[]{"--input", "in.csv", "--table", "--offers", "3"});
+        assertEquals("in.csv", options.get("input"));
+        assertEquals("true", options.get("table"));
+        assertEquals("3", options.get("offers"));
+    }
+
+    @Test
+    void rowsAreWrittenInInputOrderAndFailuresSkipped() throws Exception {
+        StringBuilder csv = new StringBuilder("customer,balance\n");
+        for (int i = 0; i < 500; i++)
+            csv.append(i == 7 ? "fail" : String.valueOf(i)).append(',').append(i * 1.5).append('\n');
+        Path input = write("customers.csv", csv.toString());
+        Path settings = write("batch.properties", "predictor.name=batch_test\nplugin.postscore=" + EchoPostScore.class.getName() + "\n");
+        Path output = directory.resolve("offers.ndjson");
+
+        int exit = BatchScoring.run(new String[]{"--input", input.toString(), "--output", output.toString(),
+                "--properties", settings.toString(), "--chunk", "100", "--threads", "2"});
+        assertEquals(0, exit);
+        assertEquals(settings.toString(), System.getProperty("properties"));
+
+        List<String> lines = Files.readAllLines(output, StandardCharsets.UTF_8);
+        assertEquals(499, lines.size());
+        List<String> customers = new ArrayList<>();
+        for (String line : lines) {
+            JSONObject offer = new JSONObject(line);
+            assertEquals("OFFER_" + offer.getString("customer"), offer.getString("offer"));
+            customers.add(offer.getString("customer"));
+        }
+        assertEquals("6", customers.get(6));
+        assertEquals("8", customers.get(7));
+        assertEquals("499", customers.get(498));
+    }
+
+    @Test
+    void missingArgumentsPrintUsage() {
+        assertEquals(2, BatchScoring.run(new String[]{"--input", "in.csv"}));
+    }
+
+    private Path write(String name, String content) throws IOException {
+        return Files.write(directory.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.ecosystem.runtime.batch;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.generic.GenericRecordBuilder;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.avro.AvroParquetWriter;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.util.HadoopOutputFile;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FeatureReaderTest {
+
+    private Path directory;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("feature-reader");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    void typedReadsNumbersAndKeepsText() {
+        assertEquals(42L, FeatureReader.typed("42"));
+        assertEquals(-1.5, FeatureReader.typed("-1.5"));
+        assertEquals(1.0e3, FeatureReader.typed("1e3"));
+        assertEquals("Gold", FeatureReader.typed("Gold"));
+        assertEquals("12ab", FeatureReader.typed("12ab"));
+        assertEquals("", FeatureReader.typed(""));
+        assertNull(FeatureReader.typed(null));
+    }
+
+    @Test
+    void csvReadsQuotedFieldsInChunks() throws IOException {
+        Path file = write("customers.csv", "\uFEFFcustomer,segment,balance\n1,\"Gold, plus\",10.5\n2,\"say \"\"hi\"\"\",3\n\n3,\"two\nlines\",0\n");
+        try (FeatureReader reader = FeatureReader.open(file.toString(), null)) {
+            List<JSONObject> first = reader.readChunk(2);
+            assertEquals(2, first.size());
+            assertEquals(1L, first.get(0).get("customer"));
+            assertEquals("Gold, plus", first.get(0).get("segment"));
+            assertEquals(10.5, first.get(0).get("balance"));
+            assertEquals("say \"hi\"", first.get(1).get("segment"));
+
+            List<JSONObject> second = reader.readChunk(2);
+            assertEquals(1, second.size());
+            assertEquals("two\nlines", second.get(0).get("segment"));
+            assertTrue(reader.readChunk(2).isEmpty());
+        }
+    }
+
+    @Test
+    void ndjsonSkipsBlankLines() throws IOException {
+        Path file = write("customers.ndjson", "{\"customer\":\"1\"}\n\n{\"customer\":\"2\"}\n");
+        try (FeatureReader reader = FeatureReader.open(file.toString(), null)) {
+            assertEquals(2, reader.readChunk(10).size());
+        }
+    }
+
+    @Test
+    void parquetReadsTypedRecordsInChunks() throws IOException {
+        Schema schema = SchemaBuilder.record("customer").fields()
+                .requiredString("customer")
+                .optionalInt("age")
+                .optionalDouble("balance")
+                .optionalBoolean("active")
+                .name("products").type().array().items().stringType().noDefault()
+                .endRecord();
+        Path file = directory.resolve("customers.parquet");
+        try (ParquetWriter<GenericRecord> writer = AvroParquetWriter.<GenericRecord>builder(
+                HadoopOutputFile.fromPath(new org.apache.hadoop.fs.Path(file.toString()), new Configuration())).withSchema(schema).build()) {
+            writer.write(new GenericRecordBuilder(schema).set("customer", "1").set("age", 42).set("balance", 10.5).set("active", true)
+                    .set("products", List.of("savings", "credit")).build());
+            writer.write(new GenericRecordBuilder(schema).set("customer", "2").set("products", List.of()).build());
+            writer.write(new GenericRecordBuilder(schema).set("customer", "3").set("age", 7).set("products", List.of()).build());
+        }
+
+        try (FeatureReader reader = FeatureReader.open(file.toString(), null)) {
+            List<JSONObject> first = reader.readChunk(2);
+            assertEquals(2, first.size());
+            assertEquals("1", first.get(0).get("customer"));
+            assertEquals(42L, first.get(0).get("age"));
+            assertEquals(10.5, first.get(0).get("balance"));
+            assertEquals(true, first.get(0).get("active"));
+            assertEquals("credit", first.get(0).getJSONArray("products").get(1));
+            assertFalse(first.get(1).has("age"));
+
+            List<JSONObject> second = reader.readChunk(2);
+            assertEquals(1, second.size());
+            assertEquals(7L, second.get(0).get("age"));
+            assertTrue(reader.readChunk(2).isEmpty());
+        }
+    }
+
+    @Test
+    void missingParquetFileIsReported() {
+        assertThrows(IOException.class, () -> FeatureReader.open(directory.resolve("customers.parquet").toString(), null));
+    }
+
+    private Path write(String name, String content) throws IOException {
+        return Files.write(directory.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
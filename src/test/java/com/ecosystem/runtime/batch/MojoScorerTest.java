@@ -0,0 +1,37 @@
+package com.ecosystem.runtime.batch;
+
+import hex.genmodel.easy.RowData;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MojoScorerTest {
+
+    @Test
+    void rowDataHoldsOnlyDoublesAndStrings() {
+        JSONObject features = new JSONObject()
+                .put("age", FeatureReader.typed("42"))
+                .put("balance", FeatureReader.typed("10.5"))
+                .put("segment", "Gold")
+                .put("active", true)
+                .put("missing", JSONObject.NULL);
+        RowData row = MojoScorer.rowData(features);
+        assertEquals(42.0, row.get("age"));
+        assertEquals(10.5, row.get("balance"));
+        assertEquals("Gold", row.get("segment"));
+        assertEquals("true", row.get("active"));
+        assertFalse(row.containsKey("missing"));
+    }
+
+    @Test
+    void withoutModelsOnlyFeaturesAreReturned() throws Exception {
+        MojoScorer scorer = new MojoScorer(null, "");
+        JSONObject features = new JSONObject().put("customer", "1");
+        JSONObject result = scorer.score(features, 0);
+        assertEquals("empty score", result.getJSONArray("type").getString(0));
+        assertSame(features, result.get("featuresObj"));
+        assertEquals(0, scorer.getModels().length);
+    }
+
+}
@@ -0,0 +1,37 @@
+package com.ecosystem.runtime.data;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LogPartitionsTest {
+
+    @Test
+    void onlyPartitionsOverlappingTheWindowAreRead() {
+        LogPartitions partitions = new LogPartitions(LogPartitions.Period.DAILY, 168, 0, 48);
+        long day = 86400000L;
+        TreeMap<Long, String> existing = new TreeMap<>();
+        for (int i = 1; i <= 5; i++)
+            existing.put(i * day, partitions.partition("ecosystemruntime", i * day));
+
+        /** Responses of day 4, contacts up to 48 hours before them */
+        List<String> overlapping = partitions.overlapping(existing, 4 * day + 3600000L - partitions.getResponseMillis(), 4 * day + 3600000L);
+        assertEquals(List.of(existing.get(2 * day), existing.get(3 * day), existing.get(4 * day)), overlapping);
+        assertTrue(partitions.overlapping(existing, 10 * day, 11 * day).isEmpty());
+    }
+
+    @Test
+    void lookupKeyDefaultsToTheCustomer() {
+        Properties properties = new Properties();
+        properties.setProperty("logging.partition", "hourly");
+        properties.setProperty("logging.partition.response.hours", "24");
+        LogPartitions partitions = LogPartitions.of(properties);
+        assertEquals("customer", partitions.getLookupKey());
+        assertEquals(24 * 3600000L, partitions.getResponseMillis());
+    }
+
+}
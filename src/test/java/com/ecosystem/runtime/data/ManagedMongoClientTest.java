@@ -0,0 +1,73 @@
+package com.ecosystem.runtime.data;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoDatabase;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ManagedMongoClientTest {
+
+    /**
+     * Client that answers ping and records close.
+     */
+    static MongoClient client(AtomicBoolean closed) {
+        MongoDatabase admin = (MongoDatabase) Proxy.newProxyInstance(ManagedMongoClientTest.class.getClassLoader(),
+                new Class<?>[]{MongoDatabase.class}, (proxy, method, args) -> new Document("ok", 1));
+        return (MongoClient) Proxy.newProxyInstance(ManagedMongoClientTest.class.getClassLoader(),
+                new Class<?>[]{MongoClient.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("close")) closed.set(true);
+                    if (method.getName().equals("getDatabase")) return admin;
+                    return null;
+                });
+    }
+
+    static void await(AtomicBoolean condition) throws InterruptedException {
+        for (int i = 0; i < 200 && !condition.get(); i++)
+            Thread.sleep(10);
+    }
+
+    @Test
+    void swappedClientIsClosedOnlyOnceItsLeasesAreReleased() throws Exception {
+        AtomicBoolean firstClosed = new AtomicBoolean();
+        AtomicBoolean secondClosed = new AtomicBoolean();
+        AtomicBoolean first = new AtomicBoolean(true);
+        ManagedMongoClient managed = new ManagedMongoClient(() -> first.getAndSet(false) ? client(firstClosed) : client(secondClosed),
+                20, new SimpleMeterRegistry());
+
+        ManagedMongoClient.Lease lease = managed.acquire();
+        MongoClient leased = lease.getClient();
+        assertNotSame(leased, managed.swap());
+
+        /** Well past the grace period, the engine run still holds its lease */
+        Thread.sleep(200);
+        assertFalse(firstClosed.get());
+
+        lease.close();
+        lease.close();
+        await(firstClosed);
+        assertTrue(firstClosed.get());
+        assertFalse(secondClosed.get());
+    }
+
+    @Test
+    void unleasedClientIsClosedRightAfterTheSwap() throws Exception {
+        AtomicBoolean firstClosed = new AtomicBoolean();
+        AtomicBoolean first = new AtomicBoolean(true);
+        ManagedMongoClient managed = new ManagedMongoClient(() -> first.getAndSet(false) ? client(firstClosed) : client(new AtomicBoolean()),
+                60000, new SimpleMeterRegistry());
+
+        try (ManagedMongoClient.Lease lease = managed.acquire()) {
+            assertNotNull(lease.getClient());
+        }
+        managed.swap();
+        await(firstClosed);
+        assertTrue(firstClosed.get());
+    }
+
+}
@@ -0,0 +1,137 @@
+package com.ecosystem.runtime.rewards;
+
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ArmStatisticsTest {
+
+    /**
+     * Client whose every find returns the watermark, any other call fails.
+     */
+    static MongoClient watermarks(AtomicReference<Document> watermark) {
+        ClassLoader loader = ArmStatisticsTest.class.getClassLoader();
+        FindIterable<?> find = (FindIterable<?>) Proxy.newProxyInstance(loader, new Class<?>[]{FindIterable.class}, (proxy, method, args) -> {
+            if (!method.getName().equals("first"))
+                throw new UnsupportedOperationException(method.getName());
+            return watermark.get();
+        });
+        MongoCollection<?> collection = (MongoCollection<?>) Proxy.newProxyInstance(loader, new Class<?>[]{MongoCollection.class},
+                (proxy, method, args) -> {
+                    if (!method.getName().equals("find"))
+                        throw new UnsupportedOperationException("store written: " + method.getName());
+                    return find;
+                });
+        MongoDatabase database = (MongoDatabase) Proxy.newProxyInstance(loader, new Class<?>[]{MongoDatabase.class},
+                (proxy, method, args) -> collection);
+        return (MongoClient) Proxy.newProxyInstance(loader, new Class<?>[]{MongoClient.class}, (proxy, method, args) -> database);
+    }
+
+    static JSONArray shown(String... offers) {
+        JSONArray result = new JSONArray();
+        for (String offer : offers)
+            result.put(new JSONObject().put("offer", offer).put("contextual_variable_one", "gold"));
+        return result;
+    }
+
+    static void assertPending(double alpha, double beta, double[] pending) {
+        assertEquals(alpha, pending[0]);
+        assertEquals(beta, pending[1]);
+    }
+
+    @Test
+    void countsArePendingUntilFlushed() {
+        ArmStatistics statistics = new ArmStatistics(3600, 100, new SimpleMeterRegistry());
+        statistics.impressions("recommender", "u1", shown("A", "B"));
+        statistics.response(new JSONObject().put("uuid", "u1").put("offers_accepted", new JSONArray().put(new JSONObject().put("offer_name", "A"))));
+
+        assertPending(1, 0, statistics.pending("recommender", "A", "gold", ""));
+        assertPending(0, 1, statistics.pending("recommender", "B", "gold", ""));
+        assertPending(0, 0, statistics.pending("recommender", "C", "gold", ""));
+    }
+
+    @Test
+    void withIncrementalRewardsCountsAreHeldUntilTheWatermarkCoversThem() {
+        ArmStatistics statistics = new ArmStatistics(3600, 100, false, new SimpleMeterRegistry());
+        AtomicReference<Document> watermark = new AtomicReference<>();
+        MongoClient mongoClient = watermarks(watermark);
+
+        statistics.impressions("recommender", "u1", shown("A"));
+        statistics.hold(mongoClient, 1000);
+        statistics.impressions("recommender", "u2", shown("A"));
+        statistics.hold(mongoClient, 2000);
+        assertPending(0, 2, statistics.pending("recommender", "A", "gold", ""));
+
+        watermark.set(new Document("_id", "recommender").append("covered", new Date(1500)));
+        statistics.hold(mongoClient, 2500);
+        assertPending(0, 1, statistics.pending("recommender", "A", "gold", ""));
+
+        watermark.set(new Document("_id", "recommender").append("covered", new Date(2000)));
+        statistics.hold(mongoClient, 3000);
+        assertPending(0, 0, statistics.pending("recommender", "A", "gold", ""));
+    }
+
+    @Test
+    void heldCountsExpireAfterTheTtl() {
+        ArmStatistics statistics = new ArmStatistics(10, 100, false, new SimpleMeterRegistry());
+        MongoClient mongoClient = watermarks(new AtomicReference<>());
+
+        statistics.impressions("recommender", "u1", shown("A"));
+        statistics.hold(mongoClient, 1000);
+        statistics.hold(mongoClient, 10000);
+        assertPending(0, 1, statistics.pending("recommender", "A", "gold", ""));
+        statistics.hold(mongoClient, 11001);
+        assertPending(0, 0, statistics.pending("recommender", "A", "gold", ""));
+    }
+
+    @Test
+    void windowedCountsFollowImpressionsAndResponses() {
+        ArmStatistics statistics = new ArmStatistics(3600, 100, new SimpleMeterRegistry());
+        JSONObject window = new JSONObject().put("type", "sliding").put("buckets", 24).put("bucket_seconds", 3600);
+        statistics.impressions("recommender", "u1", shown("A", "B"), window);
+        statistics.impressions("recommender", "u2", shown("A"), window);
+        statistics.response(new JSONObject().put("uuid", "u1").put("offers_accepted", new JSONArray().put(new JSONObject().put("offer_name", "A"))));
+
+        assertPending(1, 1, statistics.windowed("recommender", "A", "gold", ""));
+        assertPending(0, 1, statistics.windowed("recommender", "B", "gold", ""));
+        assertNull(statistics.windowed("recommender", "C", "gold", ""));
+
+        /** Arms of corpora without a window have no recent counts */
+        statistics.impressions("other", "u3", shown("A"));
+        assertNull(statistics.windowed("other", "A", "gold", ""));
+    }
+
+    @Test
+    void decayedWindowsAndSpecificationChanges() {
+        ArmStatistics statistics = new ArmStatistics(3600, 100, new SimpleMeterRegistry());
+        JSONObject decay = new JSONObject().put("type", "decay").put("half_life_seconds", 86400);
+        statistics.impressions("recommender", "u1", shown("A"), decay);
+        statistics.impressions("recommender", "u2", shown("A"), decay);
+        statistics.response(new JSONObject().put("uuid", "u2").put("offers_accepted", new JSONArray().put(new JSONObject().put("offer_name", "A"))));
+
+        /** Milliseconds between the calls decay the counts by less than 1e-6 */
+        double[] windowed = statistics.windowed("recommender", "A", "gold", "");
+        assertEquals(1.0, windowed[0], 1e-6);
+        assertEquals(1.0, windowed[1], 1e-6);
+
+        /** A new specification starts a new window, the all time counts are kept */
+        statistics.impressions("recommender", "u3", shown("A"), new JSONObject().put("type", "decay").put("half_life_seconds", 3600));
+        windowed = statistics.windowed("recommender", "A", "gold", "");
+        assertEquals(0.0, windowed[0], 1e-6);
+        assertEquals(1.0, windowed[1], 1e-6);
+        assertPending(1, 2, statistics.pending("recommender", "A", "gold", ""));
+    }
+
+}
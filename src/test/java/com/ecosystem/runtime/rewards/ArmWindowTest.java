@@ -0,0 +1,108 @@
+package com.ecosystem.runtime.rewards;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ArmWindowTest {
+
+    static final long MINUTE = 60000L;
+
+    static ArmWindow sliding(int buckets, long bucketSeconds) {
+        return ArmWindow.of(new JSONObject().put("type", "sliding").put("buckets", buckets).put("bucket_seconds", bucketSeconds));
+    }
+
+    static void assertCounts(double impressions, double accepted, double[] counts) {
+        assertEquals(impressions, counts[0], 1e-9);
+        assertEquals(accepted, counts[1], 1e-9);
+    }
+
+    @Test
+    void specifications() {
+        assertTrue(ArmWindow.of(new JSONObject()) instanceof ArmWindow.Sliding);
+        assertTrue(ArmWindow.of(new JSONObject().put("type", "decay")) instanceof ArmWindow.Decayed);
+        assertNull(ArmWindow.of(null));
+        assertNull(ArmWindow.of(new JSONObject().put("type", "tumbling")));
+        assertNull(ArmWindow.of(new JSONObject().put("buckets", 0)));
+        assertNull(ArmWindow.of(new JSONObject().put("type", "decay").put("half_life_seconds", -1)));
+    }
+
+    @Test
+    void bucketsRollOverAndAreReused() {
+        ArmWindow window = sliding(3, 60);
+        window.add(0, 2, 1);
+        window.add(MINUTE, 3, 0);
+        window.add(2 * MINUTE + 5000, 1, 1);
+        assertCounts(6, 2, window.counts(2 * MINUTE + 10000));
+
+        /** The first bucket left the window, its slot is reset when the fourth minute starts */
+        assertCounts(4, 1, window.counts(3 * MINUTE));
+        window.add(3 * MINUTE + 5000, 5, 0);
+        assertCounts(9, 1, window.counts(3 * MINUTE + 5000));
+    }
+
+    @Test
+    void eventsExpireAfterTheWindowLength() {
+        ArmWindow window = sliding(3, 60);
+        window.add(MINUTE + 1000, 4, 2);
+        assertCounts(4, 2, window.counts(MINUTE + 1000));
+        assertCounts(4, 2, window.counts(4 * MINUTE - 1));
+        assertCounts(0, 0, window.counts(4 * MINUTE));
+        assertCounts(0, 0, window.counts(60 * MINUTE));
+    }
+
+    @Test
+    void decayedCountsHalveEveryHalfLife() {
+        ArmWindow window = ArmWindow.of(new JSONObject().put("type", "decay").put("half_life_seconds", 3600));
+        long hour = 60 * MINUTE;
+        window.add(0, 100, 10);
+        assertCounts(100, 10, window.counts(0));
+        assertCounts(50, 5, window.counts(hour));
+        assertCounts(25, 2.5, window.counts(2 * hour));
+
+        window.add(hour, 50, 5);
+        assertCounts(100, 10, window.counts(hour));
+        assertCounts(50, 5, window.counts(2 * hour));
+
+        /** An event older than the last update is added as it is, the state is not decayed backwards */
+        window.add(hour / 2, 10, 0);
+        assertCounts(110, 10, window.counts(hour));
+    }
+
+    /**
+     * The documented race: an add in a new bucket can land between another thread claiming the slot and resetting it,
+     * and is lost. Events are never counted twice and nothing outlives the window, the loss is at most a few events per
+     * bucket boundary.
+     */
+    @Test
+    void eventsRacingABucketResetCanBeLostButNotDoubled() throws Exception {
+        /** Every 1000 events start a new one second bucket, the window holds all of them */
+        ArmWindow window = sliding(1000, 1);
+        AtomicLong clock = new AtomicLong();
+        int threads = 8;
+        int perThread = 100000;
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                for (int i = 0; i < perThread; i++)
+                    window.add(clock.getAndIncrement(), 1, 0);
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers)
+            worker.join();
+
+        long events = (long) threads * perThread;
+        double counted = window.counts(clock.get())[0];
+        assertTrue(counted <= events, counted + " of " + events);
+        assertTrue(counted >= 0.98 * events, counted + " of " + events);
+        assertCounts(0, 0, window.counts(clock.get() + 1000L * 1000));
+    }
+
+}
@@ -0,0 +1,189 @@
+package com.ecosystem.runtime.rewards;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IncrementalRewardsTest {
+
+    /**
+     * Options store holding the given options, records the writes.
+     */
+    @SuppressWarnings("unchecked")
+    static MongoCollection<Document> options(List<Document> stored, List<WriteModel<Document>> written) {
+        FindIterable<Document> found = (FindIterable<Document>) Proxy.newProxyInstance(IncrementalRewardsTest.class.getClassLoader(),
+                new Class<?>[]{FindIterable.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("projection"))
+                        return proxy;
+                    if (!method.getName().equals("into"))
+                        throw new UnsupportedOperationException(method.getName());
+                    ((List<Document>) args[0]).addAll(stored);
+                    return args[0];
+                });
+        return (MongoCollection<Document>) Proxy.newProxyInstance(IncrementalRewardsTest.class.getClassLoader(),
+                new Class<?>[]{MongoCollection.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("find"))
+                        return found;
+                    if (!method.getName().equals("bulkWrite"))
+                        throw new UnsupportedOperationException(method.getName());
+                    written.addAll((List<WriteModel<Document>>) args[0]);
+                    return BulkWriteResult.acknowledged(0, written.size(), 0, written.size(), List.of(), List.of());
+                });
+    }
+
+    static BsonDocument update(WriteModel<Document> write) {
+        return ((UpdateOneModel<Document>) write).getUpdate().toBsonDocument(Document.class, MongoClientSettings.getDefaultCodecRegistry());
+    }
+
+    @Test
+    void mergeIncrementsTheCountsOfStoredOptions() {
+        List<Document> stored = List.of(
+                new Document("optionKey", "A").append("contextual_variable_one", "gold").append("alpha", 8).append("beta", 30L),
+                new Document("optionKey", "B").append("alpha", 1.0).append("beta", 1.0));
+        List<WriteModel<Document>> written = new ArrayList<>();
+        int updated = IncrementalRewards.merge(options(stored, written), Map.of(
+                IncrementalRewards.key("A", "gold", ""), new double[]{2, 3},
+                IncrementalRewards.key("B", "", ""), new double[]{0, 0},
+                IncrementalRewards.key("C", "", ""), new double[]{1, 0}));
+
+        /** B has nothing to add, C is not in the store */
+        assertEquals(1, updated);
+        assertEquals(1, written.size());
+        BsonDocument update = update(written.get(0));
+        assertEquals(2.0, update.getDocument("$inc").getNumber("alpha").doubleValue());
+        assertEquals(3.0, update.getDocument("$inc").getNumber("beta").doubleValue());
+        double reward = update.getDocument("$set").getNumber("arm_reward").doubleValue();
+        assertTrue(reward > 0 && reward < 1);
+    }
+
+    /**
+     * arm_reward stays a Thompson draw as the engine writes it: spread around the mean of the incremented counts,
+     * not the posterior mean itself, which would make the stored reward greedy.
+     */
+    @Test
+    void mergeWritesABetaDrawOfTheIncrementedCounts() {
+        List<Document> stored = List.of(new Document("optionKey", "A").append("alpha", 8.0).append("beta", 30.0));
+        int runs = 4000;
+        double sum = 0;
+        double squares = 0;
+        for (int i = 0; i < runs; i++) {
+            List<WriteModel<Document>> written = new ArrayList<>();
+            IncrementalRewards.merge(options(stored, written), Map.of(IncrementalRewards.key("A", "", ""), new double[]{2, 3}));
+            double reward = update(written.get(0)).getDocument("$set").getNumber("arm_reward").doubleValue();
+            sum += reward;
+            squares += reward * reward;
+        }
+        double mean = sum / runs;
+        double variance = squares / runs - mean * mean;
+        /** Beta(10, 33): mean 0.2326, variance 0.00406 */
+        assertEquals(10.0 / 43, mean, 0.005);
+        assertEquals(10.0 * 33 / (43 * 43 * 44), variance, 0.0006);
+    }
+
+    @Test
+    void countsThatAreNotPositiveLeaveTheArmReward() {
+        BsonDocument update = IncrementalRewards.increment(0, 1, Double.NaN)
+                .toBsonDocument(Document.class, MongoClientSettings.getDefaultCodecRegistry());
+        assertTrue(update.containsKey("$inc"));
+        assertFalse(update.containsKey("$set"));
+    }
+
+    /**
+     * Watermarks that record the filter of every updateOne and match as many documents as set.
+     */
+    @SuppressWarnings("unchecked")
+    static MongoCollection<Document> watermarks(List<Bson> filters, AtomicReference<Long> matched) {
+        return (MongoCollection<Document>) Proxy.newProxyInstance(IncrementalRewardsTest.class.getClassLoader(),
+                new Class<?>[]{MongoCollection.class}, (proxy, method, args) -> {
+                    if (!method.getName().equals("updateOne"))
+                        throw new UnsupportedOperationException(method.getName());
+                    filters.add((Bson) args[0]);
+                    return UpdateResult.acknowledged(matched.get(), matched.get(), null);
+                });
+    }
+
+    @Test
+    void claimMovesTheVersionOnlyIfItIsUnchangedAndNotFenced() {
+        List<Bson> filters = new ArrayList<>();
+        AtomicReference<Long> matched = new AtomicReference<>(1L);
+        MongoCollection<Document> watermarks = watermarks(filters, matched);
+
+        assertEquals(4, IncrementalRewards.claim(watermarks, "recommender", 3, Updates.set("runs", 1), 7));
+        String filter = filters.get(0).toBsonDocument().toJson();
+        assertTrue(filter.contains("\"version\": 3"), filter);
+        assertTrue(filter.contains("\"fence\""), filter);
+
+        matched.set(0L);
+        assertThrows(IllegalStateException.class, () -> IncrementalRewards.claim(watermarks, "recommender", 3, Updates.set("runs", 1), 7));
+    }
+
+    @Test
+    void watermarksWithoutAVersionAreVersionZero() {
+        assertEquals(0, IncrementalRewards.version(null));
+        assertEquals(0, IncrementalRewards.version(new Document("_id", "recommender").append("runs", 2)));
+        assertEquals(5, IncrementalRewards.version(new Document("_id", "recommender").append("version", 5L)));
+    }
+
+    @Test
+    void contactsAreLookedUpWithinTheResponseWindowOfTheBatch() {
+        long hour = 3600000L;
+        List<Document> responses = List.of(
+                new Document("_id", new ObjectId(new Date(100 * hour))),
+                new Document("_id", new ObjectId(new Date(103 * hour))));
+
+        long[] window = IncrementalRewards.window(responses, 24 * hour);
+        assertEquals(76 * hour, window[0]);
+        assertEquals(103 * hour, window[1]);
+    }
+
+    @Test
+    void closeWaitsForTheRunInFlight() throws Exception {
+        IncrementalRewards rewards = new IncrementalRewards(null, 24, 1000, 2, 100);
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        /** Without a dynamic_engagement corpus the run is the full recompute */
+        Thread run = new Thread(() -> {
+            try {
+                rewards.process(new JSONObject().put("name", "recommender"), new JSONArray(), () -> {
+                    running.countDown();
+                    release.await();
+                });
+            } catch (Exception ignored) {
+                /** No client to count the contacts with */
+            }
+        });
+        run.start();
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+
+        rewards.close();
+        assertFalse(rewards.isStopped());
+        release.countDown();
+        run.join(5000);
+        assertTrue(rewards.isStopped());
+        assertEquals(-1, rewards.process(new JSONObject().put("name", "recommender"), new JSONArray(), () -> fail("closed")));
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.ecosystem.runtime.rewards;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import static com.ecosystem.runtime.rewards.ArmStatisticsTest.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class LearnerCheckpointTest {
+
+    private Path directory;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("learner-checkpoint");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    static JSONObject linUCB() {
+        return new JSONObject().put("approach", "linUCB").put("linear", new JSONObject().put("features", new JSONArray().put("age")));
+    }
+
+    @Test
+    void pendingAndHeldCountsAndLinearModelsAreRestored() throws Exception {
+        ArmStatistics statistics = new ArmStatistics(3600, 100, false, new SimpleMeterRegistry());
+        statistics.impressions("recommender", "u1", shown("A"));
+        statistics.hold(watermarks(new AtomicReference<>()), System.currentTimeMillis());
+        statistics.impressions("recommender", "u2", shown("A"));
+        statistics.response(new JSONObject().put("uuid", "u2").put("offers_accepted", new JSONArray().put("A")));
+
+        LinearBandit linear = new LinearBandit(3600, 100, new SimpleMeterRegistry());
+        LinearBandit.Model model = linear.model("linear", linUCB());
+        double[] x = model.context(new JSONObject().put("age", 2));
+        linear.impressions(model, "u3", shown("A"), x);
+        linear.response(new JSONObject().put("uuid", "u3").put("offers_accepted", new JSONArray().put("A")));
+
+        LearnerCheckpoint checkpoint = new LearnerCheckpoint(directory.resolve("learner.snapshot").toString(), 60);
+        checkpoint.save(statistics, linear);
+
+        ArmStatistics restoredStatistics = new ArmStatistics(3600, 100, false, new SimpleMeterRegistry());
+        LinearBandit restoredLinear = new LinearBandit(3600, 100, new SimpleMeterRegistry());
+        assertEquals(2, checkpoint.restore(restoredStatistics, restoredLinear));
+
+        assertPending(1, 1, restoredStatistics.pending("recommender", "A", "gold", ""));
+        LinearBandit.Model restoredModel = restoredLinear.model("linear", linUCB());
+        assertEquals(model.score("A", x), restoredModel.score("A", x), 1e-12);
+        assertNotEquals(linear.model("other", linUCB()).score("A", x), restoredModel.score("A", x));
+    }
+
+    @Test
+    void linearModelsAreRestoredWithoutOnlineRewards() throws Exception {
+        LinearBandit linear = new LinearBandit(3600, 100, new SimpleMeterRegistry());
+        LinearBandit.Model model = linear.model("linear", linUCB());
+        double[] x = model.context(new JSONObject().put("age", 1));
+        linear.impressions(model, "u1", shown("A", "B"), x);
+
+        LearnerCheckpoint checkpoint = new LearnerCheckpoint(directory.resolve("learner.snapshot").toString(), 60);
+        checkpoint.save(null, linear);
+        LinearBandit restored = new LinearBandit(3600, 100, new SimpleMeterRegistry());
+
+        assertEquals(1, checkpoint.restore(null, restored));
+        assertEquals(model.score("B", x), restored.model("linear", linUCB()).score("B", x), 1e-12);
+    }
+
+    @Test
+    void snapshotOfAnotherVersionIsIgnored() throws Exception {
+        Path path = directory.resolve("learner.snapshot");
+        Files.write(path, new byte[LearnerCheckpoint.HEADER_SIZE]);
+        LinearBandit linear = new LinearBandit(3600, 100, new SimpleMeterRegistry());
+
+        assertEquals(0, new LearnerCheckpoint(path.toString(), 60).restore(null, linear));
+    }
+
+}
@@ -0,0 +1,82 @@
+package com.ecosystem.runtime.rewards;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scoring every offer of a request and the update of an impression in LinearBandit, by dimension d (features + bias).
+ * Runs in process without Mongo:
+ *    mvn dependency:build-classpath -Dmdep.includeScope=test -Dmdep.outputFile=cp.txt && mvn test-compile
+ *    java -cp target/test-classes:target/classes:$(cat cp.txt) org.openjdk.jmh.Main LinearBanditBenchmark -p d=8,64
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LinearBanditBenchmark {
+
+    @Param({"8", "16", "32", "64"})
+    public int d;
+
+    @Param({"2000"})
+    public int arms;
+
+    private LinearBandit linear;
+    private LinearBandit.Model model;
+    private String[] offers;
+    private JSONArray shown;
+    private double[] x;
+    private long uuid = 0;
+
+    @Setup
+    public void setup() {
+        JSONArray features = new JSONArray();
+        JSONObject featuresObj = new JSONObject();
+        for (int i = 1; i < d; i++) {
+            features.put("f" + i);
+            featuresObj.put("f" + i, ThreadLocalRandom.current().nextDouble());
+        }
+        /** Short ttl and a small map, so the impression benchmark also measures the expiry */
+        linear = new LinearBandit(1, 100000, new SimpleMeterRegistry());
+        model = linear.model("benchmark", new JSONObject().put("approach", "linUCB").put("linear", new JSONObject().put("features", features)));
+        x = model.context(featuresObj);
+        offers = new String[arms];
+        for (int i = 0; i < arms; i++) {
+            offers[i] = "offer" + i;
+            model.score(offers[i], x);
+        }
+        shown = new JSONArray().put(new JSONObject().put("offer", offers[0])).put(new JSONObject().put("offer", offers[1]));
+    }
+
+    /**
+     * One request: every offer scored for the customer.
+     */
+    @Benchmark
+    public double scoreAllOffers() {
+        double best = Double.NEGATIVE_INFINITY;
+        for (String offer : offers)
+            best = Math.max(best, model.score(offer, x));
+        return best;
+    }
+
+    /**
+     * Sherman-Morrison update of the offers returned for a uuid, and the expiry of old impressions.
+     */
+    @Benchmark
+    public void impression() {
+        linear.impressions(model, "u" + uuid++, shown, x);
+    }
+
+    @Benchmark
+    public int expire() {
+        return linear.expire(System.currentTimeMillis());
+    }
+
+}
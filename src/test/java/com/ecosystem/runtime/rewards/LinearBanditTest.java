@@ -0,0 +1,64 @@
+package com.ecosystem.runtime.rewards;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import static com.ecosystem.runtime.rewards.ArmStatisticsTest.shown;
+import static com.ecosystem.runtime.rewards.LearnerCheckpointTest.linUCB;
+import static org.junit.jupiter.api.Assertions.*;
+
+class LinearBanditTest {
+
+    static JSONObject accepted(String uuid, String offer) {
+        return new JSONObject().put("uuid", uuid).put("offers_accepted", new JSONArray().put(offer));
+    }
+
+    @Test
+    void impressionsExpireOldestFirst() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        LinearBandit linear = new LinearBandit(10, 100, registry);
+        LinearBandit.Model model = linear.model("linear", linUCB());
+        double[] x = model.context(new JSONObject().put("age", 1));
+
+        linear.impressions(model, "u1", shown("A"), x, 1000);
+        linear.impressions(model, "u2", shown("A"), x, 5000);
+        assertEquals(1, linear.expire(12000));
+        assertEquals(0, linear.expire(12000));
+
+        linear.response(accepted("u1", "A"));
+        assertEquals(1.0, registry.get("ecosystem.linear.bandit.events").tag("type", "unmatched").counter().count());
+        assertEquals(1, linear.expire(16000));
+    }
+
+    @Test
+    void aUuidScoredAgainKeepsItsNewImpression() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        LinearBandit linear = new LinearBandit(10, 100, registry);
+        LinearBandit.Model model = linear.model("linear", linUCB());
+        double[] x = model.context(new JSONObject().put("age", 1));
+
+        long now = System.currentTimeMillis();
+        linear.impressions(model, "u1", shown("A"), x, now - 20000);
+        linear.impressions(model, "u1", shown("A"), x, now);
+        assertEquals(1, linear.expire(now));
+
+        linear.response(accepted("u1", "A"));
+        assertEquals(1.0, registry.get("ecosystem.linear.bandit.events").tag("type", "accepted").counter().count());
+    }
+
+    @Test
+    void aFullMapExpiresBeforeDropping() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        LinearBandit linear = new LinearBandit(10, 1, registry);
+        LinearBandit.Model model = linear.model("linear", linUCB());
+        double[] x = model.context(new JSONObject().put("age", 1));
+
+        linear.impressions(model, "u1", shown("A"), x, 1000);
+        linear.impressions(model, "u2", shown("A"), x, 2000);
+        linear.impressions(model, "u3", shown("A"), x, 12000);
+        assertEquals(1.0, registry.get("ecosystem.linear.bandit.events").tag("type", "dropped").counter().count());
+    }
+
+}
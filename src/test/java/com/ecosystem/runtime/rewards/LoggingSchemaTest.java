@@ -0,0 +1,49 @@
+package com.ecosystem.runtime.rewards;
+
+import org.bson.Document;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoggingSchemaTest {
+
+    static Document offer(String offer, String one) {
+        return new Document("result", new Document("offer", offer).append("contextual_variable_one", one).append("contextual_variable_two", ""));
+    }
+
+    @Test
+    void everyOfferOfTheResultIsShown() throws Exception {
+        LoggingSchema schema = LoggingSchema.of(new JSONObject().put("name", "recommender"));
+        Document contact = new Document("uuid", "u1").append("final_result", List.of(offer("A", "gold"), offer("B", "gold"), offer("C", "gold")));
+
+        List<String[]> shown = schema.shown(contact);
+
+        assertEquals(3, shown.size());
+        assertEquals("C", shown.get(2)[0]);
+        assertEquals("gold", shown.get(2)[1]);
+    }
+
+    @Test
+    void contextOutsideTheResultIsReadFromTheContact() throws Exception {
+        LoggingSchema schema = LoggingSchema.of(new JSONObject().put("name", "recommender")
+                .put("logging_schema", new JSONObject().put("contextual_variable_one", "segment")));
+        Document contact = new Document("segment", "silver").append("final_result", List.of(offer("A", "gold"), offer("B", "gold")));
+
+        List<String[]> shown = schema.shown(contact);
+
+        assertEquals(2, shown.size());
+        assertEquals("silver", shown.get(1)[1]);
+    }
+
+    @Test
+    void contactsAreScopedToTheCorpusCampaign() throws Exception {
+        assertEquals("recommender", LoggingSchema.of(new JSONObject().put("name", "recommender")).getCampaignValue());
+        assertEquals("offers", LoggingSchema.of(new JSONObject().put("name", "recommender")
+                .put("logging_schema", new JSONObject().put("campaign_value", "offers"))).getCampaignValue());
+        assertNull(LoggingSchema.of(new JSONObject()).getCampaignValue());
+    }
+
+}
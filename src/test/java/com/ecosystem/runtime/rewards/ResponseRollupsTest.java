@@ -0,0 +1,78 @@
+package com.ecosystem.runtime.rewards;
+
+import com.ecosystem.runtime.data.ManagedMongoClient;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.WriteModel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseRollupsTest {
+
+    /**
+     * Client whose rollups collection records the bulk writes, counts close() calls.
+     */
+    static MongoClient client(List<WriteModel<Document>> written, AtomicInteger closed) {
+        ClassLoader loader = ResponseRollupsTest.class.getClassLoader();
+        MongoCollection<?> collection = (MongoCollection<?>) Proxy.newProxyInstance(loader, new Class<?>[]{MongoCollection.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("createIndex"))
+                        return "index";
+                    if (!method.getName().equals("bulkWrite"))
+                        throw new UnsupportedOperationException(method.getName());
+                    @SuppressWarnings("unchecked")
+                    List<WriteModel<Document>> updates = (List<WriteModel<Document>>) args[0];
+                    written.addAll(updates);
+                    return BulkWriteResult.acknowledged(0, 0, 0, 0, List.of(), List.of());
+                });
+        MongoDatabase database = (MongoDatabase) Proxy.newProxyInstance(loader, new Class<?>[]{MongoDatabase.class},
+                (proxy, method, args) -> collection);
+        return (MongoClient) Proxy.newProxyInstance(loader, new Class<?>[]{MongoClient.class}, (proxy, method, args) -> {
+            if (method.getName().equals("close")) {
+                closed.incrementAndGet();
+                return null;
+            }
+            return database;
+        });
+    }
+
+    @Test
+    void stopWritesTheLastCountsAndClosesTheClient() throws Exception {
+        List<WriteModel<Document>> written = new ArrayList<>();
+        AtomicInteger closed = new AtomicInteger();
+        MongoClient mongoClient = client(written, closed);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ResponseRollups rollups = new ResponseRollups(new ManagedMongoClient(() -> mongoClient, 1000, registry),
+                LoggingSchema.of(new JSONObject()), registry);
+        rollups.start(3600);
+
+        rollups.prediction("recommender", new JSONArray().put(new JSONObject().put("offer", "A")).put(new JSONObject().put("offer", "B")));
+        rollups.stop();
+
+        assertEquals(2, written.size());
+        assertEquals(1, closed.get());
+    }
+
+    @Test
+    void hoursAreClosedOnceTheirResponsesCanNoLongerArrive() {
+        long hour = 3600000L;
+        long tenOClock = 1000 * hour;
+        /** 10:15: responses of 09:xx are retried until 10:10, with a minute to settle hour 09 is complete */
+        assertEquals(tenOClock, ResponseRollups.closedBefore(tenOClock + 15 * 60000L, 60000L));
+        /** 10:05: responses received before 10:00 can still be resolved */
+        assertEquals(tenOClock - hour, ResponseRollups.closedBefore(tenOClock + 5 * 60000L, 60000L));
+    }
+
+}
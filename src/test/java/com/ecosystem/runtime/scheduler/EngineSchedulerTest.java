@@ -0,0 +1,133 @@
+package com.ecosystem.runtime.scheduler;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EngineSchedulerTest {
+
+    @Test
+    void runsOfTheSameKeyDoNotOverlapButOtherCorporaRun() throws Exception {
+        EngineScheduler scheduler = new EngineScheduler(2, 10000, new SimpleMeterRegistry());
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch other = new CountDownLatch(1);
+
+        assertTrue(scheduler.submit("a:binaryThompson", () -> {
+            release.await();
+            return 1;
+        }));
+        assertFalse(scheduler.submit("a:binaryThompson", () -> 1));
+        assertTrue(scheduler.submit("b:binaryThompson", () -> {
+            other.countDown();
+            return 1;
+        }));
+        assertTrue(other.await(5, TimeUnit.SECONDS));
+        release.countDown();
+        scheduler.shutdown();
+    }
+
+    @Test
+    void timeoutCountsFromTheStartOfTheRun() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        EngineScheduler scheduler = new EngineScheduler(1, 300, registry);
+        CountDownLatch queued = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean();
+
+        /** Holds the only thread for most of the timeout, the queued run must still get its full timeout */
+        scheduler.submit("a:naiveBayes", () -> {
+            Thread.sleep(250);
+            return 1;
+        });
+        scheduler.submit("b:naiveBayes", () -> {
+            try {
+                Thread.sleep(150);
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            }
+            queued.countDown();
+            return 1;
+        });
+        assertTrue(queued.await(5, TimeUnit.SECONDS));
+        assertFalse(interrupted.get());
+        assertEquals(0.0, registry.get("ecosystem.engine.timeouts").tag("engine", "b:naiveBayes").counter().count());
+        scheduler.shutdown();
+    }
+
+    @Test
+    void runOverTheTimeoutIsInterrupted() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        EngineScheduler scheduler = new EngineScheduler(1, 50, registry);
+        CountDownLatch interrupted = new CountDownLatch(1);
+
+        scheduler.submit("a:QLearning", () -> {
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return 1;
+        });
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertEquals(1.0, registry.get("ecosystem.engine.timeouts").tag("engine", "a:QLearning").counter().count());
+        scheduler.shutdown();
+    }
+
+    @Test
+    void cancelAllInterruptsRunsInFlight() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        EngineScheduler scheduler = new EngineScheduler(2, 10000, registry);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+
+        scheduler.submit("a:binaryThompson", () -> {
+            started.countDown();
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return 1;
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertEquals(1, scheduler.cancelAll("no longer leader"));
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertEquals(1.0, registry.get("ecosystem.engine.cancelled").tag("engine", "a:binaryThompson").counter().count());
+        scheduler.shutdown();
+    }
+
+    @Test
+    void cancelledRunsAreNotReportedAsFailures() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        EngineScheduler scheduler = new EngineScheduler(2, 10000, registry);
+        List<String> failed = new CopyOnWriteArrayList<>();
+        scheduler.setFailureListener((engine, e) -> failed.add(engine));
+        CountDownLatch started = new CountDownLatch(1);
+
+        /** The interrupt is not caught, the run ends with an exception */
+        scheduler.submit("a:naiveBayes", () -> {
+            started.countDown();
+            Thread.sleep(5000);
+            return 1;
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertEquals(1, scheduler.cancelAll("no longer leader"));
+        scheduler.submit("b:naiveBayes", () -> {
+            throw new IllegalStateException("engine failed");
+        });
+        while (scheduler.isRunning("a:naiveBayes") || scheduler.isRunning("b:naiveBayes"))
+            Thread.sleep(10);
+
+        assertEquals(List.of("b:naiveBayes"), failed);
+        assertEquals(0.0, registry.get("ecosystem.engine.failures").tag("engine", "a:naiveBayes").counter().count());
+        assertEquals(1.0, registry.get("ecosystem.engine.cancelled").tag("engine", "a:naiveBayes").counter().count());
+        scheduler.shutdown();
+    }
+
+}
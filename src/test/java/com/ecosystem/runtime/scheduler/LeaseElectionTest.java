@@ -0,0 +1,74 @@
+package com.ecosystem.runtime.scheduler;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LeaseElectionTest {
+
+    @Test
+    void onlyOneReplicaLeadsAndTheTokenIncreasesOnTakeOver() throws Exception {
+        InMemoryLeaseStore store = new InMemoryLeaseStore();
+        LeaseElection first = new LeaseElection(store, "dynamic_engines", 60000, new SimpleMeterRegistry());
+        LeaseElection second = new LeaseElection(store, "dynamic_engines", 60000, new SimpleMeterRegistry());
+
+        assertTrue(first.check());
+        assertFalse(second.check());
+        assertEquals(first.getHolder(), second.getLeader());
+
+        first.stop();
+        assertTrue(second.check());
+        assertTrue(second.getToken() > first.getToken());
+    }
+
+    @Test
+    void listenerIsToldWhenTheLeaseExpires() throws Exception {
+        InMemoryLeaseStore store = new InMemoryLeaseStore();
+        LeaseElection first = new LeaseElection(store, "dynamic_engines", 50, new SimpleMeterRegistry());
+        LeaseElection second = new LeaseElection(store, "dynamic_engines", 60000, new SimpleMeterRegistry());
+        List<Boolean> changes = new ArrayList<>();
+        first.setLeadershipListener(changes::add);
+
+        assertTrue(first.check());
+        Thread.sleep(80);
+        assertTrue(second.check());
+        assertFalse(first.isLeader());
+        assertFalse(first.isLeader());
+        assertEquals(List.of(true, false), changes);
+    }
+
+    @Test
+    void demotedLeaderCancelsItsEngineRuns() throws Exception {
+        InMemoryLeaseStore store = new InMemoryLeaseStore();
+        LeaseElection election = new LeaseElection(store, "dynamic_engines", 50, new SimpleMeterRegistry());
+        EngineScheduler scheduler = new EngineScheduler(1, 10000, new SimpleMeterRegistry());
+        election.setLeadershipListener(leader -> {
+            if (!leader) scheduler.cancelAll("no longer leader");
+        });
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+
+        assertTrue(election.check());
+        scheduler.submit("a:binaryThompson", () -> {
+            started.countDown();
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return 1;
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Thread.sleep(80);
+        assertFalse(election.isLeader());
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        scheduler.shutdown();
+    }
+
+}
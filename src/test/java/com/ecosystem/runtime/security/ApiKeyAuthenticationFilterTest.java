@@ -0,0 +1,52 @@
+package com.ecosystem.runtime.security;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ApiKeyAuthenticationFilterTest {
+
+    private static final long NOW = 1_700_000_000L;
+    private static final Clock CLOCK = Clock.fixed(Instant.ofEpochSecond(NOW), ZoneOffset.UTC);
+
+    @Test
+    void acceptsSignedKeyUntilItExpires() {
+        ApiKeyAuthenticationFilter filter = new ApiKeyAuthenticationFilter("secret", "USER", "", CLOCK);
+        assertEquals("client.one", filter.verify(filter.sign("client.one", NOW + 60)));
+        assertNull(filter.verify(filter.sign("client.one", NOW)));
+        assertNull(filter.verify(filter.sign("client.one", NOW - 60)));
+    }
+
+    @Test
+    void rejectsTamperedKeys() {
+        ApiKeyAuthenticationFilter filter = new ApiKeyAuthenticationFilter("secret", "USER", null, CLOCK);
+        ApiKeyAuthenticationFilter other = new ApiKeyAuthenticationFilter("other", "USER", null, CLOCK);
+        String key = filter.sign("client", NOW + 60);
+        String signature = key.substring(key.lastIndexOf('.'));
+
+        assertNull(filter.verify(other.sign("client", NOW + 60)));
+        assertNull(filter.verify("admin." + (NOW + 60) + signature));
+        assertNull(filter.verify("client." + (NOW + 6000) + signature));
+        assertNull(filter.verify("client" + signature));
+        assertNull(filter.verify("client.soon" + signature));
+        assertNull(filter.verify("client." + (NOW + 60) + ".!!"));
+        assertNull(filter.verify(key + "."));
+    }
+
+    @Test
+    void rejectsRevokedClientsAndKeys() {
+        ApiKeyAuthenticationFilter signer = new ApiKeyAuthenticationFilter("secret", "USER", null, CLOCK);
+        String leaked = signer.sign("partner", NOW + 60);
+        String current = signer.sign("partner", NOW + 120);
+
+        ApiKeyAuthenticationFilter filter = new ApiKeyAuthenticationFilter("secret", "USER", " gone ," + leaked, CLOCK);
+        assertNull(filter.verify(leaked));
+        assertEquals("partner", filter.verify(current));
+        assertNull(filter.verify(signer.sign("gone", NOW + 60)));
+    }
+
+}
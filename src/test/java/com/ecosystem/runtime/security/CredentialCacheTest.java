@@ -0,0 +1,38 @@
+package com.ecosystem.runtime.security;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CredentialCacheTest {
+
+    @Test
+    void digestDependsOnUserAndPassword() {
+        assertEquals(CredentialCache.digest("user", "pass"), CredentialCache.digest("user", "pass"));
+        assertNotEquals(CredentialCache.digest("user", "pass"), CredentialCache.digest("user", "pas"));
+        assertNotEquals(CredentialCache.digest("ab", "c"), CredentialCache.digest("a", "bc"));
+    }
+
+    @Test
+    void returnsCachedAuthenticationAndBoundsSize() {
+        CredentialCache cache = new CredentialCache(2, 60);
+        Authentication authentication = UsernamePasswordAuthenticationToken.authenticated("user", null, List.of());
+        String digest = CredentialCache.digest("user", "pass");
+        assertNull(cache.get(digest));
+        cache.put(digest, authentication);
+        assertSame(authentication, cache.get(digest));
+
+        cache.put(CredentialCache.digest("b", "b"), authentication);
+        cache.put(CredentialCache.digest("c", "c"), authentication);
+        assertTrue(cache.size() <= 2);
+
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+        assertNull(cache.get(digest));
+    }
+
+}
@@ -0,0 +1,53 @@
+package com.ecosystem.runtime.security;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IpAllowListTest {
+
+    @Test
+    void matchesCidrRangesAndSingleAddresses() {
+        IpAllowList allowList = IpAllowList.fromString("10.0.0.0/8, 192.168.1.17, 2001:db8::/32");
+        assertEquals(3, allowList.size());
+        assertTrue(allowList.contains("10.200.3.4"));
+        assertTrue(allowList.contains("192.168.1.17"));
+        assertFalse(allowList.contains("192.168.1.18"));
+        assertFalse(allowList.contains("11.0.0.1"));
+        assertTrue(allowList.contains("2001:db8:0:1::5"));
+        assertFalse(allowList.contains("2001:db9::1"));
+    }
+
+    @Test
+    void emptyListMatchesNothing() {
+        IpAllowList allowList = IpAllowList.fromString("");
+        assertTrue(allowList.isEmpty());
+        assertFalse(allowList.contains("127.0.0.1"));
+    }
+
+    @Test
+    void hostNamesAreRejectedAndNeverResolved() {
+        IpAllowList allowList = new IpAllowList();
+        assertFalse(allowList.add("localhost"));
+        assertFalse(allowList.add("1.example.com"));
+        assertFalse(allowList.add("10.0.0.0/33"));
+        assertTrue(allowList.isEmpty());
+
+        allowList.add("0.0.0.0/0");
+        assertFalse(allowList.contains("1e100.net"));
+        assertFalse(allowList.contains("127.1"));
+        assertFalse(allowList.contains("1.2.3.4.5"));
+        assertFalse(allowList.contains("256.1.1.1"));
+        assertTrue(allowList.contains("1.2.3.4"));
+    }
+
+    @Test
+    void literalParsesDottedQuads() {
+        assertArrayEquals(new byte[]{10, 0, 0, (byte) 255}, IpAllowList.literal("10.0.0.255"));
+        assertNull(IpAllowList.literal("10..0.1"));
+        assertNull(IpAllowList.literal("10.0.0."));
+        assertNull(IpAllowList.literal(null));
+        assertEquals(16, IpAllowList.literal("::1").length);
+    }
+
+}
@@ -0,0 +1,33 @@
+package com.ecosystem.runtime.settings;
+
+import org.bson.Document;
+import org.json.JSONArray;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CorporaVersionTest {
+
+    @Test
+    void digestChangesWithTheDocuments() {
+        Document config = new Document("_id", 1).append("uuid", "a").append("randomisation", new Document("approach", "binaryThompson"));
+        String version = CorporaVersion.digest(List.of(config));
+
+        assertEquals(version, CorporaVersion.digest(List.of(Document.parse(config.toJson()))));
+        config.get("randomisation", Document.class).put("approach", "epsilonGreedy");
+        assertNotEquals(version, CorporaVersion.digest(List.of(config)));
+        assertNotEquals(version, CorporaVersion.digest(List.of()));
+    }
+
+    @Test
+    void noCorporaIsNotQueried() {
+        CorporaVersion version = new CorporaVersion(() -> {
+            throw new AssertionError("queried without corpora");
+        }, "ecosystem_meta", "dynamic_engagement", JSONArray::new);
+
+        assertEquals("", version.get());
+    }
+
+}
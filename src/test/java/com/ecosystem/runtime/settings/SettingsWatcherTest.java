@@ -0,0 +1,103 @@
+package com.ecosystem.runtime.settings;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SettingsWatcherTest {
+
+    private Path directory;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("settings-watcher");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    SettingsWatcher watcher(Path file) {
+        return new SettingsWatcher(List.of(file), null, () -> null);
+    }
+
+    static void write(Path file, String content) throws Exception {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void unchangedFilesAndCommentsPublishNothing() throws Exception {
+        Path file = directory.resolve("ecosystem.properties");
+        write(file, "predictor.epsilon=0.05\n");
+        SettingsWatcher watcher = watcher(file);
+        List<SettingsWatcher.Change> changes = new ArrayList<>();
+        watcher.addListener(changes::add);
+
+        assertTrue(watcher.check().isEmpty());
+        write(file, "# comment\npredictor.epsilon=0.05\n");
+        assertTrue(watcher.check().isEmpty());
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    void sectionsOfChangedPropertiesArePublished() throws Exception {
+        Path file = directory.resolve("ecosystem.properties");
+        write(file, "predictor.epsilon=0.05\npredictor.corpora=[]\n");
+        SettingsWatcher watcher = watcher(file);
+
+        write(file, "predictor.epsilon=0.1\npredictor.corpora=[]\n");
+        assertEquals(Set.of(SettingsWatcher.Section.OTHER), watcher.check());
+        write(file, "predictor.epsilon=0.1\npredictor.corpora=[{name:'a'}]\n");
+        assertEquals(Set.of(SettingsWatcher.Section.CORPORA), watcher.check());
+        write(file, "predictor.epsilon=0.1\npredictor.corpora=[{name:'a'}]\nmojo.key=offer.zip\npredictor.param.lookup={}\n");
+        assertEquals(Set.of(SettingsWatcher.Section.MODELS, SettingsWatcher.Section.LOOKUP), watcher.check());
+    }
+
+    @Test
+    void corporaChangedOutsideTheFilesArePublished() throws Exception {
+        Path file = directory.resolve("ecosystem.properties");
+        write(file, "predictor.epsilon=0.05\n");
+        SettingsWatcher watcher = watcher(file);
+        AtomicReference<String> corpora = new AtomicReference<>("[{\"name\":\"a\",\"randomisation\":{\"approach\":\"binaryThompson\"}}]");
+        watcher.setCorporaVersion(corpora::get);
+
+        assertTrue(watcher.check().isEmpty());
+        corpora.set("[{\"name\":\"a\",\"randomisation\":{\"approach\":\"epsilonGreedy\"}}]");
+        assertEquals(Set.of(SettingsWatcher.Section.CORPORA), watcher.check());
+        assertTrue(watcher.check().isEmpty());
+    }
+
+    @Test
+    void unreadableCorporaAreComparedOnTheNextCheck() throws Exception {
+        Path file = directory.resolve("ecosystem.properties");
+        write(file, "predictor.epsilon=0.05\n");
+        SettingsWatcher watcher = watcher(file);
+        AtomicReference<String> corpora = new AtomicReference<>("[]");
+        watcher.setCorporaVersion(() -> {
+            if (corpora.get() == null) throw new IllegalStateException("mongo down");
+            return corpora.get();
+        });
+
+        corpora.set(null);
+        assertTrue(watcher.check().isEmpty());
+        corpora.set("[{\"name\":\"b\"}]");
+        assertEquals(Set.of(SettingsWatcher.Section.CORPORA), watcher.check());
+    }
+
+}
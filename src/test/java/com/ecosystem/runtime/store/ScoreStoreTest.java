@@ -0,0 +1,95 @@
+package com.ecosystem.runtime.store;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScoreStoreTest {
+
+    private Path directory;
+    private Path path;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("score-store");
+        path = directory.resolve("scores.table");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    void lookupsMissUntilTheTableIsMapped() throws IOException {
+        write("OFFER_A", 1000);
+        ScoreStore store = new ScoreStore(path.toString(), 60, new SimpleMeterRegistry());
+        assertNull(store.lookup("1"));
+        assertTrue(store.refresh());
+        assertEquals("OFFER_A", store.lookup("1").offer(0));
+    }
+
+    @Test
+    void changedTableIsSwappedAndUnchangedKept() throws IOException {
+        write("OFFER_A", 1000);
+        ScoreStore store = new ScoreStore(path.toString(), 60, new SimpleMeterRegistry());
+        assertTrue(store.refresh());
+        ScoreTable first = store.getTable();
+        assertFalse(store.refresh());
+        assertSame(first, store.getTable());
+
+        write("OFFER_B", 2000);
+        assertEquals("OFFER_A", store.lookup("1").offer(0));
+        assertTrue(store.refresh());
+        assertEquals("OFFER_B", store.lookup("1").offer(0));
+    }
+
+    @Test
+    void brokenTableKeepsTheCurrentOne() throws IOException {
+        write("OFFER_A", 1000);
+        ScoreStore store = new ScoreStore(path.toString(), 60, new SimpleMeterRegistry());
+        assertTrue(store.refresh());
+        /** Replaced like the writer does, the mapped file itself is never modified in place */
+        Path broken = Files.write(directory.resolve("broken.table"), new byte[]{1, 2, 3});
+        Files.move(broken, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.setLastModifiedTime(path, FileTime.fromMillis(3000));
+        assertFalse(store.refresh());
+        assertEquals("OFFER_A", store.lookup("1").offer(0));
+    }
+
+    @Test
+    void startMapsTheTableInTheBackground() throws Exception {
+        write("OFFER_A", 1000);
+        ScoreStore store = new ScoreStore(path.toString(), 60, new SimpleMeterRegistry());
+        store.start();
+        try {
+            for (int i = 0; i < 100 && store.getTable() == null; i++)
+                Thread.sleep(20);
+            assertNotNull(store.lookup("1"));
+        } finally {
+            store.stop();
+        }
+    }
+
+    private void write(String offer, long modified) throws IOException {
+        try (ScoreTableWriter writer = new ScoreTableWriter(path.toString())) {
+            writer.add("1", new String[]{offer}, new float[]{0.5f});
+            writer.commit();
+        }
+        Files.setLastModifiedTime(path, FileTime.fromMillis(modified));
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.ecosystem.runtime.store;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScoreTableTest {
+
+    private Path directory;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("score-table");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    void scoresAreReadBackByCustomer() throws IOException {
+        Path path = directory.resolve("scores.table");
+        try (ScoreTableWriter writer = new ScoreTableWriter(path.toString())) {
+            for (int i = 0; i < 1000; i++)
+                writer.add("customer" + i, new String[]{"OFFER_A", "OFFER_" + (i % 7)}, new float[]{i, i / 2.0f});
+            writer.commit();
+            assertEquals(1000, writer.size());
+        }
+        ScoreTable table = ScoreTable.open(path);
+        assertEquals(1000, table.size());
+        ScoreTable.Scores scores = table.get("customer321");
+        assertEquals(2, scores.size());
+        assertEquals("OFFER_A", scores.offer(0));
+        assertEquals(321.0f, scores.score(0));
+        assertEquals("OFFER_" + (321 % 7), scores.offer(1));
+        assertNull(table.get("customer1000"));
+        assertFalse(Files.exists(directory.resolve("scores.table.tmp")));
+    }
+
+    @Test
+    void duplicateCustomersKeepTheLastScores() throws IOException {
+        Path path = directory.resolve("scores.table");
+        try (ScoreTableWriter writer = new ScoreTableWriter(path.toString())) {
+            writer.add("1", new String[]{"OFFER_A"}, new float[]{0.1f});
+            writer.add("2", new String[]{"OFFER_A"}, new float[]{0.2f});
+            writer.add("1", new String[]{"OFFER_B"}, new float[]{0.3f});
+            writer.add("1", new String[]{"OFFER_C"}, new float[]{0.4f});
+            writer.commit();
+            assertEquals(2, writer.duplicates());
+            assertEquals(2, writer.size());
+        }
+        ScoreTable table = ScoreTable.open(path);
+        assertEquals(2, table.size());
+        assertEquals("OFFER_C", table.get("1").offer(0));
+        assertEquals(0.2f, table.get("2").score(0));
+    }
+
+    @Test
+    void closeWithoutCommitDiscardsTheTable() throws IOException {
+        Path path = directory.resolve("scores.table");
+        try (ScoreTableWriter writer = new ScoreTableWriter(path.toString())) {
+            writer.add("1", new String[]{"OFFER_A"}, new float[]{0.1f});
+        }
+        assertFalse(Files.exists(path));
+        assertFalse(Files.exists(directory.resolve("scores.table.tmp")));
+    }
+
+}
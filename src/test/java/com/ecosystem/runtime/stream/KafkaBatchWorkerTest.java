@@ -0,0 +1,153 @@
+package com.ecosystem.runtime.stream;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KafkaBatchWorkerTest {
+
+    static final String TOPIC = "events";
+    static final TopicPartition PARTITION = new TopicPartition(TOPIC, 0);
+
+    /**
+     * Records the values of each batch, the first failures batches throw.
+     */
+    static class RecordingWorker extends KafkaBatchWorker {
+        final List<List<String>> batches = new CopyOnWriteArrayList<>();
+        final AtomicInteger failures;
+
+        RecordingWorker(MockConsumer<String, String> consumer, int maxBatchSize, long maxLatencyMillis, int failures) {
+            super("test", consumer, TOPIC, maxBatchSize, maxLatencyMillis, new SimpleMeterRegistry());
+            this.failures = new AtomicInteger(failures);
+        }
+
+        @Override
+        protected void process(List<ConsumerRecord<String, String>> batch) throws Exception {
+            List<String> values = new ArrayList<>();
+            for (ConsumerRecord<String, String> record : batch)
+                values.add(record.value());
+            batches.add(values);
+            if (failures.getAndDecrement() > 0)
+                throw new IllegalStateException("failed on purpose");
+        }
+    }
+
+    /**
+     * MockConsumer that keeps the committed offset readable after it is closed.
+     */
+    static class TestConsumer extends MockConsumer<String, String> {
+        final AtomicLong committed = new AtomicLong(-1);
+
+        TestConsumer() {
+            super(OffsetResetStrategy.EARLIEST);
+        }
+
+        @Override
+        public synchronized void commitSync(Map<TopicPartition, OffsetAndMetadata> offsets) {
+            super.commitSync(offsets);
+            OffsetAndMetadata offset = offsets.get(PARTITION);
+            if (offset != null) committed.set(offset.offset());
+        }
+    }
+
+    /**
+     * Consumer assigned to PARTITION on the first poll, with the values as records from offset 0.
+     */
+    static MockConsumer<String, String> consumer(String... values) {
+        MockConsumer<String, String> consumer = new TestConsumer();
+        consumer.schedulePollTask(() -> {
+            consumer.rebalance(List.of(PARTITION));
+            consumer.updateBeginningOffsets(Map.of(PARTITION, 0L));
+            consumer.updateEndOffsets(Map.of(PARTITION, (long) values.length));
+            for (int i = 0; i < values.length; i++)
+                consumer.addRecord(new ConsumerRecord<>(TOPIC, 0, i, "key" + i, values[i]));
+        });
+        return consumer;
+    }
+
+    static void redeliver(MockConsumer<String, String> consumer, String... values) {
+        consumer.schedulePollTask(() -> {
+            for (int i = 0; i < values.length; i++)
+                consumer.addRecord(new ConsumerRecord<>(TOPIC, 0, i, "key" + i, values[i]));
+        });
+    }
+
+    static long committed(MockConsumer<String, String> consumer) {
+        return ((TestConsumer) consumer).committed.get();
+    }
+
+    static void await(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 500 && !condition.getAsBoolean(); i++)
+            Thread.sleep(10);
+        assertTrue(condition.getAsBoolean(), "condition not met in time");
+    }
+
+    @Test
+    void fullBatchesAreProcessedAndCommitted() throws Exception {
+        MockConsumer<String, String> consumer = consumer("a", "b", "c", "d");
+        RecordingWorker worker = new RecordingWorker(consumer, 4, 60000, 0);
+        worker.start();
+        await(() -> committed(consumer) == 4);
+        worker.stop();
+
+        assertEquals(List.of(List.of("a", "b", "c", "d")), worker.batches);
+        assertFalse(worker.isRunning());
+        assertTrue(consumer.closed());
+    }
+
+    @Test
+    void partialBatchIsProcessedAfterTheLatency() throws Exception {
+        MockConsumer<String, String> consumer = consumer("a", "b");
+        RecordingWorker worker = new RecordingWorker(consumer, 100, 50, 0);
+        worker.start();
+        await(() -> committed(consumer) == 2);
+        worker.stop();
+        assertEquals(List.of(List.of("a", "b")), worker.batches);
+    }
+
+    @Test
+    void failedBatchIsRewoundAndRetried() throws Exception {
+        MockConsumer<String, String> consumer = consumer("a", "b", "c");
+        RecordingWorker worker = new RecordingWorker(consumer, 3, 60000, 1);
+        worker.start();
+        await(() -> worker.batches.size() == 1);
+        await(() -> consumer.position(PARTITION) == 0);
+        assertEquals(-1, committed(consumer));
+
+        /** A broker delivers again from the rewound position, MockConsumer needs the records added again */
+        redeliver(consumer, "a", "b", "c");
+        await(() -> committed(consumer) == 3);
+        worker.stop();
+
+        assertEquals(2, worker.batches.size());
+        assertEquals(worker.batches.get(0), worker.batches.get(1));
+    }
+
+    @Test
+    void pendingRecordsAreProcessedOnStop() throws Exception {
+        MockConsumer<String, String> consumer = consumer("a");
+        RecordingWorker worker = new RecordingWorker(consumer, 100, 60000, 0);
+        worker.start();
+        await(() -> consumer.assignment().contains(PARTITION) && consumer.position(PARTITION) == 1);
+        assertTrue(worker.batches.isEmpty());
+        worker.stop();
+
+        assertEquals(List.of(List.of("a")), worker.batches);
+        assertEquals(1, committed(consumer));
+    }
+
+}
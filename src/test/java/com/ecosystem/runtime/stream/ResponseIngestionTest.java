@@ -0,0 +1,204 @@
+package com.ecosystem.runtime.stream;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.MongoSocketException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoCollection;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+import static com.ecosystem.runtime.stream.KafkaBatchWorkerTest.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseIngestionTest {
+
+    /**
+     * Response log that records every insertMany and runs the failure, if any, on the inserted documents.
+     */
+    static class Responses {
+        final List<List<Document>> inserts = new ArrayList<>();
+        Consumer<List<Document>> failure = documents -> { };
+
+        @SuppressWarnings("unchecked")
+        MongoCollection<Document> collection() {
+            return (MongoCollection<Document>) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[]{MongoCollection.class}, (proxy, method, args) -> {
+                        if (!method.getName().equals("insertMany"))
+                            throw new UnsupportedOperationException(method.getName());
+                        List<Document> documents = new ArrayList<>((List<Document>) args[0]);
+                        inserts.add(documents);
+                        Consumer<List<Document>> fail = failure;
+                        failure = d -> { };
+                        fail.accept(documents);
+                        return null;
+                    });
+        }
+    }
+
+    static MongoBulkWriteException writeErrors(int code, int... indexes) {
+        List<BulkWriteError> errors = new ArrayList<>();
+        for (int index : indexes)
+            errors.add(new BulkWriteError(code, "code " + code, new BsonDocument(), index));
+        return new MongoBulkWriteException(BulkWriteResult.unacknowledged(), errors, null, new ServerAddress(), Set.of());
+    }
+
+    static ResponseIngestion bulk(Responses responses, MockProducer<String, String> deadLetter, SimpleMeterRegistry registry) {
+        MongoCollection<Document> collection = responses.collection();
+        return new ResponseIngestion(new MockConsumer<>(OffsetResetStrategy.EARLIEST), deadLetter, TOPIC, true,
+                "responses-dead", 10, 20, 2, registry) {
+            @Override
+            MongoCollection<Document> responses() {
+                return collection;
+            }
+        };
+    }
+
+    static List<ConsumerRecord<String, String>> batch(String... values) {
+        List<ConsumerRecord<String, String>> batch = new ArrayList<>();
+        for (int i = 0; i < values.length; i++)
+            batch.add(new ConsumerRecord<>(TOPIC, 0, i, "key" + i, values[i]));
+        return batch;
+    }
+
+    static String event(String uuid) {
+        return new JSONObject().put("uuid", uuid).put("offers_accepted", List.of(new JSONObject().put("offer_name", "OFFER_A"))).toString();
+    }
+
+    static double rejected(SimpleMeterRegistry registry, String reason) {
+        return registry.get("ecosystem.stream.rejected").tag("reason", reason).counter().count();
+    }
+
+    @Test
+    void batchIsOneBulkInsertAndInvalidEventsAreSkipped() throws Exception {
+        Responses responses = new Responses();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ResponseIngestion ingestion = bulk(responses, null, registry);
+
+        ingestion.process(batch(event("a"), "not json", "{\"offers_accepted\":[]}", event("b")));
+
+        assertEquals(1, responses.inserts.size());
+        assertEquals(2, responses.inserts.get(0).size());
+        assertEquals("a", responses.inserts.get(0).get(0).getString("uuid"));
+        assertNotNull(responses.inserts.get(0).get(0).getObjectId("_id"));
+        assertEquals(2.0, rejected(registry, "invalid"));
+        assertEquals(2.0, registry.get("ecosystem.stream.responses").tag("result", "persisted").counter().count());
+    }
+
+    @Test
+    void permanentWriteErrorIsDeadLetteredWithoutRetry() throws Exception {
+        Responses responses = new Responses();
+        responses.failure = documents -> { throw writeErrors(121, 1); };
+        MockProducer<String, String> deadLetter = new MockProducer<>(true, new StringSerializer(), new StringSerializer());
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ResponseIngestion ingestion = bulk(responses, deadLetter, registry);
+
+        ingestion.process(batch(event("a"), event("b"), event("c")));
+
+        List<ProducerRecord<String, String>> sent = deadLetter.history();
+        assertEquals(1, sent.size());
+        assertEquals("responses-dead", sent.get(0).topic());
+        assertEquals("b", new JSONObject(sent.get(0).value()).getString("uuid"));
+        assertEquals(TOPIC + "-0@1", new String(sent.get(0).headers().lastHeader("source").value(), StandardCharsets.UTF_8));
+        assertEquals(1.0, rejected(registry, "permanent"));
+        assertEquals(1, responses.inserts.size());
+    }
+
+    @Test
+    void transientWriteErrorRetriesOnlyEventsNotPersisted() throws Exception {
+        Responses responses = new Responses();
+        responses.failure = documents -> { throw writeErrors(6, 0); };
+        ResponseIngestion ingestion = bulk(responses, null, new SimpleMeterRegistry());
+        List<ConsumerRecord<String, String>> batch = batch(event("a"), event("b"));
+
+        assertThrows(IOException.class, () -> ingestion.process(batch));
+        ingestion.process(batch);
+
+        assertEquals(2, responses.inserts.size());
+        List<Document> retry = responses.inserts.get(1);
+        assertEquals(1, retry.size());
+        assertEquals("a", retry.get(0).getString("uuid"));
+        assertEquals(responses.inserts.get(0).get(0).getObjectId("_id"), retry.get(0).getObjectId("_id"));
+    }
+
+    @Test
+    void unacknowledgedInsertIsADuplicateOnRetry() throws Exception {
+        Responses responses = new Responses();
+        responses.failure = documents -> { throw new MongoSocketException("connection reset", new ServerAddress()); };
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ResponseIngestion ingestion = bulk(responses, null, registry);
+        List<ConsumerRecord<String, String>> batch = batch(event("a"), event("b"));
+
+        assertThrows(IOException.class, () -> ingestion.process(batch));
+        responses.failure = documents -> { throw writeErrors(11000, 0, 1); };
+        ingestion.process(batch);
+
+        assertEquals(responses.inserts.get(0).get(1).getObjectId("_id"), responses.inserts.get(1).get(1).getObjectId("_id"));
+        assertEquals(2.0, registry.get("ecosystem.stream.responses").tag("result", "duplicate").counter().count());
+        assertEquals(0.0, registry.get("ecosystem.stream.responses").tag("result", "persisted").counter().count());
+    }
+
+    @Test
+    void engineModeSkipsRejectedEventsAndRetriesOnlyTransientFailures() throws Exception {
+        List<String> responded = new ArrayList<>();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ResponseIngestion ingestion = new ResponseIngestion(new MockConsumer<>(OffsetResetStrategy.EARLIEST), null, TOPIC, false,
+                "", 10, 20, 2, registry) {
+            boolean slow = true;
+
+            @Override
+            JSONObject respond(JSONObject document) throws Exception {
+                String uuid = document.getString("uuid");
+                synchronized (responded) {
+                    responded.add(uuid);
+                }
+                if (uuid.equals("unknown"))
+                    throw new IllegalStateException("No prediction for uuid");
+                if (uuid.equals("slow") && slow) {
+                    slow = false;
+                    throw new TimeoutException("mongo");
+                }
+                return new JSONObject();
+            }
+        };
+        List<ConsumerRecord<String, String>> batch = batch(event("a"), event("unknown"), event("slow"));
+
+        assertThrows(IOException.class, () -> ingestion.process(batch));
+        ingestion.process(batch);
+
+        assertEquals(4, responded.size());
+        assertEquals("slow", responded.get(3));
+        assertEquals(1.0, rejected(registry, "permanent"));
+        ingestion.shutdown();
+    }
+
+    @Test
+    void mongoAndNetworkFailuresAreTransient() {
+        assertFalse(ResponseIngestion.isPermanent(new MongoSocketException("down", new ServerAddress())));
+        assertFalse(ResponseIngestion.isPermanent(new RuntimeException(new IOException("reset"))));
+        assertFalse(ResponseIngestion.isPermanent(new MongoException(6, "host unreachable")));
+        assertTrue(ResponseIngestion.isPermanent(new MongoException(121, "validation")));
+        assertTrue(ResponseIngestion.isPermanent(new IllegalStateException("No prediction for uuid")));
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.ecosystem.runtime.stream;
+
+import com.ecosystem.runtime.ScoringRequest;
+import com.ecosystem.runtime.ScoringResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static com.ecosystem.runtime.stream.KafkaBatchWorkerTest.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamScoringTest {
+
+    static StreamScoring scoring(MockConsumer<String, String> consumer, MockProducer<String, String> producer) {
+        return new StreamScoring(consumer, producer, TOPIC, "results", 10, 20, 2, new SimpleMeterRegistry()) {
+            @Override
+            ScoringResult score(ScoringRequest request) {
+                return new ScoringResult(new JSONObject().put("customer", request.getCustomer()).put("campaign", request.getCampaign()));
+            }
+
+            @Override
+            String defaultCampaign() {
+                return "deployment";
+            }
+        };
+    }
+
+    @Test
+    void resultsAreProducedWithTheRequestKeyBeforeCommit() throws Exception {
+        MockConsumer<String, String> consumer = consumer("{\"customer\":\"1\"}", "{\"customer\":\"2\",\"campaign\":\"other\"}");
+        MockProducer<String, String> producer = new MockProducer<>(true, new StringSerializer(), new StringSerializer());
+        StreamScoring scoring = scoring(consumer, producer);
+        scoring.start();
+        await(() -> committed(consumer) == 2);
+        scoring.shutdown();
+
+        List<ProducerRecord<String, String>> sent = producer.history();
+        assertEquals(2, sent.size());
+        assertEquals("results", sent.get(0).topic());
+        assertEquals("key0", sent.get(0).key());
+        assertEquals("deployment", new JSONObject(sent.get(0).value()).getString("campaign"));
+        assertEquals("other", new JSONObject(sent.get(1).value()).getString("campaign"));
+        assertTrue(producer.closed());
+    }
+
+    @Test
+    void invalidRequestsAreProducedAsErrors() throws Exception {
+        MockConsumer<String, String> consumer = consumer("not json");
+        MockProducer<String, String> producer = new MockProducer<>(true, new StringSerializer(), new StringSerializer());
+        StreamScoring scoring = scoring(consumer, producer);
+        scoring.start();
+        await(() -> committed(consumer) == 1);
+        scoring.shutdown();
+
+        JSONObject error = new JSONObject(producer.history().get(0).value());
+        assertTrue(error.has("ErrorMessage"));
+        assertEquals(0, error.getLong("offset"));
+    }
+
+    @Test
+    void failedSendIsNotCommitted() throws Exception {
+        MockConsumer<String, String> consumer = consumer("{\"customer\":\"1\"}");
+        MockProducer<String, String> producer = new MockProducer<>(false, new StringSerializer(), new StringSerializer());
+        StreamScoring scoring = scoring(consumer, producer);
+        scoring.start();
+        await(() -> producer.history().size() == 1);
+        producer.errorNext(new RuntimeException("broker down"));
+        await(() -> consumer.position(PARTITION) == 0);
+        redeliver(consumer, "{\"customer\":\"1\"}");
+        await(() -> producer.history().size() == 2);
+        assertEquals(-1, committed(consumer));
+        producer.completeNext();
+        await(() -> committed(consumer) == 1);
+        scoring.shutdown();
+    }
+
+}